@@ -1,10 +1,101 @@
 package com.github.luisjaco;
 
 import com.github.luisjaco.tools.Menu;
+import com.github.luisjaco.tools.server.Profiling;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 public class Main {
+    //Session typed in by --train: open a new embedded database with sample data, view services, properties, and clients, then exit.
+    private static final String TRAINING_SESSION = """
+            2
+            %s
+            2
+            0
+            4
+            1
+            10
+            0
+            2
+            3
+            2
+            -1
+            2
+            1
+            2
+            -1
+            0
+            """;
+
     public static void main(String[] args) {
+        //--train folder runs a scripted session, used by the build to record the classes loaded at startup for class-data sharing.
+        if (args.length == 2 && args[0].equals("--train")) {
+            train(Path.of(args[1]));
+            return;
+        }
+        //--record [folder] keeps a flight recording of the session, written to the folder on exit.
+        for (int i = 0; i < args.length; i++){
+            if (!args[i].equals("--record")) continue;
+            boolean hasFolder = (i + 1 < args.length && !args[i + 1].startsWith("--"));
+            Profiling.startRecording(Path.of(hasFolder ? args[i + 1] : "recordings"));
+        }
         Menu menu = new Menu();
+        //--shards path,path,... uses a sharded store with one embedded database file per shard.
+        for (int i = 0; i < args.length - 1; i++){
+            if (!args[i].equals("--shards")) continue;
+            menu.startEmbeddedSharded(args[i + 1].split(","));
+            return;
+        }
         menu.start();
     }
+
+    /**
+     * Runs the training session against a new embedded database in the folder.
+     * @param folder Folder of the training database. A database left by an earlier training run is replaced.
+     */
+    private static void train(Path folder){
+        Path database = folder.resolve("training").toAbsolutePath();
+        try {
+            Files.createDirectories(folder);
+            Files.deleteIfExists(folder.resolve("training.mv.db"));
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to prepare the training database:\n" + e);
+            return;
+        }
+        System.setIn(new TypedInput(TRAINING_SESSION.formatted(database)));
+        new Menu().start();
+    }
+
+    /**
+     * Input which hands out one line per read, as a user typing would. Menus and the server each read through their own
+     * Scanner, so a Scanner must not buffer lines meant for another.
+     */
+    private static class TypedInput extends InputStream {
+        private final byte[] bytes;
+        private int position;
+
+        private TypedInput(String text){
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int read(){
+            return (position < bytes.length) ? bytes[position++] : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len){
+            if (position >= bytes.length) return -1;
+            int end = position;
+            while (end < bytes.length && end - position < len && bytes[end++] != '\n');
+            int count = end - position;
+            System.arraycopy(bytes, position, b, off, count);
+            position = end;
+            return count;
+        }
+    }
 }
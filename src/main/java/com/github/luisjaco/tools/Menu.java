@@ -1,18 +1,51 @@
 package com.github.luisjaco.tools;
 
+import com.github.luisjaco.tools.server.BulkJobs;
+import com.github.luisjaco.tools.server.Cards;
+import com.github.luisjaco.tools.server.DataGenerator;
+import com.github.luisjaco.tools.server.DeltaExporter;
+import com.github.luisjaco.tools.server.DuplicateFinder;
+import com.github.luisjaco.tools.server.InvoiceGenerator;
+import com.github.luisjaco.tools.server.LoadDriver;
+import com.github.luisjaco.tools.server.MemoryEngine;
 import com.github.luisjaco.tools.server.MowDataDB;
+import com.github.luisjaco.tools.server.MowDataStore;
+import com.github.luisjaco.tools.server.OnboardingProperty;
+import com.github.luisjaco.tools.server.PagePrefetcher;
+import com.github.luisjaco.tools.server.PriceBook;
+import com.github.luisjaco.tools.server.Profiling;
+import com.github.luisjaco.tools.server.QueryPlanChecker;
 import com.github.luisjaco.tools.server.Server;
+import com.github.luisjaco.tools.server.TableHealth;
+import com.github.luisjaco.tools.server.ZipCodes;
 
+import java.nio.file.Path;
 import java.time.DateTimeException;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 /**
  * The tools.Menu class will handle all the user menus and program functions.
  */
 public class Menu {
     private Scanner input;
     private Server server;
-    private MowDataDB database;
+    private MowDataStore database;
+    //Opens the database on the first action which needs it, so the main menu is shown without waiting on the database.
+    private Supplier<MowDataStore> pendingDatabase;
+    //Runs bulk jobs in the background. Created on first use.
+    private BulkJobs bulkJobs;
+    //Pages a paged view may show, so the view can be limited.
+    private final static int MAX_PAGES = 100;
+    //Names of the services, in the order of servicesDone.
+    private final static String[] SERVICE_NAMES = {"mow", "leaf blow", "seed", "fertilizer", "mulch", "tree removal",
+            "tree trim", "power wash", "snow plow"};
     private final static String mowdata = """
             ,---.    ,---.     ,-----.     .--.      .--.  ______         ____     ,---------.     ____
             |    \\  /    |   .'  .-,  '.   |  |_     |  | |    _`''.   .'  __ `.\\ |          |  .'  __ `.
@@ -28,7 +61,8 @@ public class Menu {
      * Creates a new Menu instance. Use the start() method to begin menu loop.
      */
     public Menu(){
-        //Does nothing.
+        //Terminal output and input wait are counted for each action, so streams are wrapped before any Scanner is opened.
+        Profiling.install();
     }
 
     /**
@@ -37,6 +71,8 @@ public class Menu {
     public void start(){
         this.input = new Scanner(System.in);
         int choice;
+        //The drivers load while the user picks where to connect.
+        Server.preloadDrivers();
         System.out.println(mowdata);
 
         //Prompt user to connect to server.
@@ -45,12 +81,34 @@ public class Menu {
         [!] This program is designed to be used with a locally hosted PostgreSQL server.
         
         What would you like to do?:
+        [3] Use in-memory storage (no database required).
+        [2] Use embedded database (no server required).
         [1] Connect to server.
         [0] Exit.
         
         input:""");
-        choice = collectInt(0,1);
+        choice = collectInt(0,3);
         switch (choice){
+            case 3 -> {
+                //Load in-memory storage from its folder.
+                System.out.print("[1] Input the folder to store data in. Leave blank for 'mowdata':");
+                String directory = input.nextLine();
+                this.database = MemoryEngine.open(Path.of(directory.isBlank() ? "mowdata" : directory), input);
+                if (database != null) {
+                    run();
+                } else {
+                    exit();
+                }
+            }
+            case 2 -> {
+                //Initialize new server and open embedded database.
+                System.out.print("[1] Input the path of the database file. Leave blank for 'mowdata':");
+                String path = input.nextLine();
+                this.server = new Server();
+                server.establishEmbeddedConnectionLater(path.isBlank() ? "mowdata" : path);
+                this.pendingDatabase = server::establishDatabase;
+                run();
+            }
             case 1 -> {
                 //Initialize new server and establish connection.
                 this.server = new Server();
@@ -78,6 +136,18 @@ public class Menu {
      * @param password User password.
      */
     public void start(int port, String database, String username, String password){
+        start(port, database, username, password, new int[0]);
+    }
+
+    /**
+     * Begin menu sequence. Use inputs to establish server, with reads spread across locally hosted read-only replicas.
+     * @param port tools.Server port number.
+     * @param database tools.Server database name.
+     * @param username tools.Server username.
+     * @param password User password.
+     * @param replicaPorts Port numbers of read-only replicas of the server.
+     */
+    public void start(int port, String database, String username, String password, int[] replicaPorts){
         this.input = new Scanner(System.in);
         this.server = new Server();
         System.out.println(mowdata);
@@ -86,9 +156,102 @@ public class Menu {
         [!] This program is designed to be used with a locally hosted PostgreSQL server.
         """);
 
-        //Initialize new server and establish connection.
-        if (server.establishConnection(port, database, username, password)){
-            this.database = server.establishDatabase();
+        //Initialize new server and establish connection in the background, while the main menu is shown.
+        server.establishConnectionLater(port, database, username, password);
+        this.pendingDatabase = () -> {
+            if (!server.verifyConnection()) return null;
+            server.establishReplicaConnections(replicaPorts, database, username, password);
+            return server.establishDatabase();
+        };
+        run();
+    }
+
+    /**
+     * Begin menu sequence using an embedded database stored in a local file. No server is required.
+     * @param path Path of the database file, without an extension (ex: mowdata).
+     */
+    public void startEmbedded(String path){
+        this.input = new Scanner(System.in);
+        this.server = new Server();
+        System.out.println(mowdata);
+        System.out.print("""
+        Welcome to MowData! A program designed for keeping track of client data, to be used by landscaping businesses.
+        [!] This program is using an embedded database, stored in a local file.
+        """);
+
+        //Initialize new server and open embedded database in the background, while the main menu is shown.
+        server.establishEmbeddedConnectionLater(path);
+        this.pendingDatabase = server::establishDatabase;
+        run();
+    }
+
+    /**
+     * Begin menu sequence using a sharded store, with one database per shard on a locally hosted server. Each state is held by
+     * one shard, and views are merged across every shard.
+     * @param port tools.Server port number.
+     * @param databases tools.Server database name of each shard, always in the same order.
+     * @param username tools.Server username.
+     * @param password User password.
+     */
+    public void startSharded(int port, String[] databases, String username, String password){
+        this.input = new Scanner(System.in);
+        this.server = new Server();
+        System.out.println(mowdata);
+        System.out.print("""
+        Welcome to MowData! A program designed for keeping track of client data, to be used by landscaping businesses.
+        [!] This program is using a sharded store, with each state held by one of several databases.
+        """);
+
+        //Initialize new server and establish a connection to each shard.
+        if (server.establishShardConnections(port, databases, username, password)){
+            this.database = server.establishShardedDatabase();
+            if (database != null) {
+                run();
+                return;
+            }
+        }
+        exit();
+    }
+
+    /**
+     * Begin menu sequence using a sharded store, with one embedded database file per shard. No server is required.
+     * @param paths Path of each shard's database file, without an extension, always in the same order.
+     */
+    public void startEmbeddedSharded(String[] paths){
+        this.input = new Scanner(System.in);
+        this.server = new Server();
+        System.out.println(mowdata);
+        System.out.print("""
+        Welcome to MowData! A program designed for keeping track of client data, to be used by landscaping businesses.
+        [!] This program is using a sharded store, with each state held by one of several embedded databases.
+        """);
+
+        //Initialize new server and open the embedded database of each shard.
+        if (server.establishEmbeddedShardConnections(paths)){
+            this.database = server.establishShardedDatabase();
+            if (database != null) {
+                run();
+                return;
+            }
+        }
+        exit();
+    }
+
+    /**
+     * Begin menu sequence using in-memory storage, saved to a local folder. No database is required.
+     * @param directory Folder to store data in (ex: mowdata).
+     */
+    public void startInMemory(String directory){
+        this.input = new Scanner(System.in);
+        System.out.println(mowdata);
+        System.out.print("""
+        Welcome to MowData! A program designed for keeping track of client data, to be used by landscaping businesses.
+        [!] This program is using in-memory storage, saved to a local folder.
+        """);
+
+        //Load in-memory storage from its folder.
+        this.database = MemoryEngine.open(Path.of(directory), input);
+        if (database != null) {
             run();
         } else {
             exit();
@@ -99,8 +262,15 @@ public class Menu {
      * Will close the tools.Server and Scanner objects if they are in use. Exits loop.
      */
     public void exit(){
-        //If server was established close server, otherwise do nothing.
-        if (server != null && server.verifyConnection()){
+        //A running bulk job is paused after its current chunk, so it can be resumed next time.
+        if (bulkJobs != null) bulkJobs.close();
+        //In-memory storage is saved, otherwise if server was established close server.
+        if (database instanceof MemoryEngine engine){
+            engine.close();
+        }
+        else if (server != null && server.verifyConnection()){
+            //Prices learned from services added this session are kept for next time.
+            if (database instanceof MowDataDB db) db.storePriceBook();
             server.closeServer();
         }
         else {
@@ -222,6 +392,215 @@ public class Menu {
         return result;
     }
 
+    /**
+     * Collect a phone number from user input. Accepts a standard phone number (EX: 123-456-7890) and removes the "-"'s.
+     * @return Phone number as 10 digits, or null if the input was not a valid phone number.
+     */
+    private String collectPhoneNumber(){
+        //Take in string as a standard phone number for human readability, then remove "-"'s to process the rest.
+        String phoneNumber = input.nextLine().replaceAll("-","");
+        boolean isNumeric;
+        try {
+            //Ensure string is numeric
+            Long.parseLong(phoneNumber);
+            isNumeric = true;
+        } catch (NumberFormatException e){
+            isNumeric = false;
+        }
+        //If string is all numeric and of length 10, it can be a valid phone number.
+        if ((phoneNumber.length() != 10) || !isNumeric) return null;
+        return phoneNumber;
+    }
+
+    /**
+     * Collect the services done from user input. Retrieves and converts a string of services done into a corresponding list.
+     * @return A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     * tree removal, tree trim, power wash, snow plow].
+     */
+    private boolean[] collectServicesDone(){
+        System.out.print("""
+                Please refer to this list:
+                MOW..........m |   LEAF BLOW....l |   SEED...........s
+                FERTILIZER...f |   MULCH........u |   TREE REMOVAL...r
+                TREE TRIM....t |   POWER WASH...w |   SNOW PLOW......p
+                
+                [!] To add services, simply type all keys of the services done, in any order:""");
+        String servicesDoneString = input.nextLine();
+        String[] comparisonList = {"m", "l", "s", "f", "u", "r", "t", "w", "p"};
+        boolean[] servicesDoneArray = new boolean[9];
+        //We will look at the input string and check for each of our set values.
+        for (int i=0; i < comparisonList.length; i++){
+            servicesDoneArray[i] = servicesDoneString.contains(comparisonList[i]);
+        }
+        return servicesDoneArray;
+    }
+
+    /**
+     * Collect a single service type from user input.
+     * @return Index of the service in servicesDone: [mow, leaf blow, seed, fertilizer, mulch, tree removal, tree trim,
+     * power wash, snow plow], or -1 for any service.
+     */
+    private int collectServiceType(){
+        System.out.print("""
+                Please refer to this list:
+                MOW..........m |   LEAF BLOW....l |   SEED...........s
+                FERTILIZER...f |   MULCH........u |   TREE REMOVAL...r
+                TREE TRIM....t |   POWER WASH...w |   SNOW PLOW......p
+                
+                [!] Type the key of one service, or leave blank for any service:""");
+        String[] comparisonList = {"m", "l", "s", "f", "u", "r", "t", "w", "p"};
+        while (true) {
+            String key = input.nextLine().trim();
+            if (key.isEmpty()) return -1;
+            for (int i=0; i < comparisonList.length; i++){
+                if (comparisonList[i].equals(key)) return i;
+            }
+            System.out.print("[!] Invalid key found. Please input one key from the list:");
+        }
+    }
+
+    /**
+     * Collect a latitude and longitude from user input. Will expect them separated by a comma (EX: 40.7684, -73.5251).
+     * @return {latitude, longitude}, or {NaN, NaN} if the user left the location blank.
+     */
+    private double[] collectLocation(){
+        System.out.print("Enter the latitude and longitude (EX: 40.7684, -73.5251), or leave blank if unknown:");
+        while (true) {
+            String line = input.nextLine().trim();
+            if (line.isEmpty()) return new double[] {Double.NaN, Double.NaN};
+            String[] parts = line.split(",");
+            try {
+                if (parts.length == 2) {
+                    double latitude = Double.parseDouble(parts[0].trim());
+                    double longitude = Double.parseDouble(parts[1].trim());
+                    if (Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180) return new double[] {latitude, longitude};
+                }
+            } catch (NumberFormatException e) {
+                //Falls through to the message below.
+            }
+            System.out.print("[!] Invalid location found. Please input a latitude and longitude, or leave blank:");
+        }
+    }
+
+    /**
+     * Collect a city id from user input. If the input is left blank, the city is searched for in the zip code reference
+     * instead, and added to the cities table if it is not present yet.
+     * @return ID of the city, or -1 if the city id is invalid or no city was chosen.
+     */
+    private int collectCityID(){
+        String line = input.nextLine().trim();
+        if (!line.isEmpty()) {
+            try {
+                int cityID = Integer.parseInt(line);
+                return database.verifyCity(cityID) ? cityID : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        ZipCodes.ZipCode reference = collectZipCode();
+        if (reference == null) return -1;
+        int cityID = database.getCityID(reference.city(), reference.zip());
+        if (cityID == -1) {
+            database.addCity(reference.city(), reference.zip(), database.getStateID(reference.state()), false);
+            cityID = database.getCityID(reference.city(), reference.zip());
+        }
+        if (cityID != -1) {
+            System.out.printf("[!] Using [CITY ID#%d] %s, %s %s.\n", cityID, reference.city(), reference.state(),
+                    reference.zip());
+        }
+        return cityID;
+    }
+
+    /**
+     * Lets the user search the zip code reference by zip code or city name, and choose one of the matches.
+     * @return Chosen zip code, or null if the user left the search blank.
+     */
+    private ZipCodes.ZipCode collectZipCode(){
+        while (true) {
+            System.out.print("[!] Enter the start of a zip code or city name to search (EX: 118 or hicks), or leave blank to skip:");
+            String prefix = input.nextLine().trim();
+            if (prefix.isEmpty()) return null;
+
+            List<ZipCodes.ZipCode> matches = database.lookupZipCodes(prefix, 9);
+            if (matches.isEmpty()) {
+                System.out.println("[!] No matching zip codes were found.");
+                continue;
+            }
+            System.out.println("Please choose a zip code:\n");
+            for (int i = 0; i < matches.size(); i++){
+                ZipCodes.ZipCode match = matches.get(i);
+                System.out.printf("[%d] %s %s, %s\n", i + 1, match.zip(), match.city(), match.state());
+            }
+            System.out.print("[0] Search again.\n\ninput:");
+            int choice = collectInt(0, matches.size());
+            if (choice != 0) return matches.get(choice - 1);
+        }
+    }
+
+    /**
+     * Asks the user for a city to filter by.
+     * @return ID of the city, -1 for all cities, or -2 if the city does not exist.
+     */
+    private int promptForCity(){
+        System.out.print("1. Enter a city id, or 0 for all cities:");
+        int cityID = collectInt(0, Integer.MAX_VALUE);
+        if (cityID == 0) return -1;
+        if (!database.verifyCity(cityID)) {
+            System.out.println("[!] Invalid city id. Please try again.");
+            return -2;
+        }
+        return cityID;
+    }
+
+    /**
+     * Prints a view a page at a time, asking after each page whether to show the next. The next page is read while the user
+     * reads the current one, so it usually shows at once.
+     * @param view Opens the view, given the number of rows to retrieve (-1 for all rows).
+     * @param pageSize Rows per page, from promptForRowCount(). -1 prints every row without pages.
+     * @param heading Printed before the first row.
+     * @param printer Prints a row.
+     */
+    private <T> void viewPages(IntFunction<Stream<T>> view, int pageSize, String heading, Consumer<T> printer){
+        if (pageSize <= 0) {
+            try (Stream<T> rows = view.apply(pageSize)) {
+                if (rows == null) return;
+                System.out.println(heading);
+                rows.forEach(printer);
+            }
+            return;
+        }
+        //The view is limited to MAX_PAGES pages, so sorted views can still stop sorting early.
+        int limit = (int) Math.min(Integer.MAX_VALUE, (long) pageSize * MAX_PAGES);
+        Stream<T> rows = view.apply(limit);
+        if (rows == null) return;
+        try (PagePrefetcher<T> pages = new PagePrefetcher<>(rows, pageSize)) {
+            System.out.println(heading);
+            int shown = 0;
+            while (true){
+                List<T> page = pages.nextPage();
+                if (page.isEmpty()) {
+                    if (shown > 0) System.out.println("[!] No more rows.");
+                    return;
+                }
+                page.forEach(printer);
+                shown += page.size();
+                if (page.size() < pageSize) return;
+                if (shown >= limit) {
+                    System.out.printf("[!] Reached the %d page limit. View -1 rows to see every row.\n", MAX_PAGES);
+                    return;
+                }
+                System.out.printf("""
+                        [!] Showing rows %d to %d.
+                        [1] Next page.
+                        [0] Return.
+
+                        input:""", shown - page.size() + 1, shown);
+                if (collectInt(0, 1) == 0) return;
+            }
+        }
+    }
+
     /**
      * Retrieves an integer to be used in row counts. Uses the range -1 to Integer.MAX_VALUE.
      * @return number of rows user would like to view
@@ -230,6 +609,41 @@ public class Menu {
         System.out.print("[!] Please enter how many rows you would like to view (-1 for all):");
         return collectInt(-1, Integer.MAX_VALUE);
     }
+
+    /**
+     * Asks the user whether archived services should be included in a view.
+     * @return Whether archived services should be included.
+     */
+    private boolean promptForArchive(){
+        System.out.print("[!] Include archived services? [1] Yes. [0] No.:");
+        return (collectInt(0, 1) == 1);
+    }
+
+    /**
+     * Runs a menu action, recording it as a flight recorder event along with the database calls it makes.
+     * @param name Name of the action, shown in recordings (ex: addServiceMenu).
+     * @param action Action to run.
+     */
+    private void action(String name, Runnable action){
+        Profiling.beginAction(name);
+        try {
+            action.run();
+        } finally {
+            Profiling.endAction();
+        }
+    }
+    /**
+     * Opens the database if its opening was deferred.
+     * @return Whether the database is open.
+     */
+    private boolean openDatabase(){
+        if (pendingDatabase != null) {
+            Supplier<MowDataStore> open = pendingDatabase;
+            pendingDatabase = null;
+            this.database = open.get();
+        }
+        return database != null;
+    }
     private void run(){
         while (mainMenu()){
             //Runs as long as mainMenu is returning true. (until user decides to exit)
@@ -243,13 +657,17 @@ public class Menu {
                 [MAIN]
                 Please choose an action:
                 
+                [3] Manage data.
                 [2] View data.
                 [1] Add data.
                 [0] Exit.
                 
                 input:""");
-        choice = collectInt(0,2);
+        choice = collectInt(0,3);
+        //Every action needs the database, so it is opened now if it wasn't yet.
+        if (choice != 0 && !openDatabase()) return false;
         switch (choice){
+            case 3 -> manageMenu();
             case 2 -> viewMenu();
             case 1 -> addMenu();
             case 0 -> {
@@ -263,8 +681,12 @@ public class Menu {
         int choice;
         System.out.print("""
                 [VIEW]
+                [!] Press Enter while a view is loading to cancel it.
                 Please choose an action:
                 
+                [7] View nearest properties.
+                [6] View overdue properties.
+                [5] View last service of each property.
                 [4] View service history.
                 [3] View properties.
                 [2] View cities.
@@ -272,12 +694,15 @@ public class Menu {
                 [0] Return.
                 
                 input:""");
-        choice = collectInt(0,4);
+        choice = collectInt(0,7);
         switch (choice) {
-            case 4 -> viewServicesMenu();
-            case 3 -> viewPropertiesMenu();
-            case 2 -> viewCitiesMenu();
-            case 1 -> viewClientsMenu();
+            case 7 -> action("viewNearestMenu", this::viewNearestMenu);
+            case 6 -> action("viewOverdueMenu", this::viewOverdueMenu);
+            case 5 -> action("viewLastServicesMenu", this::viewLastServicesMenu);
+            case 4 -> action("viewServicesMenu", this::viewServicesMenu);
+            case 3 -> action("viewPropertiesMenu", this::viewPropertiesMenu);
+            case 2 -> action("viewCitiesMenu", this::viewCitiesMenu);
+            case 1 -> action("viewClientsMenu", this::viewClientsMenu);
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
@@ -297,14 +722,20 @@ public class Menu {
                 input:""");
         choice = collectInt(0, 3);
         switch (choice){
-            case 3 -> database.viewServices("all", promptForRowCount());
-            case 2 -> database.viewServices("property", promptForRowCount());
-            case 1 -> database.viewServices("date", promptForRowCount());
+            case 3 -> viewServices("all");
+            case 2 -> viewServices("property");
+            case 1 -> viewServices("date");
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
         }
     }
+    private void viewServices(String sortingMode){
+        int n = promptForRowCount();
+        boolean includeArchive = promptForArchive();
+        viewPages(rows -> database.streamServices(sortingMode, rows, includeArchive), n,
+                "[!] Now displaying service history:", Cards::printService);
+    }
     private void viewPropertiesMenu(){
         int choice;
         System.out.print("""
@@ -319,9 +750,12 @@ public class Menu {
                 input:""");
         choice = collectInt(0,3);
         switch (choice){
-            case 3 -> database.viewProperties("all", promptForRowCount());
-            case 2 -> database.viewProperties("city", promptForRowCount());
-            case 1 -> database.viewProperties("client", promptForRowCount());
+            case 3 -> viewPages(rows -> database.streamProperties("all", rows), promptForRowCount(),
+                    "[!] Now displaying properties data:", Cards::printProperty);
+            case 2 -> viewPages(rows -> database.streamProperties("city", rows), promptForRowCount(),
+                    "[!] Now displaying properties data:", Cards::printProperty);
+            case 1 -> viewPages(rows -> database.streamProperties("client", rows), promptForRowCount(),
+                    "[!] Now displaying properties data:", Cards::printProperty);
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
@@ -341,9 +775,12 @@ public class Menu {
                 input:""");
         choice = collectInt(0,3);
         switch (choice){
-            case 3 -> database.viewCities("all", promptForRowCount());
-            case 2 -> database.viewCities("state", promptForRowCount());
-            case 1 -> database.viewCities("name", promptForRowCount());
+            case 3 -> viewPages(rows -> database.streamCities("all", rows), promptForRowCount(),
+                    "[!] Now displaying cities data:", Cards::printCity);
+            case 2 -> viewPages(rows -> database.streamCities("state", rows), promptForRowCount(),
+                    "[!] Now displaying cities data:", Cards::printCity);
+            case 1 -> viewPages(rows -> database.streamCities("name", rows), promptForRowCount(),
+                    "[!] Now displaying cities data:", Cards::printCity);
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
@@ -362,19 +799,500 @@ public class Menu {
                 input:""");
         choice = collectInt(0,2);
         switch (choice) {
-            case 2 -> database.viewClients("all", promptForRowCount());
-            case 1 -> database.viewClients("name", promptForRowCount());
+            case 2 -> viewPages(rows -> database.streamClients("all", rows), promptForRowCount(),
+                    "[!] Now displaying clients data:", Cards::printClient);
+            case 1 -> viewPages(rows -> database.streamClients("name", rows), promptForRowCount(),
+                    "[!] Now displaying clients data:", Cards::printClient);
+            case 0 -> {
+                //Do nothing. Return to mainMenu.
+            }
+        }
+    }
+    private void viewLastServicesMenu(){
+        System.out.println("[VIEW LAST SERVICES]");
+        //1. City, or all cities.
+        int cityID = promptForCity();
+        if (cityID == -2) return;
+        //2. Service type, or any service.
+        System.out.print("2. ");
+        int serviceType = collectServiceType();
+        viewPages(rows -> database.streamLastServices(cityID, serviceType, rows), promptForRowCount(),
+                "[!] Now displaying the last service of each property:", Cards::printService);
+    }
+    private void viewOverdueMenu(){
+        System.out.println("[VIEW OVERDUE PROPERTIES]");
+        //1. City, or all cities.
+        int cityID = promptForCity();
+        if (cityID == -2) return;
+        //2. Service type, or any service.
+        System.out.print("2. ");
+        int serviceType = collectServiceType();
+        //3. Days without the service.
+        System.out.print("3. Enter how many days without the service makes a property overdue (EX: 10):");
+        int days = collectInt(0, 36500);
+        database.viewOverdueProperties(serviceType, days, cityID, promptForRowCount());
+    }
+    private void viewNearestMenu(){
+        System.out.println("[VIEW NEAREST PROPERTIES]");
+        //1. Property to search around, such as a crew's current job.
+        System.out.print("1. Enter the property id to search around (EX: a crew's current job):");
+        int propertyID = collectInt(0, Integer.MAX_VALUE);
+        if (!database.verifyProperty(propertyID)) {
+            System.out.println("[!] Invalid property id. Please try again.");
+            return;
+        }
+        //2. Number of properties.
+        System.out.print("2. Enter how many properties to find (-1 for all within the radius):");
+        int k = collectInt(-1, Integer.MAX_VALUE);
+        //3. Radius.
+        System.out.print("3. Enter the search radius in kilometers (0 for no limit):");
+        double radiusKm = collectDouble(0, 20_000);
+        //4. Service history, or any property.
+        System.out.print("4. Only include properties due for a service? [1] Yes. [0] No.:");
+        int serviceType = -1;
+        int overdueDays = -1;
+        if (collectInt(0, 1) == 1) {
+            System.out.print("5. ");
+            serviceType = collectServiceType();
+            System.out.print("6. Enter how many days without the service makes a property due (EX: 10):");
+            overdueDays = collectInt(0, 36500);
+        }
+        database.viewNearestProperties(propertyID, k, radiusKm, serviceType, overdueDays);
+    }
+    private void manageMenu(){
+        int choice;
+        //Managing data relies on a single database, which in-memory and sharded storage don't have.
+        if (!(database instanceof MowDataDB mowDataDB)) {
+            System.out.println("[!] Managing data is not available with in-memory or sharded storage.");
+            return;
+        }
+        System.out.print("""
+                [MANAGE]
+                Please choose an action:
+                
+                [10] Run bulk updates and deletes.
+                [9] Export changes since last sync.
+                [8] View table health.
+                [7] Check query plans.
+                [6] Find duplicate clients and properties.
+                [5] Run load test.
+                [4] Generate synthetic data.
+                [3] Generate monthly invoices.
+                [2] View cache statistics.
+                [1] Archive old services.
+                [0] Return.
+                
+                input:""");
+        choice = collectInt(0, 10);
+        switch (choice) {
+            case 10 -> action("bulkJobsMenu", () -> bulkJobsMenu(mowDataDB));
+            case 9 -> action("exportChangesMenu", this::exportChangesMenu);
+            case 8 -> action("tableHealthMenu", () -> tableHealthMenu(mowDataDB));
+            case 7 -> action("queryPlansMenu", () -> queryPlansMenu(mowDataDB));
+            case 6 -> action("duplicatesMenu", () -> duplicatesMenu(mowDataDB));
+            case 5 -> action("loadTestMenu", this::loadTestMenu);
+            case 4 -> action("generateDataMenu", this::generateDataMenu);
+            case 3 -> action("invoicesMenu", this::invoicesMenu);
+            case 2 -> action("printCacheStatistics", () -> {
+                mowDataDB.printCacheStatistics();
+                PagePrefetcher.printStatistics();
+            });
+            case 1 -> action("archiveServicesMenu", () -> archiveServicesMenu(mowDataDB));
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
         }
     }
+    private void bulkJobsMenu(MowDataDB mowDataDB){
+        if (bulkJobs == null) bulkJobs = new BulkJobs(server, mowDataDB);
+        System.out.print("""
+                [BULK JOBS]
+                [!] Bulk jobs change many rows in small chunks, each committed on its own, while MowData stays usable.
+                [!] A paused or interrupted job resumes after its last committed chunk.
+                
+                Please choose an action:
+                
+                [4] Re-price services.
+                [3] Delete a client, with their properties and services.
+                [2] Reassign properties to another client.
+                [1] View, pause, or resume jobs.
+                [0] Return.
+                
+                input:""");
+        int choice = collectInt(0, 4);
+        switch (choice) {
+            case 4 -> repriceServicesMenu();
+            case 3 -> deleteClientMenu();
+            case 2 -> reassignPropertiesMenu();
+            case 1 -> viewBulkJobsMenu();
+            case 0 -> {
+                //Do nothing. Return to mainMenu.
+            }
+        }
+    }
+    private void repriceServicesMenu(){
+        //1. City.
+        int cityID = promptForCity();
+        if (cityID == -2) return;
+
+        //2. Service type.
+        System.out.print("2. ");
+        int serviceType = collectServiceType();
+
+        //3. Dates.
+        System.out.print("3. Enter the first service date to re-price [YYYY-MM-DD]:");
+        LocalDate from = collectDate();
+        System.out.print("4. Enter the last service date to re-price [YYYY-MM-DD]:");
+        LocalDate to = collectDate();
+
+        //4. New cost, or a percentage to change costs by.
+        System.out.print("""
+                5. How should the costs change?
+                [2] Set every cost to a new cost.
+                [1] Change every cost by a percentage.
+                
+                input:""");
+        boolean byPercent = (collectInt(1, 2) == 1);
+        double amount;
+        if (byPercent) {
+            System.out.print("6. Enter the percentage (EX: 5 for 5% more, -10 for 10% less):");
+            amount = collectDouble(-100, 1000);
+        } else {
+            System.out.print("6. Enter the new cost:");
+            amount = collectDouble(0, 999.99);
+        }
+
+        String description = "re-price services from %tF to %tF%s%s, %s".formatted(from, to,
+                (cityID == -1) ? "" : " in city %d".formatted(cityID),
+                (serviceType == -1) ? "" : " with %s".formatted(SERVICE_NAMES[serviceType]),
+                byPercent ? "%+.2f%%".formatted(amount) : "to $%.2f".formatted(amount));
+        startBulkJob(description, BulkJobs.repriceSteps(cityID, serviceType, from, to, byPercent, amount));
+    }
+    private void deleteClientMenu(){
+        System.out.print("1. Enter the id of the client to delete:");
+        int clientID = collectInt(0, Integer.MAX_VALUE);
+        if (!database.verifyClient(clientID)) {
+            System.out.println("[!] Invalid client id. Please try again.");
+            return;
+        }
+        startBulkJob("delete client %d".formatted(clientID), BulkJobs.deleteClientSteps(clientID));
+    }
+    private void reassignPropertiesMenu(){
+        System.out.print("1. Enter the id of the client whose properties are reassigned:");
+        int fromClientID = collectInt(0, Integer.MAX_VALUE);
+        System.out.print("2. Enter the id of the client to reassign them to:");
+        int toClientID = collectInt(0, Integer.MAX_VALUE);
+        if (fromClientID == toClientID || !database.verifyClient(fromClientID) || !database.verifyClient(toClientID)) {
+            System.out.println("[!] Invalid client ids. Please try again.");
+            return;
+        }
+        System.out.print("3. Enter a city id to only reassign properties in that city, or 0 for all cities:");
+        int cityID = collectInt(0, Integer.MAX_VALUE);
+        if (cityID == 0) cityID = -1;
+        else if (!database.verifyCity(cityID)) {
+            System.out.println("[!] Invalid city id. Please try again.");
+            return;
+        }
+        startBulkJob("reassign properties of client %d to client %d%s".formatted(fromClientID, toClientID,
+                (cityID == -1) ? "" : " in city %d".formatted(cityID)),
+                BulkJobs.reassignSteps(fromClientID, toClientID, cityID));
+    }
+
+    /**
+     * Shows how many rows a job would change, then starts it in the background if the user confirms.
+     * @param description Description of the job.
+     * @param steps Steps of the job.
+     */
+    private void startBulkJob(String description, List<BulkJobs.Step> steps){
+        //Dry run. Nothing is changed until the user confirms.
+        long[] totals = bulkJobs.dryRun(steps);
+        if (totals == null) return;
+        long total = 0;
+        System.out.printf("[!] Dry run of '%s':\n", description);
+        for (int i = 0; i < totals.length; i++){
+            BulkJobs.Step step = steps.get(i);
+            System.out.printf("[!] %d rows of %s will be %s.\n", totals[i], step.table(),
+                    (step.change() == null) ? "deleted" : "updated");
+            total += totals[i];
+        }
+        if (total == 0) {
+            System.out.println("[!] No rows match, so there is nothing to do.");
+            return;
+        }
+
+        //Chunk size and pause. Smaller chunks and longer pauses leave more room for other users.
+        System.out.print("Enter how many rows to change at a time (EX: 1000):");
+        int chunkSize = collectInt(1, 1_000_000);
+        System.out.print("Enter how long to pause between chunks, in milliseconds (EX: 100):");
+        int pauseMillis = collectInt(0, 60_000);
+        System.out.print("""
+                
+                Start this job now?
+                [1] Yes, run it in the background.
+                [0] No, return. Nothing will be changed.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+        bulkJobs.start(description, steps, totals, chunkSize, pauseMillis);
+    }
+    private void viewBulkJobsMenu(){
+        System.out.println("[!] Now displaying the 10 most recent bulk jobs:");
+        List<BulkJobs.Job> jobs = bulkJobs.printJobs(10);
+        if (jobs.isEmpty()) return;
+        if (bulkJobs.isRunning()) {
+            System.out.print("""
+                    
+                    [1] Pause the running job.
+                    [0] Return.
+                    
+                    input:""");
+            if (collectInt(0, 1) == 1 && bulkJobs.pause()) System.out.println("[!] Successfully paused the running job.");
+            return;
+        }
+        System.out.print("[!] Enter the id of a job to resume, or 0 to return:");
+        int jobID = collectInt(0, Integer.MAX_VALUE);
+        if (jobID != 0) bulkJobs.resume(jobID);
+    }
+    private void exportChangesMenu(){
+        System.out.print("""
+                [EXPORT CHANGES]
+                [!] Rows added, changed, or deleted since a consumer's last export will be written as NDJSON.
+                [!] A consumer's first export holds every row. Rows are upserts by id, and deleted rows are written as deletes.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        //1. Consumer. Each consumer keeps its own watermark.
+        System.out.print("1. Enter the name of the consumer (EX: accounting):");
+        String consumer = input.nextLine().trim();
+
+        //2. Folder. Defaults to "exports" in the current folder.
+        System.out.print("2. Enter the folder to write the export to. Leave blank for 'exports':");
+        String folder = input.nextLine();
+
+        new DeltaExporter(server).export(consumer, Path.of(folder.isBlank() ? "exports" : folder));
+    }
+    private void tableHealthMenu(MowDataDB mowDataDB){
+        System.out.println("[HEALTH]");
+        TableHealth health = mowDataDB.getTableHealth();
+        List<TableHealth.Stats> stats = health.read();
+
+        //Without table statistics nothing can be flagged, so every main table is offered for an analyze.
+        List<String> analyze = new ArrayList<>(List.of(TableHealth.MAIN_TABLES));
+        List<String> vacuum = new ArrayList<>();
+        if (stats != null) {
+            TableHealth.printSummary(stats);
+            analyze.clear();
+            for (TableHealth.Stats table : stats){
+                if (table.needsVacuum()) vacuum.add(table.table());
+                else if (table.needsAnalyze()) analyze.add(table.table());
+            }
+            if (analyze.isEmpty() && vacuum.isEmpty()) {
+                System.out.println("[!] No tables need maintenance.");
+                return;
+            }
+        }
+
+        System.out.printf("""
+                
+                [!] Tables to vacuum: %s
+                [!] Tables to analyze: %s
+                
+                Maintain these tables now?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""",
+                vacuum.isEmpty() ? "none" : String.join(", ", vacuum),
+                analyze.isEmpty() ? "none" : String.join(", ", analyze));
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+        health.maintain(vacuum, true);
+        health.maintain(analyze, false);
+    }
+    private void queryPlansMenu(MowDataDB mowDataDB){
+        System.out.print("""
+                [CHECK QUERY PLANS]
+                [!] The plan of each view and verify query will be checked for missing indexes, and compared to the plans saved in 'query-plans'.
+                [!] Plans are only meaningful on a database at production scale, such as one with generated data.
+                
+                What would you like to do?:
+                [2] Check plans and save them as the new baselines.
+                [1] Check plans.
+                [0] Return.
+                
+                input:""");
+        int choice = collectInt(0, 2);
+        if (choice == 0) return; //Do nothing. Return to mainMenu.
+        new QueryPlanChecker(mowDataDB).run(Path.of("query-plans"), choice == 2);
+    }
+    private void duplicatesMenu(MowDataDB mowDataDB){
+        System.out.print("""
+                [FIND DUPLICATES]
+                [!] Clients and properties which look like they were entered more than once will be listed as merge suggestions.
+                [!] Merging moves the duplicate's properties or services to the kept row, then deletes the duplicate.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        DuplicateFinder finder = new DuplicateFinder(mowDataDB);
+        long start = System.currentTimeMillis();
+        List<DuplicateFinder.Match> clients = finder.findClients();
+        List<DuplicateFinder.Match> properties = finder.findProperties();
+        if (clients == null || properties == null) return;
+        List<DuplicateFinder.Match> matches = new ArrayList<>(clients);
+        matches.addAll(properties);
+        System.out.printf("[!] Found %d client and %d property merge suggestions in %d ms.\n",
+                clients.size(), properties.size(), System.currentTimeMillis() - start);
+        if (matches.isEmpty()) return;
+
+        //Only the most alike suggestions of each kind are listed.
+        int shown = Math.min(matches.size(), 50);
+        if (shown < matches.size()) {
+            matches = new ArrayList<>(clients.subList(0, Math.min(clients.size(), 25)));
+            matches.addAll(properties.subList(0, Math.min(properties.size(), shown - matches.size())));
+            System.out.printf("[!] Showing the %d most alike suggestions.\n", matches.size());
+        }
+        for (int i = 0; i < matches.size(); i++){
+            DuplicateFinder.Match match = matches.get(i);
+            String label = match.table().equals("clients") ? "CLIENT" : "PROPERTY";
+            System.out.printf("[%d] MERGE [%s ID#%d] INTO [%s ID#%d] | SCORE %.2f | %s\n", i + 1, label,
+                    match.duplicateID(), label, match.keepID(), match.score(), match.reason().toUpperCase());
+        }
+
+        //Merges are applied one at a time, as the user chooses them.
+        while (true) {
+            System.out.print("[!] Enter the number of a suggestion to merge, or 0 to finish:");
+            int choice = collectInt(0, matches.size());
+            if (choice == 0) return;
+            finder.merge(matches.get(choice - 1));
+        }
+    }
+    private void archiveServicesMenu(MowDataDB mowDataDB){
+        System.out.print("""
+                [ARCHIVE SERVICES]
+                [!] Services dated before the cutoff will be moved to the services archive.
+                [!] Archived services can still be viewed by including the archive when viewing service history.
+                [!] If archiving is interrupted, run it again with the same cutoff to resume.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        //1. Cutoff date.
+        System.out.print("1. Enter the cutoff date [YYYY-MM-DD]:");
+        LocalDate cutoff = collectDate();
+
+        //2. Chunk size. Smaller chunks hold locks for less time.
+        System.out.print("2. Enter how many services to move at a time (EX: 1000):");
+        int chunkSize = collectInt(1, Integer.MAX_VALUE);
+
+        mowDataDB.archiveServices(cutoff, chunkSize);
+    }
+    private void invoicesMenu(){
+        System.out.print("""
+                [INVOICES]
+                [!] An invoice will be generated for every client with services in the chosen month.
+                [!] Invoices are written as plain text and HTML files. If generating is interrupted, run it again to finish.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        //1. Month. Expected in the format YYYY-MM.
+        System.out.print("1. Enter the month to invoice [YYYY-MM]:");
+        YearMonth month;
+        while (true) {
+            try {
+                month = YearMonth.parse(input.nextLine());
+                break;
+            } catch (DateTimeException e) {
+                System.out.print("[!] Incorrect formatting found. Enter a month in the format [YYYY-MM]:");
+            }
+        }
+
+        //2. Folder. Defaults to "invoices" in the current folder.
+        System.out.print("2. Enter the folder to write invoices to. Leave blank for 'invoices':");
+        String folder = input.nextLine();
+        Path directory = Path.of(folder.isBlank() ? "invoices" : folder);
+
+        //3. Threads. Each thread uses its own connection.
+        System.out.print("3. Enter how many invoices to generate at once (1-32):");
+        int threads = collectInt(1, 32);
+
+        new InvoiceGenerator(server).generate(month, directory, threads);
+    }
+    private void generateDataMenu(){
+        System.out.print("""
+                [GENERATE DATA]
+                [!] Synthetic clients, cities, properties, and services will be added to the database.
+                [!] A scale factor of 1 adds 10,000 clients, 500 cities, 25,000 properties, and 1,000,000 services.
+                [!] This is meant for testing, and should not be used on a database with real client data.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        System.out.print("1. Enter the scale factor (EX: 0.1):");
+        double scaleFactor = collectDouble(0.0001, 100);
+        System.out.print("2. Enter a seed for the random data (EX: 1):");
+        int seed = collectInt(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        new DataGenerator(server, seed).generate(scaleFactor);
+    }
+    private void loadTestMenu(){
+        System.out.print("""
+                [LOAD TEST]
+                [!] A mix of view, add, and verify calls will be run from several threads at once.
+                [!] The add calls insert test clients and services, so this should not be used on a database with real client data.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        System.out.print("1. Enter the number of threads (1-256):");
+        int threads = collectInt(1, 256);
+        System.out.print("2. Enter how many seconds to run for:");
+        int seconds = collectInt(1, 86400);
+        System.out.print("3. Enter the weight of view calls (EX: 60):");
+        int viewWeight = collectInt(0, 1000);
+        System.out.print("4. Enter the weight of add calls (EX: 10):");
+        int addWeight = collectInt(0, 1000);
+        System.out.print("5. Enter the weight of verify calls (EX: 30):");
+        int verifyWeight = collectInt(0, 1000);
+        if (viewWeight + addWeight + verifyWeight == 0) {
+            System.out.println("[!] At least one weight must be above 0. Please try again.");
+            return;
+        }
+
+        new LoadDriver(server).run(threads, seconds, viewWeight, addWeight, verifyWeight);
+    }
     private void addMenu(){
         int choice;
         System.out.print("""
                 [ADD]
                 Please choose an action:
                 
+                [5] Onboard new client.
                 [4] Add service.
                 [3] Add property.
                 [2] Add city.
@@ -382,17 +1300,91 @@ public class Menu {
                 [0] Return.
                 
                 input:""");
-        choice = collectInt(0, 4);
+        choice = collectInt(0, 5);
         switch (choice) {
-            case 4 -> addServiceMenu();
-            case 3 -> addPropertyMenu();
-            case 2 -> addCityMenu();
-            case 1 -> addClientMenu();
+            case 5 -> action("onboardMenu", this::onboardMenu);
+            case 4 -> action("addServiceMenu", this::addServiceMenu);
+            case 3 -> action("addPropertyMenu", this::addPropertyMenu);
+            case 2 -> action("addCityMenu", this::addCityMenu);
+            case 1 -> action("addClientMenu", this::addClientMenu);
             case 0 -> {
                 //Do nothing. Return to mainMenu.
             }
         }
     }
+    private void onboardMenu(){
+        System.out.print("""
+                [ONBOARD]
+                [!] To onboard a new client, you must input the following:
+                1. FIRST NAME
+                2. LAST NAME
+                3. PHONE NUMBER
+                4. EMAIL
+                5. PROPERTIES, each with an ADDRESS, CITY ID, and an optional FIRST SERVICE
+                [!] The client, properties, and services are added together. If any of them fail, none are added.
+                
+                Continue?
+                [1] Yes, begin.
+                [0] No, return.
+                
+                input:""");
+        if (collectInt(0, 1) == 0) return; //Do nothing. Return to mainMenu.
+
+        //1. First name. Ensure lower case.
+        System.out.print("1. Enter first name:");
+        String firstName = input.nextLine().toLowerCase();
+        //2. Last name. Ensure lower case.
+        System.out.print("2. Enter last name:");
+        String lastName = input.nextLine().toLowerCase();
+
+        //3. Phone number. Verify phone number is valid.
+        System.out.print("3. Enter phone number (EX: 123-456-7890):");
+        String phoneNumber = collectPhoneNumber();
+        if (phoneNumber == null) {
+            System.out.println("[!] Invalid phone number entered. Please try again.");
+            return;
+        }
+
+        //4. Email, ensure lowercase.
+        System.out.print("4. Enter email:");
+        String email = input.nextLine().toLowerCase();
+
+        //5. Properties.
+        System.out.print("5. Enter how many properties the client owns:");
+        int propertyCount = collectInt(1, 100);
+        ArrayList<OnboardingProperty> properties = new ArrayList<>();
+        for (int i = 1; i <= propertyCount; i++){
+            System.out.printf("[PROPERTY %d OF %d]\n", i, propertyCount);
+            //Address, ensure address is lowercase.
+            System.out.print("Enter address (EX: 123 apple road):");
+            String address = input.nextLine().toLowerCase();
+
+            //Verify city id.
+            System.out.print("Enter city id:");
+            int cityID = collectInt(0, Integer.MAX_VALUE);
+            if (!database.verifyCity(cityID)) {
+                System.out.println("[!] Invalid city id. Please try again.");
+                return;
+            }
+
+            //Optional first service.
+            System.out.print("Add a first service at this property? [1] Yes. [0] No.:");
+            if (collectInt(0, 1) == 0) {
+                properties.add(new OnboardingProperty(address, cityID));
+                continue;
+            }
+            System.out.print("Enter a service date [YYYY-MM-DD]:");
+            LocalDate serviceDate = collectDate();
+            boolean[] servicesDone = collectServicesDone();
+            System.out.print("Enter the service cost:");
+            double serviceCost = collectDouble(0, Double.MAX_VALUE);
+            System.out.print("Enter any notes. Leave blank for null:");
+            String notes = input.nextLine();
+            properties.add(new OnboardingProperty(address, cityID, serviceDate, servicesDone, serviceCost, notes));
+        }
+
+        database.onboardClient(firstName, lastName, phoneNumber, email, properties, true);
+    }
     private void addServiceMenu(){
         System.out.print("""
                 [ADD SERVICE]
@@ -423,23 +1415,16 @@ public class Menu {
         System.out.print("2. Enter a service date [YYYY-MM-DD]:");
         LocalDate serviceDate = collectDate();
 
-        //3. Services done. Retrieve and convert a string of services done into a corresponding list.
-        System.out.print("""
-                3. Please refer to this list:
-                MOW..........m |   LEAF BLOW....l |   SEED...........s
-                FERTILIZER...f |   MULCH........u |   TREE REMOVAL...r
-                TREE TRIM....t |   POWER WASH...w |   SNOW PLOW......p
-                
-                [!] To add services, simply type all keys of the services done, in any order:""");
-        String servicesDoneString = input.nextLine();
-        String[] comparisonList = {"m", "l", "s", "f", "u", "r", "t", "w", "p"};
-        boolean[] servicesDoneArray = new boolean[9];
-        //We will look at the input string and check for each of our set values.
-        for (int i=0; i < comparisonList.length; i++){
-            servicesDoneArray[i] = servicesDoneString.contains(comparisonList[i]);
-        }
+        //3. Services done.
+        System.out.print("3. ");
+        boolean[] servicesDoneArray = collectServicesDone();
 
-        //4. Cost.
+        //4. Cost. Suggest a price from past services which did the same services.
+        PriceBook.Quote quote = database.quotePrice(propertyID, servicesDoneArray);
+        if (quote != null) {
+            System.out.printf("[!] Suggested price: $%.2f (median), up to $%.2f (90th percentile), from %d past services %s.\n",
+                    quote.median(), quote.p90(), quote.services(), quote.allCities() ? "in every city" : "in this city");
+        }
         System.out.print("4. Enter the service cost:");
         double serviceCost = collectDouble(0, Double.MAX_VALUE);
 
@@ -456,6 +1441,7 @@ public class Menu {
                 1. CLIENT ID
                 2. ADDRESS
                 3. CITY ID
+                4. LOCATION (optional)
                 
                 Continue?
                 [1] Yes, begin.
@@ -479,15 +1465,19 @@ public class Menu {
         System.out.print("2. Enter address (EX: 123 apple road):");
         String address = input.nextLine().toLowerCase();
 
-        //3. Verify city id.
-        System.out.print("3. Enter city id:");
-        int cityID = collectInt(0, Integer.MAX_VALUE);
-        if (!database.verifyCity(cityID)) {
+        //3. Verify city id, or find it from the zip code reference.
+        System.out.print("3. Enter city id, or leave blank to search by zip code or city name:");
+        int cityID = collectCityID();
+        if (cityID == -1) {
             System.out.println("[!] Invalid city id. Please try again.");
             return;
         }
 
-        database.addProperty(clientID, address, cityID, true);
+        //4. Retrieve coordinates, if known.
+        System.out.print("4. ");
+        double[] location = collectLocation();
+
+        database.addProperty(clientID, address, cityID, location[0], location[1], true);
     }
     private void addCityMenu(){
         System.out.print("""
@@ -497,6 +1487,7 @@ public class Menu {
                 1. CITY NAME
                 2. ZIP CODE
                 3. STATE
+                [!] These can be filled in by searching the zip code reference.
                 
                 Continue?
                 [1] Yes, begin.
@@ -507,6 +1498,18 @@ public class Menu {
         //Prompt user.
         if (collectInt(0, 1) == 0) return;
 
+        //Searching the reference fills in every field.
+        ZipCodes.ZipCode reference = collectZipCode();
+        if (reference != null) {
+            int cityID = database.getCityID(reference.city(), reference.zip());
+            if (cityID != -1) {
+                System.out.printf("[!] This city already exists as [CITY ID#%d].\n", cityID);
+                return;
+            }
+            database.addCity(reference.city(), reference.zip(), database.getStateID(reference.state()), true);
+            return;
+        }
+
         //1. City, retrieve city name. Ensure the name is lowercase.
         System.out.print("1. Enter city name:");
         String cityName = input.nextLine().toLowerCase();
@@ -539,6 +1542,13 @@ public class Menu {
         }
         int stateID = database.getStateID(state);
 
+        //Avoid adding a city which is already present.
+        int cityID = database.getCityID(cityName, zipCode);
+        if (cityID != -1) {
+            System.out.printf("[!] This city already exists as [CITY ID#%d].\n", cityID);
+            return;
+        }
+
         database.addCity(cityName, zipCode, stateID, true);
     }
     private void addClientMenu(){
@@ -567,18 +1577,8 @@ public class Menu {
 
         //3. Get phone number. Verify phone number is valid.
         System.out.print("3. Enter phone number (EX: 123-456-7890):");
-        //Take in string as a standard phone number for human readability, then remove "-"'s to process the rest.
-        String phoneNumber = input.nextLine().replaceAll("-","");
-        boolean isNumeric;
-        try {
-            //Ensure string is numeric
-            Long.parseLong(phoneNumber);
-            isNumeric = true;
-        } catch (NumberFormatException e){
-            isNumeric = false;
-        }
-        //If string is all numeric and of length 10, it can be a valid phone number.
-        if ((phoneNumber.length() != 10) || !isNumeric) {
+        String phoneNumber = collectPhoneNumber();
+        if (phoneNumber == null) {
             System.out.println("[!] Invalid phone number entered. Please try again.");
             return;
         }
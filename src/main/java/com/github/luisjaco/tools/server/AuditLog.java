@@ -0,0 +1,267 @@
+package com.github.luisjaco.tools.server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The tools.AuditLog class records who added or changed which rows, and when, in the append-only audit_log table. Writes made
+ * through tools.MowDataDB record an event into a lock-free queue and return at once, so they gain no extra round trip. A
+ * background writer drains the queue in batches on its own dedicated connection, with COPY when the database supports it and
+ * multi-row inserts otherwise. A batch which fails is kept and written again with backoff, on a reopened connection if the
+ * old one was lost, so events are only dropped when the queue stays full for MAX_WAIT_MILLIS. When the queue is full,
+ * recording waits for the writer to catch up. Closing the log writes every event still queued.
+ */
+public class AuditLog implements Runnable {
+    //Events which may be queued before recording waits for the writer.
+    private static final int CAPACITY = 10_000;
+    //Events written per batch. The writer is woken early once this many are queued.
+    private static final int BATCH_SIZE = 500;
+    //Time queued events may wait before being written when fewer than a batch are queued.
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    //Time recording may wait for room in a full queue before the event is dropped.
+    private static final long MAX_WAIT_MILLIS = 2000;
+    //Time closing may wait for the writer to finish the queued events.
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+    //Time to wait before writing a failed batch again. Doubled after each failed attempt.
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    //Seconds to wait for the connection to respond when checking it after a failed batch.
+    private static final int VALID_TIMEOUT_SECONDS = 1;
+
+    /**
+     * A change to a row.
+     * @param action Kind of change (ex: add, merge, archive).
+     * @param table Table of the changed row.
+     * @param rowID ID of the changed row, or -1 if the change isn't for a single row.
+     * @param detail Description of the change, or null.
+     */
+    private record Event(Instant time, String action, String table, int rowID, String detail) {}
+
+    private final Supplier<Connection> reconnect;
+    private volatile Connection connection;
+    private final Dialect dialect;
+    private final ConcurrentLinkedQueue<Event> queue;
+    //Number of queued events, which the queue itself can't report cheaply.
+    private final AtomicInteger queued;
+    private final AtomicLong dropped;
+    private String databaseUser;
+    private final String systemUser;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Initializes a new tools.AuditLog. Use the start() method to begin writing events.
+     * @param connection Dedicated connection used only for writing events. Will be closed along with the log.
+     * @param reconnect Opens a new dedicated connection when the current one is lost, returning null if it can't.
+     */
+    public AuditLog(Connection connection, Supplier<Connection> reconnect){
+        this.connection = connection;
+        this.reconnect = reconnect;
+        this.dialect = Dialect.of(connection);
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.queued = new AtomicInteger();
+        this.dropped = new AtomicLong();
+        this.systemUser = System.getProperty("user.name", "unknown");
+    }
+
+    /**
+     * Creates the audit_log table if it is not present, then begins writing events on a background thread.
+     * @return Whether the log was started.
+     */
+    public boolean start(){
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate("""
+                    CREATE TABLE IF NOT EXISTS audit_log(
+                    	id %s PRIMARY KEY,
+                    	logged_at TIMESTAMP WITH TIME ZONE NOT NULL,
+                    	database_user VARCHAR(50) NOT NULL,
+                    	os_user VARCHAR(50) NOT NULL,
+                    	action VARCHAR(20) NOT NULL,
+                    	table_name VARCHAR(30) NOT NULL,
+                    	row_id INTEGER,
+                    	detail TEXT
+                    );""".formatted(dialect.serialType()));
+            databaseUser = connection.getMetaData().getUserName();
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to start the audit log:\n" + e);
+            return false;
+        }
+        running = true;
+        thread = new Thread(this, "mowdata-audit-writer");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Records a change. Returns at once unless the queue is full.
+     * @param action Kind of change (ex: add, merge, archive).
+     * @param table Table of the changed row.
+     * @param rowID ID of the changed row, or -1 if the change isn't for a single row.
+     * @param detail Description of the change, or null.
+     */
+    public void record(String action, String table, int rowID, String detail){
+        if (!running) return;
+        //Backpressure: a full queue waits for the writer to make room, rather than growing without bound.
+        long deadline = System.nanoTime() + MAX_WAIT_MILLIS * 1_000_000;
+        while (queued.get() >= CAPACITY){
+            LockSupport.unpark(thread);
+            if (System.nanoTime() > deadline) {
+                drop(1);
+                return;
+            }
+            LockSupport.parkNanos(1_000_000);
+        }
+        queue.add(new Event(Instant.now(), action, table, rowID, detail));
+        if (queued.incrementAndGet() >= BATCH_SIZE) LockSupport.unpark(thread);
+    }
+
+    /**
+     * Writes every queued event, then stops the writer and closes the dedicated connection.
+     */
+    public void close(){
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (queued.get() > 0) System.out.printf("[!] %d audit events could not be written.\n", queued.get());
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("[!] An error occurred while attempting to close the audit log connection:\n" + e);
+        }
+    }
+
+    @Override
+    public void run(){
+        List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (true){
+            //Sleep until a batch is queued, the flush interval passes, or the log is closed.
+            if (running && queued.get() < BATCH_SIZE) LockSupport.parkNanos(FLUSH_INTERVAL_MILLIS * 1_000_000);
+
+            Event event;
+            while (batch.size() < BATCH_SIZE && (event = queue.poll()) != null){
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                if (!running) return;
+                continue;
+            }
+            try {
+                write(batch);
+                if (backoff > MIN_BACKOFF_MILLIS) System.out.println("[!] The audit log is writing events again.");
+                backoff = MIN_BACKOFF_MILLIS;
+            } catch (SQLException | IOException e) {
+                //Only the first failure in a row is reported, so a lost connection doesn't flood the console.
+                if (backoff == MIN_BACKOFF_MILLIS) {
+                    System.out.println("[!] Error occurred while attempting to write audit events, they will be retried:\n" + e);
+                }
+                //Once closed there is no one left to retry for. Close reports the events which weren't written.
+                if (!running) return;
+                //The batch stays queued, so new events are held back by the full queue rather than the batch being lost.
+                LockSupport.parkNanos(backoff * 1_000_000);
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+                reopen();
+                continue;
+            }
+            //Room is only made once the batch is written, so waiting writes are held back while the writer is busy.
+            queued.addAndGet(-batch.size());
+            batch.clear();
+        }
+    }
+
+    private void write(List<Event> batch) throws SQLException, IOException {
+        if (dialect.supportsCopy()) {
+            StringBuilder csv = new StringBuilder();
+            for (Event event : batch){
+                csv.append(event.time()).append(',')
+                        .append(csvValue(databaseUser)).append(',')
+                        .append(csvValue(systemUser)).append(',')
+                        .append(csvValue(event.action())).append(',')
+                        .append(csvValue(event.table())).append(',')
+                        .append(event.rowID() == -1 ? "" : event.rowID()).append(',')
+                        .append(event.detail() == null ? "" : csvValue(event.detail())).append('\n');
+            }
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            copyManager.copyIn("""
+                    COPY audit_log (logged_at, database_user, os_user, action, table_name, row_id, detail)
+                    FROM STDIN WITH (FORMAT csv)""", new StringReader(csv.toString()));
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder("""
+                INSERT INTO audit_log (logged_at, database_user, os_user, action, table_name, row_id, detail)
+                VALUES""");
+        for (int i = 0; i < batch.size(); i++){
+            Event event = batch.get(i);
+            sql.append("\n\t(TIMESTAMP WITH TIME ZONE '%s', %s, %s, %s, %s, %s, %s)".formatted(
+                    event.time(),
+                    sqlValue(databaseUser),
+                    sqlValue(systemUser),
+                    sqlValue(event.action()),
+                    sqlValue(event.table()),
+                    event.rowID() == -1 ? "null" : String.valueOf(event.rowID()),
+                    sqlValue(event.detail())));
+            sql.append(i == batch.size() - 1 ? ";" : ",");
+        }
+        try (Statement st = connection.createStatement()) {
+            st.setQueryTimeout(QueryClass.BULK.timeoutSeconds());
+            st.executeUpdate(sql.toString());
+        }
+    }
+
+    /**
+     * Replaces the dedicated connection if it no longer responds. A connection which can't be opened is tried again after
+     * the next failed batch.
+     */
+    private void reopen(){
+        try {
+            if (connection.isValid(VALID_TIMEOUT_SECONDS)) return;
+        } catch (SQLException e) {
+            //Replaced below.
+        }
+        Connection replacement = reconnect.get();
+        if (replacement == null) return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //Connection is discarded either way.
+        }
+        connection = replacement;
+    }
+
+    private void drop(int count){
+        //Only the first dropped event is reported, so a struggling log doesn't flood the console.
+        if (dropped.getAndAdd(count) == 0) {
+            System.out.println("[!] The audit log is falling behind. Some changes were not recorded.");
+        }
+    }
+
+    private static String csvValue(String value){
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String sqlValue(String value){
+        return value == null ? "null" : "'" + value.replace("'", "''") + "'";
+    }
+}
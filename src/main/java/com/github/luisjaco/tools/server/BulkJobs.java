@@ -0,0 +1,574 @@
+package com.github.luisjaco.tools.server;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The tools.BulkJobs class runs bulk changes, such as re-pricing services or deleting a client, without locking the tables
+ * for long. A job is a list of steps, each updating or deleting the rows of one table which match a filter. Each step works
+ * through its rows in primary key order, one chunk at a time, and every chunk is committed along with the step's progress in
+ * the bulk_job_steps table, so a paused, failed, or interrupted job resumes after the last committed chunk.
+ * <p>
+ * Jobs run in the background on their own connection, so the menu stays usable. Between chunks the job pauses, a chunk which
+ * holds its locks for too long makes the next chunks smaller, and the job only waits briefly for locks held by others before
+ * backing off, so the users of the database are never queued behind it. One job runs at a time.
+ */
+public class BulkJobs {
+    //Longest a chunk waits for a lock held by another transaction, in milliseconds.
+    private static final int LOCK_TIMEOUT_MILLIS = 500;
+    //Lock timeouts in a row after which the job is paused.
+    private static final int MAX_LOCK_RETRIES = 20;
+    //Longest wait after a lock timeout, in milliseconds.
+    private static final int MAX_BACKOFF_MILLIS = 10_000;
+    //Chunks which take longer than this are halved, in milliseconds.
+    private static final int TARGET_CHUNK_MILLIS = 250;
+    //Smallest chunk the job shrinks to.
+    private static final int MIN_CHUNK_SIZE = 10;
+
+    /**
+     * A step of a job.
+     * @param table Table whose rows are changed. Must have an integer id primary key.
+     * @param change SET clause of the update (ex: service_cost = 50.00), or null to delete the rows.
+     * @param filter Condition the rows must match.
+     */
+    public record Step(String table, String change, String filter) {}
+
+    /**
+     * A job, as stored.
+     * @param status running, paused, failed, or done. A job stored as running which isn't running here was interrupted, or is
+     *               running in another instance.
+     * @param done Rows changed or deleted so far.
+     * @param total Rows which matched when the job was created.
+     */
+    public record Job(int id, String description, String status, long done, long total) {}
+
+    private final Server server;
+    private final MowDataDB database;
+    private final Dialect dialect;
+    private boolean tablesCreated;
+    private volatile Thread runner;
+    private volatile int runningID;
+    private volatile boolean stopRequested;
+    //Woken by pause(). The job is never interrupted, since an interrupt during file access closes an embedded database.
+    private final Object wakeUp = new Object();
+    //Progress of the running job, for the status line.
+    private final AtomicLong runningDone = new AtomicLong();
+    private volatile long runStartNanos;
+    private final AtomicLong runRows = new AtomicLong();
+
+    /**
+     * Initializes a new tools.BulkJobs.
+     * @param server Server used to open the connection jobs run on.
+     * @param database Database the jobs change, which is told about each committed chunk.
+     */
+    public BulkJobs(Server server, MowDataDB database){
+        this.server = server;
+        this.database = database;
+        this.dialect = database.getDialect();
+    }
+
+    /**
+     * @param cityID Only services of properties in this city are re-priced, or -1 for every city.
+     * @param serviceType Only services which included this service are re-priced, as an index in servicesDone, or -1 for any.
+     * @param from First service date to re-price.
+     * @param to Last service date to re-price.
+     * @param byPercent Whether the amount is a percentage to change the costs by, rather than the new cost.
+     * @param amount Percentage (ex: 5 for 5% more, -10 for 10% less), or the new cost.
+     * @return Steps which re-price the matching services. Costs are kept from $0.00 to $999.99.
+     */
+    public static List<Step> repriceSteps(int cityID, int serviceType, LocalDate from, LocalDate to, boolean byPercent,
+                                          double amount){
+        StringBuilder filter = new StringBuilder("service_date BETWEEN '%tF' AND '%tF'".formatted(from, to));
+        if (serviceType != -1) filter.append(" AND ").append(MowDataDB.SERVICE_COLUMNS[serviceType]);
+        if (cityID != -1) {
+            filter.append(" AND property_id IN (SELECT id FROM properties WHERE city_id = %d)".formatted(cityID));
+        }
+        String change;
+        if (byPercent) {
+            String factor = BigDecimal.valueOf(1 + amount / 100).toPlainString();
+            change = "service_cost = LEAST(999.99, GREATEST(0, ROUND(service_cost * %s, 2)))".formatted(factor);
+        } else {
+            change = "service_cost = %s".formatted(BigDecimal.valueOf(amount).setScale(2, RoundingMode.HALF_UP).toPlainString());
+        }
+        return List.of(new Step("services", change, filter.toString()));
+    }
+
+    /**
+     * @param clientID ID of the client.
+     * @return Steps which delete a client along with their properties, and the services and archived services of those
+     * properties. Services must go before their property, since their property id can't be left empty.
+     */
+    public static List<Step> deleteClientSteps(int clientID){
+        String ofProperties = "property_id IN (SELECT id FROM properties WHERE client_id = %d)".formatted(clientID);
+        return List.of(
+                new Step("services", null, ofProperties),
+                new Step("services_archive", null, ofProperties),
+                new Step("properties", null, "client_id = %d".formatted(clientID)),
+                new Step("clients", null, "id = %d".formatted(clientID)));
+    }
+
+    /**
+     * @param fromClientID ID of the client whose properties are reassigned.
+     * @param toClientID ID of the client the properties are reassigned to.
+     * @param cityID Only properties in this city are reassigned, or -1 for every city.
+     * @return Steps which reassign the matching properties.
+     */
+    public static List<Step> reassignSteps(int fromClientID, int toClientID, int cityID){
+        String filter = "client_id = %d".formatted(fromClientID);
+        if (cityID != -1) filter += " AND city_id = %d".formatted(cityID);
+        return List.of(new Step("properties", "client_id = %d".formatted(toClientID), filter));
+    }
+
+    /**
+     * Counts the rows each step would change, without changing anything.
+     * @return Rows matched by each step, or null if an error occurred.
+     */
+    public long[] dryRun(List<Step> steps){
+        if (!ensureTables()) return null;
+        long[] counts = new long[steps.size()];
+        for (int i = 0; i < counts.length; i++){
+            Step step = steps.get(i);
+            ResultSet rs = database.performQuery("SELECT COUNT(*) FROM %s WHERE %s;".formatted(step.table(), step.filter()),
+                    "count rows for bulk job", QueryClass.BULK);
+            if (rs == null) return null;
+            try {
+                rs.next();
+                counts[i] = rs.getLong(1);
+                rs.close();
+            } catch (SQLException e) {
+                //Should not occur given ResultSet is not null.
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Stores a new job and starts running it in the background.
+     * @param description Description of the job, shown in the list of jobs.
+     * @param steps Steps of the job, run in order.
+     * @param totals Rows matched by each step, from dryRun().
+     * @param chunkSize Most rows changed per chunk.
+     * @param pauseMillis Pause between chunks, in milliseconds.
+     * @return ID of the job, or -1 if it couldn't be stored or started.
+     */
+    public int start(String description, List<Step> steps, long[] totals, int chunkSize, int pauseMillis){
+        if (isRunning()) {
+            System.out.printf("[!] Bulk job #%d is still running. Pause it or wait for it to finish first.\n", runningID);
+            return -1;
+        }
+        if (!ensureTables()) return -1;
+        int jobID = database.performInsert("""
+                INSERT INTO bulk_jobs (description, status, chunk_size, pause_millis)
+                VALUES ('%s', 'paused', %d, %d);""".formatted(quote(description), chunkSize, pauseMillis), "store bulk job");
+        if (jobID == -1) return -1;
+        StringBuilder sql = new StringBuilder("INSERT INTO bulk_job_steps (job_id, step, table_name, change_sql, filter_sql, total) VALUES ");
+        for (int i = 0; i < steps.size(); i++){
+            Step step = steps.get(i);
+            if (i > 0) sql.append(", ");
+            sql.append("(%d, %d, '%s', %s, '%s', %d)".formatted(jobID, i, step.table(),
+                    step.change() == null ? "NULL" : "'" + quote(step.change()) + "'", quote(step.filter()), totals[i]));
+        }
+        if (database.performUpdateCount(sql + ";", "store bulk job steps") < 0) {
+            database.performUpdateCount("DELETE FROM bulk_jobs WHERE id = %d;".formatted(jobID), "remove bulk job");
+            return -1;
+        }
+        return resume(jobID) ? jobID : -1;
+    }
+
+    /**
+     * Runs a stored job in the background, continuing after its last committed chunk.
+     * @param jobID ID of the job.
+     * @return Whether the job was started.
+     */
+    public synchronized boolean resume(int jobID){
+        if (isRunning()) {
+            System.out.printf("[!] Bulk job #%d is still running. Pause it or wait for it to finish first.\n", runningID);
+            return false;
+        }
+        if (!ensureTables()) return false;
+        Job job = null;
+        for (Job stored : list(-1)){
+            if (stored.id() == jobID) job = stored;
+        }
+        if (job == null) {
+            System.out.printf("[!] Bulk job #%d was not found.\n", jobID);
+            return false;
+        }
+        if (job.status().equals("done")) {
+            System.out.printf("[!] Bulk job #%d is already done.\n", jobID);
+            return false;
+        }
+        Job started = job;
+        runningID = jobID;
+        stopRequested = false;
+        runningDone.set(job.done());
+        runRows.set(0);
+        runStartNanos = System.nanoTime();
+        Thread thread = new Thread(() -> run(started), "mowdata-bulk-job");
+        thread.setDaemon(true);
+        runner = thread;
+        thread.start();
+        System.out.printf("[!] Bulk job #%d started in the background: %s.\n", jobID, job.description());
+        return true;
+    }
+
+    /**
+     * @return Whether a job is running in this instance.
+     */
+    public boolean isRunning(){
+        Thread thread = runner;
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Asks the running job to stop after its current chunk, and waits for it to stop. The job can be resumed later.
+     * @return Whether a job was running.
+     */
+    public boolean pause(){
+        Thread thread = runner;
+        if (thread == null || !thread.isAlive()) return false;
+        synchronized (wakeUp) {
+            stopRequested = true;
+            wakeUp.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Pauses the running job, if any, so it can be resumed the next time MowData runs.
+     */
+    public void close(){
+        pause();
+    }
+
+    /**
+     * @param n Number of jobs to retrieve, newest first, or -1 for every job.
+     * @return Stored jobs, or an empty list if an error occurred.
+     */
+    public List<Job> list(int n){
+        List<Job> jobs = new ArrayList<>();
+        if (!ensureTables()) return jobs;
+        String sql = """
+                SELECT bulk_jobs.id, bulk_jobs.description, bulk_jobs.status,
+                	COALESCE(SUM(bulk_job_steps.done), 0), COALESCE(SUM(bulk_job_steps.total), 0)
+                FROM bulk_jobs
+                LEFT JOIN bulk_job_steps
+                ON bulk_job_steps.job_id = bulk_jobs.id
+                GROUP BY bulk_jobs.id, bulk_jobs.description, bulk_jobs.status
+                ORDER BY bulk_jobs.id DESC""";
+        ResultSet rs = database.performQuery((n == -1) ? sql + ";" : sql + " LIMIT %d;".formatted(n), "list bulk jobs");
+        if (rs == null) return jobs;
+        try {
+            while (rs.next()){
+                jobs.add(new Job(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getLong(5)));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to list bulk jobs:\n" + e);
+        }
+        return jobs;
+    }
+
+    /**
+     * Prints the most recent jobs, with the progress and speed of the running job.
+     * @param n Number of jobs to print.
+     * @return The jobs printed.
+     */
+    public List<Job> printJobs(int n){
+        List<Job> jobs = list(n);
+        if (jobs.isEmpty()) {
+            System.out.println("[!] No bulk jobs were found.");
+            return jobs;
+        }
+        boolean running = isRunning();
+        for (Job job : jobs){
+            long done = job.done();
+            long total = job.total();
+            String status = job.status().toUpperCase();
+            String speed = "";
+            if (running && job.id() == runningID) {
+                done = runningDone.get();
+                status = "RUNNING";
+                double seconds = (System.nanoTime() - runStartNanos) / 1e9;
+                speed = " | %.0f ROWS/S".formatted(runRows.get() / Math.max(seconds, 0.001));
+            } else if (status.equals("RUNNING")) {
+                status = "INTERRUPTED";
+            }
+            System.out.printf("[JOB ID#%d] %s | %d/%d ROWS (%.1f%%)%s | %s\n", job.id(), status, done, total,
+                    (total == 0) ? 100.0 : Math.min(100.0, (done * 100.0) / total), speed, job.description().toUpperCase());
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs a job until it is done, paused, or fails, on its own connection.
+     */
+    private void run(Job job){
+        Connection connection = server.openConnection();
+        if (connection == null) {
+            System.out.printf("[!] Bulk job #%d could not open its connection, and was not started.\n", job.id());
+            return;
+        }
+        TableHealth tableHealth = new TableHealth(connection);
+        String result = "done";
+        boolean repriced = false;
+        try (Statement st = connection.createStatement()) {
+            st.setQueryTimeout(QueryClass.BULK.timeoutSeconds());
+            st.executeUpdate(dialect.lockTimeoutSql(LOCK_TIMEOUT_MILLIS));
+            setStatus(st, job.id(), "running");
+            int[] settings = readSettings(st, job.id());
+            List<Object[]> steps = readSteps(st, job.id());
+            connection.setAutoCommit(false);
+            for (Object[] step : steps){
+                long before = runRows.get();
+                boolean finished = runStep(connection, st, job.id(), step, settings[0], settings[1]);
+                //Vacuums can't run inside a transaction, so the step's writes are reported with auto-commit on.
+                connection.setAutoCommit(true);
+                tableHealth.recordBulkWrite((String) step[1], runRows.get() - before, step[2] == null);
+                if (step[1].equals("services") && step[2] != null && runRows.get() > before) repriced = true;
+                connection.setAutoCommit(false);
+                if (!finished) {
+                    result = "paused";
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            System.out.printf("[!] Error occurred while running bulk job #%d:\n%s\n", job.id(), e);
+            result = "failed";
+        } finally {
+            try {
+                if (!connection.getAutoCommit()) connection.rollback();
+                connection.setAutoCommit(true);
+                try (Statement st = connection.createStatement()) {
+                    setStatus(st, job.id(), result);
+                }
+            } catch (SQLException e) {
+                //The job stays marked as running, and can still be resumed.
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+            //Re-priced services no longer match the price sketches, which are rebuilt once the job stops.
+            if (repriced) database.resetPriceBook();
+            database.auditBulkJob(job.id(), job.description(), runRows.get());
+            switch (result) {
+                case "done" -> System.out.printf("\n[!] Bulk job #%d is done: %d rows changed.\n", job.id(), runningDone.get());
+                case "paused" -> System.out.printf("\n[!] Bulk job #%d was paused after %d rows. Resume it from the bulk jobs menu.\n",
+                        job.id(), runningDone.get());
+                default -> System.out.printf("\n[!] Bulk job #%d failed after %d rows. Resume it from the bulk jobs menu to retry.\n",
+                        job.id(), runningDone.get());
+            }
+        }
+    }
+
+    /**
+     * Runs a step of a job in chunks, from its last committed chunk. Each chunk seeks to the next chunk size rows matching
+     * the filter past the last id, in id order, so the database can find them through an index of the filter's columns, and
+     * stretches of ids without matching rows cost no chunks of their own.
+     * @param step Row of bulk_job_steps: step, table_name, change_sql, filter_sql, last_id.
+     * @return Whether the step finished. False if the job was paused.
+     * @throws SQLException If a chunk fails for any reason but a lock timeout.
+     */
+    private boolean runStep(Connection connection, Statement st, int jobID, Object[] step, int chunkSize, int pauseMillis)
+            throws SQLException {
+        int stepIndex = (Integer) step[0];
+        String table = (String) step[1];
+        String change = (String) step[2];
+        String filter = (String) step[3];
+        //Last id of the step as stored, which moves with every committed chunk.
+        int lastID = (Integer) step[4];
+        //Rows added once the step started are past the end, and are left alone.
+        int endID;
+        try (ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) FROM %s;".formatted(table))) {
+            rs.next();
+            endID = rs.getInt(1);
+        }
+        connection.commit();
+        int size = chunkSize;
+        int lockRetries = 0;
+        while (true){
+            if (stopRequested) return false;
+            long start = System.nanoTime();
+            int[] ids;
+            int changed = 0;
+            try {
+                ids = chunkIDs(st, table, filter, lastID, endID, size);
+                //No matching rows are left, and the probe's transaction is ended so it doesn't hold back vacuum.
+                if (ids.length == 0) {
+                    connection.commit();
+                    return true;
+                }
+                //The chunk ends at its last id, and the filter is checked again in case the rows changed since the seek.
+                int chunkEnd = ids[ids.length - 1];
+                String range = "id > %d AND id <= %d AND (%s)".formatted(lastID, chunkEnd, filter);
+                changed = st.executeUpdate((change == null)
+                        ? "DELETE FROM %s WHERE %s;".formatted(table, range)
+                        : "UPDATE %s SET %s WHERE %s;".formatted(table, change, range));
+                //The step only moves on if no other instance moved it first, so each chunk is applied once.
+                int moved = st.executeUpdate("""
+                        UPDATE bulk_job_steps
+                        SET last_id = %d, done = done + %d
+                        WHERE job_id = %d AND step = %d AND last_id = %d;""".formatted(chunkEnd, changed, jobID, stepIndex, lastID));
+                if (moved != 1) {
+                    connection.rollback();
+                    System.out.printf("\n[!] Bulk job #%d is being run by another instance, so it was stopped here.\n", jobID);
+                    return false;
+                }
+                connection.commit();
+                lastID = chunkEnd;
+                lockRetries = 0;
+            } catch (SQLException e) {
+                connection.rollback();
+                if (!dialect.isLockTimeout(e)) throw e;
+                //Others hold locks on the chunk, so the job gives way and tries again later with a smaller chunk.
+                if (++lockRetries > MAX_LOCK_RETRIES) {
+                    System.out.printf("\n[!] Bulk job #%d kept waiting for locks held by others.\n", jobID);
+                    return false;
+                }
+                size = Math.max(MIN_CHUNK_SIZE, size / 2);
+                if (!sleep(Math.min(MAX_BACKOFF_MILLIS, (long) Math.max(pauseMillis, 100) << Math.min(lockRetries, 10)))) return false;
+                continue;
+            }
+
+            runningDone.addAndGet(changed);
+            runRows.addAndGet(changed);
+            database.bulkJobChanged(table, ids, change == null);
+
+            //Chunks which held their locks too long are halved, and grow back while they are quick.
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            if (millis > TARGET_CHUNK_MILLIS) size = Math.max(MIN_CHUNK_SIZE, size / 2);
+            else if (millis < TARGET_CHUNK_MILLIS / 2) size = Math.min(chunkSize, size * 2);
+            if (!sleep(pauseMillis)) return false;
+        }
+    }
+
+    /**
+     * Seeks to the rows of the next chunk.
+     * @param filter Condition the rows must match.
+     * @param lastID Rows with this id or lower were already done.
+     * @param endID Rows with higher ids were added once the step started.
+     * @param size Most rows in the chunk.
+     * @return Ids of the rows of the chunk, in order.
+     */
+    private int[] chunkIDs(Statement st, String table, String filter, int lastID, int endID, int size) throws SQLException {
+        IntList ids = new IntList();
+        try (ResultSet rs = st.executeQuery("""
+                SELECT id
+                FROM %s
+                WHERE (%s) AND id > %d AND id <= %d
+                ORDER BY id
+                LIMIT %d;""".formatted(table, filter, lastID, endID, size))) {
+            while (rs.next()){
+                ids.add(rs.getInt(1));
+            }
+        }
+        return Arrays.copyOf(ids.values, ids.size);
+    }
+
+    /**
+     * @return {chunk size, pause in milliseconds} of a job.
+     */
+    private int[] readSettings(Statement st, int jobID) throws SQLException {
+        try (ResultSet rs = st.executeQuery("SELECT chunk_size, pause_millis FROM bulk_jobs WHERE id = %d;".formatted(jobID))) {
+            rs.next();
+            return new int[] {rs.getInt(1), rs.getInt(2)};
+        }
+    }
+
+    /**
+     * @return Steps of a job in order, as {step, table_name, change_sql, filter_sql, last_id}.
+     */
+    private List<Object[]> readSteps(Statement st, int jobID) throws SQLException {
+        List<Object[]> steps = new ArrayList<>();
+        try (ResultSet rs = st.executeQuery("""
+                SELECT step, table_name, change_sql, filter_sql, last_id
+                FROM bulk_job_steps
+                WHERE job_id = %d
+                ORDER BY step ASC;""".formatted(jobID))) {
+            while (rs.next()){
+                steps.add(new Object[] {rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5)});
+            }
+        }
+        return steps;
+    }
+
+    private void setStatus(Statement st, int jobID, String status) throws SQLException {
+        st.executeUpdate("UPDATE bulk_jobs SET status = '%s' WHERE id = %d;".formatted(status, jobID));
+    }
+
+    /**
+     * Sleeps between chunks.
+     * @return Whether the job should go on. False once the job is asked to stop.
+     */
+    private boolean sleep(long millis){
+        if (millis <= 0) return !stopRequested;
+        synchronized (wakeUp) {
+            long end = System.currentTimeMillis() + millis;
+            long left = millis;
+            while (!stopRequested && left > 0){
+                try {
+                    wakeUp.wait(left);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                left = end - System.currentTimeMillis();
+            }
+        }
+        return !stopRequested;
+    }
+
+    /**
+     * Creates the tables jobs are stored in, and the services archive which client deletes clean up, if they are not present.
+     * @return Whether the tables are present.
+     */
+    private boolean ensureTables(){
+        if (tablesCreated) return true;
+        //Deleting a client walks the archive by id as well, which needs the archive's primary key.
+        if (!database.ensureArchiveTable()) return false;
+        //Table creation alters no rows, so only an error is considered a failure.
+        tablesCreated = database.performUpdateCount("""
+                CREATE TABLE IF NOT EXISTS bulk_jobs(
+                	id %s PRIMARY KEY,
+                	description VARCHAR(200) NOT NULL,
+                	status VARCHAR(10) NOT NULL,
+                	chunk_size INTEGER NOT NULL,
+                	pause_millis INTEGER NOT NULL,
+                	created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+                );
+                CREATE TABLE IF NOT EXISTS bulk_job_steps(
+                	job_id INTEGER NOT NULL,
+                	step INTEGER NOT NULL,
+                	table_name VARCHAR(30) NOT NULL,
+                	change_sql TEXT,
+                	filter_sql TEXT NOT NULL,
+                	total INTEGER NOT NULL,
+                	done INTEGER NOT NULL DEFAULT 0,
+                	last_id INTEGER NOT NULL DEFAULT 0,
+                	PRIMARY KEY (job_id, step),
+                	FOREIGN KEY (job_id)
+                		REFERENCES bulk_jobs(id)
+                		ON DELETE CASCADE
+                );""".formatted(dialect.serialType()), "create bulk job tables") >= 0;
+        return tablesCreated;
+    }
+
+    private static String quote(String text){
+        return text.replace("'", "''");
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The tools.CancelWatcher class lets the user cancel a running statement from the console. While open, a background thread
+ * watches for input, and cancels the statement as soon as the user presses Enter. The statement's connection remains usable
+ * after the cancel.
+ */
+public class CancelWatcher implements AutoCloseable {
+    //How often to check for input, in milliseconds.
+    private static final int POLL_MILLIS = 50;
+
+    private final Statement statement;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile boolean cancelled;
+
+    /**
+     * Starts watching for input. Use with try-with-resources around the execution of the statement and the reading of its
+     * results.
+     * @param statement Statement to cancel when the user presses Enter.
+     */
+    public CancelWatcher(Statement statement){
+        this.statement = statement;
+        this.thread = new Thread(this::watch, "mowdata-cancel-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Whether the statement was cancelled by the user.
+     */
+    public boolean wasCancelled(){
+        return cancelled;
+    }
+
+    /**
+     * Stops watching for input.
+     */
+    @Override
+    public void close(){
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch(){
+        try {
+            while (!closed){
+                //Console input only becomes available once Enter is pressed. Input a menu is waiting for, such as the next
+                //page of a view still reading its rows, isn't a cancel.
+                if (System.in.available() > 0 && !Profiling.isWaitingForInput()) {
+                    cancelled = true;
+                    statement.cancel();
+                    return;
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            //Closed while sleeping.
+        } catch (IOException | SQLException e) {
+            //Cancelling is best effort, the statement's timeout still applies.
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.github.luisjaco.tools.server;
+
+import com.github.luisjaco.tools.Menu;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * The tools.Cards class prints the cards used to display MowData rows, and the cards used to confirm new rows with the user. Every
+ * tools.MowDataStore prints through these cards so rows look the same whichever storage is used.
+ */
+public class Cards {
+    //Display names of the services, in the order of servicesDone.
+    public static final String[] SERVICE_NAMES = {"MOW", "LEAF BLOW", "SEED", "FERTILIZER", "MULCH", "TREE REMOVAL",
+            "TREE TRIM", "POWER WASH", "SNOW PLOW"};
+
+    private Cards(){
+        //Only static methods.
+    }
+
+    /**
+     * Formats a phone number for display.
+     * @param phoneNumber Phone number as 10 digits (ex: 1234567890).
+     * @return Formatted phone number (ex: (123) 456-7890).
+     */
+    public static String formatPhoneNumber(String phoneNumber){
+        return "("
+                + phoneNumber.substring(0,3) + ") "
+                + phoneNumber.substring(3, 6) + "-"
+                + phoneNumber.substring(6, 10);
+    }
+
+    /**
+     * Prints the card of a service.
+     * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     *                     tree removal, tree trim, power wash, snow plow].
+     * @param notes Notes for service, or null if there are no notes.
+     */
+    public static void printService(int serviceID, int propertyID, String address, String city, String zip, String state,
+                                    LocalDate date, boolean[] servicesDone, String notes, double cost){
+        List<String> boolWords = boolWords(servicesDone);
+        System.out.printf("""
+
+                [SERVICE ID#%d]
+                SERVICE AT %s, %s, %s %s [PROPERTY ID#%d] ON %s
+                MOW..........%s |   LEAF BLOW....%s |   SEED...........%s
+                FERTILIZER...%s |   MULCH........%s |   TREE REMOVAL...%s
+                TREE TRIM....%s |   POWER WASH...%s |   SNOW PLOW......%s
+                NOTES: %s
+                COST......................$%.2f
+                """,
+                serviceID,
+                address,
+                city,
+                state,
+                zip,
+                propertyID,
+                date,
+                boolWords.get(0), boolWords.get(1), boolWords.get(2),
+                boolWords.get(3), boolWords.get(4), boolWords.get(5),
+                boolWords.get(6), boolWords.get(7), boolWords.get(8),
+                notes,
+                cost);
+    }
+
+    public static void printService(ServiceVisit service){
+        printService(service.id(), service.propertyID(), service.address(), service.city(), service.zip(), service.state(),
+                service.date(), service.servicesDone(), service.notes(), service.cost());
+    }
+
+    /**
+     * Prints the card of a property.
+     */
+    public static void printProperty(int propertyID, String address, String city, String zip, int cityID, String state,
+                                     String firstName, String lastName, int clientID){
+        System.out.printf("""
+
+                [PROPERTY ID#%d]
+                ADDRESS: %s | CITY: %s %s [CITY ID#%d] | STATE: %s
+                OWNER: %s %s [OWNER ID#%d]
+                """,
+                propertyID,
+                address,
+                city,
+                zip,
+                cityID,
+                state,
+                firstName,
+                lastName,
+                clientID);
+    }
+
+    public static void printProperty(Property property){
+        printProperty(property.id(), property.address(), property.city(), property.zip(), property.cityID(),
+                property.state(), property.firstName(), property.lastName(), property.clientID());
+    }
+
+    /**
+     * Prints the card of a city.
+     * @param state Full name of the state (ex: new york).
+     */
+    public static void printCity(int cityID, String name, String state, int stateID, String zip){
+        System.out.printf("""
+
+                [CITY ID#%d]
+                CITY: %s | STATE: %s [STATE ID#%d] | ZIP: %s
+                """,
+                cityID,
+                name,
+                state,
+                stateID,
+                zip);
+    }
+
+    public static void printCity(City city){
+        printCity(city.id(), city.name(), city.stateName(), city.stateID(), city.zip());
+    }
+
+    /**
+     * Prints the card of a client.
+     * @param phoneNumber Phone number as 10 digits (ex: 1234567890).
+     */
+    public static void printClient(int clientID, String firstName, String lastName, String phoneNumber, String email){
+        System.out.printf("""
+
+                [CLIENT ID#%d]
+                NAME: %s %s
+                PHONE: %s
+                EMAIL: %s
+                """,
+                clientID,
+                firstName,
+                lastName,
+                formatPhoneNumber(phoneNumber),
+                email);
+    }
+
+    public static void printClient(Client client){
+        printClient(client.id(), client.firstName(), client.lastName(), client.phone(), client.email());
+    }
+
+    /**
+     * Prints the card of a property which is overdue for a service.
+     * @param serviceType Index of the service in servicesDone, or -1 for any service.
+     * @param lastDate Date of the last such service, or null if the property never had one.
+     */
+    public static void printOverdueProperty(int propertyID, String address, String city, String zip, String state,
+                                            String firstName, String lastName, int clientID, int serviceType,
+                                            LocalDate lastDate){
+        String service = (serviceType == -1) ? "SERVICE" : SERVICE_NAMES[serviceType];
+        String last = (lastDate == null) ? "NEVER"
+                : "%tF (%d DAYS AGO)".formatted(lastDate, ChronoUnit.DAYS.between(lastDate, LocalDate.now()));
+        System.out.printf("""
+
+                [PROPERTY ID#%d]
+                ADDRESS: %s, %s, %s %s
+                OWNER: %s %s [OWNER ID#%d]
+                LAST %s: %s
+                """,
+                propertyID,
+                address,
+                city,
+                state,
+                zip,
+                firstName,
+                lastName,
+                clientID,
+                service,
+                last);
+    }
+
+    /**
+     * Prints the card of a property found near another property.
+     * @param distanceKm Distance from the other property, in kilometers.
+     */
+    public static void printNearbyProperty(int propertyID, String address, String city, String zip, String state,
+                                           String firstName, String lastName, int clientID, double distanceKm){
+        System.out.printf("""
+
+                [PROPERTY ID#%d] %.2f KM AWAY
+                ADDRESS: %s, %s, %s %s
+                OWNER: %s %s [OWNER ID#%d]
+                """,
+                propertyID,
+                distanceKm,
+                address,
+                city,
+                state,
+                zip,
+                firstName,
+                lastName,
+                clientID);
+    }
+
+    /**
+     * Prints the card of a new service and asks the user whether to add it.
+     * @param notes Notes as they will be stored (ex: 'gate code 1234', or null).
+     * @param input Scanner to be used for user input.
+     * @return Whether the user chose to add the service.
+     */
+    public static boolean confirmService(int propertyID, LocalDate date, boolean[] servicesDone, String notes, double cost,
+                                         Scanner input){
+        List<String> boolWords = boolWords(servicesDone);
+        System.out.printf("""
+                 [!] Now displaying service card.
+
+                 [SERVICE AT PROPERTY ID#%d ON %tF]
+                 MOW..........%s |   LEAF BLOW....%s |   SEED...........%s
+                 FERTILIZER...%s |   MULCH........%s |   TREE REMOVAL...%s
+                 TREE TRIM....%s |   POWER WASH...%s |   SNOW PLOW......%s
+                 NOTES: %s
+                 COST......................$%.2f
+
+                 """,
+                propertyID,
+                date,
+                boolWords.get(0),
+                boolWords.get(1),
+                boolWords.get(2),
+                boolWords.get(3),
+                boolWords.get(4),
+                boolWords.get(5),
+                boolWords.get(6),
+                boolWords.get(7),
+                boolWords.get(8),
+                notes,
+                cost);
+        System.out.print("""
+                Would you like to add this service to the services table?:
+
+                [1] Yes.
+                [0] No.
+
+                input:""");
+        //If user selects 'no' the service is not added.
+        if (Menu.collectInt(0, 1, input) == 0) {
+            System.out.println("[!] Service not added.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Prints the card of a new property and asks the user whether to add it.
+     * @param latitude Latitude of property, or NaN if it is unknown.
+     * @param longitude Longitude of property, or NaN if it is unknown.
+     * @param input Scanner to be used for user input.
+     * @return Whether the user chose to add the property.
+     */
+    public static boolean confirmProperty(int clientID, String address, int cityID, double latitude, double longitude,
+                                          Scanner input){
+        String location = (Double.isNaN(latitude) || Double.isNaN(longitude)) ? "UNKNOWN"
+                : "%.6f, %.6f".formatted(latitude, longitude);
+        System.out.printf("""
+                [!] Now displaying property card.
+
+                [PROPERTY AT %s]
+                OWNED BY CLIENT ID #%d
+                ADDRESS IS IN CITY #%d
+                LOCATION: %s
+
+                Would you like to add this property to the properties tables?
+
+                [1] Yes.
+                [0] No.
+
+                input:""", address, clientID, cityID, location);
+        return (Menu.collectInt(0, 1, input) == 1);
+    }
+
+    /**
+     * Prints the card of a new city and asks the user whether to add it.
+     * @param input Scanner to be used for user input.
+     * @return Whether the user chose to add the city.
+     */
+    public static boolean confirmCity(String name, String zip, int stateID, Scanner input){
+        System.out.printf("""
+                [!] Now displaying city card.
+
+                [CITY '%s']
+                ZIP %s
+                STATE ID#%d
+
+                Would you like to add this city to the cities table?
+
+                [1] Yes.
+                [0] No.
+
+                input:""",
+                name,
+                zip,
+                stateID);
+        return (Menu.collectInt(0, 1, input) == 1);
+    }
+
+    /**
+     * Prints the card of a new client and asks the user whether to add it.
+     * @param phoneNumber Phone number as 10 digits (ex: 1234567890).
+     * @param input Scanner to be used for user input.
+     * @return Whether the user chose to add the client.
+     */
+    public static boolean confirmClient(String firstName, String lastName, String phoneNumber, String email, Scanner input){
+        System.out.printf("""
+                [!] Now displaying client card.
+
+                [CLIENT '%s %s']
+                PHONE: %s
+                EMAIL: %s
+
+                Would you like to add this client?
+
+                [1] Yes.
+                [0] No.
+
+                input:""",
+                firstName,
+                lastName,
+                formatPhoneNumber(phoneNumber),
+                email);
+        return (Menu.collectInt(0, 1, input) == 1);
+    }
+
+    /**
+     * Prints the card of a client being onboarded and asks the user whether to onboard them.
+     * @param phoneNumber Phone number as 10 digits (ex: 1234567890).
+     * @param properties Properties owned by the client, each with an optional first service.
+     * @param input Scanner to be used for user input.
+     * @return Whether the user chose to onboard the client.
+     */
+    public static boolean confirmOnboarding(String firstName, String lastName, String phoneNumber, String email,
+                                            List<OnboardingProperty> properties, Scanner input){
+        System.out.printf("""
+                [!] Now displaying onboarding card.
+
+                [CLIENT '%s %s']
+                PHONE: %s
+                EMAIL: %s
+                """,
+                firstName,
+                lastName,
+                formatPhoneNumber(phoneNumber),
+                email);
+        for (OnboardingProperty property : properties){
+            System.out.printf("[PROPERTY AT %s] IN CITY #%d", property.address(), property.cityID());
+            if (property.hasService()) {
+                System.out.printf(" | FIRST SERVICE ON %tF FOR $%.2f", property.serviceDate(), property.serviceCost());
+            }
+            System.out.println();
+        }
+        System.out.print("""
+
+                Would you like to onboard this client?
+
+                [1] Yes.
+                [0] No.
+
+                input:""");
+        return (Menu.collectInt(0, 1, input) == 1);
+    }
+
+    /**
+     * Converts boolean values to strings which say YES or NO.
+     */
+    private static List<String> boolWords(boolean[] servicesDone){
+        ArrayList<String> boolWords = new ArrayList<>();
+        for (boolean done : servicesDone){
+            boolWords.add(done ? "YES" : "NO ");
+        }
+        return boolWords;
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.luisjaco.tools.server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * The tools.ChangeListener class listens for table change notifications sent by the MowData triggers on its own dedicated
+ * connection. Notifications which arrive close together are combined, then passed to every registered tools.TableChangeListener.
+ * If the connection is lost, everything registered is invalidated and the listener reconnects with backoff. Everything is
+ * invalidated again once it listens again, since changes made in between were never notified.
+ */
+public class ChangeListener implements Runnable {
+    //Channel the MowData triggers notify on.
+    public static final String CHANNEL = "mowdata_changes";
+    //Tables which send notifications when changed.
+    public static final String[] TABLES = {"clients", "cities", "properties", "services"};
+    //Time to keep collecting notifications after the first one arrives, so bursts of changes cause a single dispatch.
+    private static final int COALESCE_WINDOW_MILLIS = 50;
+    //Time to wait for notifications before checking whether the listener was closed.
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    //Time to wait before the first reconnect attempt. Doubled after each failed attempt.
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final Supplier<Connection> reconnect;
+    private volatile Connection connection;
+    private final CopyOnWriteArrayList<TableChangeListener> listeners;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Initializes a new tools.ChangeListener. Use the start() method to begin listening.
+     * @param connection Dedicated connection used only for listening. Will be closed along with the listener.
+     * @param reconnect Opens a new dedicated connection when the current one is lost, returning null if it can't.
+     */
+    public ChangeListener(Connection connection, Supplier<Connection> reconnect){
+        this.connection = connection;
+        this.reconnect = reconnect;
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Registers a listener to be notified of table changes.
+     * @param listener Listener to notify.
+     */
+    public void register(TableChangeListener listener){
+        listeners.add(listener);
+    }
+
+    /**
+     * Begins listening for notifications on a background thread.
+     * @return Whether listening began.
+     */
+    public boolean start(){
+        try {
+            listen(connection);
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to listen for table changes:\n" + e);
+            return false;
+        }
+        running = true;
+        thread = new Thread(this, "mowdata-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops listening and closes the dedicated connection.
+     */
+    public void close(){
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join(POLL_TIMEOUT_MILLIS * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("[!] An error occurred while attempting to close the listener connection:\n" + e);
+        }
+    }
+
+    @Override
+    public void run(){
+        while (running){
+            try {
+                poll();
+            } catch (SQLException e) {
+                if (!running) return; //Connection was closed by close().
+                //Changes can't be seen until the listener reconnects, so nothing registered is trusted.
+                System.out.println("[!] Table change listener lost its connection, and will reconnect:\n" + e);
+                dispatch(Set.of(TABLES));
+                if (!reconnect()) return;
+                System.out.println("[!] Table change listener reconnected.");
+                //Changes made while disconnected were never notified.
+                dispatch(Set.of(TABLES));
+            }
+        }
+    }
+
+    /**
+     * Dispatches notifications until the listener is closed.
+     * @throws SQLException If the connection is lost.
+     */
+    private void poll() throws SQLException {
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        while (running){
+            //Block until a notification arrives or the poll times out.
+            PGNotification[] notifications = pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+            if (notifications == null || notifications.length == 0) continue;
+
+            Set<String> tables = new HashSet<>();
+            addTables(notifications, tables);
+            //Collect any notifications which follow shortly after, so they are dispatched together.
+            long windowEnd = System.currentTimeMillis() + COALESCE_WINDOW_MILLIS;
+            long remaining;
+            while ((remaining = windowEnd - System.currentTimeMillis()) > 0){
+                addTables(pgConnection.getNotifications((int) remaining), tables);
+            }
+            dispatch(tables);
+        }
+    }
+
+    /**
+     * Replaces the lost connection with a new one which listens, waiting longer after each failed attempt.
+     * @return Whether the listener listens again. False once the listener is closed.
+     */
+    private boolean reconnect(){
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            //Connection is discarded either way.
+        }
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (running){
+            //Sleeps in steps, so close() doesn't wait out the backoff.
+            long wakeUp = System.currentTimeMillis() + backoff;
+            while (running && System.currentTimeMillis() < wakeUp){
+                try {
+                    Thread.sleep(Math.min(POLL_TIMEOUT_MILLIS, Math.max(1, wakeUp - System.currentTimeMillis())));
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            if (!running) return false;
+            Connection replacement = reconnect.get();
+            if (replacement != null) {
+                boolean listening = false;
+                try {
+                    listen(replacement);
+                    listening = true;
+                } catch (SQLException e) {
+                    //Tried again after the next backoff.
+                }
+                if (listening && running) {
+                    connection = replacement;
+                    return true;
+                }
+                //The listener may have been closed while reconnecting, leaving the new connection to be closed here.
+                try {
+                    replacement.close();
+                } catch (SQLException e) {
+                    //Connection is discarded either way.
+                }
+                if (listening) return false;
+            }
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+        return false;
+    }
+
+    private static void listen(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.execute("LISTEN " + CHANNEL + ";");
+        }
+    }
+
+    private void addTables(PGNotification[] notifications, Set<String> tables){
+        if (notifications == null) return;
+        for (PGNotification notification : notifications){
+            if (CHANNEL.equals(notification.getName())) tables.add(notification.getParameter());
+        }
+    }
+
+    private void dispatch(Set<String> tables){
+        for (TableChangeListener listener : listeners){
+            listener.tablesChanged(tables);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.luisjaco.tools.server;
+
+/**
+ * A row of the cities table along with its state, as returned by tools.MowDataStore.streamCities.
+ * @param id City ID.
+ * @param name City name, in lowercase.
+ * @param zip City zip code.
+ * @param stateID State ID.
+ * @param stateName Name of the state, in lowercase (ex: new york).
+ */
+public record City(int id, String name, String zip, int stateID, String stateName) {}
@@ -0,0 +1,11 @@
+package com.github.luisjaco.tools.server;
+
+/**
+ * A row of the clients table, as returned by tools.MowDataStore.streamClients.
+ * @param id Client ID.
+ * @param firstName Client first name, in lowercase.
+ * @param lastName Client last name, in lowercase.
+ * @param phone Client phone number (ex: 1234566890).
+ * @param email Client email, in lowercase.
+ */
+public record Client(int id, String firstName, String lastName, String phone, String email) {}
@@ -0,0 +1,282 @@
+package com.github.luisjaco.tools.server;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * The tools.DataGenerator class fills a MowData database with synthetic data, sized by a scale factor. A scale factor of 1 loads
+ * 10,000 clients, 500 cities, 25,000 properties, and 1,000,000 services. Service dates cover the last three years and follow the
+ * landscaping seasons, and the services done depend on the month. Rows are loaded with COPY and added after any existing rows.
+ * Every table is loaded in one transaction, so a load which fails part-way leaves no rows behind.
+ */
+public class DataGenerator {
+    //Rows per table at a scale factor of 1.
+    private static final int CLIENTS = 10_000;
+    private static final int CITIES = 500;
+    private static final int PROPERTIES = 25_000;
+    private static final int SERVICES = 1_000_000;
+    //Bytes buffered before being sent to the server during COPY.
+    private static final int COPY_BUFFER_BYTES = 1 << 20;
+    //Relative number of services done in each month, January to December.
+    private static final int[] MONTH_WEIGHTS = {3, 3, 4, 8, 12, 13, 13, 13, 11, 10, 7, 3};
+
+    private static final String[] FIRST_NAMES = {"james", "mary", "john", "patricia", "robert", "jennifer", "michael",
+            "linda", "william", "elizabeth", "david", "barbara", "richard", "susan", "joseph", "jessica", "thomas", "sarah",
+            "carlos", "maria", "luis", "ana", "wei", "mei", "raj", "priya", "omar", "fatima", "ivan", "olga"};
+    private static final String[] LAST_NAMES = {"smith", "johnson", "williams", "brown", "jones", "garcia", "miller",
+            "davis", "rodriguez", "martinez", "hernandez", "lopez", "gonzalez", "wilson", "anderson", "thomas", "taylor",
+            "moore", "jackson", "martin", "lee", "perez", "thompson", "white", "harris", "sanchez", "clark", "lewis"};
+    private static final String[] STREETS = {"apple", "orange", "maple", "oak", "pine", "cedar", "elm", "birch", "willow",
+            "park", "lake", "hill", "river", "spring", "meadow", "forest", "sunset", "highland", "church", "main"};
+    private static final String[] STREET_TYPES = {"ln", "rd", "st", "ave", "dr", "ct", "pl", "blvd"};
+    private static final String[] CITY_PARTS = {"spring", "oak", "green", "river", "fair", "west", "east", "north",
+            "south", "lake", "glen", "mill", "brook", "ash", "elm", "pine", "rock", "clear"};
+    private static final String[] CITY_SUFFIXES = {"ville", "field", "town", "dale", "wood", "port", " hills", " park",
+            "ford", "ton"};
+
+    private final Server server;
+    private final SplittableRandom random;
+
+    /**
+     * Initializes a new tools.DataGenerator.
+     * @param server Server used to open the connection data is loaded through.
+     * @param seed Seed for the random data. The same seed and scale factor always produce the same data.
+     */
+    public DataGenerator(Server server, long seed){
+        this.server = server;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Loads synthetic data into the clients, cities, properties, and services tables. Existing rows are kept.
+     * @param scaleFactor Size of the data, where 1 loads 1,000,000 services.
+     * @return Whether all data was loaded.
+     */
+    public boolean generate(double scaleFactor){
+        int clients = Math.max(1, (int) (CLIENTS * scaleFactor));
+        int cities = Math.max(1, (int) (CITIES * scaleFactor));
+        int properties = Math.max(1, (int) (PROPERTIES * scaleFactor));
+        int services = Math.max(1, (int) (SERVICES * scaleFactor));
+
+        Connection connection = server.openConnection();
+        if (connection == null) return false;
+        if (!Dialect.of(connection).supportsCopy()) {
+            System.out.printf("[!] Generating data requires COPY, which %s does not support.\n", Dialect.of(connection).name());
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            //Every statement of the job, including each COPY, is limited to the bulk timeout.
+            try (Statement st = connection.createStatement()) {
+                st.execute("SET statement_timeout = %d;".formatted(QueryClass.BULK.timeoutSeconds() * 1000));
+            }
+            //Every COPY and sequence update commits together, so the sequences never fall behind committed ids.
+            connection.setAutoCommit(false);
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            //New rows are given ids following the existing rows, so the generated references line up.
+            int firstClient = nextID(connection, "clients");
+            int firstCity = nextID(connection, "cities");
+            int firstProperty = nextID(connection, "properties");
+            int firstService = nextID(connection, "services");
+
+            System.out.printf("[!] Generating %d clients, %d cities, %d properties, and %d services.\n",
+                    clients, cities, properties, services);
+            copyClients(copyManager, firstClient, clients);
+            copyCities(copyManager, firstCity, cities);
+            copyProperties(copyManager, firstProperty, properties, firstClient, clients, firstCity, cities);
+            copyServices(copyManager, firstService, services, firstProperty, properties);
+
+            //Move the sequences past the generated ids, then refresh planner statistics and the visibility map for the new
+            //rows, so plans are the same as once autovacuum has run.
+            try (Statement st = connection.createStatement()) {
+                for (String table : new String[]{"clients", "cities", "properties", "services"}){
+                    st.execute("SELECT setval(pg_get_serial_sequence('%1$s', 'id'), (SELECT MAX(id) FROM %1$s));"
+                            .formatted(table));
+                }
+                connection.commit();
+                connection.setAutoCommit(true);
+                st.execute("VACUUM ANALYZE clients, cities, properties, services;");
+            }
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to generate data:\n" + e);
+            try {
+                //Once committed, only the vacuum can fail, and the rows are kept.
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    System.out.println("[!] No generated rows were kept.");
+                }
+            } catch (SQLException rollbackError) {
+                System.out.println("[!] Error occurred while attempting to undo the generated rows:\n" + rollbackError);
+            }
+            return false;
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+        System.out.printf("[!] Successfully generated data in %.1f seconds.\n", (System.nanoTime() - start) / 1_000_000_000.0);
+        return true;
+    }
+
+    private int nextID(Connection connection, String table) throws SQLException {
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM %s;".formatted(table))) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private void copyClients(CopyManager copyManager, int firstID, int count) throws SQLException {
+        Copy copy = new Copy(copyManager, "COPY clients (id, first_name, last_name, phone, email) FROM STDIN WITH (FORMAT csv)");
+        for (int id = firstID; id < firstID + count; id++){
+            String firstName = pick(FIRST_NAMES);
+            String lastName = pick(LAST_NAMES);
+            //Phone numbers can't start with 0 or 1.
+            long phone = 2_000_000_000L + random.nextLong(8_000_000_000L);
+            copy.row("%d,%s,%s,%d,%s.%s%d@example.com".formatted(id, firstName, lastName, phone, firstName, lastName, id));
+        }
+        copy.end("clients");
+    }
+
+    private void copyCities(CopyManager copyManager, int firstID, int count) throws SQLException {
+        Copy copy = new Copy(copyManager, "COPY cities (id, name, zip, state_id) FROM STDIN WITH (FORMAT csv)");
+        for (int id = firstID; id < firstID + count; id++){
+            String name = pick(CITY_PARTS) + pick(CITY_SUFFIXES);
+            //State ids 1 through 50 are the states inserted when the tables were created.
+            copy.row("%d,%s,%05d,%d".formatted(id, name, random.nextInt(1000, 100_000), random.nextInt(1, 51)));
+        }
+        copy.end("cities");
+    }
+
+    private void copyProperties(CopyManager copyManager, int firstID, int count, int firstClient, int clients,
+                                int firstCity, int cities) throws SQLException {
+        Copy copy = new Copy(copyManager, "COPY properties (id, client_id, address, city_id) FROM STDIN WITH (FORMAT csv)");
+        for (int id = firstID; id < firstID + count; id++){
+            //The first properties give every client one property, the rest go to random clients.
+            int offset = id - firstID;
+            int clientID = firstClient + (offset < clients ? offset : random.nextInt(clients));
+            String address = "%d %s %s".formatted(random.nextInt(1, 1000), pick(STREETS), pick(STREET_TYPES));
+            copy.row("%d,%d,%s,%d".formatted(id, clientID, address, firstCity + random.nextInt(cities)));
+        }
+        copy.end("properties");
+    }
+
+    private void copyServices(CopyManager copyManager, int firstID, int count, int firstProperty, int properties)
+            throws SQLException {
+        Copy copy = new Copy(copyManager, """
+                COPY services (id, property_id, service_date, service_cost, mow, leaf_blow, seed, fertilizer, mulch,
+                remove_tree, trim_tree, power_wash, snow_plow, notes) FROM STDIN WITH (FORMAT csv)""");
+        int weightTotal = 0;
+        for (int weight : MONTH_WEIGHTS){
+            weightTotal += weight;
+        }
+        LocalDate today = LocalDate.now();
+        boolean[] done = new boolean[9];
+        for (int id = firstID; id < firstID + count; id++){
+            //Pick a month by its weight, then a day within one of the last three years.
+            int roll = random.nextInt(weightTotal);
+            int month = 0;
+            while (roll >= MONTH_WEIGHTS[month]){
+                roll -= MONTH_WEIGHTS[month];
+                month++;
+            }
+            LocalDate date = LocalDate.of(today.getYear() - random.nextInt(3), month + 1, 1);
+            date = date.plusDays(random.nextInt(date.lengthOfMonth()));
+            if (date.isAfter(today)) date = date.minusYears(1);
+
+            double cost = seasonalServices(month + 1, done);
+            String notes = random.nextInt(20) == 0 ? "\"gate code on file, call ahead\"" : "";
+            //Costs always use a '.' decimal point, whatever the default locale.
+            copy.row(String.format(Locale.ROOT, "%d,%d,%tF,%.2f,%b,%b,%b,%b,%b,%b,%b,%b,%b,%s", id,
+                    firstProperty + random.nextInt(properties), date, cost,
+                    done[0], done[1], done[2], done[3], done[4], done[5], done[6], done[7], done[8], notes));
+        }
+        copy.end("services");
+    }
+
+    /**
+     * Picks the services done in a month and prices them.
+     * @param month Month of the service, 1 to 12.
+     * @param done Filled with the services done: [mow, leaf blow, seed, fertilizer, mulch, tree removal, tree trim,
+     *             power wash, snow plow].
+     * @return Cost of the service.
+     */
+    private double seasonalServices(int month, boolean[] done){
+        boolean winter = month == 12 || month <= 2;
+        boolean growing = month >= 4 && month <= 10;
+        done[0] = growing && random.nextInt(10) < 9;
+        done[1] = (month >= 9 && month <= 11) ? random.nextInt(10) < 7 : random.nextInt(10) == 0;
+        done[2] = (month == 4 || month == 9) && random.nextInt(4) == 0;
+        done[3] = (month == 4 || month == 5 || month == 9) && random.nextInt(3) == 0;
+        done[4] = (month >= 4 && month <= 6) && random.nextInt(5) == 0;
+        done[5] = random.nextInt(100) == 0;
+        done[6] = !winter && random.nextInt(20) == 0;
+        done[7] = (month >= 5 && month <= 9) && random.nextInt(25) == 0;
+        done[8] = winter && random.nextInt(10) < 8;
+        //Every service does at least one thing.
+        if (!(done[0] || done[1] || done[2] || done[3] || done[4] || done[5] || done[6] || done[7] || done[8])) {
+            done[winter ? 8 : 0] = true;
+        }
+
+        double[] prices = {45, 35, 60, 55, 120, 350, 150, 175, 80};
+        double cost = 0;
+        for (int i = 0; i < done.length; i++){
+            if (done[i]) cost += prices[i] * (0.8 + random.nextDouble() * 0.4);
+        }
+        //Costs are stored as NUMERIC(5, 2).
+        return Math.min(cost, 999.99);
+    }
+
+    private String pick(String[] values){
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * A COPY in progress. Rows are buffered and sent to the server in large chunks.
+     */
+    private static class Copy {
+        private final CopyIn copyIn;
+        private final StringBuilder buffer;
+        private int rows;
+
+        private Copy(CopyManager copyManager, String sql) throws SQLException {
+            this.copyIn = copyManager.copyIn(sql);
+            this.buffer = new StringBuilder(COPY_BUFFER_BYTES);
+        }
+
+        private void row(String row) throws SQLException {
+            buffer.append(row).append('\n');
+            rows++;
+            if (buffer.length() >= COPY_BUFFER_BYTES) flush();
+        }
+
+        private void flush() throws SQLException {
+            byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            copyIn.writeToCopy(bytes, 0, bytes.length);
+            buffer.setLength(0);
+        }
+
+        private void end(String table) throws SQLException {
+            flush();
+            copyIn.endCopy();
+            System.out.printf("[!] Loaded %d rows into %s.\n", rows, table);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.luisjaco.tools.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The tools.DatabaseCallEvent class is the flight recorder event for one call tools.MowDataDB makes to the database, such as
+ * a view query or an insert. Use tools.Profiling to begin and end the event.
+ */
+@Name("mowdata.DatabaseCall")
+@Label("Database Call")
+@Category({"MowData", "Database"})
+@Description("A query, update, or transaction performed by MowDataDB.")
+@StackTrace(false)
+public class DatabaseCallEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("What the call was for (ex: verify property id).")
+    String operation;
+
+    @Label("SQL Shape")
+    @Description("The SQL with its values replaced by ?, so calls which differ only by their values look the same.")
+    String sqlShape;
+
+    @Label("Rows")
+    @Description("Rows returned or altered, or -1 when the caller reads the rows itself.")
+    long rows;
+
+    @Label("Cached")
+    @Description("Whether the rows were served from the view cache, without calling the database.")
+    boolean cached;
+
+    @Label("Connection Wait")
+    @Description("Time spent checking and choosing the connection before the SQL was sent.")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectionWait;
+
+    @Label("Action")
+    String action;
+
+    @Label("Action ID")
+    @Description("ID of the menu action which made the call, or 0.")
+    long actionID;
+
+    //Transient fields aren't recorded.
+    transient long startNanos;
+}
@@ -0,0 +1,282 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The tools.DeltaExporter class exports the rows changed since a consumer's last export, such as an accounting tool or a crew's
+ * tablet, as newline-delimited JSON (NDJSON). Each consumer has a watermark in the export_watermarks table. Rows whose
+ * updated_at is past the watermark are written as upserts, and rows recorded in deleted_rows since the watermark are written
+ * as deletes (tombstones). The first export of a consumer holds every row. The export reads from a single snapshot, and the
+ * watermark only moves once the file is fully written, so an interrupted export is simply repeated.
+ * <p>
+ * A row's timestamps are set when its transaction starts, and a transaction may run many statements, so a transaction which
+ * commits after an export may carry a time before that export started. The watermark is therefore the start of the oldest
+ * transaction open when the export's snapshot was taken, read before the snapshot, so every change the export can't see is
+ * timestamped at or after it. Databases which can't report when transactions started instead reach back a fixed overlap past
+ * the watermark, which misses transactions that stay open longer than it. Consumers should apply rows as upserts by id,
+ * since recent rows may be sent twice.
+ */
+public class DeltaExporter {
+    //Exported tables, with referenced tables before the tables referencing them.
+    public static final String[] TABLES = {"states", "clients", "cities", "properties", "services"};
+    //Overlap used by default where transaction start times are unknown. Covers transactions open up to 5 minutes.
+    public static final Duration DEFAULT_OVERLAP = Duration.ofMinutes(5);
+    //Rows fetched per round trip, so a first export doesn't hold whole tables in memory.
+    private static final int FETCH_SIZE = 1000;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final Server server;
+    private final Duration overlap;
+
+    /**
+     * Initializes a new tools.DeltaExporter, reaching back DEFAULT_OVERLAP where transaction start times are unknown.
+     * @param server Server used to open the connection the export reads through.
+     */
+    public DeltaExporter(Server server){
+        this(server, DEFAULT_OVERLAP);
+    }
+
+    /**
+     * Initializes a new tools.DeltaExporter.
+     * @param server Server used to open the connection the export reads through.
+     * @param overlap How far exports reach back past the watermark where the database can't report when transactions started.
+     * Should be longer than any transaction which changes rows.
+     */
+    public DeltaExporter(Server server, Duration overlap){
+        this.server = server;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Exports the rows changed since a consumer's last export, then moves the consumer's watermark to this export.
+     * @param consumer Name of the consumer (ex: accounting). Letters, digits, '.', '_', and '-' only.
+     * @param folder Folder to write the export to. Created if it doesn't exist.
+     * @return Path of the written export, or null if an error occurred.
+     */
+    public Path export(String consumer, Path folder){
+        if (!consumer.matches("[A-Za-z0-9._-]{1,50}")) {
+            System.out.println("[!] Consumer names may only hold letters, digits, '.', '_', and '-'.");
+            return null;
+        }
+        Connection connection = server.openConnection();
+        if (connection == null) return null;
+
+        Path file = null;
+        long start = System.nanoTime();
+        try {
+            //Read before the snapshot is taken, so transactions the snapshot can't see started at or after it.
+            Dialect dialect = Dialect.of(connection);
+            Instant oldestStart = readTime(connection, dialect.oldestTransactionStartSql());
+            Duration reach = (oldestStart == null) ? overlap : Duration.ZERO;
+
+            //Every table is read from the same snapshot, so the export is consistent across tables.
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            Instant since = readWatermark(connection, consumer);
+            Instant watermark = (oldestStart == null) ? readTime(connection, "SELECT CURRENT_TIMESTAMP;") : oldestStart;
+
+            Files.createDirectories(folder);
+            file = folder.resolve("%s-%s.ndjson".formatted(consumer, FILE_TIME.format(watermark)));
+            long upserts = 0;
+            long deletes = 0;
+            try (BufferedWriter out = Files.newBufferedWriter(file)) {
+                for (String table : TABLES){
+                    upserts += writeUpserts(connection, out, table, (since == null) ? null : since.minus(reach));
+                }
+                //A consumer's first export holds every row, so it has nothing to delete.
+                if (since != null) deletes = writeDeletes(connection, out, since.minus(reach));
+                out.write("{\"op\":\"end\",\"consumer\":%s,\"since\":%s,\"watermark\":%s,\"upserts\":%d,\"deletes\":%d}\n"
+                        .formatted(json(consumer), since == null ? "null" : json(since.toString()), json(watermark.toString()),
+                                upserts, deletes));
+            }
+
+            saveWatermark(connection, consumer, watermark);
+            pruneTombstones(connection, reach);
+            connection.commit();
+            System.out.printf("[!] Successfully exported %d changed and %d deleted rows to '%s' (%.1f KB) in %d ms.\n",
+                    upserts, deletes, file, Files.size(file) / 1024.0, (System.nanoTime() - start) / 1_000_000);
+            return file;
+        } catch (SQLException | IOException e) {
+            System.out.println("[!] Error occurred while attempting to export changes:\n" + e);
+            System.out.println("[!] The watermark was not moved. Run the export again to retry.");
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                //The connection is closed below, which discards the transaction.
+            }
+            try {
+                if (file != null) Files.deleteIfExists(file);
+            } catch (IOException deleteError) {
+                //A partial file is left behind, and the next export writes a new one.
+            }
+            return null;
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+    }
+
+    /**
+     * @return The consumer's watermark, or null if the consumer never exported.
+     */
+    private Instant readWatermark(Connection connection, String consumer) throws SQLException {
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT watermark FROM export_watermarks WHERE consumer = '%s';".formatted(consumer))) {
+            return rs.next() ? rs.getTimestamp(1).toInstant() : null;
+        }
+    }
+
+    /**
+     * @param sql Query of a single timestamp, or null.
+     * @return The timestamp, or null if there is no query.
+     */
+    private Instant readTime(Connection connection, String sql) throws SQLException {
+        if (sql == null) return null;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getTimestamp(1).toInstant();
+        }
+    }
+
+    /**
+     * Writes every row of a table changed at or after since, as {"table":...,"op":"upsert","id":...,"row":{...}}.
+     * @param since Watermark of the consumer, less any overlap, or null for every row.
+     * @return Number of rows written.
+     */
+    private long writeUpserts(Connection connection, BufferedWriter out, String table, Instant since)
+            throws SQLException, IOException {
+        String sql = "SELECT * FROM %s".formatted(table);
+        if (since != null) sql += "\nWHERE updated_at >= %s".formatted(timestamp(since));
+        long rows = 0;
+        try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            st.setFetchSize(FETCH_SIZE);
+            st.setQueryTimeout(QueryClass.REPORT.timeoutSeconds());
+            ResultSet rs = st.executeQuery(sql + ";");
+            ResultSetMetaData meta = rs.getMetaData();
+            StringBuilder line = new StringBuilder();
+            while (rs.next()){
+                line.setLength(0);
+                line.append("{\"table\":").append(json(table))
+                        .append(",\"op\":\"upsert\",\"id\":").append(rs.getInt("id"))
+                        .append(",\"row\":{");
+                for (int i = 1; i <= meta.getColumnCount(); i++){
+                    if (i > 1) line.append(',');
+                    line.append(json(meta.getColumnLabel(i).toLowerCase())).append(':').append(jsonValue(rs.getObject(i)));
+                }
+                line.append("}}\n");
+                out.write(line.toString());
+                rows++;
+            }
+            rs.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Writes every row deleted at or after since, as {"table":...,"op":"delete","id":...}.
+     * @param since Watermark of the consumer, less any overlap.
+     * @return Number of deletes written.
+     */
+    private long writeDeletes(Connection connection, BufferedWriter out, Instant since) throws SQLException, IOException {
+        String sql = """
+                SELECT table_name, row_id, deleted_at
+                FROM deleted_rows
+                WHERE deleted_at >= %s
+                ORDER BY deleted_at;""".formatted(timestamp(since));
+        long rows = 0;
+        try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            st.setFetchSize(FETCH_SIZE);
+            st.setQueryTimeout(QueryClass.REPORT.timeoutSeconds());
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()){
+                out.write("{\"table\":%s,\"op\":\"delete\",\"id\":%d,\"deleted_at\":%s}\n"
+                        .formatted(json(rs.getString(1)), rs.getInt(2), jsonValue(rs.getObject(3))));
+                rows++;
+            }
+            rs.close();
+        }
+        return rows;
+    }
+
+    private void saveWatermark(Connection connection, String consumer, Instant watermark) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            int updated = st.executeUpdate("UPDATE export_watermarks SET watermark = %s WHERE consumer = '%s';"
+                    .formatted(timestamp(watermark), consumer));
+            if (updated == 0) {
+                st.executeUpdate("INSERT INTO export_watermarks (consumer, watermark) VALUES ('%s', %s);"
+                        .formatted(consumer, timestamp(watermark)));
+            }
+        }
+    }
+
+    /**
+     * Deletes tombstones which every consumer has already exported. Consumers which haven't exported yet receive every row,
+     * so they don't need tombstones.
+     * @param reach How far exports reach back past the watermark.
+     */
+    private void pruneTombstones(Connection connection, Duration reach) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            ResultSet rs = st.executeQuery("SELECT MIN(watermark) FROM export_watermarks;");
+            Timestamp oldest = rs.next() ? rs.getTimestamp(1) : null;
+            rs.close();
+            if (oldest == null) return;
+            st.executeUpdate("DELETE FROM deleted_rows WHERE deleted_at < %s;"
+                    .formatted(timestamp(oldest.toInstant().minus(reach))));
+        }
+    }
+
+    private static String timestamp(Instant instant){
+        return "TIMESTAMP WITH TIME ZONE '%s'".formatted(instant);
+    }
+
+    /**
+     * @param value Column value, as returned by the driver.
+     * @return The value as JSON. Numbers and booleans are kept as they are, and everything else becomes a string.
+     */
+    private static String jsonValue(Object value){
+        if (value == null) return "null";
+        if (value instanceof BigDecimal decimal) return decimal.toPlainString();
+        if (value instanceof Number || value instanceof Boolean) return value.toString();
+        if (value instanceof Timestamp timestamp) return json(timestamp.toInstant().toString());
+        if (value instanceof OffsetDateTime time) return json(time.toInstant().toString());
+        return json(value.toString());
+    }
+
+    private static String json(String value){
+        StringBuilder escaped = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                case '\t' -> escaped.append("\\t");
+                default -> {
+                    if (c < 0x20) escaped.append("\\u%04x".formatted((int) c));
+                    else escaped.append(c);
+                }
+            }
+        }
+        return escaped.append('"').toString();
+    }
+}
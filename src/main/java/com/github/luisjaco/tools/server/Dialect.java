@@ -0,0 +1,140 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A tools.Dialect describes the SQL differences between the databases MowData can be stored in. tools.MowDataDB asks its dialect
+ * for anything which isn't shared, such as catalog checks and table definitions, and for which features the database supports.
+ */
+public interface Dialect {
+    /**
+     * @return Name of the database, used in messages (ex: PostgreSQL).
+     */
+    String name();
+
+    /**
+     * @param table Table name, in lowercase.
+     * @return Boolean SQL expression which is true when the table exists.
+     */
+    String tableExistsSql(String table);
+
+    /**
+     * @return Query of the names of the indexes in the public schema, in lowercase, as a single column.
+     */
+    String indexNamesSql();
+
+    /**
+     * @return Column type of an auto-incrementing integer id.
+     */
+    String serialType();
+
+    /**
+     * @return Statement which creates the services_archive table, with the columns of the services table, if it is not present.
+     */
+    String createArchiveTableSql();
+
+    /**
+     * @return Whether a single JDBC statement may hold several SQL statements separated by semicolons.
+     */
+    boolean supportsMultipleStatements();
+
+    /**
+     * @return Whether INSERT and DELETE statements may be used inside a WITH clause, along with RETURNING.
+     */
+    boolean supportsWritableCte();
+
+    /**
+     * @return Whether triggers may notify listening connections of changes (LISTEN/NOTIFY).
+     */
+    boolean supportsNotify();
+
+    /**
+     * @return Whether rows can be bulk loaded with COPY.
+     */
+    boolean supportsCopy();
+
+    /**
+     * @return Whether query plans can be retrieved as JSON with EXPLAIN (FORMAT JSON).
+     */
+    boolean supportsJsonPlans();
+
+    /**
+     * @return Whether dead rows, scans, and modifications since the last ANALYZE are tracked per table (pg_stat_user_tables).
+     */
+    boolean supportsTableStatistics();
+
+    /**
+     * @param table Table name, in lowercase.
+     * @return Statement which refreshes the planner statistics of the table.
+     */
+    String analyzeSql(String table);
+
+    /**
+     * @param table Table name, in lowercase.
+     * @return Statement which reclaims the dead rows of the table and refreshes its planner statistics, or null if the database
+     * reclaims dead rows on its own.
+     */
+    String vacuumSql(String table);
+
+    /**
+     * @param table Table name, in lowercase. Must have an auto-incrementing id column.
+     * @param start Next id to give out.
+     * @param increment Step between the ids given out.
+     * @return Statement which changes the ids the table gives out.
+     */
+    String restartIdSql(String table, int start, int increment);
+
+    /**
+     * @return Definition of the updated_at column, which is set to the current time whenever a row is inserted or updated.
+     */
+    String updatedAtColumnSql();
+
+    /**
+     * @param tables Table names, in lowercase. Each table must have an id and an updated_at column.
+     * @return Statements which install the triggers that keep updated_at current, where the column can't do so itself, and
+     * record the id of every deleted row in the deleted_rows table. Services moved to the services_archive table aren't
+     * recorded, since they still exist.
+     */
+    String changeTrackingTriggersSql(String[] tables);
+
+    /**
+     * @return Statement which installs or replaces the function called by the triggers that record deleted rows, or null if
+     * the triggers call no function stored in the database.
+     */
+    String tombstoneFunctionSql();
+
+    /**
+     * @param millis Longest a statement may wait for a lock held by another transaction.
+     * @return Statement which sets how long the statements of this session wait for locks.
+     */
+    String lockTimeoutSql(int millis);
+
+    /**
+     * @return Whether an error was raised because a statement waited for a lock past the lock timeout, or was chosen to end a
+     * deadlock. The statement can be retried once the other transaction is done.
+     */
+    boolean isLockTimeout(SQLException e);
+
+    /**
+     * @return Query of the start time of the oldest transaction open on the database, or of the current time if it is older,
+     * as a single timestamp. Null if the database can't report when other transactions started.
+     */
+    String oldestTransactionStartSql();
+
+    /**
+     * Selects the dialect of the database a connection is connected to.
+     * @param connection Connection to the database.
+     * @return Dialect of the database. PostgreSQL is used if the database can't be identified.
+     */
+    static Dialect of(Connection connection){
+        try {
+            if (connection != null && connection.getMetaData().getDatabaseProductName().equals("H2")) {
+                return new H2Dialect();
+            }
+        } catch (SQLException e) {
+            //Fall back to PostgreSQL, the standard MowData database.
+        }
+        return new PostgresDialect();
+    }
+}
@@ -0,0 +1,396 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * The tools.DuplicateFinder class finds clients and properties which were entered more than once, and suggests merges. Phones,
+ * emails, names, and addresses are normalized first. Candidate pairs then come from blocking: rows sharing a phone, email, or
+ * house number are compared, and rows sorted by name or address are compared with their neighbors in a small window. Rows are
+ * never compared with every other row, so the work grows with the number of rows rather than its square. Candidate pairs are
+ * scored in parallel. Merges are applied through tools.MowDataDB.
+ */
+public class DuplicateFinder {
+    //Rows read per query while loading.
+    private static final int PAGE_SIZE = 50_000;
+    //Rows compared with each row after sorting.
+    private static final int WINDOW = 5;
+    //Larger blocks are skipped, since a value shared by that many rows (ex: a placeholder phone number) isn't evidence.
+    private static final int MAX_BLOCK = 50;
+    private static final double CLIENT_MATCH_SCORE = 0.65;
+    private static final double PROPERTY_MATCH_SCORE = 0.9;
+    //Street words and their standard abbreviations.
+    private static final Map<String, String> ADDRESS_WORDS = Map.ofEntries(
+            Map.entry("road", "rd"), Map.entry("street", "st"), Map.entry("avenue", "ave"), Map.entry("av", "ave"),
+            Map.entry("lane", "ln"), Map.entry("drive", "dr"), Map.entry("court", "ct"), Map.entry("place", "pl"),
+            Map.entry("boulevard", "blvd"), Map.entry("terrace", "ter"), Map.entry("circle", "cir"),
+            Map.entry("parkway", "pkwy"), Map.entry("highway", "hwy"), Map.entry("turnpike", "tpke"),
+            Map.entry("north", "n"), Map.entry("south", "s"), Map.entry("east", "e"), Map.entry("west", "w"),
+            Map.entry("apartment", "apt"));
+
+    private final MowDataDB database;
+
+    /**
+     * A suggested merge. The duplicate is merged into the kept row, which is the older of the two.
+     * @param table "clients" or "properties".
+     * @param score How alike the rows are, from 0 to 1.
+     * @param reason Evidence for the merge (ex: same phone, similar name).
+     */
+    public record Match(String table, int keepID, int duplicateID, double score, String reason) {}
+
+    /**
+     * A client with its fields normalized.
+     */
+    private record ClientKey(int id, String name, String reversedName, String phone, String email) {}
+
+    /**
+     * A property with its address normalized and split into the house number and the rest of the address.
+     */
+    private record PropertyKey(int id, int clientID, int cityID, String address, String number, String street) {}
+
+    /**
+     * Initializes a new tools.DuplicateFinder.
+     * @param database Database to read rows from and apply merges to.
+     */
+    public DuplicateFinder(MowDataDB database){
+        this.database = database;
+    }
+
+    /**
+     * Finds clients which look like the same customer.
+     * @return Suggested merges, most alike first, or null if an error occurred.
+     */
+    public List<Match> findClients(){
+        List<ClientKey> clients = loadClients();
+        if (clients == null) return null;
+
+        //Blocking: only rows sharing a phone or email, or close by name, become candidates.
+        Pairs pairs = new Pairs();
+        pairs.addBlocks(clients, ClientKey::phone);
+        pairs.addBlocks(clients, ClientKey::email);
+        pairs.addWindow(clients, ClientKey::name);
+        pairs.addWindow(clients, ClientKey::reversedName);
+
+        return pairs.score(pair -> scoreClients(clients.get(pair[0]), clients.get(pair[1])));
+    }
+
+    /**
+     * Finds properties in the same city whose addresses look like the same place.
+     * @return Suggested merges, most alike first, or null if an error occurred.
+     */
+    public List<Match> findProperties(){
+        List<PropertyKey> properties = loadProperties("");
+        if (properties == null) return null;
+
+        //Blocking: only rows in the same city sharing a house number, or close by address, become candidates.
+        Pairs pairs = new Pairs();
+        pairs.addBlocks(properties, property -> property.number().isEmpty() ? "" : property.cityID() + "|" + property.number());
+        pairs.addWindow(properties, property -> property.cityID() + "|" + property.address());
+
+        return pairs.score(pair -> scoreProperties(properties.get(pair[0]), properties.get(pair[1])));
+    }
+
+    /**
+     * Applies a suggested merge. Merging clients also merges the properties the two clients share, so their services end up
+     * on a single property. Every change of a merge is made in a single transaction.
+     * @param match Suggested merge.
+     * @return Whether the merge was applied.
+     */
+    public boolean merge(Match match){
+        if (match.table().equals("properties")) return database.mergeProperties(match.keepID(), match.duplicateID());
+
+        //Properties of the duplicate client at the same address as a property of the kept client are merged into it.
+        List<PropertyKey> properties = loadProperties("WHERE client_id IN (%d, %d)"
+                .formatted(match.keepID(), match.duplicateID()));
+        if (properties == null) return false;
+        Map<String, Integer> kept = new HashMap<>();
+        for (PropertyKey property : properties){
+            if (property.clientID() == match.keepID()) kept.putIfAbsent(property.cityID() + "|" + property.address(), property.id());
+        }
+        Map<Integer, Integer> propertyMerges = new HashMap<>();
+        for (PropertyKey property : properties){
+            if (property.clientID() != match.duplicateID()) continue;
+            Integer keepID = kept.get(property.cityID() + "|" + property.address());
+            if (keepID != null) propertyMerges.put(property.id(), keepID);
+        }
+        return database.mergeClients(match.keepID(), match.duplicateID(), propertyMerges);
+    }
+
+    private Match scoreClients(ClientKey a, ClientKey b){
+        double score = 0;
+        List<String> reasons = new ArrayList<>();
+        if (!a.phone().isEmpty() && a.phone().equals(b.phone())) {
+            score += 0.4;
+            reasons.add("same phone");
+        } else if (differByOne(a.phone(), b.phone())) {
+            score += 0.25;
+            reasons.add("phone one digit apart");
+        }
+        if (!a.email().isEmpty() && a.email().equals(b.email())) {
+            score += 0.4;
+            reasons.add("same email");
+        } else if (!a.email().isEmpty() && localPart(a.email()).equals(localPart(b.email()))) {
+            score += 0.25;
+            reasons.add("same email name");
+        }
+        double name = similarity(a.name(), b.name());
+        score += 0.4 * name;
+        if (name == 1) {
+            reasons.add("same name");
+        } else if (name >= 0.85) {
+            reasons.add("similar name");
+        }
+        score = Math.min(1, score);
+        if (score < CLIENT_MATCH_SCORE) return null;
+        return new Match("clients", Math.min(a.id(), b.id()), Math.max(a.id(), b.id()), score, String.join(", ", reasons));
+    }
+
+    private Match scoreProperties(PropertyKey a, PropertyKey b){
+        //Different house numbers are different places, however alike the streets are. The same goes for numbers in the
+        //street (ex: 5th ave and 6th ave).
+        if (a.cityID() != b.cityID() || a.number().isEmpty() || !a.number().equals(b.number())) return null;
+        if (!digits(a.street()).equals(digits(b.street()))) return null;
+        double score = similarity(a.street(), b.street());
+        if (score < PROPERTY_MATCH_SCORE) return null;
+        String reason = (score == 1) ? "same address" : "similar address";
+        if (a.clientID() != b.clientID()) reason += ", different owners";
+        return new Match("properties", Math.min(a.id(), b.id()), Math.max(a.id(), b.id()), score, reason);
+    }
+
+    private List<ClientKey> loadClients(){
+        List<ClientKey> clients = new ArrayList<>();
+        int lastID = 0;
+        while (true) {
+            //Rows are read in pages by id, so no single query holds every client.
+            ResultSet rs = database.performQuery("""
+                    SELECT id, first_name, last_name, phone, email
+                    FROM clients
+                    WHERE id > %d
+                    ORDER BY id ASC
+                    LIMIT %d;""".formatted(lastID, PAGE_SIZE), "load clients", QueryClass.REPORT);
+            if (rs == null) return null;
+            int read = 0;
+            try {
+                while (rs.next()){
+                    lastID = rs.getInt(1);
+                    String first = normalizeName(rs.getString(2));
+                    String last = normalizeName(rs.getString(3));
+                    clients.add(new ClientKey(lastID, first + " " + last, last + " " + first,
+                            normalizePhone(rs.getString(4)), normalizeEmail(rs.getString(5))));
+                    read++;
+                }
+                rs.close();
+            } catch (SQLException e) {
+                System.out.println("[!] Error occurred while attempting to load clients:\n" + e);
+                return null;
+            }
+            if (read < PAGE_SIZE) return clients;
+        }
+    }
+
+    /**
+     * @param where WHERE clause limiting the properties loaded, or "" for every property.
+     */
+    private List<PropertyKey> loadProperties(String where){
+        List<PropertyKey> properties = new ArrayList<>();
+        int lastID = 0;
+        String condition = where.isEmpty() ? "WHERE" : where + "\nAND";
+        while (true) {
+            ResultSet rs = database.performQuery("""
+                    SELECT id, client_id, city_id, address
+                    FROM properties
+                    %s id > %d
+                    ORDER BY id ASC
+                    LIMIT %d;""".formatted(condition, lastID, PAGE_SIZE), "load properties", QueryClass.REPORT);
+            if (rs == null) return null;
+            int read = 0;
+            try {
+                while (rs.next()){
+                    lastID = rs.getInt(1);
+                    String address = normalizeAddress(rs.getString(4));
+                    int space = address.indexOf(' ');
+                    boolean numbered = space > 0 && Character.isDigit(address.charAt(0));
+                    properties.add(new PropertyKey(lastID, rs.getInt(2), rs.getInt(3), address,
+                            numbered ? address.substring(0, space) : "",
+                            numbered ? address.substring(space + 1) : address));
+                    read++;
+                }
+                rs.close();
+            } catch (SQLException e) {
+                System.out.println("[!] Error occurred while attempting to load properties:\n" + e);
+                return null;
+            }
+            if (read < PAGE_SIZE) return properties;
+        }
+    }
+
+    /**
+     * @return The last 10 digits of a phone number, dropping any formatting and country code.
+     */
+    static String normalizePhone(String phone){
+        String digits = phone.replaceAll("[^0-9]", "");
+        return digits.length() > 10 ? digits.substring(digits.length() - 10) : digits;
+    }
+
+    /**
+     * @return The email in lowercase, without any +tag (ex: Jim+Lawn@Guy.com becomes jim@guy.com).
+     */
+    static String normalizeEmail(String email){
+        email = email.trim().toLowerCase();
+        int at = email.indexOf('@');
+        int plus = email.indexOf('+');
+        if (plus > 0 && plus < at) email = email.substring(0, plus) + email.substring(at);
+        return email;
+    }
+
+    /**
+     * @return The name in lowercase with only letters and single spaces.
+     */
+    static String normalizeName(String name){
+        return name.toLowerCase().replaceAll("[^a-z ]", "").trim().replaceAll(" +", " ");
+    }
+
+    /**
+     * @return The address in lowercase, without punctuation, with street words abbreviated (ex: 38 Orange Road. becomes
+     * 38 orange rd).
+     */
+    static String normalizeAddress(String address){
+        String[] words = address.toLowerCase().replaceAll("[^a-z0-9 ]", " ").trim().split(" +");
+        for (int i = 0; i < words.length; i++){
+            words[i] = ADDRESS_WORDS.getOrDefault(words[i], words[i]);
+        }
+        return String.join(" ", words);
+    }
+
+    /**
+     * Jaro-Winkler similarity, which rewards matching characters and a shared start and tolerates typos and swapped letters.
+     * @return Similarity from 0 (nothing alike) to 1 (equal).
+     */
+    static double similarity(String a, String b){
+        if (a.equals(b)) return 1;
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        int range = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] aMatched = new boolean[a.length()];
+        boolean[] bMatched = new boolean[b.length()];
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++){
+            int end = Math.min(b.length() - 1, i + range);
+            for (int j = Math.max(0, i - range); j <= end; j++){
+                if (bMatched[j] || a.charAt(i) != b.charAt(j)) continue;
+                aMatched[i] = true;
+                bMatched[j] = true;
+                matches++;
+                break;
+            }
+        }
+        if (matches == 0) return 0;
+
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++){
+            if (!aMatched[i]) continue;
+            while (!bMatched[j]) j++;
+            if (a.charAt(i) != b.charAt(j)) transpositions++;
+            j++;
+        }
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+        int prefix = 0;
+        while (prefix < Math.min(4, Math.min(a.length(), b.length())) && a.charAt(prefix) == b.charAt(prefix)) prefix++;
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    private static boolean differByOne(String a, String b){
+        if (a.isEmpty() || a.length() != b.length()) return false;
+        int differences = 0;
+        for (int i = 0; i < a.length() && differences < 2; i++){
+            if (a.charAt(i) != b.charAt(i)) differences++;
+        }
+        return differences == 1;
+    }
+
+    private static String digits(String value){
+        return value.replaceAll("[^0-9]", "");
+    }
+
+    private static String localPart(String email){
+        int at = email.indexOf('@');
+        return at == -1 ? email : email.substring(0, at);
+    }
+
+    /**
+     * Candidate pairs of row indexes, each packed into a long with the smaller index first.
+     */
+    private static class Pairs {
+        private long[] pairs = new long[1024];
+        private int size;
+
+        private void add(int a, int b){
+            if (a == b) return;
+            if (size == pairs.length) pairs = Arrays.copyOf(pairs, size * 2);
+            pairs[size++] = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+        }
+
+        /**
+         * Pairs every two rows which share a key. Empty keys and blocks larger than MAX_BLOCK are skipped.
+         */
+        private <T> void addBlocks(List<T> rows, Function<T, String> key){
+            Map<String, IntList> blocks = new HashMap<>();
+            for (int i = 0; i < rows.size(); i++){
+                String value = key.apply(rows.get(i));
+                if (!value.isEmpty()) blocks.computeIfAbsent(value, k -> new IntList()).add(i);
+            }
+            for (IntList block : blocks.values()){
+                if (block.size < 2 || block.size > MAX_BLOCK) continue;
+                for (int i = 0; i < block.size; i++){
+                    for (int j = i + 1; j < block.size; j++){
+                        add(block.get(i), block.get(j));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sorts rows by a key, then pairs each row with the WINDOW rows after it.
+         */
+        private <T> void addWindow(List<T> rows, Function<T, String> key){
+            String[] keys = new String[rows.size()];
+            for (int i = 0; i < keys.length; i++){
+                keys[i] = key.apply(rows.get(i));
+            }
+            int[] order = IntStream.range(0, keys.length).boxed()
+                    .sorted(Comparator.comparing(i -> keys[i]))
+                    .mapToInt(Integer::intValue).toArray();
+            for (int i = 0; i < order.length; i++){
+                for (int j = i + 1; j <= i + WINDOW && j < order.length; j++){
+                    add(order[i], order[j]);
+                }
+            }
+        }
+
+        /**
+         * Scores every distinct pair in parallel.
+         * @param scorer Receives {first index, second index}, and returns a match or null if the rows aren't alike.
+         * @return Matches, most alike first.
+         */
+        private List<Match> score(Function<int[], Match> scorer){
+            //A pair found by several blocks is only scored once.
+            long[] distinct = Arrays.stream(pairs, 0, size).sorted().distinct().toArray();
+            List<Match> matches = new ArrayList<>(Arrays.stream(distinct).parallel()
+                    .mapToObj(pair -> scorer.apply(new int[] {(int) (pair >>> 32), (int) pair}))
+                    .filter(Objects::nonNull)
+                    .toList());
+            matches.sort(Comparator.comparingDouble(Match::score).reversed()
+                    .thenComparingInt(Match::keepID).thenComparingInt(Match::duplicateID));
+            return matches;
+        }
+    }
+}
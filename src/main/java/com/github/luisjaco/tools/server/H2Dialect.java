@@ -0,0 +1,122 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.SQLException;
+
+/**
+ * The tools.H2Dialect class describes an embedded H2 database, running inside MowData in PostgreSQL compatibility mode. Used for
+ * single computer installs where no server is needed.
+ */
+public class H2Dialect implements Dialect {
+    @Override
+    public String name(){
+        return "H2";
+    }
+
+    @Override
+    public String tableExistsSql(String table){
+        return """
+                EXISTS (SELECT 1 FROM information_schema.tables WHERE LOWER(table_schema) = 'public' AND LOWER(table_name) = '%s')"""
+                .formatted(table);
+    }
+
+    @Override
+    public String indexNamesSql(){
+        return "SELECT LOWER(index_name) FROM information_schema.indexes WHERE LOWER(table_schema) = 'public';";
+    }
+
+    @Override
+    public String serialType(){
+        return "INTEGER GENERATED BY DEFAULT AS IDENTITY";
+    }
+
+    @Override
+    public String createArchiveTableSql(){
+        return "CREATE TABLE IF NOT EXISTS services_archive AS SELECT * FROM services WITH NO DATA;";
+    }
+
+    @Override
+    public boolean supportsMultipleStatements(){
+        return false;
+    }
+
+    @Override
+    public boolean supportsWritableCte(){
+        return false;
+    }
+
+    @Override
+    public boolean supportsNotify(){
+        return false;
+    }
+
+    @Override
+    public boolean supportsCopy(){
+        return false;
+    }
+
+    @Override
+    public boolean supportsJsonPlans(){
+        return false;
+    }
+
+    @Override
+    public boolean supportsTableStatistics(){
+        return false;
+    }
+
+    @Override
+    public String analyzeSql(String table){
+        return "ANALYZE TABLE %s;".formatted(table);
+    }
+
+    @Override
+    public String vacuumSql(String table){
+        //H2 reuses the space of deleted rows as the file is compacted, without a separate vacuum.
+        return null;
+    }
+
+    @Override
+    public String updatedAtColumnSql(){
+        return "TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP";
+    }
+
+    @Override
+    public String changeTrackingTriggersSql(String[] tables){
+        //H2 triggers are Java classes, run inside the database.
+        StringBuilder sql = new StringBuilder();
+        for (String table : tables){
+            sql.append("""
+                    CREATE TRIGGER IF NOT EXISTS %s_tombstone AFTER DELETE ON %s FOR EACH ROW CALL "%s";
+                    """.formatted(table, table, TombstoneTrigger.class.getName()));
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String tombstoneFunctionSql(){
+        //tools.TombstoneTrigger is loaded from the classpath, so it is always current.
+        return null;
+    }
+
+    @Override
+    public String lockTimeoutSql(int millis){
+        return "SET LOCK_TIMEOUT %d;".formatted(millis);
+    }
+
+    @Override
+    public boolean isLockTimeout(SQLException e){
+        //50200 is LOCK_TIMEOUT_1 and 40001 is DEADLOCK_1.
+        return e.getErrorCode() == 50200 || e.getErrorCode() == 40001;
+    }
+
+    @Override
+    public String oldestTransactionStartSql(){
+        //INFORMATION_SCHEMA.SESSIONS only holds when sessions and statements started, not transactions.
+        return null;
+    }
+
+    @Override
+    public String restartIdSql(String table, int start, int increment){
+        return "ALTER TABLE %s ALTER COLUMN id RESTART WITH %d SET INCREMENT BY %d;".formatted(table, start, increment);
+    }
+}
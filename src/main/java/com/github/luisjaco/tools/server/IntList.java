@@ -0,0 +1,37 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.Arrays;
+
+/**
+ * The tools.IntList class is a growable list of ints, used by in-memory indexes to avoid boxing every id.
+ */
+class IntList {
+    int[] values = new int[4];
+    int size;
+
+    void add(int value){
+        insert(size, value);
+    }
+    void insert(int index, int value){
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+    int get(int index){
+        return values[index];
+    }
+    /**
+     * Removes the first occurrence of a value, keeping the order of the rest.
+     * @return Whether the value was found.
+     */
+    boolean remove(int value){
+        for (int i = 0; i < size; i++){
+            if (values[i] != value) continue;
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,301 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The tools.InvoiceGenerator class builds the monthly invoices of every client with services in a given month. Clients are split
+ * into shards by id, and each shard is read by one set-based query on its own connection, in parallel on a bounded executor.
+ * Invoices are rendered as plain text and HTML while rows stream in. Runs are restartable: invoices which were already written
+ * are skipped.
+ */
+public class InvoiceGenerator {
+    //Rows fetched per round trip while streaming a shard.
+    private static final int FETCH_SIZE = 1000;
+
+    private final Server server;
+
+    /**
+     * Totals of a shard, combined into the run summary.
+     */
+    private record ShardResult(int written, int skipped, int lineItems, BigDecimal billed, boolean completed) {}
+
+    /**
+     * A single service on an invoice.
+     */
+    private record LineItem(int serviceID, LocalDate date, String location, String services, BigDecimal cost, String notes) {}
+
+    /**
+     * Initializes a new tools.InvoiceGenerator.
+     * @param server Server used to open a connection for each shard.
+     */
+    public InvoiceGenerator(Server server){
+        this.server = server;
+    }
+
+    /**
+     * Generates the invoices of every client with services in the given month, then prints and writes a summary. Invoices are
+     * written to a folder named after the month (ex: invoices/2024-08/invoice-1.txt and invoice-1.html). If a run is
+     * interrupted, running it again will only generate the missing invoices.
+     * @param month Month to invoice.
+     * @param directory Folder to write invoices to.
+     * @param threads Number of shards to read and render in parallel.
+     * @return Whether every shard completed.
+     */
+    public boolean generate(YearMonth month, Path directory, int threads){
+        long start = System.nanoTime();
+        Path monthDirectory = directory.resolve(month.toString());
+        try {
+            Files.createDirectories(monthDirectory);
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to create the invoice folder:\n" + e);
+            return false;
+        }
+
+        System.out.printf("[!] Generating invoices for %s using %d threads.\n", month, threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<ShardResult>> futures = new ArrayList<>();
+        for (int shard = 0; shard < threads; shard++){
+            int shardIndex = shard;
+            futures.add(executor.submit(() -> generateShard(month, monthDirectory, shardIndex, threads)));
+        }
+
+        //Combine the totals of every shard.
+        int written = 0;
+        int skipped = 0;
+        int lineItems = 0;
+        BigDecimal billed = BigDecimal.ZERO;
+        boolean completed = true;
+        for (Future<ShardResult> future : futures){
+            try {
+                ShardResult result = future.get();
+                written += result.written();
+                skipped += result.skipped();
+                lineItems += result.lineItems();
+                billed = billed.add(result.billed());
+                completed &= result.completed();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                completed = false;
+            } catch (ExecutionException e) {
+                System.out.println("[!] Error occurred while generating invoices:\n" + e.getCause());
+                completed = false;
+            }
+        }
+        executor.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        String summary = """
+                [INVOICE SUMMARY %s]
+                INVOICES WRITTEN: %d
+                INVOICES SKIPPED (ALREADY WRITTEN): %d
+                LINE ITEMS: %d
+                TOTAL BILLED: $%.2f
+                TIME: %.2f SECONDS
+                STATUS: %s
+                """.formatted(month, written, skipped, lineItems, billed, seconds,
+                completed ? "COMPLETE" : "INCOMPLETE, RUN AGAIN TO FINISH");
+        System.out.print(summary);
+        try {
+            Files.writeString(monthDirectory.resolve("summary.txt"), summary);
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to write the invoice summary:\n" + e);
+        }
+        return completed;
+    }
+
+    /**
+     * Reads and renders the invoices of a single shard of clients.
+     * @param month Month to invoice.
+     * @param directory Folder to write invoices to.
+     * @param shard Index of the shard.
+     * @param shardCount Total number of shards.
+     * @return Totals of the shard.
+     */
+    private ShardResult generateShard(YearMonth month, Path directory, int shard, int shardCount){
+        String sql = """
+                SELECT
+                	clients.id as client_id, --id 1
+                	clients.first_name,
+                	clients.last_name,
+                	clients.phone,
+                	clients.email,
+                	services.id as service_id, --id 6
+                	service_date,
+                	properties.address,
+                	cities.name,
+                	cities.zip,
+                	states.abbreviation,
+                	service_cost, --id 12
+                	mow, --id 13
+                	leaf_blow,
+                	seed,
+                	fertilizer,
+                	mulch,
+                	remove_tree,
+                	trim_tree,
+                	power_wash,
+                	snow_plow, --id 21
+                	notes
+                FROM services
+                JOIN properties
+                ON services.property_id = properties.id
+                JOIN clients
+                ON properties.client_id = clients.id
+                JOIN cities
+                ON properties.city_id = cities.id
+                JOIN states
+                ON cities.state_id = states.id
+                WHERE service_date >= '%tF'
+                AND service_date < '%tF'
+                AND clients.id %% %d = %d
+                ORDER BY clients.id, service_date, services.id;""".formatted(
+                month.atDay(1), month.plusMonths(1).atDay(1), shardCount, shard);
+
+        int written = 0;
+        int skipped = 0;
+        int lineItems = 0;
+        BigDecimal billed = BigDecimal.ZERO;
+        Connection connection = server.openConnection();
+        if (connection == null) return new ShardResult(0, 0, 0, BigDecimal.ZERO, false);
+        try {
+            //Rows are only streamed in batches of FETCH_SIZE while inside a transaction.
+            connection.setAutoCommit(false);
+            Statement st = connection.createStatement();
+            st.setFetchSize(FETCH_SIZE);
+            st.setQueryTimeout(QueryClass.REPORT.timeoutSeconds());
+            ResultSet rs = st.executeQuery(sql);
+
+            //Rows arrive ordered by client, so each client's rows are collected and rendered before moving on.
+            int clientID = -1;
+            String[] client = null;
+            List<LineItem> items = new ArrayList<>();
+            boolean hasRow = rs.next();
+            while (hasRow){
+                clientID = rs.getInt(1);
+                client = new String[]{rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5)};
+                items.clear();
+                while (hasRow && rs.getInt(1) == clientID){
+                    ArrayList<String> services = new ArrayList<>();
+                    for (int i = 13; i <= 21; i++){
+                        if (rs.getBoolean(i)) services.add(Cards.SERVICE_NAMES[i - 13]);
+                    }
+                    items.add(new LineItem(
+                            rs.getInt(6),
+                            rs.getDate(7).toLocalDate(),
+                            "%s, %s, %s %s".formatted(rs.getString(8), rs.getString(9), rs.getString(11), rs.getString(10)),
+                            String.join(", ", services),
+                            rs.getBigDecimal(12),
+                            rs.getString(22)));
+                    hasRow = rs.next();
+                }
+
+                BigDecimal total = BigDecimal.ZERO;
+                for (LineItem item : items){
+                    total = total.add(item.cost());
+                }
+                lineItems += items.size();
+                billed = billed.add(total);
+                if (writeInvoice(directory, month, clientID, client, items, total)) {
+                    written++;
+                } else {
+                    skipped++;
+                }
+            }
+            rs.close();
+            st.close();
+            connection.commit();
+        } catch (SQLException | IOException e) {
+            System.out.printf("[!] Error occurred while attempting to generate invoices for shard %d:\n%s\n", shard, e);
+            return new ShardResult(written, skipped, lineItems, billed, false);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+        return new ShardResult(written, skipped, lineItems, billed, true);
+    }
+
+    /**
+     * Writes the plain text and HTML invoices of a client. Each file is written under a temporary name and renamed once
+     * complete, so an interrupted run never leaves a partial invoice behind.
+     * @return Whether the invoices were written, false if they were already present.
+     */
+    private boolean writeInvoice(Path directory, YearMonth month, int clientID, String[] client, List<LineItem> items,
+                                 BigDecimal total) throws IOException {
+        Path text = directory.resolve("invoice-%d.txt".formatted(clientID));
+        Path html = directory.resolve("invoice-%d.html".formatted(clientID));
+        //The HTML invoice is renamed last, so its presence means both invoices are complete.
+        if (Files.exists(html)) return false;
+
+        String phone = "(" + client[2].substring(0, 3) + ") " + client[2].substring(3, 6) + "-" + client[2].substring(6, 10);
+
+        Path textTemp = directory.resolve(text.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(textTemp)) {
+            writer.write("""
+                    [INVOICE %s FOR CLIENT ID#%d]
+                    BILL TO: %s %s
+                    PHONE: %s
+                    EMAIL: %s
+
+                    """.formatted(month, clientID, client[0], client[1], phone, client[3]));
+            for (LineItem item : items){
+                writer.write("[SERVICE ID#%d] %tF AT %s\n".formatted(item.serviceID(), item.date(), item.location()));
+                writer.write("    %s\n".formatted(item.services().isEmpty() ? "NO SERVICES LISTED" : item.services()));
+                if (item.notes() != null) writer.write("    NOTES: %s\n".formatted(item.notes()));
+                writer.write("    COST......................$%.2f\n".formatted(item.cost()));
+            }
+            writer.write("\nTOTAL DUE.....................$%.2f\n".formatted(total));
+        }
+        Files.move(textTemp, text, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        Path htmlTemp = directory.resolve(html.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(htmlTemp)) {
+            writer.write("""
+                    <!DOCTYPE html>
+                    <html>
+                    <head><meta charset="UTF-8"><title>Invoice %s for client %d</title></head>
+                    <body>
+                    <h1>Invoice %s</h1>
+                    <p>Bill to: %s %s<br>Phone: %s<br>Email: %s</p>
+                    <table border="1">
+                    <tr><th>Service ID</th><th>Date</th><th>Location</th><th>Services</th><th>Notes</th><th>Cost</th></tr>
+                    """.formatted(month, clientID, month, escape(client[0]), escape(client[1]), phone, escape(client[3])));
+            for (LineItem item : items){
+                writer.write("<tr><td>%d</td><td>%tF</td><td>%s</td><td>%s</td><td>%s</td><td>$%.2f</td></tr>\n".formatted(
+                        item.serviceID(), item.date(), escape(item.location()), escape(item.services()),
+                        item.notes() == null ? "" : escape(item.notes()), item.cost()));
+            }
+            writer.write("""
+                    </table>
+                    <p><strong>Total due: $%.2f</strong></p>
+                    </body>
+                    </html>
+                    """.formatted(total));
+        }
+        Files.move(htmlTemp, html, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private static String escape(String text){
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
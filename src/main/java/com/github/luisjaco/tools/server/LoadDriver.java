@@ -0,0 +1,293 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * The tools.LoadDriver class measures how MowData performs under load. A number of threads, each with its own connection and
+ * tools.MowDataDB instance, replay a weighted mix of view, add, and verify calls for a set time. Throughput and latency
+ * percentiles are reported for each kind of call.
+ */
+public class LoadDriver {
+    //Rows displayed by each view call.
+    private static final int VIEW_ROWS = 50;
+    private static final String[] KINDS = {"view", "add", "verify"};
+
+    private final Server server;
+
+    /**
+     * Latencies recorded by a single thread, in nanoseconds, by kind of call.
+     */
+    private static class Latencies {
+        private final long[][] values = new long[KINDS.length][1024];
+        private final int[] counts = new int[KINDS.length];
+        private int errors;
+
+        private void add(int kind, long nanos){
+            if (counts[kind] == values[kind].length) values[kind] = Arrays.copyOf(values[kind], counts[kind] * 2);
+            values[kind][counts[kind]++] = nanos;
+        }
+    }
+
+    /**
+     * Initializes a new tools.LoadDriver.
+     * @param server Server used to open a connection for each thread.
+     */
+    public LoadDriver(Server server){
+        this.server = server;
+    }
+
+    /**
+     * Runs the workload, then prints throughput and p50/p99/p99.9 latency for each kind of call. Console output of the
+     * workload's database instances is discarded, while the rest of MowData still prints. Calls which failed are counted
+     * apart from the latencies.
+     * @param threads Number of concurrent threads.
+     * @param seconds How long to run the workload for.
+     * @param viewWeight Relative number of view calls (viewClients, viewCities, viewProperties, viewServices).
+     * @param addWeight Relative number of add calls (addClient, addService).
+     * @param verifyWeight Relative number of verify calls (verifyClient, verifyCity, verifyProperty).
+     */
+    public void run(int threads, int seconds, int viewWeight, int addWeight, int verifyWeight){
+        int[] weights = {viewWeight, addWeight, verifyWeight};
+        int[] maxIDs = findMaxIDs();
+        if (maxIDs == null) return;
+
+        //The database is set up once, by an instance whose input adds any missing tables without sample data.
+        List<Connection> connections = new ArrayList<>();
+        Connection setUpConnection = server.openConnection();
+        if (setUpConnection == null) return;
+        connections.add(setUpConnection);
+        MowDataDB setUp = new MowDataDB(setUpConnection, new Scanner("1\n"));
+
+        //Every thread has a database instance of its own, which reuses the setup and has no input, so its views can't be
+        //cancelled from the console. Views skip the view cache, so their latencies are the database's. A listener keeps
+        //the instances current with each other's writes.
+        List<MowDataDB> databases = new ArrayList<>();
+        Connection listenerConnection = server.openConnection();
+        ChangeListener listener = null;
+        if (listenerConnection != null && Dialect.of(listenerConnection).supportsNotify()) {
+            listener = new ChangeListener(listenerConnection, server::openConnection);
+        } else if (listenerConnection != null) {
+            //Embedded databases can't notify listeners, so the instances only see each other's writes when they read them.
+            try {
+                listenerConnection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+        for (int i = 0; i < threads; i++){
+            Connection connection = server.openConnection();
+            if (connection == null) {
+                closeAll(connections, listener);
+                return;
+            }
+            connections.add(connection);
+            MowDataDB database = new MowDataDB(connection, setUp);
+            database.setCaching(false);
+            database.setOutput(new PrintStream(OutputStream.nullOutputStream()));
+            databases.add(database);
+            if (listener != null) listener.register(database);
+        }
+        if (listener != null) listener.start();
+
+        System.out.printf("[!] Running workload with %d threads for %d seconds.\n", threads, seconds);
+        Latencies[] latencies = new Latencies[threads];
+        Thread[] workers = new Thread[threads];
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++){
+            int index = i;
+            latencies[i] = new Latencies();
+            workers[i] = new Thread(() -> work(databases.get(index), latencies[index], weights, maxIDs, deadline, index),
+                    "mowdata-load-" + i);
+            workers[i].start();
+        }
+        for (Thread worker : workers){
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+        closeAll(connections, listener);
+
+        report(latencies, elapsed);
+    }
+
+    private void work(MowDataDB database, Latencies latencies, int[] weights, int[] maxIDs, long deadline, int seed){
+        SplittableRandom random = new SplittableRandom(seed);
+        int weightTotal = weights[0] + weights[1] + weights[2];
+        String[] servicesModes = {"all", "property", "date"};
+        String[] propertiesModes = {"all", "city", "client"};
+        String[] citiesModes = {"all", "state", "name"};
+        String[] clientsModes = {"all", "name"};
+
+        while (System.nanoTime() < deadline){
+            //Pick a kind of call by weight.
+            int roll = random.nextInt(weightTotal);
+            int kind = 0;
+            while (roll >= weights[kind]){
+                roll -= weights[kind];
+                kind++;
+            }
+
+            //Errors are printed rather than thrown, so a call failed if the instance counted a failure during it.
+            int failures = database.getFailures();
+            long start = System.nanoTime();
+            try {
+                switch (kind) {
+                    case 0 -> {
+                        //Views are read to the end, as a user would see them. A view which failed returns no stream.
+                        boolean read = switch (random.nextInt(4)) {
+                            case 0 -> read(database.streamServices(servicesModes[random.nextInt(3)], VIEW_ROWS, false));
+                            case 1 -> read(database.streamProperties(propertiesModes[random.nextInt(3)], VIEW_ROWS));
+                            case 2 -> read(database.streamCities(citiesModes[random.nextInt(3)], VIEW_ROWS));
+                            default -> read(database.streamClients(clientsModes[random.nextInt(2)], VIEW_ROWS));
+                        };
+                        if (!read) {
+                            latencies.errors++;
+                            continue;
+                        }
+                    }
+                    case 1 -> {
+                        if (random.nextBoolean()) {
+                            boolean[] servicesDone = new boolean[9];
+                            servicesDone[0] = true;
+                            database.addService(1 + random.nextInt(maxIDs[2]), LocalDate.now(), servicesDone,
+                                    40 + random.nextInt(60), "", false);
+                        } else {
+                            database.addClient("load", "test", "555" + (1_000_000 + random.nextInt(9_000_000)),
+                                    "load.test@example.com", false);
+                        }
+                    }
+                    default -> {
+                        switch (random.nextInt(3)) {
+                            case 0 -> database.verifyClient(1 + random.nextInt(maxIDs[0]));
+                            case 1 -> database.verifyCity(1 + random.nextInt(maxIDs[1]));
+                            default -> database.verifyProperty(1 + random.nextInt(maxIDs[2]));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                latencies.errors++;
+                continue;
+            }
+            if (database.getFailures() != failures) {
+                latencies.errors++;
+                continue;
+            }
+            latencies.add(kind, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reads a view's rows to the end, then closes it.
+     * @param rows Rows of the view, or null if the view failed.
+     * @return Whether the view was read.
+     */
+    private static boolean read(Stream<?> rows){
+        if (rows == null) return false;
+        try (rows) {
+            rows.forEach(row -> {});
+        }
+        return true;
+    }
+
+    /**
+     * @return Highest client, city, and property ids, or null if they couldn't be retrieved.
+     */
+    private int[] findMaxIDs(){
+        Connection connection = server.openConnection();
+        if (connection == null) return null;
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("""
+                     SELECT
+                     	(SELECT COALESCE(MAX(id), 0) FROM clients),
+                     	(SELECT COALESCE(MAX(id), 0) FROM cities),
+                     	(SELECT COALESCE(MAX(id), 0) FROM properties);""")) {
+            rs.next();
+            int[] maxIDs = {rs.getInt(1), rs.getInt(2), rs.getInt(3)};
+            if (maxIDs[0] == 0 || maxIDs[1] == 0 || maxIDs[2] == 0) {
+                System.out.println("[!] The database needs clients, cities, and properties before running a workload.");
+                return null;
+            }
+            return maxIDs;
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to prepare the workload:\n" + e);
+            return null;
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+    }
+
+    private void closeAll(List<Connection> connections, ChangeListener listener){
+        if (listener != null) listener.close();
+        for (Connection connection : connections){
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                //Connection is discarded either way.
+            }
+        }
+    }
+
+    private void report(Latencies[] latencies, double elapsed){
+        System.out.printf("[!] Workload finished after %.1f seconds.\n\n", elapsed);
+        System.out.println("KIND   |      CALLS |    CALLS/S |   P50 (MS) |   P99 (MS) | P99.9 (MS) |   MAX (MS)");
+        int errors = 0;
+        for (Latencies thread : latencies){
+            errors += thread.errors;
+        }
+        for (int kind = 0; kind < KINDS.length; kind++){
+            //Combine every thread's latencies for this kind of call.
+            int total = 0;
+            for (Latencies thread : latencies){
+                total += thread.counts[kind];
+            }
+            long[] all = new long[total];
+            int position = 0;
+            for (Latencies thread : latencies){
+                System.arraycopy(thread.values[kind], 0, all, position, thread.counts[kind]);
+                position += thread.counts[kind];
+            }
+            Arrays.sort(all);
+            if (total == 0) {
+                System.out.printf("%-6s | %10d |          - |          - |          - |          - |          -\n", KINDS[kind], 0);
+                continue;
+            }
+            System.out.printf("%-6s | %10d | %10.1f | %10.3f | %10.3f | %10.3f | %10.3f\n",
+                    KINDS[kind],
+                    total,
+                    total / elapsed,
+                    percentile(all, 0.50),
+                    percentile(all, 0.99),
+                    percentile(all, 0.999),
+                    all[total - 1] / 1_000_000.0);
+        }
+        if (errors > 0) System.out.printf("[!] %d calls failed.\n", errors);
+    }
+
+    /**
+     * @return The percentile of sorted latencies, in milliseconds.
+     */
+    private static double percentile(long[] sorted, double percentile){
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
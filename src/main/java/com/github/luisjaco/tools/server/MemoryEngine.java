@@ -0,0 +1,1013 @@
+package com.github.luisjaco.tools.server;
+
+import com.github.luisjaco.tools.Menu;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The tools.MemoryEngine class is a MowData database held entirely in memory, for single computer installs and testing where
+ * even an embedded SQL database is more than needed. Rows are kept in lists indexed by id, along with indexes from each
+ * property to its services by date, from each client and city to their properties, and from each date to its services.
+ * Every change is written to a checksummed write-ahead log before it is applied, and all rows are periodically saved to a
+ * compact snapshot, so data survives restarts and crashes. Use open() to load or create an engine, and close() to save it.
+ */
+public class MemoryEngine implements MowDataStore {
+    private static final String SNAPSHOT_FILE = "mowdata.snapshot";
+    private static final String LOG_FILE = "mowdata.wal";
+    private static final int SNAPSHOT_MAGIC = 0x4D4F5744; //"MOWD"
+    //Version 2 added property coordinates. Version 1 snapshots are still loaded.
+    private static final int SNAPSHOT_VERSION = 2;
+    //Log entries written before a new snapshot is saved. The log is emptied after each snapshot.
+    private static final int SNAPSHOT_INTERVAL = 10_000;
+    //Types of rows in log entries.
+    private static final byte STATE = 1;
+    private static final byte CLIENT = 2;
+    private static final byte CITY = 3;
+    //Properties logged before coordinates were stored.
+    private static final byte UNLOCATED_PROPERTY = 4;
+    private static final byte SERVICE = 5;
+    private static final byte PROPERTY = 6;
+
+    private final Path directory;
+    private final Scanner input;
+    //Rows of each table. A row's id is its index plus one, since ids start at 1 and rows are never removed.
+    private final ArrayList<StateRow> states = new ArrayList<>();
+    private final ArrayList<ClientRow> clients = new ArrayList<>();
+    private final ArrayList<CityRow> cities = new ArrayList<>();
+    private final ArrayList<PropertyRow> properties = new ArrayList<>();
+    private final ServiceTable services = new ServiceTable();
+    //Indexes, in the same order as the rows they belong to.
+    private final Map<String, Integer> stateIDs = new HashMap<>();
+    private final ArrayList<IntList> propertiesByClient = new ArrayList<>();
+    private final ArrayList<IntList> propertiesByCity = new ArrayList<>();
+    private final ArrayList<IntList> servicesByProperty = new ArrayList<>();
+    private final TreeMap<Integer, IntList> servicesByDay = new TreeMap<>();
+    private final SpatialIndex spatialIndex = new SpatialIndex();
+    private final PriceBook priceBook = new PriceBook();
+    //Loaded from the bundled reference on first use.
+    private ZipCodes zipCodes;
+    private FileChannel log;
+    private int entriesSinceSnapshot;
+
+    private sealed interface Row permits StateRow, ClientRow, CityRow, PropertyRow, ServiceRow {}
+    private record StateRow(String abbreviation, String name) implements Row {}
+    private record ClientRow(String firstName, String lastName, String phone, String email) implements Row {}
+    private record CityRow(String name, String zip, int stateID) implements Row {}
+    /**
+     * A property. Latitude and longitude are NaN when they are unknown.
+     */
+    private record PropertyRow(int clientID, String address, int cityID, double latitude, double longitude) implements Row {
+        private boolean located(){
+            return !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        }
+    }
+    /**
+     * A service. The date is stored as a count of days since 1970-01-01, the cost in cents, and the services done as bits in
+     * the order of servicesDone: [mow, leaf blow, seed, fertilizer, mulch, tree removal, tree trim, power wash, snow plow].
+     */
+    private record ServiceRow(int propertyID, int day, int costCents, int servicesDone, String notes) implements Row {}
+    /**
+     * A row along with its id, as written to the log.
+     */
+    private record LoggedRow(int id, Row row) {}
+
+    /**
+     * The services table, stored as columns of primitives since it holds far more rows than the other tables. Rows are only
+     * built as a ServiceRow when read.
+     */
+    private static class ServiceTable {
+        private int size;
+        private int[] propertyIDs = new int[16];
+        private int[] days = new int[16];
+        private int[] costCents = new int[16];
+        private short[] servicesDone = new short[16];
+        private String[] notes = new String[16];
+
+        private void add(int propertyID, int day, int cost, int done, String note){
+            if (size == days.length) ensureCapacity(size * 2);
+            propertyIDs[size] = propertyID;
+            days[size] = day;
+            costCents[size] = cost;
+            servicesDone[size] = (short) done;
+            notes[size] = note;
+            size++;
+        }
+        private void ensureCapacity(int capacity){
+            if (capacity <= days.length) return;
+            propertyIDs = Arrays.copyOf(propertyIDs, capacity);
+            days = Arrays.copyOf(days, capacity);
+            costCents = Arrays.copyOf(costCents, capacity);
+            servicesDone = Arrays.copyOf(servicesDone, capacity);
+            notes = Arrays.copyOf(notes, capacity);
+        }
+        private ServiceRow get(int index){
+            return new ServiceRow(propertyIDs[index], days[index], costCents[index], servicesDone[index], notes[index]);
+        }
+    }
+
+    private MemoryEngine(Path directory, Scanner input){
+        this.directory = directory;
+        this.input = input;
+    }
+
+    /**
+     * Opens the in-memory engine stored in a folder. The latest snapshot is loaded, then any changes in the write-ahead log
+     * are replayed. If the folder holds no data, the states are added and the user is asked whether to add sample data.
+     * @param directory Folder holding the snapshot and write-ahead log. Created if missing.
+     * @param input Scanner to be used for user input.
+     * @return Opened engine, or null if the stored data couldn't be loaded.
+     */
+    public static MemoryEngine open(Path directory, Scanner input){
+        MemoryEngine engine = new MemoryEngine(directory, input);
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            Path snapshot = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(snapshot) && !engine.readSnapshot(snapshot)) return null;
+            engine.log = FileChannel.open(directory.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            engine.replayLog();
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to load in-memory data:\n" + e);
+            return null;
+        }
+        System.out.printf("[!] Loaded %d clients, %d cities, %d properties, and %d services in %d ms.\n",
+                engine.clients.size(), engine.cities.size(), engine.properties.size(), engine.services.size,
+                (System.nanoTime() - start) / 1_000_000);
+
+        if (engine.states.isEmpty()) engine.populate();
+        return engine;
+    }
+
+    /**
+     * Saves a snapshot and closes the write-ahead log. The engine must not be used afterwards.
+     */
+    public synchronized void close(){
+        if (log == null) return;
+        if (entriesSinceSnapshot > 0) writeSnapshot();
+        try {
+            log.close();
+        } catch (IOException e) {
+            //Every entry was already forced to disk.
+        }
+        log = null;
+        System.out.println("[!] In-memory data saved.");
+    }
+
+    @Override
+    public synchronized Stream<ServiceVisit> streamServices(String sortingMode, int n, boolean includeArchive){
+        //Services are never archived in memory, so includeArchive has no effect.
+        int limit = (n == -1) ? Integer.MAX_VALUE : n;
+        IntList ids = new IntList();
+        switch (sortingMode) {
+            case "property" -> {
+                for (int i = 0; i < servicesByProperty.size() && ids.size < limit; i++){
+                    IntList byProperty = servicesByProperty.get(i);
+                    for (int j = 0; j < byProperty.size && ids.size < limit; j++){
+                        ids.add(byProperty.get(j));
+                    }
+                }
+            }
+            case "date" -> {
+                for (IntList byDay : servicesByDay.descendingMap().values()){
+                    for (int j = 0; j < byDay.size && ids.size < limit; j++){
+                        ids.add(byDay.get(j));
+                    }
+                    if (ids.size >= limit) break;
+                }
+            }
+            default -> {
+                if (!sortingMode.equals("all")) System.out.println("Invalid sortingMode given. Defaulting to \"all\".");
+                for (int id = 1; id <= services.size && ids.size < limit; id++){
+                    ids.add(id);
+                }
+            }
+        }
+
+        return lazily(ids, this::serviceVisit);
+    }
+
+    @Override
+    public synchronized Stream<ServiceVisit> streamLastServices(int cityID, int serviceType, int n){
+        int limit = (n == -1) ? Integer.MAX_VALUE : n;
+        IntList propertyIDs = propertiesIn(cityID);
+        IntList ids = new IntList();
+        for (int i = 0; i < propertyIDs.size && ids.size < limit; i++){
+            int serviceID = lastService(propertyIDs.get(i), serviceType);
+            if (serviceID != -1) ids.add(serviceID);
+        }
+        return lazily(ids, this::serviceVisit);
+    }
+
+    @Override
+    public synchronized void viewOverdueProperties(int serviceType, int days, int cityID, int n){
+        int cutoff = (int) LocalDate.now().minusDays(days).toEpochDay();
+        //Overdue properties as {property id, day of last service}, where properties without a service sort first.
+        ArrayList<int[]> overdue = new ArrayList<>();
+        IntList propertyIDs = propertiesIn(cityID);
+        for (int i = 0; i < propertyIDs.size; i++){
+            int propertyID = propertyIDs.get(i);
+            int serviceID = lastService(propertyID, serviceType);
+            int day = (serviceID == -1) ? Integer.MIN_VALUE : services.days[serviceID - 1];
+            if (day <= cutoff) overdue.add(new int[]{propertyID, day});
+        }
+        overdue.sort(Comparator.comparingInt((int[] entry) -> entry[1]).thenComparingInt(entry -> entry[0]));
+
+        System.out.printf("[!] Now displaying properties without a service in %d days or more:\n", days);
+        for (int i = 0; i < overdue.size() && (n == -1 || i < n); i++){
+            int propertyID = overdue.get(i)[0];
+            int day = overdue.get(i)[1];
+            PropertyRow property = properties.get(propertyID - 1);
+            CityRow city = cities.get(property.cityID() - 1);
+            ClientRow client = clients.get(property.clientID() - 1);
+            Cards.printOverdueProperty(propertyID, property.address(), city.name(), city.zip(),
+                    states.get(city.stateID() - 1).abbreviation(), client.firstName(), client.lastName(), property.clientID(),
+                    serviceType, day == Integer.MIN_VALUE ? null : LocalDate.ofEpochDay(day));
+        }
+        if (overdue.isEmpty()) System.out.println("[!] No overdue properties were found.");
+    }
+
+    @Override
+    public synchronized void viewNearestProperties(int propertyID, int k, double radiusKm, int serviceType, int overdueDays){
+        double[] origin = spatialIndex.location(propertyID);
+        if (origin == null) {
+            System.out.printf("[!] Property ID#%d has no coordinates.\n", propertyID);
+            return;
+        }
+
+        //Service history is checked per candidate, so only properties near the origin are looked at.
+        int cutoff = (int) LocalDate.now().minusDays(overdueDays).toEpochDay();
+        long start = System.nanoTime();
+        List<SpatialIndex.Neighbor> nearest = spatialIndex.nearest(origin[0], origin[1], k, radiusKm, id -> {
+            if (id == propertyID) return false;
+            if (overdueDays == -1) return true;
+            int serviceID = lastService(id, serviceType);
+            return serviceID == -1 || services.days[serviceID - 1] <= cutoff;
+        });
+        long micros = (System.nanoTime() - start) / 1000;
+        if (nearest.isEmpty()) {
+            System.out.println("[!] No nearby properties were found.");
+            return;
+        }
+
+        System.out.printf("[!] Now displaying the %d closest properties to [PROPERTY ID#%d], found in %d microseconds:\n",
+                nearest.size(), propertyID, micros);
+        for (SpatialIndex.Neighbor neighbor : nearest){
+            PropertyRow property = properties.get(neighbor.propertyID() - 1);
+            CityRow city = cities.get(property.cityID() - 1);
+            ClientRow client = clients.get(property.clientID() - 1);
+            Cards.printNearbyProperty(neighbor.propertyID(), property.address(), city.name(), city.zip(),
+                    states.get(city.stateID() - 1).abbreviation(), client.firstName(), client.lastName(), property.clientID(),
+                    neighbor.distanceKm());
+        }
+    }
+
+    /**
+     * @param cityID Id of a city, or -1 for all cities.
+     * @return Ids of the properties in the city, in id order.
+     */
+    private IntList propertiesIn(int cityID){
+        if (cityID != -1) return (cityID >= 1 && cityID <= cities.size()) ? propertiesByCity.get(cityID - 1) : new IntList();
+        IntList ids = new IntList();
+        for (int id = 1; id <= properties.size(); id++){
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the latest service of a property, walking its services from newest to oldest.
+     * @param serviceType Only services which included this service are considered, or -1 for any service.
+     * @return Id of the service, or -1 if the property has no such service.
+     */
+    private int lastService(int propertyID, int serviceType){
+        IntList byProperty = servicesByProperty.get(propertyID - 1);
+        for (int i = byProperty.size - 1; i >= 0; i--){
+            int serviceID = byProperty.get(i);
+            if (serviceType == -1 || (services.servicesDone[serviceID - 1] & (1 << serviceType)) != 0) return serviceID;
+        }
+        return -1;
+    }
+    /**
+     * Streams the rows of a list of ids. Rows are built as the stream is consumed, each while holding the engine's lock.
+     * @param ids Ids of the rows, in order.
+     * @param row Builds the row of an id.
+     */
+    private <T> Stream<T> lazily(IntList ids, IntFunction<T> row){
+        return IntStream.range(0, ids.size).mapToObj(i -> {
+            synchronized (this) {
+                return row.apply(ids.get(i));
+            }
+        });
+    }
+    private ServiceVisit serviceVisit(int id){
+        ServiceRow service = services.get(id - 1);
+        PropertyRow property = properties.get(service.propertyID() - 1);
+        CityRow city = cities.get(property.cityID() - 1);
+        boolean[] servicesDone = new boolean[9];
+        for (int j = 0; j < 9; j++){
+            servicesDone[j] = (service.servicesDone() & (1 << j)) != 0;
+        }
+        return new ServiceVisit(id, service.propertyID(), property.address(), city.name(), city.zip(),
+                states.get(city.stateID() - 1).abbreviation(), LocalDate.ofEpochDay(service.day()),
+                service.costCents() / 100.0, servicesDone, service.notes());
+    }
+
+    @Override
+    public synchronized Stream<Property> streamProperties(String sortingMode, int n){
+        int limit = (n == -1) ? Integer.MAX_VALUE : n;
+        IntList ids = new IntList();
+        switch (sortingMode) {
+            case "city" -> addAll(ids, propertiesByCity, limit);
+            case "client" -> addAll(ids, propertiesByClient, limit);
+            default -> {
+                if (!sortingMode.equals("all")) System.out.println("Invalid sortingMode given. Defaulting to \"all\".");
+                for (int id = 1; id <= properties.size() && ids.size < limit; id++){
+                    ids.add(id);
+                }
+            }
+        }
+
+        return lazily(ids, id -> {
+            PropertyRow property = properties.get(id - 1);
+            CityRow city = cities.get(property.cityID() - 1);
+            ClientRow client = clients.get(property.clientID() - 1);
+            return new Property(id, property.clientID(), client.firstName(), client.lastName(), property.address(),
+                    property.cityID(), city.name(), city.zip(), states.get(city.stateID() - 1).abbreviation());
+        });
+    }
+
+    @Override
+    public synchronized Stream<City> streamCities(String sortingMode, int n){
+        Integer[] ids = sequence(cities.size());
+        switch (sortingMode) {
+            case "all" -> {}
+            case "state" -> Arrays.sort(ids, Comparator.comparingInt(id -> cities.get(id - 1).stateID()));
+            case "name" -> Arrays.sort(ids, Comparator.comparing(id -> cities.get(id - 1).name()));
+            default -> System.out.println("Invalid sortingMode given, defaulting to \"all\".");
+        }
+
+        return lazily(first(ids, n), id -> {
+            CityRow city = cities.get(id - 1);
+            return new City(id, city.name(), city.zip(), city.stateID(), states.get(city.stateID() - 1).name());
+        });
+    }
+
+    @Override
+    public synchronized Stream<Client> streamClients(String sortingMode, int n){
+        Integer[] ids = sequence(clients.size());
+        switch (sortingMode) {
+            case "all" -> {}
+            case "name" -> Arrays.sort(ids, Comparator.comparing((Integer id) -> clients.get(id - 1).firstName())
+                    .thenComparing(id -> clients.get(id - 1).lastName()));
+            default -> System.out.println("[!] Invalid sortingMode given. Defaulting to \"all\".");
+        }
+
+        return lazily(first(ids, n), id -> {
+            ClientRow client = clients.get(id - 1);
+            return new Client(id, client.firstName(), client.lastName(), client.phone(), client.email());
+        });
+    }
+
+    @Override
+    public synchronized void addService(int propertyID, LocalDate date, boolean[] servicesDone, double cost, String notes,
+                                        boolean confirm){
+        //Notes are displayed the same way as by tools.MowDataDB, where empty notes are stored as null.
+        if (confirm && !Cards.confirmService(propertyID, date, servicesDone, notes.isEmpty() ? "null" : "'" + notes + "'",
+                cost, input)) return;
+
+        String problem = !verifyProperty(propertyID) ? "Property ID#%d does not exist.".formatted(propertyID)
+                : checkCost(cost);
+        ServiceRow service = new ServiceRow(propertyID, (int) date.toEpochDay(), (int) Math.round(cost * 100),
+                PriceBook.servicesMask(servicesDone), notes.isEmpty() ? null : notes);
+        if (commit(problem, List.of(new LoggedRow(services.size + 1, service)), "add service")) {
+            System.out.println("[!] Successfully added service.");
+        } else {
+            System.out.println("[!] Error occurred. Service not added.");
+        }
+    }
+
+    /**
+     * Will suggest a price from the services held, which are added to the price book as they are loaded.
+     */
+    @Override
+    public synchronized PriceBook.Quote quotePrice(int propertyID, boolean[] servicesDone){
+        if (!verifyProperty(propertyID)) return null;
+        return priceBook.quote(properties.get(propertyID - 1).cityID(), PriceBook.servicesMask(servicesDone));
+    }
+
+    @Override
+    public synchronized void addProperty(int clientID, String address, int cityID, double latitude, double longitude,
+                                         boolean confirm){
+        if (confirm && !Cards.confirmProperty(clientID, address, cityID, latitude, longitude, input)) return;
+
+        String problem = !verifyClient(clientID) ? "Client ID#%d does not exist.".formatted(clientID)
+                : !verifyCity(cityID) ? "City ID#%d does not exist.".formatted(cityID)
+                : checkLength("address", address, 50);
+        PropertyRow property = new PropertyRow(clientID, address, cityID, latitude, longitude);
+        if (commit(problem, List.of(new LoggedRow(properties.size() + 1, property)), "add property")) {
+            System.out.println("[!] Successfully added property.");
+        } else {
+            System.out.println("[!] Error occurred. Property not added.");
+        }
+    }
+
+    @Override
+    public synchronized void addCity(String name, String zip, int stateID, boolean confirm){
+        //Ensuring proper format.
+        name = name.toLowerCase();
+        if (confirm && !Cards.confirmCity(name, zip, stateID, input)) return;
+
+        String problem = (stateID < 1 || stateID > states.size()) ? "State ID#%d does not exist.".formatted(stateID)
+                : (zip.length() != 5) ? "A zip code must be 5 digits."
+                : checkLength("name", name, 50);
+        CityRow city = new CityRow(name, zip, stateID);
+        if (commit(problem, List.of(new LoggedRow(cities.size() + 1, city)), "add city")) {
+            System.out.println("[!] Successfully added city.");
+        } else {
+            System.out.println("[!] Error occurred. City not added.");
+        }
+    }
+
+    @Override
+    public synchronized void addClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm){
+        //Ensure correct format
+        firstName = firstName.toLowerCase();
+        lastName = lastName.toLowerCase();
+        email = email.toLowerCase();
+        if (confirm && !Cards.confirmClient(firstName, lastName, phoneNumber, email, input)) return;
+
+        ClientRow client = new ClientRow(firstName, lastName, phoneNumber, email);
+        if (commit(checkClient(client), List.of(new LoggedRow(clients.size() + 1, client)), "add client")) {
+            System.out.println("[!] Successfully added client.");
+        } else {
+            System.out.println("[!] Error occurred. Client not added.");
+        }
+    }
+
+    @Override
+    public synchronized int onboardClient(String firstName, String lastName, String phoneNumber, String email,
+                                          List<OnboardingProperty> properties, boolean confirm){
+        //Ensure correct format.
+        firstName = firstName.toLowerCase();
+        lastName = lastName.toLowerCase();
+        email = email.toLowerCase();
+        if (confirm && !Cards.confirmOnboarding(firstName, lastName, phoneNumber, email, properties, input)) return -1;
+
+        //Every row is written in a single log entry, so the onboarding is saved or lost as a unit.
+        ClientRow client = new ClientRow(firstName, lastName, phoneNumber, email);
+        String problem = checkClient(client);
+        int clientID = clients.size() + 1;
+        int propertyID = this.properties.size();
+        int serviceID = services.size;
+        List<LoggedRow> rows = new ArrayList<>();
+        rows.add(new LoggedRow(clientID, client));
+        for (OnboardingProperty property : properties){
+            if (problem == null && !verifyCity(property.cityID())) {
+                problem = "City ID#%d does not exist.".formatted(property.cityID());
+            }
+            if (problem == null) problem = checkLength("address", property.address(), 50);
+            rows.add(new LoggedRow(++propertyID, new PropertyRow(clientID, property.address().toLowerCase(), property.cityID(),
+                    Double.NaN, Double.NaN)));
+
+            if (!property.hasService()) continue;
+            if (problem == null) problem = checkCost(property.serviceCost());
+            rows.add(new LoggedRow(++serviceID, new ServiceRow(propertyID, (int) property.serviceDate().toEpochDay(),
+                    (int) Math.round(property.serviceCost() * 100), PriceBook.servicesMask(property.servicesDone()),
+                    property.notes().isEmpty() ? null : property.notes())));
+        }
+
+        if (!commit(problem, rows, "onboard client")) {
+            System.out.println("[!] Error occurred. Client not onboarded, no changes were made.");
+            return -1;
+        }
+        System.out.printf("[!] Successfully onboarded client [CLIENT ID#%d] with %d properties and %d services.\n",
+                clientID, properties.size(), rows.size() - 1 - properties.size());
+        return clientID;
+    }
+
+    @Override
+    public synchronized boolean verifyClient(int id){
+        return (id >= 1 && id <= clients.size());
+    }
+    @Override
+    public synchronized boolean verifyCity(int id){
+        return (id >= 1 && id <= cities.size());
+    }
+    @Override
+    public synchronized boolean verifyProperty(int id){
+        return (id >= 1 && id <= properties.size());
+    }
+    @Override
+    public synchronized boolean verifyState(String abbreviation){
+        return stateIDs.containsKey(abbreviation.toUpperCase());
+    }
+    @Override
+    public synchronized int getStateID(String abbreviation){
+        return stateIDs.getOrDefault(abbreviation.toUpperCase(), -1);
+    }
+    @Override
+    public synchronized int getCityID(String name, String zip){
+        for (int id = 1; id <= cities.size(); id++){
+            CityRow city = cities.get(id - 1);
+            if (city.name().equals(name) && city.zip().equals(zip)) return id;
+        }
+        return -1;
+    }
+    @Override
+    public synchronized List<ZipCodes.ZipCode> lookupZipCodes(String prefix, int limit){
+        if (zipCodes == null) {
+            zipCodes = new ZipCodes();
+            for (ZipCodes.ZipCode zipCode : ZipCodes.readReference(System.out)){
+                zipCodes.add(zipCode);
+            }
+        }
+        return zipCodes.lookup(prefix, limit);
+    }
+
+    /**
+     * Writes rows to the write-ahead log as a single entry, then applies them. The entry is forced to disk before the rows are
+     * applied, so any change which was reported as successful survives a crash.
+     * @param problem Reason the rows can't be added, or null if they can. Printed as the error if present.
+     * @param rows Rows to add, with the ids they will be given.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @return Whether the rows were added.
+     */
+    private boolean commit(String problem, List<LoggedRow> rows, String errorFrom){
+        if (problem != null) {
+            System.out.printf("[!] Error occurred while attempting to %s:\n%s\n", errorFrom, problem);
+            return false;
+        }
+        if (log == null) {
+            System.out.printf("[!] Error occurred while attempting to %s:\nThe in-memory engine is closed.\n", errorFrom);
+            return false;
+        }
+
+        long position = -1;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (LoggedRow row : rows){
+                writeRow(out, row.id(), row.row());
+            }
+            byte[] payload = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            //Entries are written as: payload length | CRC32 of payload | payload.
+            ByteBuffer entry = ByteBuffer.allocate(8 + payload.length);
+            entry.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            position = log.size();
+            log.position(position);
+            while (entry.hasRemaining()){
+                log.write(entry);
+            }
+            log.force(false);
+        } catch (IOException e) {
+            System.out.printf("[!] Error occurred while attempting to %s:\n%s\n", errorFrom, e);
+            //Remove any part of the entry which was written, so later entries aren't stuck behind it.
+            try {
+                if (position >= 0) log.truncate(position);
+            } catch (IOException ignored) {
+                //Replay stops at a partial entry, so at worst the entry is discarded on the next start.
+            }
+            return false;
+        }
+
+        for (LoggedRow row : rows){
+            apply(row.id(), row.row());
+        }
+        if (++entriesSinceSnapshot >= SNAPSHOT_INTERVAL) writeSnapshot();
+        return true;
+    }
+
+    /**
+     * Adds a row to its table and indexes.
+     * @param id Id of the row. Rows already held are skipped, since the log may still hold entries which are in the snapshot.
+     * @return Whether the row was added or already held, false if the id would leave a gap.
+     */
+    private boolean apply(int id, Row row){
+        if (row instanceof StateRow state) {
+            if (id != states.size() + 1) return (id <= states.size());
+            states.add(state);
+            stateIDs.put(state.abbreviation(), id);
+        } else if (row instanceof ClientRow client) {
+            if (id != clients.size() + 1) return (id <= clients.size());
+            clients.add(client);
+            propertiesByClient.add(new IntList());
+        } else if (row instanceof CityRow city) {
+            if (id != cities.size() + 1) return (id <= cities.size());
+            cities.add(city);
+            propertiesByCity.add(new IntList());
+        } else if (row instanceof PropertyRow property) {
+            if (id != properties.size() + 1) return (id <= properties.size());
+            properties.add(property);
+            servicesByProperty.add(new IntList());
+            propertiesByClient.get(property.clientID() - 1).add(id);
+            propertiesByCity.get(property.cityID() - 1).add(id);
+            if (property.located()) spatialIndex.add(id, property.latitude(), property.longitude());
+        } else if (row instanceof ServiceRow service) {
+            if (id != services.size + 1) return (id <= services.size);
+            services.add(service.propertyID(), service.day(), service.costCents(), service.servicesDone(), service.notes());
+            indexService(id);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the latest service to the indexes.
+     * @param id Id of the service.
+     */
+    private void indexService(int id){
+        int day = services.days[id - 1];
+        //Keep each property's services in date order. Services on the same day stay in id order.
+        IntList byProperty = servicesByProperty.get(services.propertyIDs[id - 1] - 1);
+        int low = 0;
+        int high = byProperty.size;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (services.days[byProperty.get(middle) - 1] <= day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        byProperty.insert(low, id);
+        servicesByDay.computeIfAbsent(day, key -> new IntList()).add(id);
+        priceBook.add(id, properties.get(services.propertyIDs[id - 1] - 1).cityID(), services.servicesDone[id - 1],
+                services.costCents[id - 1] / 100.0);
+    }
+
+    /**
+     * Replays the entries of the write-ahead log. The log ends at the first incomplete or damaged entry, which is left behind
+     * by a crash during a write. Anything from that entry onwards is removed.
+     */
+    private void replayLog() throws IOException {
+        long size = log.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()){
+            if (log.read(buffer, buffer.position()) < 0) break;
+        }
+        buffer.flip();
+
+        int end = 0;
+        while (buffer.remaining() >= 8){
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) break;
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != expected) break;
+
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            boolean applied = true;
+            while (applied && in.hasRemaining()){
+                LoggedRow row = readRow(in);
+                applied = apply(row.id(), row.row());
+            }
+            if (!applied) break;
+            end = buffer.position();
+            entriesSinceSnapshot++;
+        }
+
+        if (end < size) {
+            System.out.println("[!] Discarded an incomplete entry at the end of the write-ahead log.");
+            log.truncate(end);
+            log.force(true);
+        }
+        log.position(end);
+    }
+
+    /**
+     * Saves every row to the snapshot, then empties the write-ahead log. The snapshot is written under a temporary name and
+     * renamed once complete, so an interrupted save leaves the previous snapshot in place.
+     */
+    private void writeSnapshot(){
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                BufferedOutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                //Tables are written in an order where each row's references are written before it.
+                out.writeInt(states.size());
+                for (StateRow state : states){
+                    writeState(out, state);
+                }
+                out.writeInt(clients.size());
+                for (ClientRow client : clients){
+                    writeClient(out, client);
+                }
+                out.writeInt(cities.size());
+                for (CityRow city : cities){
+                    writeCity(out, city);
+                }
+                out.writeInt(properties.size());
+                for (PropertyRow property : properties){
+                    writeProperty(out, property);
+                }
+                out.writeInt(services.size);
+                for (int i = 0; i < services.size; i++){
+                    writeService(out, services.get(i));
+                }
+                out.flush();
+                //The checksum itself is written past the checked stream.
+                new DataOutputStream(buffered).writeInt((int) crc.getValue());
+                buffered.flush();
+                channel.force(true);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            //Entries still in the log after a crash here are skipped on replay, since their rows are in the snapshot.
+            log.truncate(0);
+            log.force(true);
+            entriesSinceSnapshot = 0;
+        } catch (IOException e) {
+            //The log still holds every change, so nothing is lost.
+            System.out.println("[!] Error occurred while attempting to save an in-memory snapshot:\n" + e);
+        }
+    }
+
+    /**
+     * Loads every row of a snapshot.
+     * @return Whether the snapshot was loaded, false if it is damaged.
+     */
+    private boolean readSnapshot(Path snapshot){
+        try {
+            //The whole snapshot is read at once and checked before any row is loaded.
+            byte[] bytes = Files.readAllBytes(snapshot);
+            if (bytes.length < 12) {
+                System.out.printf("[!] %s is damaged and could not be loaded.\n", snapshot);
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 4);
+            if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+                System.out.printf("[!] %s is damaged and could not be loaded.\n", snapshot);
+                return false;
+            }
+
+            ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytes.length - 4);
+            int version = 0;
+            if (in.getInt() != SNAPSHOT_MAGIC || (version = in.getInt()) < 1 || version > SNAPSHOT_VERSION) {
+                System.out.printf("[!] %s is not a MowData snapshot, or was saved by a newer version.\n", snapshot);
+                return false;
+            }
+            int count = in.getInt();
+            for (int id = 1; id <= count; id++){
+                apply(id, readState(in));
+            }
+            count = in.getInt();
+            clients.ensureCapacity(count);
+            for (int id = 1; id <= count; id++){
+                apply(id, readClient(in));
+            }
+            count = in.getInt();
+            cities.ensureCapacity(count);
+            for (int id = 1; id <= count; id++){
+                apply(id, readCity(in));
+            }
+            count = in.getInt();
+            properties.ensureCapacity(count);
+            for (int id = 1; id <= count; id++){
+                apply(id, version == 1 ? readUnlocatedProperty(in) : readProperty(in));
+            }
+            count = in.getInt();
+            //Services are read straight into their columns.
+            services.ensureCapacity(count);
+            for (int id = 1; id <= count; id++){
+                services.add(in.getInt(), in.getInt(), in.getInt(), in.getShort(), readString(in));
+                indexService(id);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.printf("[!] Error occurred while attempting to load %s:\n%s\n", snapshot, e);
+            return false;
+        }
+    }
+
+    private static void writeRow(DataOutputStream out, int id, Row row) throws IOException {
+        if (row instanceof StateRow state) {
+            out.writeByte(STATE);
+            out.writeInt(id);
+            writeState(out, state);
+        } else if (row instanceof ClientRow client) {
+            out.writeByte(CLIENT);
+            out.writeInt(id);
+            writeClient(out, client);
+        } else if (row instanceof CityRow city) {
+            out.writeByte(CITY);
+            out.writeInt(id);
+            writeCity(out, city);
+        } else if (row instanceof PropertyRow property) {
+            out.writeByte(PROPERTY);
+            out.writeInt(id);
+            writeProperty(out, property);
+        } else if (row instanceof ServiceRow service) {
+            out.writeByte(SERVICE);
+            out.writeInt(id);
+            writeService(out, service);
+        }
+    }
+    private static LoggedRow readRow(ByteBuffer in) throws IOException {
+        byte type = in.get();
+        int id = in.getInt();
+        return switch (type) {
+            case STATE -> new LoggedRow(id, readState(in));
+            case CLIENT -> new LoggedRow(id, readClient(in));
+            case CITY -> new LoggedRow(id, readCity(in));
+            case PROPERTY -> new LoggedRow(id, readProperty(in));
+            case UNLOCATED_PROPERTY -> new LoggedRow(id, readUnlocatedProperty(in));
+            case SERVICE -> new LoggedRow(id, readService(in));
+            default -> throw new IOException("Unknown row type " + type + " in the write-ahead log.");
+        };
+    }
+    private static void writeState(DataOutputStream out, StateRow state) throws IOException {
+        writeString(out, state.abbreviation());
+        writeString(out, state.name());
+    }
+    private static StateRow readState(ByteBuffer in){
+        return new StateRow(readString(in), readString(in));
+    }
+    private static void writeClient(DataOutputStream out, ClientRow client) throws IOException {
+        writeString(out, client.firstName());
+        writeString(out, client.lastName());
+        writeString(out, client.phone());
+        writeString(out, client.email());
+    }
+    private static ClientRow readClient(ByteBuffer in){
+        return new ClientRow(readString(in), readString(in), readString(in), readString(in));
+    }
+    private static void writeCity(DataOutputStream out, CityRow city) throws IOException {
+        writeString(out, city.name());
+        writeString(out, city.zip());
+        out.writeInt(city.stateID());
+    }
+    private static CityRow readCity(ByteBuffer in){
+        return new CityRow(readString(in), readString(in), in.getInt());
+    }
+    private static void writeProperty(DataOutputStream out, PropertyRow property) throws IOException {
+        out.writeInt(property.clientID());
+        writeString(out, property.address());
+        out.writeInt(property.cityID());
+        out.writeDouble(property.latitude());
+        out.writeDouble(property.longitude());
+    }
+    private static PropertyRow readProperty(ByteBuffer in){
+        return new PropertyRow(in.getInt(), readString(in), in.getInt(), in.getDouble(), in.getDouble());
+    }
+    private static PropertyRow readUnlocatedProperty(ByteBuffer in){
+        return new PropertyRow(in.getInt(), readString(in), in.getInt(), Double.NaN, Double.NaN);
+    }
+    private static void writeService(DataOutputStream out, ServiceRow service) throws IOException {
+        out.writeInt(service.propertyID());
+        out.writeInt(service.day());
+        out.writeInt(service.costCents());
+        out.writeShort(service.servicesDone());
+        writeString(out, service.notes());
+    }
+    private static ServiceRow readService(ByteBuffer in){
+        return new ServiceRow(in.getInt(), in.getInt(), in.getInt(), in.getShort(), readString(in));
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes. Null is written as a length of -1.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    private static String readString(ByteBuffer in){
+        int length = in.getInt();
+        if (length == -1) return null;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Adds the states, then asks the user whether to add sample data. Used when the folder holds no data.
+     */
+    private void populate(){
+        List<LoggedRow> rows = new ArrayList<>();
+        for (String[] state : MowDataDB.STATES){
+            rows.add(new LoggedRow(rows.size() + 1, new StateRow(state[0], state[1])));
+        }
+        if (!commit(null, rows, "populate states table")) return;
+        System.out.println("[!] Successfully populated states table with standard data.");
+
+        System.out.print("""
+               [!] No saved data found.
+               [!] Sample data is recommended to view program functionality.
+               What would you like to do?:
+
+               [1] Start with no data.
+               [0] Add sample data.
+
+               input:""");
+        if (Menu.collectInt(0, 1, input) == 1) return;
+        boolean[] firstServices = {true, false, false, true, false, true, true, false, false};
+        boolean[] secondServices = {true, false, false, true, false, false, false, false, false};
+        int newYork = stateIDs.get("NY");
+        if (commit(null, List.of(
+                new LoggedRow(1, new ClientRow("luis", "jaco", "1234567890", "luisjaco@fake.com")),
+                new LoggedRow(2, new ClientRow("jim", "bob", "8888888888", "jimbob@guy.com")),
+                new LoggedRow(1, new CityRow("hicksville", "11801", newYork)),
+                new LoggedRow(2, new CityRow("levittown", "11756", newYork)),
+                new LoggedRow(1, new PropertyRow(1, "57 apple ln", 1, 40.7684, -73.5251)),
+                new LoggedRow(2, new PropertyRow(1, "38 orange rd", 2, 40.7259, -73.5143)),
+                new LoggedRow(3, new PropertyRow(2, "58 apple ln", 1, 40.7686, -73.5248)),
+                new LoggedRow(1, new ServiceRow(1, (int) LocalDate.of(2024, 8, 5).toEpochDay(), 40000,
+                        PriceBook.servicesMask(firstServices), "dead tree on property, ask client for removal")),
+                new LoggedRow(2, new ServiceRow(3, (int) LocalDate.of(2024, 8, 13).toEpochDay(), 9000,
+                        PriceBook.servicesMask(secondServices), null))), "insert sample data")) {
+            System.out.println("[!] Successfully inserted sample data to all tables.");
+        }
+    }
+
+    /**
+     * @return Reason the client can't be added, or null if it can. Follows the constraints of the clients table.
+     */
+    private static String checkClient(ClientRow client){
+        if (client.phone().length() != 10) return "A phone number must be 10 digits.";
+        String problem = checkLength("first name", client.firstName(), 50);
+        if (problem == null) problem = checkLength("last name", client.lastName(), 50);
+        if (problem == null) problem = checkLength("email", client.email(), 50);
+        return problem;
+    }
+    private static String checkLength(String field, String value, int maxLength){
+        return (value.length() > maxLength) ? "The %s may be at most %d characters.".formatted(field, maxLength) : null;
+    }
+
+    /**
+     * @return Reason the cost can't be stored, or null if it can. Costs follow the services table's NUMERIC(5, 2) column.
+     */
+    private static String checkCost(double cost){
+        return (Math.abs(cost) >= 1000) ? "A service cost must be below $1000.00." : null;
+    }
+
+    /**
+     * Adds the ids held by an index in order, up to a limit.
+     */
+    private static void addAll(IntList ids, List<IntList> index, int limit){
+        for (IntList entry : index){
+            for (int j = 0; j < entry.size && ids.size < limit; j++){
+                ids.add(entry.get(j));
+            }
+            if (ids.size >= limit) return;
+        }
+    }
+
+    /**
+     * @return The first n ids, or every id if n is -1.
+     */
+    private static IntList first(Integer[] ids, int n){
+        IntList first = new IntList();
+        for (int i = 0; i < ids.length && (n == -1 || i < n); i++){
+            first.add(ids[i]);
+        }
+        return first;
+    }
+    private static Integer[] sequence(int count){
+        Integer[] ids = new Integer[count];
+        for (int i = 0; i < count; i++){
+            ids[i] = i + 1;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.luisjaco.tools.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The tools.MenuActionEvent class is the flight recorder event for one menu action, such as adding a service. The database
+ * calls made during the action are recorded as tools.DatabaseCallEvent events carrying this action's id, so a recording
+ * breaks an action down into input wait, database calls, and the rest, which is mostly terminal output.
+ * Use tools.Profiling to begin and end the event.
+ */
+@Name("mowdata.MenuAction")
+@Label("Menu Action")
+@Category({"MowData", "Menu"})
+@Description("A menu action, from choosing it to returning to the menu.")
+@StackTrace(false)
+public class MenuActionEvent extends jdk.jfr.Event {
+    @Label("Action")
+    String action;
+
+    @Label("Action ID")
+    long actionID;
+
+    @Label("Parent Action ID")
+    @Description("ID of the action this action was started from, or 0.")
+    long parentActionID;
+
+    @Label("Input Wait")
+    @Description("Time spent waiting for the user to type.")
+    @Timespan(Timespan.NANOSECONDS)
+    long inputWait;
+
+    @Label("Bytes Rendered")
+    @Description("Bytes printed to the terminal.")
+    @DataAmount(DataAmount.BYTES)
+    long bytesRendered;
+
+    @Label("Database Calls")
+    int databaseCalls;
+
+    @Label("Database Time")
+    @Description("Total duration of the database calls.")
+    @Timespan(Timespan.NANOSECONDS)
+    long databaseTime;
+}
@@ -1,22 +1,116 @@
 package com.github.luisjaco.tools.server;
 
 import com.github.luisjaco.tools.Menu;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The tools.MowDataDB class is a class to be used along with a connection. It can perform all queries related to a PostgreSQL database with the
  * proper tables for a MowData database.
  */
-public class MowDataDB {
+public class MowDataDB implements TableChangeListener, MowDataStore {
+    //Estimated memory the view cache may use, in bytes.
+    private static final long VIEW_CACHE_BUDGET_BYTES = 16L * 1024 * 1024;
+    //Rows per INSERT when loading zip codes without COPY.
+    private static final int ZIP_CODE_CHUNK = 1000;
+    //Rows fetched per round trip by streamed views.
+    private static final int FETCH_SIZE = 500;
+    //Seconds a streamed view may go unread before its statement and transaction are released.
+    private static final int STREAM_IDLE_SECONDS = 60;
+    //Releases streamed views left unread, such as a paged view left at its prompt.
+    private static final Timer STREAM_IDLE_TIMER = new Timer("mowdata-view-idle", true);
+    //Indexes the views rely on, as {name, table and columns}. Their use is checked by tools.QueryPlanChecker.
+    private static final String[][] VIEW_INDEXES = {
+            {"services_property_date_idx", "services (property_id, service_date DESC)"},
+            {"services_date_idx", "services (service_date)"},
+            {"properties_city_idx", "properties (city_id)"},
+            {"properties_client_idx", "properties (client_id)"},
+            {"clients_name_idx", "clients (first_name, last_name)"} };
+    //Nearby properties whose service history is checked per query by viewNearestProperties.
+    private static final int NEAREST_CHECK_CHUNK = 500;
+    //Price sketches stored per statement.
+    private static final int PRICE_SKETCH_CHUNK = 100;
+    //List of all states to be used when populating, as {abbreviation, name}. State ids follow this order.
+    static final String[][] STATES = {
+            {"AL", "alabama"}, {"AK", "alaska"}, {"AZ", "arizona"}, {"AR", "arkansas"},
+            {"CA", "california"}, {"CO", "colorado"}, {"CT", "connecticut"}, {"DE", "delaware"}, {"FL", "florida"},
+            {"GA", "georgia"}, {"HI", "hawaii"}, {"ID", "idaho"}, {"IL", "illinois"}, {"IN", "indiana"},
+            {"IA", "iowa"}, {"KS", "kansas"}, {"KY", "kentucky"}, {"LA", "louisiana"}, {"ME", "maine"},
+            {"MD", "maryland"}, {"MA", "massachusetts"}, {"MI", "michigan"}, {"MN", "minnesota"},
+            {"MS", "mississippi"}, {"MO", "missouri"}, {"MT", "montana"}, {"NE", "nebraska"}, {"NV", "nevada"},
+            {"NH", "new hampshire"}, {"NJ", "new jersey"}, {"NM", "new mexico"}, {"NY", "new york"},
+            {"NC", "north carolina"}, {"ND", "north dakota"}, {"OH", "ohio"}, {"OK", "oklahoma"},
+            {"OR", "oregon"}, {"PA", "pennsylvania"}, {"RI", "rhode island"}, {"SC", "south carolina"},
+            {"SD", "south dakota"}, {"TN", "tennessee"}, {"TX", "texas"}, {"UT", "utah"}, {"VT", "vermont"},
+            {"VA", "virginia"}, {"WA", "washington"}, {"WV", "west virginia"}, {"WI", "wisconsin"}, {"WY", "wyoming"} };
+    //Service columns of the services table, in the order of servicesDone.
+    static final String[] SERVICE_COLUMNS = {"mow", "leaf_blow", "seed", "fertilizer", "mulch", "remove_tree", "trim_tree",
+            "power_wash", "snow_plow"};
     private final Connection connection;
+    private final ReplicaRouter router;
+    private final Dialect dialect;
     private final Scanner input;
+    //Ids which were verified to exist, by table. A table's ids are forgotten whenever the table changes.
+    private final Map<String, Set<Integer>> verifiedIDs;
+    private final ViewCache viewCache;
+    private final SpatialIndex spatialIndex;
+    //Properties up to this id have been loaded into the spatial index.
+    private int spatialWatermark;
+    //Set when another instance may have added properties which are not in the spatial index yet.
+    private volatile boolean spatialIndexStale;
+    //Loaded from the zip_codes table on first use.
+    private ZipCodes zipCodes;
+    private final PriceBook priceBook;
+    //Whether the stored price sketches were loaded into the price book.
+    private boolean priceBookLoaded;
+    //Set when services may have been added which are not in the price book yet.
+    private volatile boolean priceBookStale;
+    //Set when a bulk job changed the costs of past services, which the price book can't take back.
+    private volatile boolean priceBookReset;
+    //City of each property a price was quoted for, so services added to it are priced without a query.
+    private final Map<Integer, Integer> propertyCities = new ConcurrentHashMap<>();
+    //Whether the services_archive table was found with its keys, so it needn't be checked again.
+    private volatile boolean archiveReady;
+    //Console messages of this instance. Discarded while a tools.LoadDriver runs it.
+    private PrintStream out = System.out;
+    //Calls which failed with an error, which is printed rather than thrown.
+    private final AtomicInteger failures = new AtomicInteger();
+    //Records changes made through this instance, or null when changes are not audited.
+    private volatile AuditLog auditLog;
+    private final TableHealth tableHealth;
+    //SQL of every view and verify query is added here while set, for tools.QueryPlanChecker.
+    private List<String> capturedStatements;
+    //Whether views can be cancelled by pressing Enter. Off for shards, whose views run at the same time.
+    private volatile boolean cancellable = true;
+    //Whether views are served from and added to the view cache. Off while a tools.LoadDriver runs this instance.
+    private volatile boolean caching = true;
 
     /**
      * Initializes a new tools.MowDataDB instance. When initialized, MowData database tables will be queried and validated. If proper
@@ -25,52 +119,169 @@ public class MowDataDB {
      * @param input Scanner to be used for user input.
      */
     protected MowDataDB(Connection connection, Scanner input){
-        this.connection = connection;
+        this(new ReplicaRouter(connection), input);
+    }
+
+    /**
+     * Initializes a new tools.MowDataDB instance which reads through the replicas of a tools.ReplicaRouter. Writes are performed on
+     * the router's primary connection.
+     * @param router Router holding the primary connection and any read-only replicas.
+     * @param input Scanner to be used for user input.
+     */
+    protected MowDataDB(ReplicaRouter router, Scanner input){
+        this(router, input, true);
+    }
+
+    /**
+     * Initializes a new tools.MowDataDB instance on a database which another instance has already set up, so the tables are not
+     * checked again.
+     * @param connection Connection to PostgreSQL server.
+     * @param setUp Instance which set up the database.
+     */
+    MowDataDB(Connection connection, MowDataDB setUp){
+        this(new ReplicaRouter(connection), null, false);
+        this.archiveReady = setUp.archiveReady;
+    }
+
+    private MowDataDB(ReplicaRouter router, Scanner input, boolean setUp){
+        this.connection = router.getPrimary();
+        this.router = router;
+        this.dialect = Dialect.of(connection);
+        this.tableHealth = new TableHealth(connection);
         this.input = input;
+        this.verifiedIDs = new ConcurrentHashMap<>();
+        this.viewCache = new ViewCache(VIEW_CACHE_BUDGET_BYTES);
+        this.spatialIndex = new SpatialIndex();
+        this.spatialIndexStale = true;
+        this.priceBook = new PriceBook();
+        this.priceBookStale = true;
 
+        if (!setUp) return;
         //Once database connection from server is established, tables will be checked to ensure they are
         //the proper tables for the MowData database.
-        if (!verifyTables()) populateServer();
+        if (!verifyTables()) {
+            //Without input there is nobody to ask, so the tables are left alone.
+            if (input == null) out.println("[!] Required tables not found. Open the database from the menu to add them.");
+            else populateServer();
+        }
+        installChangeTriggers();
+        ensureViewIndexes();
+        ensureCoordinateColumns();
+        ensureZipCodes();
+        ensureArchiveTable();
+        ensureChangeTracking();
+        ensurePriceSketches();
+    }
+
+    /**
+     * Forgets anything held for the changed tables. Called by the tools.ChangeListener, including for changes made by other
+     * MowData instances.
+     * @param tables Names of changed tables.
+     */
+    @Override
+    public void tablesChanged(Set<String> tables){
+        for (String table : tables){
+            verifiedIDs.remove(table);
+        }
+        viewCache.tablesChanged(tables);
+        if (tables.contains("properties")) {
+            spatialIndexStale = true;
+            propertyCities.clear();
+        }
+        if (tables.contains("services")) priceBookStale = true;
     }
 
     public boolean verifyConnection(){
         try {
             if (connection == null){
                 //Verify connection object exists.
-                System.out.println("[!] Connection is non-existent.");
+                out.println("[!] Connection is non-existent.");
+                failures.incrementAndGet();
                 return false;
             }
             else if (connection.isClosed()){
-                System.out.println("[!] Connection is closed.");
+                out.println("[!] Connection is closed.");
+                failures.incrementAndGet();
                 return false;
             }
             else {
                 return true;
             }
         } catch (SQLException e) {
-            System.out.println("[!] An error occurred while verifying the status of the servers connection:\n" + e);
+            out.println("[!] An error occurred while verifying the status of the servers connection:\n" + e);
+            failures.incrementAndGet();
             return false;
         }
     }
 
     /**
-     * Will perform a query [view] and return the ResultSet. Handles errors.
+     * Sends the console messages of this instance to another stream, such as a discarding one while under load. Other
+     * instances, and the rest of MowData, still print to the console.
+     * @param out Stream messages are printed to.
+     */
+    public void setOutput(PrintStream out){
+        this.out = out;
+    }
+
+    /**
+     * Turns the view cache of this instance on or off. Views of an instance without caching always query the database, such
+     * as while under load, where cached views would hide the database's latency.
+     * @param caching Whether views are served from and added to the view cache.
+     */
+    void setCaching(boolean caching){
+        this.caching = caching;
+    }
+
+    /**
+     * @return Number of calls of this instance which failed with an error. Errors are printed rather than thrown, so this
+     * is how callers which don't read the console can tell failed calls apart.
+     */
+    public int getFailures(){
+        return failures.get();
+    }
+
+    /**
+     * Will perform an interactive query [view] and return the ResultSet. Handles errors. The query is performed on a read
+     * replica when one is available and up-to-date with this session's writes.
      * @param sql Query to perform.
      * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
      * @return ResultSet of performed query, or null if error occurred.
      */
     public ResultSet performQuery(String sql, String errorFrom){
+        return performQuery(sql, errorFrom, QueryClass.INTERACTIVE);
+    }
+
+    /**
+     * Will perform a query [view] and return the ResultSet. Handles errors. The query is performed on a read replica when one
+     * is available and up-to-date with this session's writes.
+     * @param sql Query to perform.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @param queryClass Kind of operation, which sets how long the query may run.
+     * @return ResultSet of performed query, or null if error occurred.
+     */
+    public ResultSet performQuery(String sql, String errorFrom, QueryClass queryClass){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        long waitStart = System.nanoTime();
         //Won't attempt if there is no connection
         if (!verifyConnection()) return null;
 
+        if (capturedStatements != null) capturedStatements.add(sql);
         ResultSet rs = null;
+        long connectionWait = 0;
         try {
-            Statement st = connection.createStatement();
+            Connection readConnection = router.readConnection();
+            connectionWait = System.nanoTime() - waitStart;
+            Statement st = readConnection.createStatement();
+            st.setQueryTimeout(queryClass.timeoutSeconds());
             rs = st.executeQuery(sql);
             //Statement and ResultSet will close when they are done being used. (Statement must be open for ResultSet to be open).
             return rs;
         } catch (SQLException e) {
-            System.out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+            out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+            failures.incrementAndGet();
+        } finally {
+            //The rows are read by the caller, so they aren't counted.
+            Profiling.endCall(event, sql, -1, false, connectionWait);
         }
         return rs;
 
@@ -95,40 +306,212 @@ public class MowDataDB {
      * @return Query successful.
      */
     public boolean performUpdate(String sql, String errorFrom){
+        //If a value 'n' of one or more is returned, it means the query altered 'n' rows without error.
+        return (performUpdateCount(sql, errorFrom) >= 1);
+
+        /*
+        Boilerplate code for method use:
+        if (performUpdate()) {
+            //SUCCESS MESSAGE
+        }
+         */
+    }
+
+    /**
+     * Will perform an interactive query [insert, delete] and return the number of rows altered. Handles errors.
+     * @param sql Query to perform.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @return Number of rows altered, or -1 if an error occurred.
+     */
+    public int performUpdateCount(String sql, String errorFrom){
+        return performUpdateCount(sql, errorFrom, QueryClass.INTERACTIVE);
+    }
+
+    /**
+     * Will perform a query [insert, delete] and return the number of rows altered. Handles errors. If the database can't run
+     * several statements at once, the statements are run one by one in a single transaction, and the rows altered by the last
+     * statement are returned.
+     * @param sql Query to perform.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @param queryClass Kind of operation, which sets how long each statement may run.
+     * @return Number of rows altered, or -1 if an error occurred.
+     */
+    public int performUpdateCount(String sql, String errorFrom, QueryClass queryClass){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        long waitStart = System.nanoTime();
         //Won't attempt if there is no connection
-        if (!verifyConnection()) return false;
-        boolean result = false;
+        if (!verifyConnection()) return -1;
+        long connectionWait = System.nanoTime() - waitStart;
+        int result = -1;
 
         try {
             Statement st = connection.createStatement();
-            //If a value 'n' of one or more is returned, it means the query altered 'n' rows without error.
-            result = (st.executeUpdate(sql) >= 1);
+            st.setQueryTimeout(queryClass.timeoutSeconds());
+            if (dialect.supportsMultipleStatements()) {
+                result = st.executeUpdate(sql);
+            } else {
+                result = executeEach(st, sql);
+            }
             st.close();
+            //Track the write so following reads aren't sent to a replica which hasn't replayed it yet.
+            router.recordWrite();
         } catch (SQLException e) {
-            System.out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+            out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+            failures.incrementAndGet();
         }
+        Profiling.endCall(event, sql, result, false, connectionWait);
         return result;
+    }
 
-        /*
-        Boilerplate code for method use:
-        if (performUpdate()) {
-            //SUCCESS MESSAGE
+    /**
+     * Starts or stops capturing the SQL of view and verify queries.
+     * @param statements List the SQL of each query is added to, or null to stop capturing.
+     */
+    void captureStatements(List<String> statements){
+        this.capturedStatements = statements;
+    }
+
+    /**
+     * @return Dialect of the database.
+     */
+    Dialect getDialect(){
+        return dialect;
+    }
+
+    /**
+     * Sets up this database as one shard of a tools.ShardedStore. The ids of the sharded tables are given out in steps of
+     * shardCount, starting past the existing rows, so that every new id is unique across the shards and (id - 1) % shardCount
+     * is the shard which holds it. Views stop being cancellable, since the shards run them at the same time.
+     * @param shard Index of this shard, from 0.
+     * @param shardCount Number of shards.
+     * @return Whether the ids were set up.
+     */
+    boolean configureShard(int shard, int shardCount){
+        cancellable = false;
+        for (String table : new String[]{"clients", "cities", "properties", "services"}){
+            ResultSet rs = performQuery("""
+                    SELECT COALESCE(MAX(id), 0),
+                    	COUNT(CASE WHEN MOD(id - 1, %d) <> %d THEN 1 END)
+                    FROM %s;""".formatted(shardCount, shard, table), "read %s ids".formatted(table));
+            if (rs == null) return false;
+            int maxID;
+            int misplaced;
+            try {
+                rs.next();
+                maxID = rs.getInt(1);
+                misplaced = rs.getInt(2);
+                rs.close();
+            } catch (SQLException e) {
+                out.printf("[!] Error occurred while attempting to read %s ids:\n%s", table, e);
+                return false;
+            }
+            //Clients are copied to every shard with their original ids, so only the other tables must follow the scheme.
+            if (misplaced > 0 && !table.equals("clients")) {
+                out.printf("[!] Shard %d holds %d %s added before sharding, which can't be found by id.\n",
+                        shard, misplaced, table);
+            }
+            //Next id past the existing rows which belongs to this shard.
+            int start = maxID + 1 + Math.floorMod(shard - maxID, shardCount);
+            if (performUpdateCount(dialect.restartIdSql(table, start, shardCount), "set up %s ids".formatted(table)) < 0) {
+                return false;
+            }
         }
-         */
+        return true;
+    }
+
+    /**
+     * @return Health tracker of the tables, which bulk jobs report their writes to.
+     */
+    public TableHealth getTableHealth(){
+        return tableHealth;
     }
 
     /**
-     * Will print n rows of the services table as standard, sorted by property, or sorted by date.
+     * Records every following change made through this instance in an audit log.
+     * @param auditLog Started audit log.
+     */
+    public void setAuditLog(AuditLog auditLog){
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Records a change in the audit log, if changes are audited. Only queues the change, so it adds no round trip.
+     */
+    private void audit(String action, String table, int rowID, String detail){
+        AuditLog log = auditLog;
+        if (log != null) log.record(action, table, rowID, detail);
+    }
+
+    /**
+     * Will perform an interactive insert of a single row and return the id generated for it. Handles errors.
+     * @param sql Query to perform.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @return ID of the inserted row, or -1 if an error occurred.
+     */
+    public int performInsert(String sql, String errorFrom){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        long waitStart = System.nanoTime();
+        //Won't attempt if there is no connection
+        if (!verifyConnection()) return -1;
+        long connectionWait = System.nanoTime() - waitStart;
+        int result = -1;
+
+        try {
+            Statement st = connection.createStatement();
+            st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+            result = insertReturningID(st, sql);
+            st.close();
+            //Track the write so following reads aren't sent to a replica which hasn't replayed it yet.
+            router.recordWrite();
+        } catch (SQLException e) {
+            out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+            failures.incrementAndGet();
+        }
+        Profiling.endCall(event, sql, (result == -1) ? 0 : 1, false, connectionWait);
+        return result;
+    }
+
+    /**
+     * Runs each statement of a query separately, in a single transaction.
+     * @param st Statement to run the statements with.
+     * @param sql Query holding statements which each end with a semicolon at the end of a line.
+     * @return Number of rows altered by the last statement.
+     * @throws SQLException If any statement fails. The transaction is rolled back.
+     */
+    private int executeEach(Statement st, String sql) throws SQLException {
+        int result = 0;
+        connection.setAutoCommit(false);
+        try {
+            //Statements end at a semicolon followed by the end of the line, optionally with a comment in between.
+            for (String statement : sql.split(";[ \t]*(--[^\n]*)?(\n|$)")){
+                if (statement.isBlank()) continue;
+                result = st.executeUpdate(statement);
+            }
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves n rows of the services table as standard, sorted by property, or sorted by date.
      * @param sortingMode "all" for no sorting, "property" for sorted by property, and "date" for sorted
      * by date. Default is "all".
-     * @param n Number of rows to display, -1 for all rows.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @param includeArchive Whether services moved to the services_archive table should be retrieved as well.
+     * @return Stream of the services, or null if an error occurred. Must be closed once done.
      */
-    public void viewServices(String sortingMode, int n){
+    @Override
+    public Stream<ServiceVisit> streamServices(String sortingMode, int n, boolean includeArchive){
         /*
         Table data will return in the format of:
         (row id, column 0) | service_id (column 1) | property_id (column 2)...
+        Cached rows hold the same columns, starting at index 0.
          */
-        int counter = 0;
         String sql = """
                 SELECT
                 	services.id as service_id, --id 1
@@ -149,76 +532,520 @@ public class MowDataDB {
                 	power_wash,
                 	snow_plow, --id 17
                 	notes
-                FROM services
+                FROM %s AS services
                 JOIN properties
                 ON property_id = properties.id
                 JOIN cities
                 ON properties.city_id = cities.id
                 JOIN states
-                ON cities.state_id = states.id""";
+                ON cities.state_id = states.id""".formatted(servicesSource(includeArchive));
         //Adjusting SQL based on sortingMode.
         switch (sortingMode) {
-            case "all" -> sql += ";";
-            case "property" -> sql += "\nORDER BY properties.id ASC;";
-            case "date" -> sql += "\nORDER BY service_date DESC;";
+            case "all" -> {}
+            case "property" -> sql += "\nORDER BY properties.id ASC";
+            case "date" -> sql += "\nORDER BY service_date DESC";
             default -> {
-                System.out.println("Invalid sortingMode given. Defaulting to \"all\".");
-                sql += ";";
+                out.println("Invalid sortingMode given. Defaulting to \"all\".");
+                sortingMode = "all";
             }
         }
 
-        //Processing results.
-        ResultSet rs = performQuery(sql, "view services table");
-        if (rs == null) return;
+        //Retrieving rows, from the cache if possible.
+        Set<String> tables = includeArchive
+                ? Set.of("services", "services_archive", "properties", "cities", "states")
+                : Set.of("services", "properties", "cities", "states");
+        String key = "services|%s|%d|%b".formatted(sortingMode, n, includeArchive);
+        return streamRows(key, limit(sql, n), tables, "view services table", MowDataDB::toServiceVisit);
+    }
+
+    @Override
+    public Stream<ServiceVisit> streamLastServices(int cityID, int serviceType, int n){
+        //Rows hold the same columns as viewServices. The (property_id, service_date DESC) index returns each property's
+        //services newest first, so DISTINCT ON keeps the first row of each property without sorting.
+        ArrayList<String> conditions = new ArrayList<>();
+        if (cityID != -1) conditions.add("properties.city_id = %d".formatted(cityID));
+        if (serviceType != -1) conditions.add("services." + SERVICE_COLUMNS[serviceType]);
+        String sql = """
+                SELECT DISTINCT ON (services.property_id)
+                	services.id as service_id, --id 1
+                	property_id,
+                	properties.address,
+                	cities.name,
+                	cities.zip,
+                	states.abbreviation,
+                	service_date,
+                	service_cost,
+                	mow, --id 9
+                	leaf_blow,
+                	seed,
+                	fertilizer,
+                	mulch,
+                	remove_tree,
+                	trim_tree,
+                	power_wash,
+                	snow_plow, --id 17
+                	notes
+                FROM services
+                JOIN properties
+                ON property_id = properties.id
+                JOIN cities
+                ON properties.city_id = cities.id
+                JOIN states
+                ON cities.state_id = states.id%s
+                ORDER BY services.property_id, service_date DESC, services.id DESC""".formatted(
+                conditions.isEmpty() ? "" : "\nWHERE " + String.join("\nAND ", conditions));
+
+        //Retrieving rows, from the cache if possible.
+        String key = "last services|%d|%d|%d".formatted(cityID, serviceType, n);
+        return streamRows(key, limit(sql, n), Set.of("services", "properties", "cities", "states"), "view last services",
+                MowDataDB::toServiceVisit);
+    }
+
+    @Override
+    public void viewOverdueProperties(int serviceType, int days, int cityID, int n){
+        /*
+        Table will return as:
+        (row id #0) | property_id (#1) | address (#2) | city (#3) | zip (#4) | state (#5) | client_id (#6) | first_name (#7)
+        | last_name (#8) | last_date (#9)
+        Each property's last service is found with a single probe of the (property_id, service_date DESC) index.
+         */
+        LocalDate cutoff = LocalDate.now().minusDays(days);
+        List<Object[]> rows = overdueRows(serviceType, cutoff, cityID, n);
+        if (rows == null) return;
+
+        out.printf("[!] Now displaying properties without a service in %d days or more:\n", days);
+        for (Object[] row : rows){
+            Cards.printOverdueProperty((Integer) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4],
+                    (String) row[6], (String) row[7], (Integer) row[5], serviceType,
+                    row[8] == null ? null : ((java.sql.Date) row[8]).toLocalDate());
+        }
+        if (rows.isEmpty()) out.println("[!] No overdue properties were found.");
+    }
+
+    /**
+     * Retrieves the properties which haven't had a service since a cutoff date, including properties which never had one.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone. -1 for any
+     *                    service.
+     * @param cutoff Properties whose last service was on or before this date are overdue.
+     * @param cityID Only properties in this city are included, or -1 for all cities.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Rows of the overdue properties view, or null if an error occurred.
+     */
+    private List<Object[]> overdueRows(int serviceType, LocalDate cutoff, int cityID, int n){
+        String sql = """
+                SELECT *
+                FROM (
+                	SELECT
+                		properties.id as property_id, --id 1
+                		properties.address,
+                		cities.name,
+                		cities.zip,
+                		states.abbreviation,
+                		clients.id as client_id,
+                		clients.first_name,
+                		clients.last_name,
+                		(SELECT service_date
+                		FROM services
+                		WHERE services.property_id = properties.id%s
+                		ORDER BY service_date DESC
+                		LIMIT 1) as last_date --id 9
+                	FROM properties
+                	JOIN clients
+                	ON properties.client_id = clients.id
+                	JOIN cities
+                	ON properties.city_id = cities.id
+                	JOIN states
+                	ON cities.state_id = states.id%s
+                ) as last_services
+                WHERE last_date IS NULL
+                OR last_date <= '%tF'
+                ORDER BY last_date ASC NULLS FIRST, property_id ASC""".formatted(
+                serviceType == -1 ? "" : "\n\t\tAND services." + SERVICE_COLUMNS[serviceType],
+                cityID == -1 ? "" : "\n\tWHERE properties.city_id = %d".formatted(cityID),
+                cutoff);
+
+        //Retrieving rows, from the cache if possible. The cutoff is part of the key, since it moves every day.
+        String key = "overdue|%d|%tF|%d|%d".formatted(serviceType, cutoff, cityID, n);
+        return queryRows(key, limit(sql, n), Set.of("services", "properties", "clients", "cities", "states"),
+                "view overdue properties");
+    }
+
+    @Override
+    public void viewNearestProperties(int propertyID, int k, double radiusKm, int serviceType, int overdueDays){
+        if (!refreshSpatialIndex()) return;
+        double[] origin = spatialIndex.location(propertyID);
+        if (origin == null) {
+            out.printf("[!] Property ID#%d has no coordinates.\n", propertyID);
+            return;
+        }
+
+        //The origin itself is never listed. Service history is only checked for the properties the grid finds.
+        long start = System.nanoTime();
+        List<SpatialIndex.Neighbor> nearest;
+        if (overdueDays == -1) {
+            nearest = spatialIndex.nearest(origin[0], origin[1], k, radiusKm, id -> id != propertyID);
+        } else {
+            nearest = nearestOverdue(origin, propertyID, k, radiusKm, serviceType, LocalDate.now().minusDays(overdueDays));
+            if (nearest == null) return;
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        if (nearest.isEmpty()) {
+            out.println("[!] No nearby properties were found.");
+            return;
+        }
+
+        //Only the properties found are retrieved, then printed closest first.
+        StringBuilder ids = new StringBuilder();
+        for (SpatialIndex.Neighbor neighbor : nearest){
+            if (!ids.isEmpty()) ids.append(", ");
+            ids.append(neighbor.propertyID());
+        }
+        String sql = """
+                SELECT
+                	properties.id as property_id, --id 0
+                	properties.address,
+                	cities.name,
+                	cities.zip,
+                	states.abbreviation,
+                	clients.id as client_id,
+                	clients.first_name,
+                	clients.last_name --id 7
+                FROM properties
+                JOIN clients
+                ON properties.client_id = clients.id
+                JOIN cities
+                ON properties.city_id = cities.id
+                JOIN states
+                ON cities.state_id = states.id
+                WHERE properties.id IN (%s)""".formatted(ids);
+        List<Object[]> rows = queryRows("nearby|" + ids, limit(sql, -1), Set.of("properties", "clients", "cities", "states"),
+                "view nearest properties");
+        if (rows == null) return;
+        HashMap<Integer, Object[]> rowsByID = new HashMap<>();
+        for (Object[] row : rows){
+            rowsByID.put((Integer) row[0], row);
+        }
+
+        out.printf("[!] Now displaying the %d closest properties to [PROPERTY ID#%d], found in %d microseconds:\n",
+                nearest.size(), propertyID, micros);
+        for (SpatialIndex.Neighbor neighbor : nearest){
+            Object[] row = rowsByID.get(neighbor.propertyID());
+            if (row == null) continue;
+            Cards.printNearbyProperty((Integer) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4],
+                    (String) row[6], (String) row[7], (Integer) row[5], neighbor.distanceKm());
+        }
+    }
+
+    /**
+     * Finds the overdue properties closest to a point. The nearest candidates are taken from the spatial index, and only
+     * their service history is checked. When too few of them are overdue, twice as many candidates are taken, until k
+     * overdue properties are found or the candidates run out.
+     * @param origin Latitude and longitude to search around.
+     * @param propertyID ID of the property at the origin, which is never found.
+     * @param k Number of properties to find, -1 for all properties within the radius.
+     * @param radiusKm Only properties within this many kilometers are found, or 0 for no limit.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone. -1 for any
+     *                    service.
+     * @param cutoff Properties whose last service was on or before this date are overdue.
+     * @return Overdue properties found, closest first, or null if an error occurred.
+     */
+    private List<SpatialIndex.Neighbor> nearestOverdue(double[] origin, int propertyID, int k, double radiusKm,
+                                                       int serviceType, LocalDate cutoff){
+        //Whether each checked candidate is overdue, so candidates aren't checked again when more are taken.
+        HashMap<Integer, Boolean> overdue = new HashMap<>();
+        int candidates = (k == -1 || k > Integer.MAX_VALUE / 2) ? -1 : Math.max(k * 2, NEAREST_CHECK_CHUNK);
+        while (true){
+            List<SpatialIndex.Neighbor> near = spatialIndex.nearest(origin[0], origin[1], candidates, radiusKm,
+                    id -> id != propertyID);
+            List<Integer> unchecked = new ArrayList<>();
+            for (SpatialIndex.Neighbor neighbor : near){
+                if (!overdue.containsKey(neighbor.propertyID())) unchecked.add(neighbor.propertyID());
+            }
+            for (int i = 0; i < unchecked.size(); i += NEAREST_CHECK_CHUNK){
+                if (!checkOverdue(unchecked.subList(i, Math.min(i + NEAREST_CHECK_CHUNK, unchecked.size())), serviceType,
+                        cutoff, overdue)) return null;
+            }
+
+            List<SpatialIndex.Neighbor> found = new ArrayList<>();
+            for (SpatialIndex.Neighbor neighbor : near){
+                if (found.size() == k) break;
+                if (overdue.get(neighbor.propertyID())) found.add(neighbor);
+            }
+            //Every candidate within the radius was taken, or enough of them were overdue.
+            if (candidates == -1 || near.size() < candidates || found.size() == k) return found;
+            candidates = (candidates > Integer.MAX_VALUE / 2) ? -1 : candidates * 2;
+        }
+    }
+
+    /**
+     * Checks whether properties are overdue, with a single probe of the (property_id, service_date DESC) index each.
+     * @param propertyIDs Properties to check.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone. -1 for any
+     *                    service.
+     * @param cutoff Properties whose last service was on or before this date, or which never had one, are overdue.
+     * @param overdue Filled with whether each property is overdue.
+     * @return Whether every property was checked.
+     */
+    private boolean checkOverdue(List<Integer> propertyIDs, int serviceType, LocalDate cutoff, Map<Integer, Boolean> overdue){
+        StringBuilder ids = new StringBuilder();
+        for (int id : propertyIDs){
+            if (!ids.isEmpty()) ids.append(", ");
+            ids.append(id);
+        }
+        ResultSet rs = performQuery("""
+                SELECT
+                	properties.id,
+                	(SELECT service_date
+                	FROM services
+                	WHERE services.property_id = properties.id%s
+                	ORDER BY service_date DESC
+                	LIMIT 1) as last_date
+                FROM properties
+                WHERE properties.id IN (%s);""".formatted(
+                serviceType == -1 ? "" : "\n\tAND services." + SERVICE_COLUMNS[serviceType], ids),
+                "check service history of nearby properties");
+        if (rs == null) return false;
         try {
-            System.out.println("[!] Now displaying service history:");
-            while (rs.next() && (counter < n || n == -1)){
-                //Convert boolean values to strings which say YES or NO. Booleans are from column id's 9-17.
-                ArrayList<String> boolWords = new ArrayList<>();
-                for (int i=9; i <= 17; i++){
-                    boolWords.add(rs.getBoolean(i) ? "YES" : "NO ");
+            while (rs.next()){
+                java.sql.Date last = rs.getDate(2);
+                overdue.put(rs.getInt(1), last == null || !last.toLocalDate().isAfter(cutoff));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            out.println("[!] Error occurred while attempting to check service history of nearby properties:\n" + e);
+            return false;
+        }
+        //Properties deleted since the spatial index was loaded are never listed.
+        for (int id : propertyIDs){
+            overdue.putIfAbsent(id, false);
+        }
+        return true;
+    }
+
+    /**
+     * Loads the properties added since the last load into the spatial index. The first call loads every property.
+     * @return Whether the spatial index is up-to-date.
+     */
+    private boolean refreshSpatialIndex(){
+        if (!spatialIndexStale) return true;
+        //Cleared first, so a change notified while loading marks the index stale again.
+        spatialIndexStale = false;
+        ResultSet rs = performQuery("""
+                SELECT id, latitude, longitude
+                FROM properties
+                WHERE latitude IS NOT NULL
+                AND longitude IS NOT NULL
+                AND id > %d
+                ORDER BY id ASC;""".formatted(spatialWatermark), "load property coordinates");
+        if (rs == null) {
+            spatialIndexStale = true;
+            return false;
+        }
+        try {
+            while (rs.next()){
+                spatialIndex.add(rs.getInt(1), rs.getDouble(2), rs.getDouble(3));
+                spatialWatermark = rs.getInt(1);
+            }
+            rs.close();
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to load property coordinates:\n" + e);
+            spatialIndexStale = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Suggests a price for a new service at a property, from the costs of past services which did the same services. Uses
+     * the past services of the property's city when it has enough of them, and of every city otherwise.
+     * @param propertyID ID of the property.
+     * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     *                     tree removal, tree trim, power wash, snow plow].
+     * @return Suggested price, or null if no past service did the same services or an error occurred.
+     */
+    @Override
+    public PriceBook.Quote quotePrice(int propertyID, boolean[] servicesDone){
+        if (!refreshPriceBook()) return null;
+        ResultSet rs = performQuery("SELECT city_id FROM properties WHERE id = %d;".formatted(propertyID), "find property city");
+        if (rs == null) return null;
+        int cityID;
+        try {
+            if (!rs.next()) {
+                rs.close();
+                return null;
+            }
+            cityID = rs.getInt(1);
+            rs.close();
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to find property city:\n" + e);
+            return null;
+        }
+        propertyCities.put(propertyID, cityID);
+        return priceBook.quote(cityID, PriceBook.servicesMask(servicesDone));
+    }
+
+    /**
+     * Adds the services added since the last refresh to the price book, then stores the sketches which changed. The first
+     * call loads the stored sketches, so only services added since they were stored are read. Services are read through a
+     * cursor in id order, so a failed read leaves the price book up-to-date to the last service read. Reads start at the
+     * oldest pending id, so services which committed after later ids were read are still added.
+     * @return Whether the price book is up-to-date.
+     */
+    private boolean refreshPriceBook(){
+        if (priceBookReset) {
+            //The stored sketches hold the old costs, so the price book is built again from the services table.
+            priceBookReset = false;
+            if (performUpdateCount("DELETE FROM price_sketches;", "reset price sketches") < 0) {
+                priceBookReset = true;
+                return false;
+            }
+            priceBook.clear();
+            priceBookLoaded = false;
+            priceBookStale = true;
+        }
+        if (!priceBookLoaded) {
+            if (!loadPriceSketches()) return false;
+            priceBookLoaded = true;
+        }
+        if (!priceBookStale) return true;
+        //Cleared first, so a change notified while reading marks the price book stale again.
+        priceBookStale = false;
+        if (!verifyConnection()) {
+            priceBookStale = true;
+            return false;
+        }
+
+        int from = priceBook.getReadFrom();
+        boolean building = (priceBook.getWatermark() == 0);
+        String sql = """
+                SELECT s.id, p.city_id, s.service_cost, s.%s
+                FROM services s
+                JOIN properties p ON p.id = s.property_id
+                WHERE s.id > %d
+                ORDER BY s.id ASC;""".formatted(String.join(", s.", SERVICE_COLUMNS), from);
+        DatabaseCallEvent event = Profiling.beginCall("read services for price suggestions");
+        long start = System.nanoTime();
+        long added = 0;
+        boolean autoCommit = true;
+        try {
+            //PostgreSQL only fetches in batches inside a transaction, otherwise it reads every row up front.
+            autoCommit = connection.getAutoCommit();
+            if (autoCommit) connection.setAutoCommit(false);
+            try (Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                st.setFetchSize(FETCH_SIZE);
+                st.setQueryTimeout(QueryClass.BULK.timeoutSeconds());
+                ResultSet rs = st.executeQuery(sql);
+                boolean[] servicesDone = new boolean[SERVICE_COLUMNS.length];
+                while (rs.next()){
+                    for (int i = 0; i < servicesDone.length; i++){
+                        servicesDone[i] = rs.getBoolean(i + 4);
+                    }
+                    if (priceBook.add(rs.getInt(1), rs.getInt(2), PriceBook.servicesMask(servicesDone), rs.getDouble(3))) {
+                        added++;
+                    }
+                }
+                rs.close();
+            }
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to read services for price suggestions:\n" + e);
+            priceBookStale = true;
+        } finally {
+            try {
+                if (autoCommit) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                //The next statement reports the connection's state.
+            }
+            Profiling.endCall(event, sql, added, false, 0);
+        }
+        if (building && added > 0) {
+            out.printf("[!] Built price suggestions from %d services in %d ms.\n", added,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        storePriceSketches();
+        return !priceBookStale;
+    }
+
+    /**
+     * Loads the stored price sketches into the price book. Sketches which can't be read are skipped.
+     * @return Whether the sketches were loaded.
+     */
+    private boolean loadPriceSketches(){
+        ResultSet rs = performQuery("SELECT city_id, services, watermark, digest, pending FROM price_sketches;",
+                "load price sketches");
+        if (rs == null) return false;
+        try {
+            while (rs.next()){
+                try {
+                    priceBook.load(new PriceBook.Sketch(rs.getInt(1), rs.getInt(2), rs.getString(4)), rs.getInt(3),
+                            rs.getString(5));
+                } catch (IllegalArgumentException e) {
+                    out.printf("[!] Skipping damaged price sketch of city %d:\n%s\n", rs.getInt(1), e.getMessage());
                 }
-                System.out.printf("""
-                        
-                        [SERVICE ID#%d]
-                        SERVICE AT %s, %s, %s %d [PROPERTY ID#%d] ON %s
-                        MOW..........%s |   LEAF BLOW....%s |   SEED...........%s
-                        FERTILIZER...%s |   MULCH........%s |   TREE REMOVAL...%s
-                        TREE TRIM....%s |   POWER WASH...%s |   SNOW PLOW......%s
-                        NOTES: %s
-                        COST......................$%.2f
-                        """,
-                        rs.getInt(1),
-                        rs.getString(3),
-                        rs.getString(4),
-                        rs.getString(6),
-                        rs.getInt(5),
-                        rs.getInt(2),
-                        rs.getDate(7),
-                        boolWords.get(0), boolWords.get(1), boolWords.get(2),
-                        boolWords.get(3), boolWords.get(4), boolWords.get(5),
-                        boolWords.get(6), boolWords.get(7), boolWords.get(8),
-                        rs.getString(18),
-                        rs.getDouble(8));
-                counter++;
             }
             rs.close();
         } catch (SQLException e) {
-            //Should not occur given ResultSet is not null.
+            out.println("[!] Error occurred while attempting to load price sketches:\n" + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the price sketches which changed, each along with the id of the last service added and the pending ids, so the
+     * next run only reads the services added after them.
+     */
+    private void storePriceSketches(){
+        List<PriceBook.Sketch> sketches = priceBook.takeChanged();
+        int watermark = priceBook.getWatermark();
+        String pending = priceBook.getPending();
+        for (int i = 0; i < sketches.size(); i += PRICE_SKETCH_CHUNK){
+            StringBuilder sql = new StringBuilder();
+            for (PriceBook.Sketch sketch : sketches.subList(i, Math.min(sketches.size(), i + PRICE_SKETCH_CHUNK))){
+                sql.append("""
+                        DELETE FROM price_sketches WHERE city_id = %1$d AND services = %2$d;
+                        INSERT INTO price_sketches (city_id, services, watermark, digest, pending)
+                        VALUES (%1$d, %2$d, %3$d, '%4$s', '%5$s');
+                        """.formatted(sketch.cityID(), sketch.services(), watermark, sketch.digest(), pending));
+            }
+            //Replacing a sketch may alter no rows when it is new, so only an error is considered a failure.
+            if (performUpdateCount(sql.toString(), "store price sketches", QueryClass.BULK) < 0) return;
+        }
+    }
+
+    /**
+     * Turns a row of a service view into a tools.ServiceVisit.
+     * @param row Row with the columns: service_id, property_id, address, city, zip, state, service_date, service_cost, the
+     * nine service columns, and notes.
+     * @return Service visit holding the row's values.
+     */
+    private static ServiceVisit toServiceVisit(Object[] row){
+        //Booleans are from column id's 9-17.
+        boolean[] servicesDone = new boolean[9];
+        for (int i=8; i <= 16; i++){
+            servicesDone[i - 8] = (Boolean) row[i];
         }
+        return new ServiceVisit((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[3], (String) row[4],
+                (String) row[5], ((java.sql.Date) row[6]).toLocalDate(), ((Number) row[7]).doubleValue(), servicesDone,
+                (String) row[17]);
     }
 
     /**
-     * Will print n rows of the properties table as standard, sorted by city, or sorted by client.
+     * Retrieves n rows of the properties table as standard, sorted by city, or sorted by client.
      * @param sortingMode "all" for no sorting, "city" for sorted by city, "client" for sorted by client. Default is "all".
-     * @param n Number of rows to display, -1 for all rows.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the properties, or null if an error occurred. Must be closed once done.
      */
-    public void viewProperties(String sortingMode, int n){
+    @Override
+    public Stream<Property> streamProperties(String sortingMode, int n){
         /*
         Table will return in form of:
         (row id, id 0) | property_id (id 1) | client_id (id 2) ...
+        Cached rows hold the same columns, starting at index 0.
          */
-        int counter = 0;
         String sql = """
                 SELECT
                 	properties.id as property_id, --id 1
@@ -240,55 +1067,35 @@ public class MowDataDB {
 
         //Changing SQL for sortingMode.
         switch (sortingMode){
-            case "all" -> sql += ";";
-            case "city" -> sql += "\nORDER BY city_id ASC;";
-            case "client" -> sql += "\nORDER BY client_id ASC;";
+            case "all" -> {}
+            case "city" -> sql += "\nORDER BY city_id ASC";
+            case "client" -> sql += "\nORDER BY client_id ASC";
             default -> {
-                System.out.println("Invalid sortingMode given. Defaulting to \"all\".");
-                sql += ";";
+                out.println("Invalid sortingMode given. Defaulting to \"all\".");
+                sortingMode = "all";
             }
         }
 
-        //Processing results.
-        ResultSet rs = performQuery(sql, "view properties table");
-        if (rs == null) return;
-        try {
-            System.out.println("[!] Now displaying properties data:");
-            while (rs.next() && (counter < n || n == -1)){
-                System.out.printf("""
-                        
-                        [PROPERTY ID#%d]
-                        ADDRESS: %s | CITY: %s %d [CITY ID#%d] | STATE: %s
-                        OWNER: %s %s [OWNER ID#%d]
-                        """,
-                        rs.getInt(1),
-                        rs.getString(5),
-                        rs.getString(7),
-                        rs.getInt(8),
-                        rs.getInt(6),
-                        rs.getString(9),
-                        rs.getString(3),
-                        rs.getString(4),
-                        rs.getInt(2));
-                counter++;
-            }
-            rs.close();
-        } catch (SQLException e){
-            //Should not occur if ResultSet is not null.
-        }
+        //Retrieving rows, from the cache if possible.
+        String key = "properties|%s|%d".formatted(sortingMode, n);
+        return streamRows(key, limit(sql, n), Set.of("properties", "clients", "cities", "states"), "view properties table",
+                row -> new Property((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[3],
+                        (String) row[4], (Integer) row[5], (String) row[6], (String) row[7], (String) row[8]));
     }
 
     /**
-     * Will print n rows of the cities table as standard or sorted by state.
+     * Retrieves n rows of the cities table as standard or sorted by state.
      * @param sortingMode "all" for no sorting, "state" for sorted by state, "name" for sorted by name. Default is "all".
-     * @param n Number of rows to display, -1 for all rows.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the cities, or null if an error occurred. Must be closed once done.
      */
-    public void viewCities(String sortingMode, int n){
+    @Override
+    public Stream<City> streamCities(String sortingMode, int n){
         /*
         Table will look like:
         (row id #0) | city_id (#1) | name (#2)...
+        Cached rows hold the same columns, starting at index 0.
          */
-        int counter = 0;
         String sql = """
                 SELECT
                 	cities.id as city_id, --id 1
@@ -302,90 +1109,372 @@ public class MowDataDB {
 
         //Adjusting SQL depending on sortingMode.
         switch (sortingMode){
-            case "all" -> sql += ";";
-            case "state" -> sql += "\nORDER BY state_id;";
-            case "name" -> sql += "\n ORDER BY cities.name ASC;";
+            case "all" -> {}
+            case "state" -> sql += "\nORDER BY state_id";
+            case "name" -> sql += "\n ORDER BY cities.name ASC";
             default -> {
-                System.out.println("Invalid sortingMode given, defaulting to \"all\".");
-                sql += ";";
+                out.println("Invalid sortingMode given, defaulting to \"all\".");
+                sortingMode = "all";
             }
         }
 
-        //Processing results.
-        ResultSet rs = performQuery(sql, "view cities table");
-        if (rs == null) return;
-        try {
-            System.out.println("[!] Now displaying cities data:");
-            while (rs.next() && (counter < n || n == -1)) {
-                System.out.printf("""
-                                                
-                        [CITY ID#%d]
-                        CITY: %s | STATE: %s [STATE ID#%d] | ZIP: %d
-                        """,
-                        rs.getInt(1),
-                        rs.getString(2),
-                        rs.getString(5),
-                        rs.getInt(4),
-                        rs.getInt(3));
-                counter++;
-            }
-            rs.close();
-        } catch (SQLException e) {
-            //Should not occur given ResultSet is not null.
-        }
+        //Retrieving rows, from the cache if possible.
+        String key = "cities|%s|%d".formatted(sortingMode, n);
+        return streamRows(key, limit(sql, n), Set.of("cities", "states"), "view cities table",
+                row -> new City((Integer) row[0], (String) row[1], (String) row[2], (Integer) row[3], (String) row[4]));
     }
 
     /**
-     * Will print n rows of the clients table as standard or sorted by name.
+     * Retrieves n rows of the clients table as standard or sorted by name.
      * @param sortingMode "all" for no sorting, "name" for sorted by name. Default is "all".
-     * @param n Number of rows to display. -1 for all rows.
+     * @param n Number of rows to retrieve. -1 for all rows.
+     * @return Stream of the clients, or null if an error occurred. Must be closed once done.
      */
-    public void viewClients(String sortingMode, int n){
+    @Override
+    public Stream<Client> streamClients(String sortingMode, int n){
         /*
         Table will return as:
         (row id #0) | client_id (#1) | first_name (#2) | last_name (#3) | phone (#4) | email (#5)
+        Cached rows hold the same columns, starting at index 0.
          */
-        int counter = 0;
         String sql = "SELECT * FROM clients";
 
         //Adjusting SQL for sortingMode.
         switch (sortingMode) {
-            case "all" -> sql += ";";
-            case "name" -> sql += "\nORDER BY first_name ASC, last_name ASC;";
+            case "all" -> {}
+            case "name" -> sql += "\nORDER BY first_name ASC, last_name ASC";
             default -> {
-                System.out.println("[!] Invalid sortingMode given. Defaulting to \"all\".");
-                sql += ";";
+                out.println("[!] Invalid sortingMode given. Defaulting to \"all\".");
+                sortingMode = "all";
             }
         }
 
-        //Processing results.
-        ResultSet rs = performQuery(sql, "view clients table");
-        if (rs == null) return;
+        //Retrieving rows, from the cache if possible.
+        String key = "clients|%s|%d".formatted(sortingMode, n);
+        return streamRows(key, limit(sql, n), Set.of("clients"), "view clients table",
+                row -> new Client((Integer) row[0], (String) row[1], (String) row[2], (String) row[3], (String) row[4]));
+    }
+
+    /**
+     * Prints the hit ratio and memory use of the view cache.
+     */
+    public void printCacheStatistics(){
+        viewCache.printStatistics();
+    }
+
+    /**
+     * Completes a view query, limiting it to n rows.
+     * @param sql View query, without a closing semicolon.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Completed query.
+     */
+    private String limit(String sql, int n){
+        if (n == -1) return sql + ";";
+        return sql + "\nLIMIT %d;".formatted(n);
+    }
+
+    /**
+     * Will perform a view query and return a snapshot of its rows. Rows are served from the view cache when possible, otherwise
+     * the query is performed and its rows are cached.
+     * @param key Key of the view in the cache, built from the view name, sorting mode, row count, and filters.
+     * @param sql Query to perform.
+     * @param tables Names of the tables the query reads from. The cached rows are dropped when any of these tables change.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @return Rows of the query, each holding the query's columns in order, or null if an error occurred.
+     */
+    private List<Object[]> queryRows(String key, String sql, Set<String> tables, String errorFrom){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        //Captured before the cache is checked, so cached views are still checked.
+        if (capturedStatements != null) capturedStatements.add(sql);
+        List<Object[]> rows = caching ? viewCache.get(key) : null;
+        if (rows != null) {
+            Profiling.endCall(event, sql, rows.size(), true, 0);
+            return rows;
+        }
+        long generation = viewCache.generation(tables);
+
+        long waitStart = System.nanoTime();
+        //Won't attempt if there is no connection
+        if (!verifyConnection()) return null;
+        rows = new ArrayList<>();
+        Connection readConnection = router.readConnection();
+        long connectionWait = System.nanoTime() - waitStart;
+        Statement st = null;
+        CancelWatcher watcher = null;
         try {
-            System.out.println("[!] Now displaying clients data:");
-            while (rs.next() && (counter < n || n == -1)){
-                String phoneNumber = rs.getString(4);
-                String formattedPhoneNumber = "("
-                        + phoneNumber.substring(0,3) + ") "
-                        + phoneNumber.substring(3, 6) + "-"
-                        + phoneNumber.substring(6, 10);
-                System.out.printf("""
-                        
-                        [CLIENT ID#%d]
-                        NAME: %s %s
-                        PHONE: %s
-                        EMAIL: %s
-                        """,
-                        rs.getInt(1),
-                        rs.getString(2),
-                        rs.getString(3),
-                        formattedPhoneNumber,
-                        rs.getString(5));
-                counter++;
+            st = readConnection.createStatement();
+            st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+            //Only a user at the console can cancel, so instances without input aren't watched.
+            if (input != null && cancellable) watcher = new CancelWatcher(st);
+            ResultSet rs = st.executeQuery(sql);
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()){
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++){
+                    row[i] = rs.getObject(i + 1);
+                }
+                rows.add(row);
             }
             rs.close();
         } catch (SQLException e) {
-            //Should not occur given ResultSet is not null.
+            printViewError(e, watcher, errorFrom);
+            recoverAfterCancel(readConnection);
+            return null;
+        } finally {
+            if (watcher != null) watcher.close();
+            try {
+                if (st != null) st.close();
+            } catch (SQLException e) {
+                //Statement is discarded either way.
+            }
+            Profiling.endCall(event, sql, rows.size(), false, connectionWait);
+        }
+        if (caching) viewCache.put(key, rows, tables, generation);
+        return rows;
+    }
+
+    /**
+     * Will perform a view query and stream its rows as they are fetched, so a large view never has to fit in memory. Rows
+     * are served from the view cache when possible. Fetched rows are also collected, and cached once the stream is read to the
+     * end or closed, until they outgrow the view cache's budget. Streams hold a transaction
+     * open on the read connection, which may be the primary, so they are released as soon as they are read to the end, and
+     * once left unread for STREAM_IDLE_SECONDS unless a tools.PagePrefetcher reads them. A released stream ends early.
+     * @param key Key of the view in the cache, built from the view name, sorting mode, row count, and filters.
+     * @param sql Query to perform.
+     * @param tables Names of the tables the query reads from. The cached rows are dropped when any of these tables change.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @param mapper Turns a row, holding the query's columns in order, into the streamed object.
+     * @return Stream of the rows, or null if an error occurred. Must be closed to release the statement.
+     */
+    private <T> Stream<T> streamRows(String key, String sql, Set<String> tables, String errorFrom,
+                                     Function<Object[], T> mapper){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        //Captured before the cache is checked, so cached views are still checked.
+        if (capturedStatements != null) capturedStatements.add(sql);
+        List<Object[]> cached = caching ? viewCache.get(key) : null;
+        if (cached != null) {
+            Profiling.endCall(event, sql, cached.size(), true, 0);
+            return cached.stream().map(mapper);
+        }
+        long generation = viewCache.generation(tables);
+
+        long waitStart = System.nanoTime();
+        //Won't attempt if there is no connection
+        if (!verifyConnection()) return null;
+        Connection readConnection = router.readConnection();
+        long connectionWait = System.nanoTime() - waitStart;
+        Statement st = null;
+        CancelWatcher watcher = null;
+        ResultSet rs;
+        boolean autoCommit = true;
+        try {
+            //PostgreSQL only fetches in batches inside a transaction, otherwise it reads every row up front.
+            autoCommit = readConnection.getAutoCommit();
+            if (autoCommit) readConnection.setAutoCommit(false);
+            st = readConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            st.setFetchSize(FETCH_SIZE);
+            st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+            //Only a user at the console can cancel, so instances without input aren't watched.
+            if (input != null && cancellable) watcher = new CancelWatcher(st);
+            rs = st.executeQuery(sql);
+        } catch (SQLException e) {
+            if (watcher != null) watcher.close();
+            printViewError(e, watcher, errorFrom);
+            closeStream(readConnection, st, autoCommit, true);
+            return null;
+        } finally {
+            Profiling.endCall(event, sql, -1, false, connectionWait);
+        }
+
+        Statement statement = st;
+        CancelWatcher cancelWatcher = watcher;
+        boolean restoreAutoCommit = autoCommit;
+        long cacheBudget = viewCache.getBudgetBytes();
+        //Rows are read on the caller's thread or a page prefetch thread, and the stream may be released by the idle timer.
+        Object lock = new Object();
+        boolean[] failed = {false};
+        boolean[] released = {false};
+        boolean[] expired = {false};
+        //Set once a tools.PagePrefetcher reads the stream. Its user may stay on a page for as long as they like, and closes
+        //the stream when they leave the view.
+        boolean[] paged = {false};
+        long[] lastRead = {System.nanoTime()};
+        Runnable release = () -> {
+            synchronized (lock) {
+                if (released[0]) return;
+                released[0] = true;
+                if (cancelWatcher != null) cancelWatcher.close();
+                closeStream(readConnection, statement, restoreAutoCommit, failed[0]);
+            }
+        };
+        TimerTask idleCheck = new TimerTask() {
+            @Override
+            public void run(){
+                synchronized (lock) {
+                    if (!released[0] && (paged[0] || System.nanoTime() - lastRead[0] < STREAM_IDLE_SECONDS * 1_000_000_000L)) {
+                        return;
+                    }
+                    if (!released[0]) expired[0] = true;
+                    release.run();
+                }
+                cancel();
+            }
+        };
+        STREAM_IDLE_TIMER.schedule(idleCheck, 1000, 1000);
+        //Fetched rows are collected for the cache until they outgrow the cache's budget.
+        class Rows extends Spliterators.AbstractSpliterator<Object[]> {
+            private List<Object[]> fetched = caching ? new ArrayList<>() : null;
+            private long fetchedBytes;
+            private boolean done;
+
+            private Rows(){
+                super(Long.MAX_VALUE, Spliterator.ORDERED);
+            }
+
+            @Override
+            public boolean tryAdvance(Consumer<? super Object[]> action){
+                Object[] row;
+                synchronized (lock) {
+                    if (PagePrefetcher.isReading()) paged[0] = true;
+                    if (done) return false;
+                    if (released[0]) {
+                        done = true;
+                        //Only streams read by the caller expire, so the message is printed on the caller's thread.
+                        if (expired[0]) {
+                            out.printf("[!] The view was left for over %d seconds and was closed. Open it again to see more rows.\n",
+                                    STREAM_IDLE_SECONDS);
+                        }
+                        return false;
+                    }
+                    try {
+                        row = next();
+                    } catch (SQLException e) {
+                        fail(e);
+                        return false;
+                    }
+                    if (row == null) return false;
+                    lastRead[0] = System.nanoTime();
+                }
+                action.accept(row);
+                return true;
+            }
+
+            /**
+             * Reads the next row and collects it for the cache. Must be called while holding the lock.
+             * @return The row, or null once the rows ran out, in which case the collected rows are cached and the stream is
+             * released.
+             */
+            private Object[] next() throws SQLException {
+                if (cancelWatcher != null && cancelWatcher.wasCancelled()) {
+                    throw new SQLException("View cancelled.");
+                }
+                if (!rs.next()) {
+                    done = true;
+                    if (fetched != null) viewCache.put(key, fetched, tables, generation);
+                    release.run();
+                    return null;
+                }
+                int columns = rs.getMetaData().getColumnCount();
+                Object[] row = new Object[columns];
+                for (int i = 0; i < columns; i++){
+                    row[i] = rs.getObject(i + 1);
+                }
+                if (fetched != null) {
+                    fetchedBytes += ViewCache.estimateBytes(row);
+                    //The view won't fit in the cache, so its rows are no longer kept.
+                    if (fetchedBytes > cacheBudget) fetched = null;
+                    else fetched.add(row);
+                }
+                return row;
+            }
+
+            private void fail(SQLException e){
+                done = true;
+                failed[0] = true;
+                if (cancelWatcher != null) cancelWatcher.close();
+                printViewError(e, cancelWatcher, errorFrom);
+                release.run();
+            }
+
+            /**
+             * Reads the rows left when the stream is closed early, such as a paged view left before its last page, so the
+             * view can still be cached. Stops as soon as the rows outgrow the cache's budget.
+             */
+            private void finish(){
+                synchronized (lock) {
+                    try {
+                        while (!done && !released[0] && fetched != null){
+                            next();
+                        }
+                    } catch (SQLException e) {
+                        fail(e);
+                    }
+                }
+            }
+        }
+        Rows rows = new Rows();
+        return StreamSupport.stream(rows, false).map(mapper).onClose(() -> {
+            idleCheck.cancel();
+            rows.finish();
+            release.run();
+        });
+    }
+
+    /**
+     * Prints why a view query failed.
+     * @param e Error the query failed with.
+     * @param watcher Watcher of the query, or null if it wasn't watched. Must already be closed.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     */
+    private void printViewError(SQLException e, CancelWatcher watcher, String errorFrom){
+        failures.incrementAndGet();
+        if (watcher != null && watcher.wasCancelled()) {
+            //The Enter press which cancelled the view is consumed, so it isn't read as a menu choice.
+            input.nextLine();
+            out.println("[!] View cancelled.");
+        } else if (QueryClass.isCancellation(e)) {
+            out.printf("[!] The view took longer than %d seconds and was stopped.\n",
+                    QueryClass.INTERACTIVE.timeoutSeconds());
+        } else {
+            out.printf("[!] Error occurred while attempting to %s:\n%s", errorFrom, e);
+        }
+    }
+
+    /**
+     * Releases the statement of a streamed view and returns its connection to how it was found.
+     * @param connection Connection the view ran on.
+     * @param st Statement of the view, or null if it wasn't created.
+     * @param autoCommit Whether the connection was in auto-commit mode before the view.
+     * @param failed Whether the view failed or was cancelled.
+     */
+    private void closeStream(Connection connection, Statement st, boolean autoCommit, boolean failed){
+        try {
+            //Closing the statement also closes its result set.
+            if (st != null) st.close();
+        } catch (SQLException e) {
+            //Statement is discarded either way.
+        }
+        if (failed) recoverAfterCancel(connection);
+        try {
+            if (!connection.getAutoCommit()) {
+                if (!failed) connection.commit();
+                if (autoCommit) connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to release a view:\n" + e);
+        }
+    }
+
+    /**
+     * Leaves a connection usable after a statement failed or was cancelled. A transaction which was left open is rolled back,
+     * since no further statements can run in a failed transaction.
+     * @param connection Connection the statement ran on.
+     */
+    private void recoverAfterCancel(Connection connection){
+        try {
+            if (!connection.getAutoCommit()) connection.rollback();
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to roll back after a stopped query:\n" + e);
         }
     }
 
@@ -399,6 +1488,7 @@ public class MowDataDB {
      * @param notes Notes for services. A value of "" should be used when there are no notes.
      * @param confirm Whether to confirm the service before performing update. Will print the service card to display.
      */
+    @Override
     public void addService(int propertyID, LocalDate date, boolean[] servicesDone, double cost, String notes, boolean confirm){
         //If notes is empty, we will put null as the value for the table.
         if (notes.length() == 0) {
@@ -436,54 +1526,23 @@ public class MowDataDB {
                 );
 
         //Displays and prompts user to confirm service addition, if applicable.
-        if (confirm) {
-            ArrayList<String> boolWords = new ArrayList<>();
-            for (int i=0; i <= 8; i++){
-                boolWords.add(servicesDone[i] ? "YES" : "NO ");
-            }
-
-            System.out.printf("""
-                     [!] Now displaying service card.
-                     
-                     [SERVICE AT PROPERTY ID#%d ON %tF]
-                     MOW..........%s |   LEAF BLOW....%s |   SEED...........%s
-                     FERTILIZER...%s |   MULCH........%s |   TREE REMOVAL...%s
-                     TREE TRIM....%s |   POWER WASH...%s |   SNOW PLOW......%s
-                     NOTES: %s
-                     COST......................$%.2f
-                     
-                     """,
-                    propertyID,
-                    date,
-                    boolWords.get(0),
-                    boolWords.get(1),
-                    boolWords.get(2),
-                    boolWords.get(3),
-                    boolWords.get(4),
-                    boolWords.get(5),
-                    boolWords.get(6),
-                    boolWords.get(7),
-                    boolWords.get(8),
-                    notes,
-                    cost);
-            System.out.print("""
-                    Would you like to add this service to the services table?:
-                    
-                    [1] Yes.
-                    [0] No.
-                    
-                    input:""");
-            //If user selects 'no' exit method. Else continue and perform query.
-            if (Menu.collectInt(0, 1, input) == 0) {
-                System.out.println("[!] Service not added.");
-                return;
-            }
-        }
+        if (confirm && !Cards.confirmService(propertyID, date, servicesDone, notes, cost, input)) return;
 
-        if (performUpdate(sql, "add service")) {
-            System.out.println("[!] Successfully added service.");
+        int serviceID = performInsert(sql, "add service");
+        if (serviceID != -1) {
+            viewCache.tablesChanged(Set.of("services"));
+            audit("add", "services", serviceID, "property %d, %tF".formatted(propertyID, date));
+            out.println("[!] Successfully added service.");
+            //Once prices are being suggested, each new service is added to the price book right away. The sketches are
+            //stored by the next refresh, or on exit.
+            Integer cityID = propertyCities.get(propertyID);
+            if (priceBookLoaded && cityID != null) {
+                priceBook.add(serviceID, cityID, PriceBook.servicesMask(servicesDone), cost);
+            } else {
+                priceBookStale = true;
+            }
         } else {
-            System.out.println("[!] Error occurred. Service not added.");
+            out.println("[!] Error occurred. Service not added.");
         }
     }
 
@@ -492,42 +1551,39 @@ public class MowDataDB {
      * @param clientID Client ID, owner of property.
      * @param address Address of property. Proper format is all lowercase (ex: 123 apple rd).
      * @param cityID City ID.
+     * @param latitude Latitude of property, or NaN if it is unknown.
+     * @param longitude Longitude of property, or NaN if it is unknown.
      * @param confirm Whether to confirm the property before performing update. Will print the property card to user.
      */
-    public void addProperty(int clientID, String address, int cityID, boolean confirm){
+    @Override
+    public void addProperty(int clientID, String address, int cityID, double latitude, double longitude, boolean confirm){
+        boolean located = !Double.isNaN(latitude) && !Double.isNaN(longitude);
+        //Coordinates are written with Double.toString, which never uses a locale's decimal comma.
         String sql = """
-                INSERT INTO properties (client_id, address, city_id)
+                INSERT INTO properties (client_id, address, city_id, latitude, longitude)
                 	VALUES (
                 	%d,
                 	'%s',
-                	%d
-                );""".formatted(clientID, address, cityID);
+                	%d,
+                	%s,
+                	%s
+                );""".formatted(clientID, address, cityID,
+                located ? Double.toString(latitude) : "null",
+                located ? Double.toString(longitude) : "null");
 
         //Will display property card to user and confirm if they will add the property.
-        if (confirm) {
-            System.out.printf("""
-                    [!] Now displaying property card.
-                    
-                    [PROPERTY AT %s]
-                    OWNED BY CLIENT ID #%d
-                    ADDRESS IS IN CITY #%d
-                    
-                    Would you like to add this property to the properties tables?
-                    
-                    [1] Yes.
-                    [0] No.
-                    
-                    input:""", address, clientID, cityID);
-            int choice = Menu.collectInt(0, 1, input);
-            //If user decides no, do not add the property.
-            if (choice == 0) return;
-        }
+        if (confirm && !Cards.confirmProperty(clientID, address, cityID, latitude, longitude, input)) return;
 
         //Execute query.
-        if (performUpdate(sql, "add property")) {
-            System.out.println("[!] Successfully added property.");
+        int propertyID = performInsert(sql, "add property");
+        if (propertyID != -1) {
+            viewCache.tablesChanged(Set.of("properties"));
+            //The index is kept up to date without reloading it.
+            if (located) spatialIndex.add(propertyID, latitude, longitude);
+            audit("add", "properties", propertyID, "client %d, %s".formatted(clientID, address));
+            out.println("[!] Successfully added property.");
         } else {
-            System.out.println("[!] Error occurred. Property not added.");
+            out.println("[!] Error occurred. Property not added.");
         }
     }
 
@@ -538,6 +1594,7 @@ public class MowDataDB {
      * @param stateID City state id.
      * @param confirm Whether to confirm the city before performing update. Will print city card to user.
      */
+    @Override
     public void addCity(String name, String zip, int stateID, boolean confirm){
         //Ensuring proper format.
         name = name.toLowerCase();
@@ -551,44 +1608,42 @@ public class MowDataDB {
                 """.formatted(name, zip, stateID);
 
         //Displays city card and verifies with user.
-        if (confirm) {
-            System.out.printf("""
-                    [!] Now displaying city card.
-                    
-                    [CITY '%s']
-                    ZIP %s
-                    STATE ID#%d
-                    
-                    Would you like to add this city to the cities table?
-                    
-                    [1] Yes.
-                    [0] No.
-                    
-                    input:""",
-                    name,
-                    zip,
-                    stateID);
-            //Exit if user inputs no.
-            if (Menu.collectInt(0, 1, input) == 0) return;
-        }
+        if (confirm && !Cards.confirmCity(name, zip, stateID, input)) return;
 
         //Execute query:
-        if (performUpdate(sql, "add city")) {
-            System.out.println("[!] Successfully added city.");
+        int cityID = performInsert(sql, "add city");
+        if (cityID != -1) {
+            viewCache.tablesChanged(Set.of("cities"));
+            audit("add", "cities", cityID, "%s %s".formatted(name, zip));
+            out.println("[!] Successfully added city.");
         } else {
-            System.out.println("[!] Error occurred. City not added.");
+            out.println("[!] Error occurred. City not added.");
         }
     }
 
     /**
-     * Will insert a new client entry into the clients table.
+     * Will insert a new client entry into the clients table.
+     * @param firstName Client first name. Proper format is all lowercase.
+     * @param lastName Client last name. Proper format is all lowercase.
+     * @param phoneNumber Client phone number. (ex: 1234566890).
+     * @param email Client email. Proper format is all lowercase.
+     * @param confirm Whether to confirm client before performing update. Will print client card to user.
+     */
+    @Override
+    public void addClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm){
+        insertClient(firstName, lastName, phoneNumber, email, confirm);
+    }
+
+    /**
+     * Will insert a new client entry into the clients table and return the id generated for it.
      * @param firstName Client first name. Proper format is all lowercase.
      * @param lastName Client last name. Proper format is all lowercase.
      * @param phoneNumber Client phone number. (ex: 1234566890).
      * @param email Client email. Proper format is all lowercase.
      * @param confirm Whether to confirm client before performing update. Will print client card to user.
+     * @return ID of the new client, or -1 if the client was not added.
      */
-    public void addClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm){
+    int insertClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm){
         //Ensure correct format
         firstName = firstName.toLowerCase();
         lastName = lastName.toLowerCase();
@@ -602,41 +1657,192 @@ public class MowDataDB {
                 	'%s');
                 	""".formatted(firstName, lastName, phoneNumber, email);
 
-        //Display city card and verify with user.
-        if (confirm) {
-            String formattedPhoneNumber = "("
-                    + phoneNumber.substring(0,3) + ") "
-                    + phoneNumber.substring(3, 6) + "-"
-                    + phoneNumber.substring(6, 10);
-            System.out.printf("""
-                    [!] Now displaying client card.
-                    
-                    [CLIENT '%s %s']
-                    PHONE: %s
-                    EMAIL: %s
-                    
-                    Would you like to add this client?
-                    
-                    [1] Yes.
-                    [0] No.
-                    
-                    input:""",
-                    firstName,
-                    lastName,
-                    formattedPhoneNumber,
-                    email);
-            //Exit if user inputs no.
-            if (Menu.collectInt(0, 1, input) == 0) return;
-        }
+        //Display client card and verify with user.
+        if (confirm && !Cards.confirmClient(firstName, lastName, phoneNumber, email, input)) return -1;
 
         //Execute query:
-        if (performUpdate(sql, "add client")) {
-            System.out.println("[!] Successfully added client.");
+        int clientID = performInsert(sql, "add client");
+        if (clientID != -1) {
+            viewCache.tablesChanged(Set.of("clients"));
+            audit("add", "clients", clientID, "%s %s".formatted(firstName, lastName));
+            out.println("[!] Successfully added client.");
         } else {
-            System.out.println("[!] Error occurred. Client not added.");
+            out.println("[!] Error occurred. Client not added.");
+        }
+        return clientID;
+    }
+
+    /**
+     * Will onboard a new client by inserting the client, their properties, and the first service at each property. All rows
+     * are inserted by a single statement, so onboarding takes one round trip and is rolled back as a unit if any insert fails.
+     * @param firstName Client first name. Proper format is all lowercase.
+     * @param lastName Client last name. Proper format is all lowercase.
+     * @param phoneNumber Client phone number. (ex: 1234566890).
+     * @param email Client email. Proper format is all lowercase.
+     * @param properties Properties owned by the client, each with an optional first service.
+     * @param confirm Whether to confirm the onboarding before performing update. Will print the onboarding card to user.
+     * @return ID of the new client, or -1 if the client was not added.
+     */
+    @Override
+    public int onboardClient(String firstName, String lastName, String phoneNumber, String email,
+                             List<OnboardingProperty> properties, boolean confirm){
+        //Ensure correct format.
+        firstName = firstName.toLowerCase();
+        lastName = lastName.toLowerCase();
+        email = email.toLowerCase();
+
+        //Each insert is a data-modifying CTE which reads the id returned by the insert before it.
+        StringBuilder sql = new StringBuilder("""
+                WITH new_client AS (
+                	INSERT INTO clients (first_name, last_name, phone, email)
+                	VALUES ('%s', '%s', '%s', '%s')
+                	RETURNING id)""".formatted(firstName, lastName, phoneNumber, email));
+        //The final select reports every id which was created, in the form: kind | id.
+        StringBuilder returned = new StringBuilder("\nSELECT 'client', id FROM new_client");
+        for (int i = 0; i < properties.size(); i++){
+            OnboardingProperty property = properties.get(i);
+            sql.append("""
+                    ,
+                    new_property_%d AS (
+                    	INSERT INTO properties (client_id, address, city_id)
+                    	SELECT id, '%s', %d FROM new_client
+                    	RETURNING id)""".formatted(i, property.address().toLowerCase(), property.cityID()));
+            returned.append("\nUNION ALL SELECT 'property', id FROM new_property_%d".formatted(i));
+
+            if (!property.hasService()) continue;
+            sql.append("""
+                    ,
+                    new_service_%d AS (
+                    	INSERT INTO services (property_id, service_date, service_cost,
+                    						 mow, leaf_blow, seed,
+                    						 fertilizer, mulch, remove_tree,
+                    						 trim_tree, power_wash, snow_plow,
+                    						 notes)
+                    	SELECT id, %s
+                    	FROM new_property_%d
+                    	RETURNING id)""".formatted(i, firstServiceValues(property), i));
+            returned.append("\nUNION ALL SELECT 'service', id FROM new_service_%d".formatted(i));
+        }
+        sql.append(returned).append(";");
+
+        //Display onboarding card and verify with user.
+        if (confirm && !Cards.confirmOnboarding(firstName, lastName, phoneNumber, email, properties, input)) return -1;
+
+        //Execute query. Data-modifying statements must be performed on the primary, so performQuery is not used.
+        DatabaseCallEvent event = Profiling.beginCall("onboard client");
+        long waitStart = System.nanoTime();
+        if (!verifyConnection()) return -1;
+        long connectionWait = System.nanoTime() - waitStart;
+        int clientID = -1;
+        int propertyCount = 0;
+        int serviceCount = 0;
+        try {
+            if (dialect.supportsWritableCte()) {
+                Statement st = connection.createStatement();
+                st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+                ResultSet rs = st.executeQuery(sql.toString());
+                while (rs.next()){
+                    switch (rs.getString(1)) {
+                        case "client" -> clientID = rs.getInt(2);
+                        case "property" -> propertyCount++;
+                        case "service" -> serviceCount++;
+                    }
+                }
+                rs.close();
+                st.close();
+            } else {
+                clientID = onboardInTransaction(firstName, lastName, phoneNumber, email, properties);
+                propertyCount = properties.size();
+                for (OnboardingProperty property : properties){
+                    if (property.hasService()) serviceCount++;
+                }
+            }
+            router.recordWrite();
+            //The spatial index and the price book are marked stale as well, so they pick up the new rows.
+            tablesChanged(Set.of("clients", "properties", "services"));
+        } catch (SQLException e) {
+            out.printf("[!] Error occurred while attempting to onboard client:\n%s", e);
+            out.println("\n[!] Error occurred. Client not onboarded, no changes were made.");
+            return -1;
+        } finally {
+            Profiling.endCall(event, sql.toString(), (clientID == -1) ? 0 : 1 + propertyCount + serviceCount, false,
+                    connectionWait);
+        }
+        audit("onboard", "clients", clientID, "%d properties, %d services".formatted(propertyCount, serviceCount));
+        out.printf("[!] Successfully onboarded client [CLIENT ID#%d] with %d properties and %d services.\n",
+                clientID, propertyCount, serviceCount);
+        return clientID;
+    }
+
+    /**
+     * Onboards a client with one insert per row, all in a single transaction. Used by databases which can't chain inserts in
+     * a WITH clause.
+     * @return ID of the new client.
+     * @throws SQLException If any insert fails. The transaction is rolled back.
+     */
+    private int onboardInTransaction(String firstName, String lastName, String phoneNumber, String email,
+                                     List<OnboardingProperty> properties) throws SQLException {
+        connection.setAutoCommit(false);
+        try (Statement st = connection.createStatement()) {
+            st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+            int clientID = insertReturningID(st, """
+                    INSERT INTO clients (first_name, last_name, phone, email)
+                    VALUES ('%s', '%s', '%s', '%s');""".formatted(firstName, lastName, phoneNumber, email));
+            for (OnboardingProperty property : properties){
+                int propertyID = insertReturningID(st, """
+                        INSERT INTO properties (client_id, address, city_id)
+                        VALUES (%d, '%s', %d);""".formatted(clientID, property.address().toLowerCase(), property.cityID()));
+                if (!property.hasService()) continue;
+                st.executeUpdate("""
+                        INSERT INTO services (property_id, service_date, service_cost,
+                        					 mow, leaf_blow, seed,
+                        					 fertilizer, mulch, remove_tree,
+                        					 trim_tree, power_wash, snow_plow,
+                        					 notes)
+                        VALUES (%d, %s);""".formatted(propertyID, firstServiceValues(property)));
+            }
+            connection.commit();
+            return clientID;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
         }
     }
+    private int insertReturningID(Statement st, String sql) throws SQLException {
+        st.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS);
+        try (ResultSet keys = st.getGeneratedKeys()) {
+            keys.next();
+            return keys.getInt(1);
+        }
+    }
+
+    /**
+     * @param property Property with a first service.
+     * @return The values of the first service's columns, from service_date to notes, separated by commas.
+     */
+    private String firstServiceValues(OnboardingProperty property){
+        boolean[] servicesDone = property.servicesDone();
+        //If notes is empty, we will put null as the value for the table.
+        String notes = property.notes().length() == 0 ? "null" : "'" + property.notes() + "'";
+        return """
+                '%tF', %f,
+                		%b, %b, %b,
+                		%b, %b, %b,
+                		%b, %b, %b,
+                		%s""".formatted(
+                property.serviceDate(),
+                property.serviceCost(),
+                servicesDone[0], servicesDone[1], servicesDone[2],
+                servicesDone[3], servicesDone[4], servicesDone[5],
+                servicesDone[6], servicesDone[7], servicesDone[8],
+                notes);
+    }
+    @Override
     public boolean verifyClient(int id){
+        //Ids which were already verified are trusted until the table changes.
+        if (isVerified("clients", id)) return true;
         boolean result = false;
         String sql = """
                 SELECT EXISTS (
@@ -655,9 +1861,13 @@ public class MowDataDB {
         } catch (SQLException e) {
             //Should not occur given ResultSet is not null.
         }
+        if (result) rememberVerified("clients", id);
         return result;
     }
+    @Override
     public boolean verifyCity(int id){
+        //Ids which were already verified are trusted until the table changes.
+        if (isVerified("cities", id)) return true;
         boolean result = false;
         String sql = """
                 SELECT EXISTS (
@@ -676,9 +1886,13 @@ public class MowDataDB {
         } catch (SQLException e) {
             //Should not occur given ResultSet is not null.
         }
+        if (result) rememberVerified("cities", id);
         return result;
     }
+    @Override
     public boolean verifyProperty(int id){
+        //Ids which were already verified are trusted until the table changes.
+        if (isVerified("properties", id)) return true;
         /*
         Table will return as:
         (row id #0) | exists (#1)
@@ -701,8 +1915,10 @@ public class MowDataDB {
         } catch (SQLException e) {
             //Should not occur given ResultSet is not null.
         }
+        if (result) rememberVerified("properties", id);
         return result;
     }
+    @Override
     public boolean verifyState(String abbreviation){
         boolean result = false;
         //Ensure state abbreviation is in all uppercase.
@@ -726,6 +1942,7 @@ public class MowDataDB {
         }
         return result;
     }
+    @Override
     public int getStateID(String abbreviation){
         //Ensure abbreviation is all uppercase.
         abbreviation = abbreviation.toUpperCase();
@@ -752,6 +1969,606 @@ public class MowDataDB {
         }
         return id;
     }
+    @Override
+    public int getCityID(String name, String zip){
+        //Will return -1 in event of an error.
+        int id = -1;
+        String sql = """
+                SELECT id FROM cities
+                WHERE cities.name = '%s'
+                AND cities.zip = '%s'
+                ORDER BY id ASC
+                LIMIT 1;""".formatted(name, zip);
+        //Processing results.
+        ResultSet rs = performQuery(sql, "retrieve city id");
+        if (rs == null) return id;
+        try {
+            //If there is no next row, the city entered does not exist.
+            if (rs.next()) {
+                id = rs.getInt(1);
+            }
+            rs.close();
+        } catch (SQLException e) {
+            //Should not occur given ResultSet is not null.
+        }
+        return id;
+    }
+    @Override
+    public List<ZipCodes.ZipCode> lookupZipCodes(String prefix, int limit){
+        if (zipCodes == null) {
+            ResultSet rs = performQuery("SELECT zip, city, state FROM zip_codes;", "load zip codes");
+            if (rs == null) return new ArrayList<>();
+            ZipCodes loaded = new ZipCodes();
+            try {
+                while (rs.next()){
+                    loaded.add(new ZipCodes.ZipCode(rs.getString(1), rs.getString(2), rs.getString(3)));
+                }
+                rs.close();
+            } catch (SQLException e) {
+                out.println("[!] Error occurred while attempting to load zip codes:\n" + e);
+                return new ArrayList<>();
+            }
+            zipCodes = loaded;
+        }
+        return zipCodes.lookup(prefix, limit);
+    }
+
+    /**
+     * Will move services dated before the cutoff into the services_archive table. Services are moved in chunks, with each
+     * chunk committed on its own so the services table is never locked for long. An interrupted job can be resumed by
+     * running it again, since services which were already moved are no longer in the services table.
+     * @param cutoff Services dated before this day will be archived.
+     * @param chunkSize Number of services to move per chunk.
+     */
+    public void archiveServices(LocalDate cutoff, int chunkSize){
+        if (!ensureArchiveTable()) return;
+
+        //Count the services which are due to be archived, used for progress reporting.
+        int total = 0;
+        ResultSet rs = performQuery("""
+                SELECT COUNT(*)
+                FROM services
+                WHERE service_date < '%tF';""".formatted(cutoff), "count services to archive", QueryClass.BULK);
+        if (rs == null) return;
+        try {
+            rs.next();
+            total = rs.getInt(1);
+            rs.close();
+        } catch (SQLException e) {
+            //Should not occur given ResultSet is not null.
+        }
+        if (total == 0) {
+            out.printf("[!] No services dated before %tF were found.\n", cutoff);
+            return;
+        }
+
+        out.printf("[!] Archiving %d services dated before %tF.\n", total, cutoff);
+        int archived = 0;
+        while (archived < total) {
+            int moved = archiveChunk(cutoff, chunkSize);
+            if (moved < 0) {
+                if (archived > 0) audit("archive", "services", -1, "%d services dated before %tF".formatted(archived, cutoff));
+                recordArchived(archived);
+                out.printf("[!] Archiving stopped after %d services. Run the archive again to resume.\n", archived);
+                return;
+            }
+            //No rows left means the remaining services were archived or removed elsewhere.
+            if (moved == 0) break;
+            archived += moved;
+            viewCache.tablesChanged(Set.of("services", "services_archive"));
+            out.printf("[!] Archived %d/%d services (%.1f%%).\n", archived, total, (archived * 100.0) / total);
+        }
+        audit("archive", "services", -1, "%d services dated before %tF".formatted(archived, cutoff));
+        out.printf("[!] Successfully archived %d services.\n", archived);
+        recordArchived(archived);
+    }
+
+    /**
+     * Moves the oldest chunk of services dated before the cutoff into the services_archive table. A chunk is either fully
+     * moved or not moved at all.
+     * @param cutoff Services dated before this day will be archived.
+     * @param chunkSize Number of services to move.
+     * @return Number of services moved, or -1 if an error occurred.
+     */
+    private int archiveChunk(LocalDate cutoff, int chunkSize){
+        if (dialect.supportsWritableCte()) {
+            //The chunk is deleted and inserted into the archive by a single statement.
+            return performUpdateCount("""
+                    WITH moved AS (
+                    	DELETE FROM services
+                    	WHERE id IN (
+                    		SELECT id
+                    		FROM services
+                    		WHERE service_date < '%tF'
+                    		ORDER BY service_date ASC
+                    		LIMIT %d
+                    		FOR UPDATE SKIP LOCKED)
+                    	RETURNING *)
+                    INSERT INTO services_archive
+                    SELECT * FROM moved;""".formatted(cutoff, chunkSize), "archive services", QueryClass.BULK);
+        }
+
+        //The chunk's ids are read first, so the copy and the delete move the same services by their primary keys.
+        ResultSet rs = performQuery("""
+                SELECT id
+                FROM services
+                WHERE service_date < '%tF'
+                ORDER BY service_date ASC
+                LIMIT %d;""".formatted(cutoff, chunkSize), "find services to archive", QueryClass.BULK);
+        if (rs == null) return -1;
+        StringBuilder ids = new StringBuilder();
+        try {
+            while (rs.next()){
+                if (!ids.isEmpty()) ids.append(", ");
+                ids.append(rs.getInt(1));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            out.println("[!] Error occurred while attempting to find services to archive:\n" + e);
+            return -1;
+        }
+        if (ids.isEmpty()) return 0;
+        //Both statements run in one transaction, and the delete reports the rows moved.
+        return performUpdateCount("""
+                INSERT INTO services_archive
+                SELECT * FROM services
+                WHERE id IN (%1$s);
+                DELETE FROM services
+                WHERE id IN (%1$s);""".formatted(ids), "archive services", QueryClass.BULK);
+    }
+
+    /**
+     * Reports archived services to the table health tracker, which refreshes the statistics of both tables once enough moved.
+     * @param archived Services moved to the archive.
+     */
+    private void recordArchived(int archived){
+        //Archived rows are deleted from services, so services is vacuumed rather than only analyzed.
+        tableHealth.recordBulkWrite("services", archived, true);
+        tableHealth.recordBulkWrite("services_archive", archived, false);
+    }
+
+    /**
+     * Forgets anything held for rows changed by a chunk of a tools.BulkJobs job, which runs on its own connection. Safe to call
+     * from the job's thread.
+     * @param table Table the chunk changed.
+     * @param ids Ids of the rows the chunk changed or deleted.
+     * @param deleted Whether the rows were deleted.
+     */
+    void bulkJobChanged(String table, int[] ids, boolean deleted){
+        tablesChanged(Set.of(table));
+        if (table.equals("properties") && deleted) {
+            for (int id : ids){
+                spatialIndex.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Has the price book built again from the services table on its next refresh, after a tools.BulkJobs job re-priced
+     * services. Safe to call from the job's thread.
+     */
+    void resetPriceBook(){
+        priceBookReset = true;
+    }
+
+    /**
+     * Records a finished or stopped tools.BulkJobs job in the audit log, if changes are audited.
+     * @param jobID ID of the job in the bulk_jobs table.
+     * @param description Description of the job.
+     * @param rows Rows changed or deleted by this run of the job.
+     */
+    void auditBulkJob(int jobID, String description, long rows){
+        if (rows > 0) audit("bulk", "bulk_jobs", jobID, "%s, %d rows".formatted(description, rows));
+    }
+
+    /**
+     * Will merge a duplicate client into the client which is kept. The duplicate's properties are moved to the kept client,
+     * the given duplicate properties are merged into the kept client's properties, and the duplicate client is deleted. Every
+     * change is made in a single transaction.
+     * @param keepID ID of the client which is kept.
+     * @param duplicateID ID of the client which is merged and deleted.
+     * @param propertyMerges Properties of the duplicate client to merge, as duplicate property id to kept property id.
+     * @return Whether the clients were merged.
+     */
+    public boolean mergeClients(int keepID, int duplicateID, Map<Integer, Integer> propertyMerges){
+        if (keepID == duplicateID || !verifyClient(keepID) || !verifyClient(duplicateID)) {
+            out.printf("[!] Clients [CLIENT ID#%d] and [CLIENT ID#%d] can't be merged.\n", keepID, duplicateID);
+            return false;
+        }
+        List<String> statements = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> merge : propertyMerges.entrySet()){
+            statements.addAll(mergePropertyStatements(merge.getValue(), merge.getKey()));
+        }
+        statements.add("UPDATE properties SET client_id = %d WHERE client_id = %d;".formatted(keepID, duplicateID));
+        statements.add("DELETE FROM clients WHERE id = %d;".formatted(duplicateID));
+
+        int[] counts = performTransaction("merge clients", statements);
+        if (counts == null) {
+            out.println("[!] Error occurred. Clients not merged, no changes were made.");
+            return false;
+        }
+        for (int propertyID : propertyMerges.keySet()){
+            spatialIndex.remove(propertyID);
+        }
+        tablesChanged(Set.of("clients", "properties", "services", "services_archive"));
+        audit("merge", "clients", keepID, "merged client %d".formatted(duplicateID));
+        out.printf("[!] Successfully merged [CLIENT ID#%d] into [CLIENT ID#%d], moving %d properties and merging %d.\n",
+                duplicateID, keepID, counts[counts.length - 2], propertyMerges.size());
+        return true;
+    }
+
+    /**
+     * Will merge a duplicate property into the property which is kept. The duplicate's services, including archived
+     * services, are moved to the kept property, then the duplicate is deleted, in a single transaction.
+     * @param keepID ID of the property which is kept.
+     * @param duplicateID ID of the property which is merged and deleted.
+     * @return Whether the properties were merged.
+     */
+    public boolean mergeProperties(int keepID, int duplicateID){
+        if (keepID == duplicateID || !verifyProperty(keepID) || !verifyProperty(duplicateID)) {
+            out.printf("[!] Properties [PROPERTY ID#%d] and [PROPERTY ID#%d] can't be merged.\n", keepID, duplicateID);
+            return false;
+        }
+        int[] counts = performTransaction("merge properties", mergePropertyStatements(keepID, duplicateID));
+        if (counts == null) {
+            out.println("[!] Error occurred. Properties not merged, no changes were made.");
+            return false;
+        }
+        spatialIndex.remove(duplicateID);
+        tablesChanged(Set.of("properties", "services", "services_archive"));
+        audit("merge", "properties", keepID, "merged property %d".formatted(duplicateID));
+        out.printf("[!] Successfully merged [PROPERTY ID#%d] into [PROPERTY ID#%d], moving %d services.\n",
+                duplicateID, keepID, counts[0] + counts[1]);
+        return true;
+    }
+
+    /**
+     * @return Statements which move a property's services, including archived services, to another property and then
+     * delete it.
+     */
+    private List<String> mergePropertyStatements(int keepID, int duplicateID){
+        //Archived services must follow the property as well, so the archive table is created if it is missing.
+        ensureArchiveTable();
+        return List.of(
+                "UPDATE services SET property_id = %d WHERE property_id = %d;".formatted(keepID, duplicateID),
+                "UPDATE services_archive SET property_id = %d WHERE property_id = %d;".formatted(keepID, duplicateID),
+                "DELETE FROM properties WHERE id = %d;".formatted(duplicateID));
+    }
+
+    /**
+     * Will perform statements [update, delete] in a single transaction. Either every statement is applied, or none are.
+     * Handles errors.
+     * @param errorFrom Used in error message. Will be printed as "[!] Error occurred while attempting to {errorFrom}".
+     * @param statements Statements to perform, in order.
+     * @return Number of rows altered by each statement, or null if an error occurred.
+     */
+    private int[] performTransaction(String errorFrom, List<String> statements){
+        DatabaseCallEvent event = Profiling.beginCall(errorFrom);
+        long waitStart = System.nanoTime();
+        //Won't attempt if there is no connection
+        if (!verifyConnection()) return null;
+        long connectionWait = System.nanoTime() - waitStart;
+        int[] counts = new int[statements.size()];
+        try {
+            connection.setAutoCommit(false);
+            try (Statement st = connection.createStatement()) {
+                st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+                for (int i = 0; i < counts.length; i++){
+                    counts[i] = st.executeUpdate(statements.get(i));
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            //Track the write so following reads aren't sent to a replica which hasn't replayed it yet.
+            router.recordWrite();
+        } catch (SQLException e) {
+            out.printf("[!] Error occurred while attempting to %s:\n%s\n", errorFrom, e);
+            failures.incrementAndGet();
+            return null;
+        } finally {
+            Profiling.endCall(event, String.join("\n", statements), Arrays.stream(counts).sum(), false, connectionWait);
+        }
+        return counts;
+    }
+
+    /**
+     * Creates the services_archive table if it is not present. The archive table shares the column layout of the services
+     * table, and is given a primary key on id and an index on property_id, so archived rows can be found without scanning
+     * the archive. Archives created before they had keys are given them as well. Only what is missing is created, since
+     * altering a table locks it.
+     * @return Whether the archive table is present.
+     */
+    boolean ensureArchiveTable(){
+        if (archiveReady) return true;
+        Set<String> columns = readColumns();
+        Set<String> indexes = readIndexes();
+        Set<String> keyed = readNames("""
+                SELECT LOWER(table_name)
+                FROM information_schema.table_constraints
+                WHERE LOWER(table_schema) = 'public'
+                AND constraint_type = 'PRIMARY KEY';""", "read primary keys");
+        if (columns == null || indexes == null || keyed == null) return false;
+        StringBuilder sql = new StringBuilder();
+        if (!columns.contains("services_archive.id")) sql.append(dialect.createArchiveTableSql()).append("\n");
+        if (!keyed.contains("services_archive")) {
+            //Archives copied with CREATE TABLE AS have nullable columns, which a primary key doesn't allow.
+            sql.append("ALTER TABLE services_archive ALTER COLUMN id SET NOT NULL;\n");
+            sql.append("ALTER TABLE services_archive ADD PRIMARY KEY (id);\n");
+        }
+        if (!indexes.contains("services_archive_property_idx")) {
+            sql.append("CREATE INDEX IF NOT EXISTS services_archive_property_idx ON services_archive (property_id);\n");
+        }
+        if (!indexes.contains("services_date_idx")) {
+            sql.append("CREATE INDEX IF NOT EXISTS services_date_idx ON services (service_date);\n");
+        }
+        //Table creation alters no rows, so only an error is considered a failure.
+        if (!sql.isEmpty() && performUpdateCount(sql.toString(), "create services archive table") < 0) return false;
+        archiveReady = true;
+        return true;
+    }
+
+    /**
+     * Creates the indexes the views rely on, if they are not present. They find the last services of each property, sort
+     * services by date, and sort properties and clients without reading the whole table.
+     */
+    private void ensureViewIndexes(){
+        //CREATE INDEX locks the table against writes even when the index exists, so the catalog is checked first.
+        Set<String> indexes = readIndexes();
+        if (indexes == null) return;
+        StringBuilder sql = new StringBuilder();
+        for (String[] index : VIEW_INDEXES){
+            if (!indexes.contains(index[0])) sql.append("CREATE INDEX IF NOT EXISTS %s ON %s;\n".formatted(index[0], index[1]));
+        }
+        //Index creation alters no rows, so only an error is considered a failure.
+        if (!sql.isEmpty()) performUpdateCount(sql.toString(), "create view indexes");
+    }
+
+    /**
+     * Adds the latitude and longitude columns to the properties table, if they are not present. Tables created before
+     * properties had coordinates are missing them.
+     */
+    private void ensureCoordinateColumns(){
+        //ALTER TABLE locks the whole table even when the column exists, so the catalog is checked first.
+        Set<String> columns = readColumns();
+        if (columns == null || (columns.contains("properties.latitude") && columns.contains("properties.longitude"))) return;
+        //Adding a column alters no rows, so only an error is considered a failure.
+        performUpdateCount("""
+                ALTER TABLE properties ADD COLUMN IF NOT EXISTS latitude DOUBLE PRECISION;
+                ALTER TABLE properties ADD COLUMN IF NOT EXISTS longitude DOUBLE PRECISION;""",
+                "add property coordinate columns");
+    }
+
+    /**
+     * Adds the created_at and updated_at columns to each table exported by tools.DeltaExporter, along with an index on
+     * updated_at, and creates the deleted_rows and export_watermarks tables, if they are not present. The triggers which
+     * keep updated_at current and record deleted rows are installed along with the deleted_rows table. Services moved to the
+     * archive aren't recorded as deleted.
+     */
+    private void ensureChangeTracking(){
+        //ALTER TABLE locks the whole table even when the column exists, so only missing columns and indexes are added.
+        Set<String> columns = readColumns();
+        Set<String> indexes = readIndexes();
+        if (columns == null || indexes == null) return;
+        StringBuilder sql = new StringBuilder();
+        for (String table : DeltaExporter.TABLES){
+            if (!columns.contains(table + ".created_at")) {
+                sql.append("ALTER TABLE %s ADD COLUMN IF NOT EXISTS created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP;\n"
+                        .formatted(table));
+            }
+            if (!columns.contains(table + ".updated_at")) {
+                sql.append("ALTER TABLE %s ADD COLUMN IF NOT EXISTS updated_at %s;\n".formatted(table, dialect.updatedAtColumnSql()));
+            }
+            if (!indexes.contains(table + "_updated_at_idx")) {
+                sql.append("CREATE INDEX IF NOT EXISTS %1$s_updated_at_idx ON %1$s (updated_at);\n".formatted(table));
+            }
+        }
+        //Archived services are copied column by column, so the archive needs the same columns in the same order.
+        if (columns.contains("services_archive.id")) {
+            for (String column : new String[]{"created_at", "updated_at"}){
+                if (columns.contains("services_archive." + column)) continue;
+                sql.append("ALTER TABLE services_archive ADD COLUMN IF NOT EXISTS %s TIMESTAMP WITH TIME ZONE;\n".formatted(column));
+            }
+        }
+        sql.append("""
+                CREATE TABLE IF NOT EXISTS export_watermarks(
+                	consumer VARCHAR(50) PRIMARY KEY,
+                	watermark TIMESTAMP WITH TIME ZONE NOT NULL
+                );""");
+        //Adding a column or index alters no rows, so only an error is considered a failure.
+        if (performUpdateCount(sql.toString(), "add change tracking columns") < 0) return;
+
+        ResultSet rs = performQuery("SELECT %s;".formatted(dialect.tableExistsSql("deleted_rows")), "verify deleted rows table");
+        if (rs == null) return;
+        try {
+            rs.next();
+            boolean exists = rs.getBoolean(1);
+            rs.close();
+            if (exists) {
+                //Replaced on every open, so databases set up before archived services were skipped are brought up to date.
+                String function = dialect.tombstoneFunctionSql();
+                if (function != null) performUpdateCount(function, "update change tracking triggers");
+                return;
+            }
+        } catch (SQLException e) {
+            //Should not occur given ResultSet is not null.
+        }
+
+        String triggers = """
+                CREATE TABLE deleted_rows(
+                	table_name VARCHAR(30) NOT NULL,
+                	row_id INTEGER NOT NULL,
+                	deleted_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+                );
+                CREATE INDEX deleted_rows_deleted_at_idx ON deleted_rows (deleted_at);
+                """ + dialect.changeTrackingTriggersSql(DeltaExporter.TABLES);
+        //Trigger creation alters no rows, so only an error is considered a failure.
+        if (performUpdateCount(triggers, "install change tracking triggers") >= 0) {
+            out.println("[!] Successfully installed change tracking triggers.");
+        }
+    }
+
+    /**
+     * Reads the columns of the tables in the public schema from the catalog, which takes no lock on the tables.
+     * @return Columns as table.column, in lowercase, or null if an error occurred.
+     */
+    private Set<String> readColumns(){
+        return readNames("""
+                SELECT LOWER(table_name) || '.' || LOWER(column_name)
+                FROM information_schema.columns
+                WHERE LOWER(table_schema) = 'public';""", "read table columns");
+    }
+
+    /**
+     * Reads the names of the indexes in the public schema from the catalog, which takes no lock on the tables.
+     * @return Index names, in lowercase, or null if an error occurred.
+     */
+    private Set<String> readIndexes(){
+        return readNames(dialect.indexNamesSql(), "read table indexes");
+    }
+
+    private Set<String> readNames(String sql, String errorFrom){
+        ResultSet rs = performQuery(sql, errorFrom);
+        if (rs == null) return null;
+        Set<String> names = new HashSet<>();
+        try {
+            while (rs.next()){
+                names.add(rs.getString(1));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            out.printf("[!] Error occurred while attempting to %s:\n%s\n", errorFrom, e);
+            return null;
+        }
+        return names;
+    }
+
+    /**
+     * Creates the price_sketches table, which stores the price book of price suggestions, if it is not present. Tables
+     * created before pending ids were stored are given the pending column.
+     */
+    private void ensurePriceSketches(){
+        //Table creation alters no rows, so only an error is considered a failure.
+        if (performUpdateCount("""
+                CREATE TABLE IF NOT EXISTS price_sketches(
+                	city_id INTEGER NOT NULL,
+                	services INTEGER NOT NULL,
+                	watermark INTEGER NOT NULL,
+                	digest TEXT NOT NULL,
+                	pending TEXT NOT NULL DEFAULT '',
+                	PRIMARY KEY (city_id, services)
+                );""", "create price sketches table") < 0) return;
+        Set<String> columns = readColumns();
+        if (columns == null || columns.contains("price_sketches.pending")) return;
+        performUpdateCount("ALTER TABLE price_sketches ADD COLUMN pending TEXT NOT NULL DEFAULT '';",
+                "add pending column to price sketches");
+    }
+
+    /**
+     * Stores the price sketches changed since they were last stored, such as by services added through this instance. Used
+     * on exit, so the next run doesn't need to read those services again.
+     */
+    public void storePriceBook(){
+        if (priceBookLoaded && verifyConnection()) storePriceSketches();
+    }
+
+    /**
+     * Creates the zip_codes table if it is not present, and loads the zip code reference into it when it is empty. Tables
+     * holding only the bundled seed are reloaded once the full reference can be downloaded.
+     */
+    private void ensureZipCodes(){
+        //Table creation alters no rows, so only an error is considered a failure.
+        if (performUpdateCount("""
+                CREATE TABLE IF NOT EXISTS zip_codes(
+                	zip VARCHAR(5) PRIMARY KEY,
+                	city VARCHAR(50) NOT NULL,
+                	state VARCHAR(2) NOT NULL,
+                	CHECK (length(zip) = 5)
+                );""", "create zip codes table") < 0) return;
+
+        ResultSet rs = performQuery("SELECT COUNT(*) FROM zip_codes;", "count zip codes");
+        if (rs == null) return;
+        try {
+            rs.next();
+            long count = rs.getLong(1);
+            rs.close();
+            if (count == 0) insertZipCodes(false);
+            else if (count < ZipCodes.FULL_MIN_ROWS && ZipCodes.download(out)) insertZipCodes(true);
+        } catch (SQLException e) {
+            //Should not occur given ResultSet is not null.
+        }
+    }
+
+    /**
+     * Returns the source used in the FROM clause of service queries. The archive is created at startup, so reads only check
+     * that it was found rather than creating it.
+     * @param includeArchive Whether archived services should be included.
+     * @return The services table, or the services table combined with the services_archive table.
+     */
+    private String servicesSource(boolean includeArchive){
+        if (includeArchive && archiveReady) {
+            return "(SELECT * FROM services UNION ALL SELECT * FROM services_archive)";
+        }
+        return "services";
+    }
+
+    private boolean isVerified(String table, int id){
+        Set<Integer> ids = verifiedIDs.get(table);
+        return (ids != null && ids.contains(id));
+    }
+    private void rememberVerified(String table, int id){
+        verifiedIDs.computeIfAbsent(table, key -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    /**
+     * Installs the triggers which notify the tools.ChangeListener of changes to the clients, cities, properties, and services
+     * tables. Triggers are only installed if they are missing. Each trigger fires once per statement, and notifications sent
+     * within a single transaction are combined by the server.
+     */
+    private void installChangeTriggers(){
+        //Only databases which can notify other connections need triggers.
+        if (!dialect.supportsNotify()) return;
+        ResultSet rs = performQuery("""
+                SELECT COUNT(*)
+                FROM pg_trigger
+                WHERE tgname LIKE '%%\\_notify\\_change'
+                AND tgrelid::regclass::text IN ('%s');""".formatted(String.join("', '", ChangeListener.TABLES)),
+                "verify change triggers");
+        if (rs == null) return;
+        try {
+            rs.next();
+            int installed = rs.getInt(1);
+            rs.close();
+            if (installed >= ChangeListener.TABLES.length) return;
+        } catch (SQLException e) {
+            //Should not occur given ResultSet is not null.
+        }
+
+        StringBuilder sql = new StringBuilder("""
+                CREATE OR REPLACE FUNCTION mowdata_notify_change() RETURNS trigger AS $$
+                BEGIN
+                	PERFORM pg_notify('%s', TG_TABLE_NAME);
+                	RETURN NULL;
+                END;
+                $$ LANGUAGE plpgsql;
+                """.formatted(ChangeListener.CHANNEL));
+        for (String table : ChangeListener.TABLES){
+            sql.append("""
+                    DROP TRIGGER IF EXISTS %1$s_notify_change ON %1$s;
+                    CREATE TRIGGER %1$s_notify_change
+                    	AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON %1$s
+                    	FOR EACH STATEMENT EXECUTE FUNCTION mowdata_notify_change();
+                    """.formatted(table));
+        }
+
+        //Trigger creation alters no rows, so only an error is considered a failure.
+        if (performUpdateCount(sql.toString(), "install change triggers") >= 0) {
+            out.println("[!] Successfully installed change notification triggers.");
+        }
+    }
 
     /**
      * Verifies if all the standard tables are present. (clients, states, cities, properties, services).
@@ -761,11 +2578,16 @@ public class MowDataDB {
         boolean result = false;
         String sql = """
                 SELECT
-                  EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = 'cities') AS cities, --id 1
-                  EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = 'clients') AS clients,
-                  EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = 'properties') AS properties,
-                  EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = 'services') AS services,
-                  EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = 'states') AS states;""";
+                  %s AS cities, --id 1
+                  %s AS clients,
+                  %s AS properties,
+                  %s AS services,
+                  %s AS states;""".formatted(
+                dialect.tableExistsSql("cities"),
+                dialect.tableExistsSql("clients"),
+                dialect.tableExistsSql("properties"),
+                dialect.tableExistsSql("services"),
+                dialect.tableExistsSql("states"));
 
         //Execute query and process results
         ResultSet rs = performQuery(sql, "verify table existence");
@@ -790,7 +2612,7 @@ public class MowDataDB {
      */
     private void populateServer(){
         int choice;
-        System.out.print("""
+        out.print("""
                [!] Required tables not found. The database must have the required tables to function properly.
                [!] Sample data is recommended to view program functionality.
                What would you like to do?:
@@ -816,7 +2638,7 @@ public class MowDataDB {
         //Table sql
         String sql = """
                 CREATE TABLE clients(
-                	id SERIAL PRIMARY KEY,
+                	id %1$s PRIMARY KEY,
                 	first_name VARCHAR(50) NOT NULL,
                 	last_name VARCHAR(50) NOT NULL,
                 	phone VARCHAR(10) NOT NULL,
@@ -824,13 +2646,13 @@ public class MowDataDB {
                  	CHECK (length(phone) = 10)
                 );
                 CREATE TABLE states(
-                	id SERIAL PRIMARY KEY,
+                	id %1$s PRIMARY KEY,
                 	abbreviation VARCHAR(2) NOT NULL,
                 	name VARCHAR(50) NOT NULL,
                 	CHECK (length(abbreviation) = 2)
                 );
                 CREATE TABLE cities(
-                    id SERIAL PRIMARY KEY,
+                    id %1$s PRIMARY KEY,
                     name VARCHAR(50) NOT NULL,
                     zip VARCHAR(5) NOT NULL,
                     state_id INTEGER NOT NULL,
@@ -841,10 +2663,12 @@ public class MowDataDB {
                         ON UPDATE CASCADE
                 );
                 CREATE TABLE properties(
-                	id SERIAL PRIMARY KEY,
+                	id %1$s PRIMARY KEY,
                 	client_id INTEGER NOT NULL,
                 	address VARCHAR(50) NOT NULL,
                 	city_id INTEGER NOT NULL,
+                	latitude DOUBLE PRECISION,
+                	longitude DOUBLE PRECISION,
                 	FOREIGN KEY (client_id)
                 		REFERENCES clients(id)
                 		ON DELETE CASCADE
@@ -855,7 +2679,7 @@ public class MowDataDB {
                 		ON UPDATE CASCADE
                 );
                 CREATE TABLE services(
-                	id SERIAL PRIMARY KEY,
+                	id %1$s PRIMARY KEY,
                 	property_id INTEGER NOT NULL,
                 	service_date DATE NOT NULL,
                 	service_cost NUMERIC(5, 2) NOT NULL,
@@ -873,31 +2697,18 @@ public class MowDataDB {
                 		REFERENCES properties(id)
                 		ON DELETE SET NULL
                 		ON UPDATE CASCADE
-                );""";
+                );""".formatted(dialect.serialType());
 
         //Perform query.
         if (performUpdate(sql, "create database tables")) {
-            System.out.println("[!] Successfully created tables.");
+            out.println("[!] Successfully created tables.");
         }
     }
     private void insertStates() {
         StringBuilder sql = new StringBuilder();
-        //List of all states to be used when populating.
-        String[][] statesList = {
-                {"AL", "alabama"}, {"AK", "alaska"}, {"AZ", "arizona"}, {"AR", "arkansas"},
-                {"CA", "california"}, {"CO", "colorado"}, {"CT", "connecticut"}, {"DE", "delaware"}, {"FL", "florida"},
-                {"GA", "georgia"}, {"HI", "hawaii"}, {"ID", "idaho"}, {"IL", "illinois"}, {"IN", "indiana"},
-                {"IA", "iowa"}, {"KS", "kansas"}, {"KY", "kentucky"}, {"LA", "louisiana"}, {"ME", "maine"},
-                {"MD", "maryland"}, {"MA", "massachusetts"}, {"MI", "michigan"}, {"MN", "minnesota"},
-                {"MS", "mississippi"}, {"MO", "missouri"}, {"MT", "montana"}, {"NE", "nebraska"}, {"NV", "nevada"},
-                {"NH", "new hampshire"}, {"NJ", "new jersey"}, {"NM", "new mexico"}, {"NY", "new york"},
-                {"NC", "north carolina"}, {"ND", "north dakota"}, {"OH", "ohio"}, {"OK", "oklahoma"},
-                {"OR", "oregon"}, {"PA", "pennsylvania"}, {"RI", "rhode island"}, {"SC", "south carolina"},
-                {"SD", "south dakota"}, {"TN", "tennessee"}, {"TX", "texas"}, {"UT", "utah"}, {"VT", "vermont"},
-                {"VA", "virginia"}, {"WA", "washington"}, {"WV", "west virginia"}, {"WI", "wisconsin"}, {"WY", "wyoming"} };
 
         //Creating a large SQL query containing all states.
-        for (String[] strings : statesList) {
+        for (String[] strings : STATES) {
             sql.append("""
                         INSERT INTO states (abbreviation, name)
                         VALUES (
@@ -910,8 +2721,57 @@ public class MowDataDB {
 
         //Perform query.
         if (performUpdate(sqlString, "populate states table")) {
-            System.out.println("[!] Successfully populated states table with standard data.");
+            out.println("[!] Successfully populated states table with standard data.");
+        }
+    }
+    /**
+     * Loads the zip code reference into the zip_codes table, in a single transaction.
+     * @param replace Whether the zip codes already in the table are deleted first.
+     */
+    private void insertZipCodes(boolean replace){
+        long loaded;
+        if (dialect.supportsCopy()) {
+            //The reference is streamed straight from its file into COPY.
+            try (InputStream in = ZipCodes.openReference(out)) {
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                connection.setAutoCommit(false);
+                try {
+                    if (replace) {
+                        try (Statement st = connection.createStatement()) {
+                            st.executeUpdate("DELETE FROM zip_codes;");
+                        }
+                    }
+                    loaded = copyManager.copyIn("COPY zip_codes (zip, city, state) FROM STDIN WITH (FORMAT csv, HEADER true)", in);
+                    connection.commit();
+                } catch (SQLException | IOException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                router.recordWrite();
+            } catch (SQLException | IOException e) {
+                out.println("[!] Error occurred while attempting to load zip codes:\n" + e);
+                return;
+            }
+        } else {
+            //Without COPY, the reference is inserted in chunks of rows, all in a single transaction.
+            List<ZipCodes.ZipCode> zipCodes = ZipCodes.readReference(out);
+            if (zipCodes.isEmpty()) return;
+            StringBuilder sql = new StringBuilder(replace ? "DELETE FROM zip_codes;\n" : "");
+            for (int i = 0; i < zipCodes.size(); i++){
+                ZipCodes.ZipCode zipCode = zipCodes.get(i);
+                if (i % ZIP_CODE_CHUNK == 0) sql.append("INSERT INTO zip_codes (zip, city, state)\nVALUES");
+                sql.append("\n\t('%s', '%s', '%s')".formatted(zipCode.zip(), zipCode.city().replace("'", "''"),
+                        zipCode.state()));
+                boolean lastOfChunk = (i % ZIP_CODE_CHUNK == ZIP_CODE_CHUNK - 1) || (i == zipCodes.size() - 1);
+                sql.append(lastOfChunk ? ";\n" : ",");
+            }
+            if (performUpdateCount(sql.toString(), "load zip codes", QueryClass.BULK) < 0) return;
+            loaded = zipCodes.size();
         }
+        out.printf("[!] Successfully loaded %d zip codes.\n", loaded);
+        tableHealth.recordBulkWrite("zip_codes", loaded, replace);
     }
     private void insertSampleData(){
         String sql = """
@@ -923,11 +2783,11 @@ public class MowDataDB {
                 VALUES
                 	('hicksville', 11801, 32), --id 1
                 	('levittown', 11756, 32);
-                INSERT INTO properties (client_id, address, city_id)
+                INSERT INTO properties (client_id, address, city_id, latitude, longitude)
                 VALUES
-                	(1, '57 apple ln', 1), --id 1
-                	(1, '38 orange rd', 2),
-                	(2, '58 apple ln', 1);
+                	(1, '57 apple ln', 1, 40.7684, -73.5251), --id 1
+                	(1, '38 orange rd', 2, 40.7259, -73.5143),
+                	(2, '58 apple ln', 1, 40.7686, -73.5248);
                 INSERT INTO services (property_id, service_date, service_cost,
                 					 mow, leaf_blow, seed,
                 					 fertilizer, mulch, remove_tree,
@@ -947,7 +2807,7 @@ public class MowDataDB {
 
         //Perform query.
         if (performUpdate(sql, "insert sample data")) {
-            System.out.println("[!] Successfully inserted sample data to all tables.");
+            out.println("[!] Successfully inserted sample data to all tables.");
         }
     }
 }
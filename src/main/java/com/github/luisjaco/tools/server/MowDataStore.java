@@ -0,0 +1,264 @@
+package com.github.luisjaco.tools.server;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The tools.MowDataStore interface holds the view, add, and verify operations of a MowData database. It is implemented by
+ * tools.MowDataDB, which stores data on a SQL server, and by tools.MemoryEngine, which stores data in memory.
+ */
+public interface MowDataStore {
+    /**
+     * Retrieves n rows of the services table as standard, sorted by property, or sorted by date. Rows are read as the stream
+     * is consumed, so any number of rows may be read without holding them all. The stream must be closed once done, which
+     * releases the underlying query.
+     * @param sortingMode "all" for no sorting, "property" for sorted by property, and "date" for sorted
+     * by date. Default is "all".
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @param includeArchive Whether archived services should be retrieved as well.
+     * @return Stream of the services, or null if an error occurred.
+     */
+    Stream<ServiceVisit> streamServices(String sortingMode, int n, boolean includeArchive);
+
+    /**
+     * Retrieves the latest service of each property, sorted by property. The stream must be closed once done.
+     * @param cityID Only properties in this city are included, or -1 for all cities.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone: [mow,
+     *                    leaf blow, seed, fertilizer, mulch, tree removal, tree trim, power wash, snow plow]. -1 for any
+     *                    service.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the services, or null if an error occurred.
+     */
+    Stream<ServiceVisit> streamLastServices(int cityID, int serviceType, int n);
+
+    /**
+     * Retrieves n rows of the properties table as standard, sorted by city, or sorted by client. The stream must be closed
+     * once done.
+     * @param sortingMode "all" for no sorting, "city" for sorted by city, "client" for sorted by client. Default is "all".
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the properties, or null if an error occurred.
+     */
+    Stream<Property> streamProperties(String sortingMode, int n);
+
+    /**
+     * Retrieves n rows of the cities table as standard or sorted by state. The stream must be closed once done.
+     * @param sortingMode "all" for no sorting, "state" for sorted by state, "name" for sorted by name. Default is "all".
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the cities, or null if an error occurred.
+     */
+    Stream<City> streamCities(String sortingMode, int n);
+
+    /**
+     * Retrieves n rows of the clients table as standard or sorted by name. The stream must be closed once done.
+     * @param sortingMode "all" for no sorting, "name" for sorted by name. Default is "all".
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the clients, or null if an error occurred.
+     */
+    Stream<Client> streamClients(String sortingMode, int n);
+
+    /**
+     * Will print n rows of the services table as standard, sorted by property, or sorted by date.
+     * @param sortingMode "all" for no sorting, "property" for sorted by property, and "date" for sorted
+     * by date. Default is "all".
+     * @param n Number of rows to display, -1 for all rows.
+     * @param includeArchive Whether archived services should be displayed as well.
+     */
+    default void viewServices(String sortingMode, int n, boolean includeArchive){
+        try (Stream<ServiceVisit> services = streamServices(sortingMode, n, includeArchive)) {
+            if (services == null) return;
+            System.out.println("[!] Now displaying service history:");
+            services.forEach(Cards::printService);
+        }
+    }
+
+    /**
+     * Will print n rows of the services table as standard, sorted by property, or sorted by date. Archived services are
+     * not included.
+     * @param sortingMode "all" for no sorting, "property" for sorted by property, and "date" for sorted
+     * by date. Default is "all".
+     * @param n Number of rows to display, -1 for all rows.
+     */
+    default void viewServices(String sortingMode, int n){
+        viewServices(sortingMode, n, false);
+    }
+
+    /**
+     * Will print n rows of the properties table as standard, sorted by city, or sorted by client.
+     * @param sortingMode "all" for no sorting, "city" for sorted by city, "client" for sorted by client. Default is "all".
+     * @param n Number of rows to display, -1 for all rows.
+     */
+    default void viewProperties(String sortingMode, int n){
+        try (Stream<Property> properties = streamProperties(sortingMode, n)) {
+            if (properties == null) return;
+            System.out.println("[!] Now displaying properties data:");
+            properties.forEach(Cards::printProperty);
+        }
+    }
+
+    /**
+     * Will print n rows of the cities table as standard or sorted by state.
+     * @param sortingMode "all" for no sorting, "state" for sorted by state, "name" for sorted by name. Default is "all".
+     * @param n Number of rows to display, -1 for all rows.
+     */
+    default void viewCities(String sortingMode, int n){
+        try (Stream<City> cities = streamCities(sortingMode, n)) {
+            if (cities == null) return;
+            System.out.println("[!] Now displaying cities data:");
+            cities.forEach(Cards::printCity);
+        }
+    }
+
+    /**
+     * Will print n rows of the clients table as standard or sorted by name.
+     * @param sortingMode "all" for no sorting, "name" for sorted by name. Default is "all".
+     * @param n Number of rows to display. -1 for all rows.
+     */
+    default void viewClients(String sortingMode, int n){
+        try (Stream<Client> clients = streamClients(sortingMode, n)) {
+            if (clients == null) return;
+            System.out.println("[!] Now displaying clients data:");
+            clients.forEach(Cards::printClient);
+        }
+    }
+
+    /**
+     * Will print the latest service of each property, sorted by property.
+     * @param cityID Only properties in this city are included, or -1 for all cities.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone: [mow,
+     *                    leaf blow, seed, fertilizer, mulch, tree removal, tree trim, power wash, snow plow]. -1 for any
+     *                    service.
+     * @param n Number of rows to display, -1 for all rows.
+     */
+    default void viewLastServices(int cityID, int serviceType, int n){
+        try (Stream<ServiceVisit> services = streamLastServices(cityID, serviceType, n)) {
+            if (services == null) return;
+            System.out.println("[!] Now displaying the last service of each property:");
+            services.forEach(Cards::printService);
+        }
+    }
+
+    /**
+     * Will print the properties which haven't had a service in a number of days, including properties which never had one.
+     * Properties which have gone the longest without a service are printed first.
+     * @param serviceType Only services which included this service are considered, as an index in servicesDone. -1 for any
+     *                    service.
+     * @param days Properties whose last service was this many days ago or more are overdue.
+     * @param cityID Only properties in this city are included, or -1 for all cities.
+     * @param n Number of rows to display, -1 for all rows.
+     */
+    void viewOverdueProperties(int serviceType, int days, int cityID, int n);
+
+    /**
+     * Will print the properties closest to a property, closest first. Properties without coordinates are never found.
+     * @param propertyID ID of the property to search around, such as a crew's current job. It is not included.
+     * @param k Number of properties to display, -1 for all properties within the radius.
+     * @param radiusKm Only properties within this many kilometers are included, or 0 for no limit.
+     * @param serviceType Used with overdueDays, as an index in servicesDone. -1 for any service.
+     * @param overdueDays Only properties whose last such service was this many days ago or more are included, or -1 to
+     *                    include properties regardless of their services.
+     */
+    void viewNearestProperties(int propertyID, int k, double radiusKm, int serviceType, int overdueDays);
+
+    /**
+     * Will suggest a price for a new service at a property, from the costs of past services which did the same services.
+     * @param propertyID ID of the property.
+     * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     *                     tree removal, tree trim, power wash, snow plow].
+     * @return Suggested price, or null if no past service did the same services or an error occurred.
+     */
+    PriceBook.Quote quotePrice(int propertyID, boolean[] servicesDone);
+
+    /**
+     * Will insert a new service entry into the services table.
+     * @param propertyID ID of property used in service.
+     * @param date Service date.
+     * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     *                     tree removal, tree trim, power wash, snow plow].
+     * @param cost Cost of service.
+     * @param notes Notes for services. A value of "" should be used when there are no notes.
+     * @param confirm Whether to confirm the service before performing update. Will print the service card to display.
+     */
+    void addService(int propertyID, LocalDate date, boolean[] servicesDone, double cost, String notes, boolean confirm);
+
+    /**
+     * Will insert a new property entry into the properties table.
+     * @param clientID Client ID, owner of property.
+     * @param address Address of property. Proper format is all lowercase (ex: 123 apple rd).
+     * @param cityID City ID.
+     * @param latitude Latitude of property, or NaN if it is unknown.
+     * @param longitude Longitude of property, or NaN if it is unknown.
+     * @param confirm Whether to confirm the property before performing update. Will print the property card to user.
+     */
+    void addProperty(int clientID, String address, int cityID, double latitude, double longitude, boolean confirm);
+
+    /**
+     * Will insert a new property entry into the properties table, without coordinates.
+     * @param clientID Client ID, owner of property.
+     * @param address Address of property. Proper format is all lowercase (ex: 123 apple rd).
+     * @param cityID City ID.
+     * @param confirm Whether to confirm the property before performing update. Will print the property card to user.
+     */
+    default void addProperty(int clientID, String address, int cityID, boolean confirm){
+        addProperty(clientID, address, cityID, Double.NaN, Double.NaN, confirm);
+    }
+
+    /**
+     * Will insert a new city entry into the cities table.
+     * @param name City name.
+     * @param zip City zip code.
+     * @param stateID City state id.
+     * @param confirm Whether to confirm the city before performing update. Will print city card to user.
+     */
+    void addCity(String name, String zip, int stateID, boolean confirm);
+
+    /**
+     * Will insert a new client entry into the clients table.
+     * @param firstName Client first name. Proper format is all lowercase.
+     * @param lastName Client last name. Proper format is all lowercase.
+     * @param phoneNumber Client phone number. (ex: 1234566890).
+     * @param email Client email. Proper format is all lowercase.
+     * @param confirm Whether to confirm client before performing update. Will print client card to user.
+     */
+    void addClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm);
+
+    /**
+     * Will onboard a new client by inserting the client, their properties, and the first service at each property. Either
+     * every row is inserted, or none are.
+     * @param firstName Client first name. Proper format is all lowercase.
+     * @param lastName Client last name. Proper format is all lowercase.
+     * @param phoneNumber Client phone number. (ex: 1234566890).
+     * @param email Client email. Proper format is all lowercase.
+     * @param properties Properties owned by the client, each with an optional first service.
+     * @param confirm Whether to confirm the onboarding before performing update. Will print the onboarding card to user.
+     * @return ID of the new client, or -1 if the client was not added.
+     */
+    int onboardClient(String firstName, String lastName, String phoneNumber, String email,
+                      List<OnboardingProperty> properties, boolean confirm);
+
+    boolean verifyClient(int id);
+    boolean verifyCity(int id);
+    boolean verifyProperty(int id);
+    boolean verifyState(String abbreviation);
+
+    /**
+     * @param abbreviation State abbreviation (ex: NY).
+     * @return ID of the state, or -1 if the state does not exist.
+     */
+    int getStateID(String abbreviation);
+
+    /**
+     * @param name City name, in lowercase.
+     * @param zip City zip code.
+     * @return ID of the city with this name and zip code, or -1 if there is no such city.
+     */
+    int getCityID(String name, String zip);
+
+    /**
+     * Finds zip codes in the zip code reference, for autocompleting cities.
+     * @param prefix Start of a zip code (ex: 118), or start of a city name (ex: hicks).
+     * @param limit Maximum number of zip codes to return.
+     * @return Zip codes found, or an empty list if the reference is unavailable.
+     */
+    List<ZipCodes.ZipCode> lookupZipCodes(String prefix, int limit);
+}
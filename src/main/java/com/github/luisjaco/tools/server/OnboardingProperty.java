@@ -0,0 +1,33 @@
+package com.github.luisjaco.tools.server;
+
+import java.time.LocalDate;
+
+/**
+ * A property to be added while onboarding a new client, along with the first service done at the property.
+ * @param address Address of property. Proper format is all lowercase (ex: 123 apple rd).
+ * @param cityID City ID.
+ * @param serviceDate Date of the first service, or null if no service should be added.
+ * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+ *                     tree removal, tree trim, power wash, snow plow]. Ignored if there is no first service.
+ * @param serviceCost Cost of the first service. Ignored if there is no first service.
+ * @param notes Notes for the first service. A value of "" should be used when there are no notes.
+ */
+public record OnboardingProperty(String address, int cityID, LocalDate serviceDate, boolean[] servicesDone,
+                                 double serviceCost, String notes) {
+
+    /**
+     * Creates a property with no first service.
+     * @param address Address of property. Proper format is all lowercase (ex: 123 apple rd).
+     * @param cityID City ID.
+     */
+    public OnboardingProperty(String address, int cityID){
+        this(address, cityID, null, new boolean[9], 0, "");
+    }
+
+    /**
+     * @return Whether a first service should be added for the property.
+     */
+    public boolean hasService(){
+        return serviceDate != null;
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The tools.PagePrefetcher class reads a view a page at a time, reading the next page in the background while the user reads
+ * the current one. Pages are read from the view's stream, whose cursor stays open between pages, so a page flip needs no new
+ * query and rows can't shift between pages. At most one page is read ahead, and it is discarded when the view is closed.
+ * Hits, late pages, and wasted pages are counted across every view.
+ */
+public class PagePrefetcher<T> implements AutoCloseable {
+    //Pages which were fully read ahead by the time they were asked for.
+    private static final AtomicLong hits = new AtomicLong();
+    //Pages which were still being read ahead when they were asked for.
+    private static final AtomicLong late = new AtomicLong();
+    //Pages which were read ahead but never shown, since the view was left.
+    private static final AtomicLong wasted = new AtomicLong();
+    //Whether the current thread is reading a page, so views know a tools.PagePrefetcher holds them open.
+    private static final ThreadLocal<Boolean> reading = ThreadLocal.withInitial(() -> false);
+
+    private final Stream<T> stream;
+    private final Iterator<T> rows;
+    private final int pageSize;
+    //Next page, being read ahead, or null if nothing is read ahead.
+    private CompletableFuture<List<T>> next;
+
+    /**
+     * Initializes a new tools.PagePrefetcher. Nothing is read until the first page is asked for.
+     * @param stream Rows of the view. Closed along with the tools.PagePrefetcher.
+     * @param pageSize Rows per page.
+     */
+    public PagePrefetcher(Stream<T> stream, int pageSize){
+        this.stream = stream;
+        this.rows = stream.iterator();
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns the next page, then starts reading the page after it in the background.
+     * @return Rows of the page. Holds fewer than pageSize rows once the view runs out, and none after it ran out.
+     */
+    public List<T> nextPage(){
+        List<T> page;
+        if (next == null) {
+            page = read();
+        } else {
+            (next.isDone() ? hits : late).incrementAndGet();
+            page = next.join();
+            next = null;
+        }
+        //A short page is the last one, so there is nothing to read ahead.
+        if (page.size() == pageSize) {
+            next = CompletableFuture.supplyAsync(this::read, task -> {
+                Thread thread = new Thread(task, "mowdata-page-prefetch");
+                thread.setDaemon(true);
+                thread.start();
+            });
+        }
+        return page;
+    }
+
+    private List<T> read(){
+        List<T> page = new ArrayList<>(pageSize);
+        reading.set(true);
+        try {
+            while (page.size() < pageSize && rows.hasNext()){
+                page.add(rows.next());
+            }
+        } finally {
+            reading.set(false);
+        }
+        return page;
+    }
+
+    /**
+     * @return Whether the current thread is reading a page of a view.
+     */
+    static boolean isReading(){
+        return reading.get();
+    }
+
+    /**
+     * Discards the page being read ahead, once it is read, and closes the view's stream.
+     */
+    @Override
+    public void close(){
+        if (next != null) {
+            //The stream can only be closed once the page being read ahead stops using it.
+            if (!next.join().isEmpty()) wasted.incrementAndGet();
+            next = null;
+        }
+        stream.close();
+    }
+
+    /**
+     * Prints how many pages were read ahead in time, too late, or for nothing.
+     */
+    public static void printStatistics(){
+        long flips = hits.get() + late.get();
+        System.out.printf("""
+                [!] Now displaying page prefetch statistics.
+
+                PAGE FLIPS: %d | READY: %d | STILL READING: %d | READY RATIO: %.1f%%
+                WASTED PAGES: %d
+                """,
+                flips,
+                hits.get(),
+                late.get(),
+                flips == 0 ? 0.0 : (hits.get() * 100.0) / flips,
+                wasted.get());
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.SQLException;
+
+/**
+ * The tools.PostgresDialect class describes a PostgreSQL server, the standard MowData database.
+ */
+public class PostgresDialect implements Dialect {
+    @Override
+    public String name(){
+        return "PostgreSQL";
+    }
+
+    @Override
+    public String tableExistsSql(String table){
+        return "EXISTS (SELECT 1 FROM pg_tables WHERE schemaname = 'public' AND tablename = '%s')".formatted(table);
+    }
+
+    @Override
+    public String indexNamesSql(){
+        return "SELECT indexname FROM pg_indexes WHERE schemaname = 'public';";
+    }
+
+    @Override
+    public String serialType(){
+        return "SERIAL";
+    }
+
+    @Override
+    public String createArchiveTableSql(){
+        return "CREATE TABLE IF NOT EXISTS services_archive (LIKE services);";
+    }
+
+    @Override
+    public boolean supportsMultipleStatements(){
+        return true;
+    }
+
+    @Override
+    public boolean supportsWritableCte(){
+        return true;
+    }
+
+    @Override
+    public boolean supportsNotify(){
+        return true;
+    }
+
+    @Override
+    public boolean supportsCopy(){
+        return true;
+    }
+
+    @Override
+    public boolean supportsJsonPlans(){
+        return true;
+    }
+
+    @Override
+    public boolean supportsTableStatistics(){
+        return true;
+    }
+
+    @Override
+    public String analyzeSql(String table){
+        return "ANALYZE %s;".formatted(table);
+    }
+
+    @Override
+    public String vacuumSql(String table){
+        return "VACUUM (ANALYZE) %s;".formatted(table);
+    }
+
+    @Override
+    public String updatedAtColumnSql(){
+        //Kept current on update by the {table}_touch trigger.
+        return "TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP";
+    }
+
+    @Override
+    public String changeTrackingTriggersSql(String[] tables){
+        StringBuilder sql = new StringBuilder("""
+                CREATE OR REPLACE FUNCTION mowdata_touch() RETURNS trigger AS $$
+                BEGIN
+                	NEW.updated_at = CURRENT_TIMESTAMP;
+                	RETURN NEW;
+                END;
+                $$ LANGUAGE plpgsql;
+                """ + tombstoneFunctionSql());
+        for (String table : tables){
+            //Tombstones are recorded once per statement from its transition table, so bulk deletes don't fire per row.
+            sql.append("""
+                    DROP TRIGGER IF EXISTS %1$s_touch ON %1$s;
+                    CREATE TRIGGER %1$s_touch
+                    	BEFORE UPDATE ON %1$s
+                    	FOR EACH ROW EXECUTE FUNCTION mowdata_touch();
+                    DROP TRIGGER IF EXISTS %1$s_tombstone ON %1$s;
+                    CREATE TRIGGER %1$s_tombstone
+                    	AFTER DELETE ON %1$s
+                    	REFERENCING OLD TABLE AS deleted
+                    	FOR EACH STATEMENT EXECUTE FUNCTION mowdata_tombstone();
+                    """.formatted(table));
+        }
+        return sql.toString();
+    }
+
+    @Override
+    public String tombstoneFunctionSql(){
+        //The archive is created on first use, so the statement reading it is only planned once it exists.
+        return """
+                CREATE OR REPLACE FUNCTION mowdata_tombstone() RETURNS trigger AS $$
+                BEGIN
+                	IF TG_TABLE_NAME = 'services' AND to_regclass('services_archive') IS NOT NULL THEN
+                		INSERT INTO deleted_rows (table_name, row_id)
+                		SELECT TG_TABLE_NAME, id FROM deleted
+                		WHERE NOT EXISTS (SELECT 1 FROM services_archive WHERE services_archive.id = deleted.id);
+                	ELSE
+                		INSERT INTO deleted_rows (table_name, row_id)
+                		SELECT TG_TABLE_NAME, id FROM deleted;
+                	END IF;
+                	RETURN NULL;
+                END;
+                $$ LANGUAGE plpgsql;
+                """;
+    }
+
+    @Override
+    public String lockTimeoutSql(int millis){
+        //Also bounds waits for row locks, not only table locks.
+        return "SET lock_timeout = %d;".formatted(millis);
+    }
+
+    @Override
+    public boolean isLockTimeout(SQLException e){
+        //55P03 is lock_not_available and 40P01 is deadlock_detected.
+        return "55P03".equals(e.getSQLState()) || "40P01".equals(e.getSQLState());
+    }
+
+    @Override
+    public String oldestTransactionStartSql(){
+        //Sessions of other users only show their start times to roles with pg_read_all_stats.
+        return """
+                SELECT LEAST(MIN(xact_start), CURRENT_TIMESTAMP)
+                FROM pg_stat_activity
+                WHERE datname = current_database()
+                AND xact_start IS NOT NULL;""";
+    }
+
+    @Override
+    public String restartIdSql(String table, int start, int increment){
+        //SERIAL columns take their ids from a sequence named {table}_id_seq.
+        return "ALTER SEQUENCE %s_id_seq INCREMENT BY %d RESTART WITH %d;".formatted(table, increment, start);
+    }
+}
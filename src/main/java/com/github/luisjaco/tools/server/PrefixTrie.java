@@ -0,0 +1,62 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The tools.PrefixTrie class maps string keys to values, and finds the values of every key starting with a prefix. Finding
+ * completions only walks the prefix and the keys below it, so lookups stay instant however many keys are held. Used for
+ * autocompleting zip codes and city names.
+ * @param <T> Type of the values.
+ */
+public class PrefixTrie<T> {
+    private static class Node<T> {
+        //Children are kept sorted so completions come out in key order.
+        private final TreeMap<Character, Node<T>> children = new TreeMap<>();
+        private final List<T> values = new ArrayList<>(1);
+    }
+
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Adds a value under a key. A key may hold several values.
+     * @param key Key of the value.
+     * @param value Value to add.
+     */
+    public void put(String key, T value){
+        Node<T> node = root;
+        for (int i = 0; i < key.length(); i++){
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node<>());
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Finds the values of the keys which start with a prefix.
+     * @param prefix Start of the keys. An empty prefix matches every key.
+     * @param limit Maximum number of values to return.
+     * @return Values found, in key order.
+     */
+    public List<T> complete(String prefix, int limit){
+        List<T> found = new ArrayList<>();
+        Node<T> node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++){
+            node = node.children.get(prefix.charAt(i));
+        }
+        if (node != null) collect(node, limit, found);
+        return found;
+    }
+
+    private void collect(Node<T> node, int limit, List<T> found){
+        for (T value : node.values){
+            if (found.size() >= limit) return;
+            found.add(value);
+        }
+        for (Map.Entry<Character, Node<T>> child : node.children.entrySet()){
+            if (found.size() >= limit) return;
+            collect(child.getValue(), limit, found);
+        }
+    }
+}
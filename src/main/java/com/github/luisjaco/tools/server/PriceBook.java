@@ -0,0 +1,184 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The tools.PriceBook class suggests prices for new services from the costs of past services. For each combination of services
+ * done in each city, it keeps a tools.QuantileDigest of the service costs, along with one for the combination across every city.
+ * A quote uses the city's costs when it has enough of them, and every city's otherwise. Costs are added as services are
+ * loaded, so a quote never reads the services again. Ids skipped below the last service added are kept as pending, since
+ * their transactions may still commit, so services are never missed because a later id committed first.
+ */
+public class PriceBook {
+    //City id used for the costs of a combination across every city.
+    public static final int ALL_CITIES = 0;
+    //Past services a city needs before its own costs are used.
+    private static final int MIN_SERVICES = 5;
+    //Ids below the watermark which are watched for services committed late. Older missing ids are taken as rolled back.
+    private static final int PENDING_WINDOW = 100;
+
+    /**
+     * A suggested price.
+     * @param median Median cost of the past services.
+     * @param p90 Cost which 90% of the past services didn't go over.
+     * @param services Number of past services the quote is from.
+     * @param allCities Whether the quote is from every city, since the property's city has few matching services.
+     */
+    public record Quote(double median, double p90, long services, boolean allCities) {}
+
+    /**
+     * The costs of a combination of services in a city, as stored.
+     * @param services Services done, as bits in the order of servicesDone.
+     */
+    public record Sketch(int cityID, int services, String digest) {}
+
+    private final Map<Long, QuantileDigest> digests;
+    //Keys of the digests changed since they were last stored.
+    private final Set<Long> changed;
+    //Services up to this id have been added, except for the pending ones.
+    private int watermark;
+    //Ids below the watermark which had no service when later services were added.
+    private final TreeSet<Integer> pending;
+
+    /**
+     * Initializes a new, empty tools.PriceBook.
+     */
+    public PriceBook(){
+        this.digests = new HashMap<>();
+        this.changed = new HashSet<>();
+        this.pending = new TreeSet<>();
+    }
+
+    /**
+     * @return Id of the last service added. Services after it still need to be added.
+     */
+    public int getWatermark(){
+        return watermark;
+    }
+
+    /**
+     * @return Id after which services may still need to be added. Services up to the watermark which aren't pending are
+     * skipped by add, so they can be read again safely.
+     */
+    public int getReadFrom(){
+        return pending.isEmpty() ? watermark : pending.first() - 1;
+    }
+
+    /**
+     * @return Pending ids, comma separated, to be stored along with the watermark.
+     */
+    public String getPending(){
+        StringBuilder ids = new StringBuilder();
+        for (int id : pending){
+            if (!ids.isEmpty()) ids.append(',');
+            ids.append(id);
+        }
+        return ids.toString();
+    }
+
+    /**
+     * Adds the cost of a past service. Services which were already added are skipped.
+     * @param serviceID Id of the service.
+     * @param cityID City of the service's property.
+     * @param services Services done, as bits in the order of servicesDone.
+     * @param cost Cost of the service.
+     * @return Whether the cost was added.
+     */
+    public boolean add(int serviceID, int cityID, int services, double cost){
+        if (serviceID <= watermark) {
+            if (!pending.remove(serviceID)) return false;
+        } else {
+            //Skipped ids may belong to services which haven't committed yet.
+            for (int id = Math.max(watermark + 1, serviceID - PENDING_WINDOW); id < serviceID; id++){
+                pending.add(id);
+            }
+            watermark = serviceID;
+            pending.headSet(watermark - PENDING_WINDOW).clear();
+        }
+        for (long key : new long[] {key(cityID, services), key(ALL_CITIES, services)}){
+            digests.computeIfAbsent(key, k -> new QuantileDigest()).add(cost);
+            changed.add(key);
+        }
+        return true;
+    }
+
+    /**
+     * Suggests a price for a new service.
+     * @param cityID City of the service's property.
+     * @param services Services done, as bits in the order of servicesDone.
+     * @return Suggested price, or null if no past service did the same services.
+     */
+    public Quote quote(int cityID, int services){
+        QuantileDigest city = digests.get(key(cityID, services));
+        QuantileDigest all = digests.get(key(ALL_CITIES, services));
+        boolean useCity = city != null && (city.count() >= MIN_SERVICES || all.count() == city.count());
+        QuantileDigest digest = useCity ? city : all;
+        if (digest == null) return null;
+        return new Quote(digest.quantile(0.5), digest.quantile(0.9), digest.count(), !useCity);
+    }
+
+    /**
+     * Forgets every cost, so the price book can be built again after past costs were changed or services deleted.
+     */
+    public void clear(){
+        digests.clear();
+        changed.clear();
+        pending.clear();
+        watermark = 0;
+    }
+
+    /**
+     * Restores a stored sketch. Must be called before any cost is added.
+     * @param watermark Id of the last service in the sketch.
+     * @param pending Pending ids stored with the sketch, comma separated.
+     * @throws IllegalArgumentException If the digest isn't a digest, or the pending ids aren't ids.
+     */
+    public void load(Sketch sketch, int watermark, String pending){
+        digests.put(key(sketch.cityID(), sketch.services()), QuantileDigest.decode(sketch.digest()));
+        //Sketches stored together share their watermark and pending ids. Only the latest ones still apply.
+        if (watermark > this.watermark) {
+            this.watermark = watermark;
+            this.pending.clear();
+        }
+        if (watermark == this.watermark && !pending.isEmpty()) {
+            for (String id : pending.split(",")){
+                this.pending.add(Integer.parseInt(id));
+            }
+        }
+    }
+
+    /**
+     * @return Sketches changed since they were last stored. They are not reported again unless they change again.
+     */
+    public List<Sketch> takeChanged(){
+        List<Sketch> sketches = new ArrayList<>();
+        for (long key : changed){
+            sketches.add(new Sketch((int) (key >>> 32), (int) key, digests.get(key).encode()));
+        }
+        changed.clear();
+        return sketches;
+    }
+
+    /**
+     * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+     *                     tree removal, tree trim, power wash, snow plow].
+     * @return The services done, as bits in the same order.
+     */
+    public static int servicesMask(boolean[] servicesDone){
+        int mask = 0;
+        for (int i = 0; i < servicesDone.length; i++){
+            if (servicesDone[i]) mask |= 1 << i;
+        }
+        return mask;
+    }
+
+    private static long key(int cityID, int services){
+        return ((long) cityID << 32) | (services & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,225 @@
+package com.github.luisjaco.tools.server;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The tools.Profiling class emits the flight recorder events which show where the time of a menu action went. Each menu
+ * action is a tools.MenuActionEvent, and each database call made during it is a tools.DatabaseCallEvent holding the action's
+ * id. The events cost next to nothing unless a recording is running, either one started with startRecording() or one started
+ * by the JVM (ex: -XX:StartFlightRecording).
+ */
+public class Profiling {
+    //The continuous recording keeps at most this much, dropping the oldest data first.
+    private static final long RECORDING_MAX_BYTES = 100L * 1024 * 1024;
+    private static final Duration RECORDING_MAX_AGE = Duration.ofDays(1);
+    //Longer SQL shapes are cut, so a large batch doesn't bloat the recording.
+    private static final int MAX_SHAPE_LENGTH = 1000;
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern REPEATED_ROWS = Pattern.compile("(\\(\\?(?:, \\?)*\\))(?:, \\(\\?(?:, \\?)*\\))+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private static final AtomicLong nextActionID = new AtomicLong(1);
+    private static final AtomicLong bytesRendered = new AtomicLong();
+    private static final AtomicLong inputWait = new AtomicLong();
+    //Threads blocked reading System.in.
+    private static final AtomicInteger inputReaders = new AtomicInteger();
+    private static final ThreadLocal<Action> currentAction = new ThreadLocal<>();
+    private static boolean installed;
+
+    /**
+     * A menu action in progress, with the counters it started at.
+     */
+    private static class Action {
+        private final MenuActionEvent event = new MenuActionEvent();
+        private final Action parent;
+        private long startBytes;
+        private long startInputWait;
+
+        private Action(Action parent){
+            this.parent = parent;
+        }
+    }
+
+    private Profiling(){
+        //Only static methods.
+    }
+
+    /**
+     * Counts the bytes printed to System.out and the time spent waiting on System.in, so menu actions can report them. Must
+     * be called before any Scanner is opened on System.in. Calling it again does nothing.
+     */
+    public static synchronized void install(){
+        if (installed) return;
+        installed = true;
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesRendered.incrementAndGet();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesRendered.addAndGet(len);
+            }
+        }, true, out.charset()));
+        System.setIn(new FilterInputStream(System.in) {
+            @Override
+            public int read() throws IOException {
+                long start = System.nanoTime();
+                inputReaders.incrementAndGet();
+                try {
+                    return super.read();
+                } finally {
+                    inputReaders.decrementAndGet();
+                    inputWait.addAndGet(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                long start = System.nanoTime();
+                inputReaders.incrementAndGet();
+                try {
+                    return super.read(b, off, len);
+                } finally {
+                    inputReaders.decrementAndGet();
+                    inputWait.addAndGet(System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Whether a menu is waiting for input, so input which becomes available is meant for the menu. Always false
+     * before install() is called.
+     */
+    public static boolean isWaitingForInput(){
+        return inputReaders.get() > 0;
+    }
+
+    /**
+     * Starts a continuous recording of this session. Recorded data is kept on disk, dropping the oldest data once
+     * RECORDING_MAX_BYTES or RECORDING_MAX_AGE is reached, and is written to mowdata.jfr in the folder when MowData exits. While
+     * running, the recording can also be written with: jcmd {pid} JFR.dump name=mowdata
+     * @param folder Folder to write the recording to. Created if it doesn't exist.
+     * @return Whether the recording was started.
+     */
+    public static boolean startRecording(Path folder){
+        try {
+            Files.createDirectories(folder);
+            Recording recording = new Recording(Configuration.getConfiguration("default"));
+            recording.setName("mowdata");
+            recording.enable(MenuActionEvent.class);
+            recording.enable(DatabaseCallEvent.class);
+            recording.setToDisk(true);
+            recording.setMaxSize(RECORDING_MAX_BYTES);
+            recording.setMaxAge(RECORDING_MAX_AGE);
+            recording.setDestination(folder.resolve("mowdata.jfr"));
+            recording.setDumpOnExit(true);
+            recording.start();
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            System.out.println("[!] Error occurred while attempting to start recording:\n" + e);
+            return false;
+        }
+        System.out.printf("[!] Recording to '%s'.\n", folder.resolve("mowdata.jfr"));
+        return true;
+    }
+
+    /**
+     * Begins the event of a menu action. Actions begun during another action are recorded as its children.
+     * @param name Name of the action (ex: addServiceMenu).
+     */
+    public static void beginAction(String name){
+        Action action = new Action(currentAction.get());
+        action.event.action = name;
+        action.event.actionID = nextActionID.getAndIncrement();
+        action.event.parentActionID = (action.parent == null) ? 0 : action.parent.event.actionID;
+        action.startBytes = bytesRendered.get();
+        action.startInputWait = inputWait.get();
+        currentAction.set(action);
+        action.event.begin();
+    }
+
+    /**
+     * Ends the event of the innermost menu action begun on this thread.
+     */
+    public static void endAction(){
+        Action action = currentAction.get();
+        if (action == null) return;
+        currentAction.set(action.parent);
+        MenuActionEvent event = action.event;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.bytesRendered = bytesRendered.get() - action.startBytes;
+        event.inputWait = inputWait.get() - action.startInputWait;
+        event.commit();
+    }
+
+    /**
+     * Begins the event of a database call.
+     * @param operation What the call is for (ex: verify property id).
+     * @return Event to end with endCall() once the call is done.
+     */
+    public static DatabaseCallEvent beginCall(String operation){
+        DatabaseCallEvent event = new DatabaseCallEvent();
+        event.operation = operation;
+        event.startNanos = System.nanoTime();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends the event of a database call, and adds it to the current menu action.
+     * @param event Event returned by beginCall().
+     * @param sql SQL of the call. Only turned into a shape if the event is recorded.
+     * @param rows Rows returned or altered, or -1 when the caller reads the rows itself.
+     * @param cached Whether the rows were served from the view cache.
+     * @param connectionWaitNanos Time spent checking and choosing the connection.
+     */
+    public static void endCall(DatabaseCallEvent event, String sql, long rows, boolean cached, long connectionWaitNanos){
+        long elapsed = System.nanoTime() - event.startNanos;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.sqlShape = sqlShape(sql);
+        event.rows = rows;
+        event.cached = cached;
+        event.connectionWait = connectionWaitNanos;
+        Action action = currentAction.get();
+        if (action != null) {
+            event.action = action.event.action;
+            event.actionID = action.event.actionID;
+            action.event.databaseCalls++;
+            action.event.databaseTime += elapsed;
+        }
+        event.commit();
+    }
+
+    /**
+     * @param sql SQL of a call.
+     * @return The SQL on one line, with literals replaced by ? and repeated rows of values collapsed.
+     */
+    static String sqlShape(String sql){
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = WHITESPACE.matcher(shape).replaceAll(" ").trim();
+        shape = REPEATED_ROWS.matcher(shape).replaceAll("$1, ...");
+        return (shape.length() > MAX_SHAPE_LENGTH) ? shape.substring(0, MAX_SHAPE_LENGTH) + "..." : shape;
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.luisjaco.tools.server;
+
+/**
+ * A row of the properties table along with its owner and city, as returned by tools.MowDataStore.streamProperties.
+ * @param id Property ID.
+ * @param clientID ID of the client who owns the property.
+ * @param firstName Owner first name.
+ * @param lastName Owner last name.
+ * @param address Address of property, in lowercase (ex: 123 apple rd).
+ * @param cityID City ID.
+ * @param city City name.
+ * @param zip City zip code.
+ * @param state Abbreviation of the city's state (ex: NY).
+ */
+public record Property(int id, int clientID, String firstName, String lastName, String address, int cityID, String city,
+                       String zip, String state) {}
@@ -0,0 +1,165 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.Arrays;
+
+/**
+ * The tools.QuantileDigest class estimates quantiles, such as the median, of a stream of values without keeping the values.
+ * It is a merging t-digest: values are summarized as centroids, each a mean and a count, which are kept small near the
+ * extremes and larger in the middle, so the tails stay accurate. At most about COMPRESSION centroids are kept however many
+ * values are added, so estimating a quantile takes the same short time for ten values or ten million.
+ */
+public class QuantileDigest {
+    //Larger keeps more centroids, for more accurate estimates.
+    private static final double COMPRESSION = 100;
+    //Values added since the last merge, merged into the centroids once full.
+    private static final int BUFFER_SIZE = 500;
+
+    private double[] means = new double[0];
+    private long[] counts = new long[0];
+    private final double[] buffer = new double[BUFFER_SIZE];
+    private int buffered;
+    private long total;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    /**
+     * Adds a value.
+     * @param value Value to add. NaN is ignored.
+     */
+    public void add(double value){
+        if (Double.isNaN(value)) return;
+        if (buffered == BUFFER_SIZE) merge();
+        buffer[buffered++] = value;
+        total++;
+        min = (total == 1) ? value : Math.min(min, value);
+        max = (total == 1) ? value : Math.max(max, value);
+    }
+
+    /**
+     * @return Number of values added.
+     */
+    public long count(){
+        return total;
+    }
+
+    /**
+     * Estimates a quantile of the values added.
+     * @param q Quantile, from 0 to 1 (ex: 0.5 for the median).
+     * @return Estimated value at the quantile, or NaN if no values were added.
+     */
+    public double quantile(double q){
+        merge();
+        int size = means.length;
+        if (size == 0) return Double.NaN;
+        if (size == 1) return means[0];
+        //Each centroid's mean is taken to sit at the middle of its values, and estimates are interpolated between them.
+        double index = q * total;
+        if (index <= counts[0] / 2.0) return interpolate(min, means[0], index / (counts[0] / 2.0));
+        double seen = counts[0] / 2.0;
+        for (int i = 0; i < size - 1; i++){
+            double step = (counts[i] + counts[i + 1]) / 2.0;
+            if (seen + step >= index) return interpolate(means[i], means[i + 1], (index - seen) / step);
+            seen += step;
+        }
+        double last = counts[size - 1] / 2.0;
+        return interpolate(means[size - 1], max, Math.min(1, (index - seen) / last));
+    }
+
+    /**
+     * @return The digest as text, read back by decode(). Holds the minimum, the maximum, and each centroid as mean:count.
+     */
+    public String encode(){
+        merge();
+        StringBuilder text = new StringBuilder();
+        text.append(min).append(' ').append(max);
+        for (int i = 0; i < means.length; i++){
+            text.append(' ').append(means[i]).append(':').append(counts[i]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @param text Digest written by encode().
+     * @return The digest.
+     * @throws IllegalArgumentException If the text isn't a digest.
+     */
+    public static QuantileDigest decode(String text){
+        QuantileDigest digest = new QuantileDigest();
+        String[] parts = text.trim().split(" ");
+        if (parts.length < 2) throw new IllegalArgumentException("Invalid digest: " + text);
+        int size = parts.length - 2;
+        digest.means = new double[size];
+        digest.counts = new long[size];
+        try {
+            digest.min = Double.parseDouble(parts[0]);
+            digest.max = Double.parseDouble(parts[1]);
+            for (int i = 0; i < size; i++){
+                int colon = parts[i + 2].indexOf(':');
+                digest.means[i] = Double.parseDouble(parts[i + 2].substring(0, colon));
+                digest.counts[i] = Long.parseLong(parts[i + 2].substring(colon + 1));
+                digest.total += digest.counts[i];
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid digest: " + text, e);
+        }
+        return digest;
+    }
+
+    /**
+     * Merges the buffered values into the centroids. Neighbouring centroids are combined as long as the combined centroid
+     * stays within the size allowed at its quantile.
+     */
+    private void merge(){
+        if (buffered == 0) return;
+        int incoming = means.length + buffered;
+        double[] allMeans = Arrays.copyOf(means, incoming);
+        long[] allCounts = Arrays.copyOf(counts, incoming);
+        for (int i = 0; i < buffered; i++){
+            allMeans[means.length + i] = buffer[i];
+            allCounts[means.length + i] = 1;
+        }
+        buffered = 0;
+        Integer[] order = new Integer[incoming];
+        for (int i = 0; i < incoming; i++){
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double[] mergedMeans = new double[incoming];
+        long[] mergedCounts = new long[incoming];
+        int size = 0;
+        long before = 0;
+        double mean = allMeans[order[0]];
+        long count = allCounts[order[0]];
+        for (int i = 1; i < incoming; i++){
+            int next = order[i];
+            long combined = count + allCounts[next];
+            if (scale((double) (before + combined) / total) - scale((double) before / total) <= 1) {
+                mean += (allMeans[next] - mean) * allCounts[next] / combined;
+                count = combined;
+            } else {
+                mergedMeans[size] = mean;
+                mergedCounts[size++] = count;
+                before += count;
+                mean = allMeans[next];
+                count = allCounts[next];
+            }
+        }
+        mergedMeans[size] = mean;
+        mergedCounts[size++] = count;
+        means = Arrays.copyOf(mergedMeans, size);
+        counts = Arrays.copyOf(mergedCounts, size);
+    }
+
+    /**
+     * Maps a quantile to the scale on which each centroid may span at most 1. The scale is steep near 0 and 1, which keeps
+     * the centroids in the tails small.
+     */
+    private static double scale(double q){
+        return COMPRESSION / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+    }
+
+    private static double interpolate(double from, double to, double fraction){
+        return from + (to - from) * fraction;
+    }
+}
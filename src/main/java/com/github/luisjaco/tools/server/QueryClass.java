@@ -0,0 +1,43 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.SQLException;
+
+/**
+ * The tools.QueryClass enum holds the kinds of operations MowData performs, along with how long a single statement of each
+ * kind may run before it is stopped. This keeps a runaway query from holding a connection indefinitely.
+ */
+public enum QueryClass {
+    /**
+     * Views, adds, and verifies performed while the user waits at the menu.
+     */
+    INTERACTIVE(30),
+    /**
+     * Reports which read a large part of the database, such as monthly invoices.
+     */
+    REPORT(600),
+    /**
+     * Bulk jobs, such as archiving or generating data. Bulk jobs work in chunks, so this limits a single chunk.
+     */
+    BULK(1800);
+
+    private final int timeoutSeconds;
+
+    QueryClass(int timeoutSeconds){
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * @return How long a single statement may run, in seconds.
+     */
+    public int timeoutSeconds(){
+        return timeoutSeconds;
+    }
+
+    /**
+     * @return Whether an error was raised because a statement was cancelled or ran past its timeout.
+     */
+    public static boolean isCancellation(SQLException e){
+        //57014 is query_canceled for both PostgreSQL and H2.
+        return "57014".equals(e.getSQLState());
+    }
+}
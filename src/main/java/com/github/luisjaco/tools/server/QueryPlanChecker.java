@@ -0,0 +1,518 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The tools.QueryPlanChecker class guards the view and verify queries of tools.MowDataDB against plan regressions, such as a
+ * join falling back to a sequential scan. Each check makes a call, captures the SQL it issues, and retrieves the plan with
+ * EXPLAIN (FORMAT JSON) without running the query again. A plan fails if it reads one of the check's tables with a sequential
+ * scan, if an index the query relies on is not used, if more rows are estimated than the call returns, or if its cost is
+ * above the check's ceiling or COST_GROWTH times the saved baseline. Failed plans are printed as a diff against the baseline.
+ * Plans only mean something at production scale, so the database should hold generated data (see tools.DataGenerator). The
+ * ceilings and the baselines in query-plans were calibrated at a scale of 1 on PostgreSQL 16. Requires PostgreSQL.
+ * Can be run from the menu, or as a program which fails the build (see the query-plans profile in pom.xml).
+ */
+public class QueryPlanChecker {
+    //Rows requested by each view call.
+    private static final int VIEW_ROWS = 50;
+    //Cost ceilings, in the planner's units, about three times the costs measured at a scale of 1. A sequential scan of
+    //services, properties, or clients costs more than any of them.
+    private static final double VIEW_MAX_COST = 100; //Measured at most 31.
+    private static final double LAST_SERVICES_MAX_COST = 1_000; //Measured 257.
+    private static final double REPORT_MAX_COST = 110_000; //Measured 36,385.
+    private static final double VERIFY_MAX_COST = 25; //Measured at most 8.3.
+    //A plan fails if its cost grows past this multiple of the baseline's.
+    private static final double COST_GROWTH = 2.0;
+    //Id which is never present, so verify calls always reach the database.
+    private static final int MISSING_ID = Integer.MAX_VALUE;
+    //Services per unit of scale, matching tools.DataGenerator.
+    private static final int SERVICES_PER_SCALE = 1_000_000;
+
+    /**
+     * A call whose queries are checked.
+     * @param name Name of the check, also used for its baseline file.
+     * @param call Call which issues the queries.
+     * @param noSeqScans Tables no plan of the call may read with a sequential scan. Unsorted views may read the first table of
+     *                   their join in stored order, since they stop after VIEW_ROWS rows, and cities and states are small
+     *                   enough that a sequential scan is their cheapest plan.
+     * @param indexes Indexes every plan of the call must use.
+     * @param maxRows Most rows a plan may estimate.
+     * @param maxCost Highest cost a plan may have.
+     */
+    private record Check(String name, Consumer<MowDataDB> call, Set<String> noSeqScans, Set<String> indexes, long maxRows,
+                         double maxCost) {}
+
+    private static final List<Check> CHECKS = List.of(
+            new Check("view services", db -> db.viewServices("all", VIEW_ROWS, false),
+                    Set.of("services", "properties"),
+                    Set.of("services_property_date_idx"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view services by property", db -> db.viewServices("property", VIEW_ROWS, false),
+                    Set.of("services", "properties"),
+                    Set.of("properties_pkey", "services_property_date_idx"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view services by date", db -> db.viewServices("date", VIEW_ROWS, false),
+                    Set.of("services", "properties"),
+                    Set.of("services_date_idx", "properties_pkey"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view properties", db -> db.viewProperties("all", VIEW_ROWS),
+                    Set.of("clients"),
+                    Set.of("clients_pkey"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view properties by city", db -> db.viewProperties("city", VIEW_ROWS),
+                    Set.of("properties", "clients"),
+                    Set.of("properties_city_idx", "clients_pkey"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view properties by client", db -> db.viewProperties("client", VIEW_ROWS),
+                    Set.of("properties", "clients"),
+                    Set.of("properties_client_idx", "clients_pkey"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view cities", db -> db.viewCities("all", VIEW_ROWS),
+                    Set.of(),
+                    Set.of(), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view cities by state", db -> db.viewCities("state", VIEW_ROWS),
+                    Set.of(),
+                    Set.of(), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view cities by name", db -> db.viewCities("name", VIEW_ROWS),
+                    Set.of(),
+                    Set.of(), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view clients", db -> db.viewClients("all", VIEW_ROWS),
+                    Set.of(),
+                    Set.of(), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view clients by name", db -> db.viewClients("name", VIEW_ROWS),
+                    Set.of("clients"),
+                    Set.of("clients_name_idx"), VIEW_ROWS, VIEW_MAX_COST),
+            new Check("view last services", db -> db.viewLastServices(-1, -1, VIEW_ROWS),
+                    Set.of("services", "properties"),
+                    Set.of("services_property_date_idx", "properties_pkey"), VIEW_ROWS, LAST_SERVICES_MAX_COST),
+            //The report checks every property, so only services must be reached through an index.
+            new Check("view overdue properties", db -> db.viewOverdueProperties(-1, 30, -1, VIEW_ROWS),
+                    Set.of("services"),
+                    Set.of("services_property_date_idx"), VIEW_ROWS, REPORT_MAX_COST),
+            new Check("verify client", db -> db.verifyClient(MISSING_ID),
+                    Set.of("clients"),
+                    Set.of("clients_pkey"), 1, VERIFY_MAX_COST),
+            new Check("verify city", db -> db.verifyCity(MISSING_ID),
+                    Set.of("cities"),
+                    Set.of("cities_pkey"), 1, VERIFY_MAX_COST),
+            new Check("verify property", db -> db.verifyProperty(MISSING_ID),
+                    Set.of("properties"),
+                    Set.of("properties_pkey"), 1, VERIFY_MAX_COST));
+
+    private final MowDataDB database;
+
+    /**
+     * Initializes a new tools.QueryPlanChecker.
+     * @param database Database whose queries are checked.
+     */
+    public QueryPlanChecker(MowDataDB database){
+        this.database = database;
+    }
+
+    /**
+     * Checks the plan of every query, then prints the result of each check.
+     * @param baselineFolder Folder holding the baseline plan of each check. Checks without a baseline save their plan as one.
+     * @param updateBaselines Whether to save every plan as the new baseline, such as after an intended change.
+     * @return Whether every plan passed.
+     */
+    public boolean run(Path baselineFolder, boolean updateBaselines){
+        if (!database.getDialect().supportsJsonPlans()) {
+            System.out.printf("[!] Query plans can't be checked on %s.\n", database.getDialect().name());
+            return false;
+        }
+        int failed = 0;
+        for (Check check : CHECKS){
+            List<String> statements = capture(check);
+            if (statements.isEmpty()) {
+                System.out.printf("[FAIL] %s: no query was issued.\n", check.name());
+                failed++;
+            }
+            for (int i = 0; i < statements.size(); i++){
+                String name = statements.size() == 1 ? check.name() : "%s %d".formatted(check.name(), i + 1);
+                Path baselineFile = baselineFolder.resolve(name.replace(' ', '_') + ".json");
+                if (!checkStatement(name, check, statements.get(i), baselineFile, updateBaselines)) failed++;
+            }
+        }
+        if (failed == 0) {
+            System.out.println("[!] Every query plan passed.");
+        } else {
+            System.out.printf("[!] %d query plans regressed.\n", failed);
+        }
+        return failed == 0;
+    }
+
+    /**
+     * Makes the call of a check and returns the SQL it issued. Console output of the call is discarded.
+     */
+    private List<String> capture(Check check){
+        List<String> statements = new ArrayList<>();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            database.captureStatements(statements);
+            check.call().accept(database);
+        } finally {
+            database.captureStatements(null);
+            System.setOut(console);
+        }
+        return statements;
+    }
+
+    /**
+     * Retrieves the plan of a statement, compares it to its rules and baseline, and prints the result.
+     * @return Whether the plan passed.
+     */
+    private boolean checkStatement(String name, Check check, String sql, Path baselineFile, boolean updateBaseline){
+        String json = explain(sql);
+        if (json == null) {
+            System.out.printf("[FAIL] %s: the plan could not be retrieved.\n", name);
+            return false;
+        }
+        Map<String, Object> plan = rootPlan(json);
+        Map<String, Object> baseline = null;
+        if (Files.exists(baselineFile)) {
+            try {
+                baseline = rootPlan(Files.readString(baselineFile, StandardCharsets.UTF_8));
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.printf("[!] Baseline of %s could not be read, it will be replaced:\n%s\n", name, e);
+            }
+        }
+
+        List<String> problems = new ArrayList<>();
+        Set<String> scanned = new HashSet<>();
+        collectSeqScans(plan, scanned);
+        for (String table : check.noSeqScans()){
+            if (scanned.contains(table)) problems.add("%s is read with a sequential scan".formatted(table));
+        }
+        Set<String> used = new HashSet<>();
+        collectIndexes(plan, used);
+        for (String index : check.indexes()){
+            if (!used.contains(index)) problems.add("index %s is not used".formatted(index));
+        }
+        double rows = number(plan, "Plan Rows");
+        if (rows > check.maxRows()) {
+            problems.add("%.0f rows are estimated, at most %d are expected".formatted(rows, check.maxRows()));
+        }
+        double cost = number(plan, "Total Cost");
+        if (cost > check.maxCost()) {
+            problems.add("cost %.1f is above the ceiling of %.1f".formatted(cost, check.maxCost()));
+        }
+        if (baseline != null && cost > number(baseline, "Total Cost") * COST_GROWTH) {
+            problems.add("cost %.1f is more than %.1f times the baseline's %.1f".formatted(cost, COST_GROWTH,
+                    number(baseline, "Total Cost")));
+        }
+
+        if (problems.isEmpty()) {
+            System.out.printf("[PASS] %s (cost %.1f, %.0f rows)\n", name, cost, rows);
+            if (baseline == null || updateBaseline) saveBaseline(baselineFile, json);
+            return true;
+        }
+        System.out.printf("[FAIL] %s: %s.\n", name, String.join(", ", problems));
+        printDiff(baseline == null ? List.of() : describe(baseline), describe(plan));
+        if (updateBaseline) saveBaseline(baselineFile, json);
+        return false;
+    }
+
+    /**
+     * @return JSON plan of a statement, or null if an error occurred.
+     */
+    private String explain(String sql){
+        ResultSet rs = database.performQuery("EXPLAIN (FORMAT JSON) " + sql, "explain query", QueryClass.REPORT);
+        if (rs == null) return null;
+        try {
+            StringBuilder json = new StringBuilder();
+            while (rs.next()){
+                json.append(rs.getString(1)).append('\n');
+            }
+            rs.close();
+            return json.toString();
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to read a query plan:\n" + e);
+            return null;
+        }
+    }
+
+    private void saveBaseline(Path baselineFile, String json){
+        try {
+            Files.createDirectories(baselineFile.getParent());
+            Files.writeString(baselineFile, json, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to save a baseline plan:\n" + e);
+        }
+    }
+
+    /**
+     * @param json Output of EXPLAIN (FORMAT JSON), an array holding one object with a "Plan" member.
+     * @return Root node of the plan.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> rootPlan(String json){
+        Object parsed = new JsonParser(json).parse();
+        if (!(parsed instanceof List<?> list) || list.isEmpty() || !(list.get(0) instanceof Map<?, ?> explain)
+                || !(explain.get("Plan") instanceof Map<?, ?> plan)) {
+            throw new IllegalArgumentException("not a JSON query plan");
+        }
+        return (Map<String, Object>) plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> children(Map<String, Object> node){
+        Object plans = node.get("Plans");
+        return plans instanceof List<?> list ? (List<Map<String, Object>>) list : List.of();
+    }
+
+    private static double number(Map<String, Object> node, String key){
+        return node.get(key) instanceof Double value ? value : 0;
+    }
+
+    private static void collectSeqScans(Map<String, Object> node, Set<String> tables){
+        //Parallel Seq Scan reads the whole table as well.
+        if (node.get("Node Type") instanceof String type && type.endsWith("Seq Scan")
+                && node.get("Relation Name") instanceof String table) {
+            tables.add(table);
+        }
+        for (Map<String, Object> child : children(node)){
+            collectSeqScans(child, tables);
+        }
+    }
+
+    private static void collectIndexes(Map<String, Object> node, Set<String> indexes){
+        if (node.get("Index Name") instanceof String index) indexes.add(index);
+        for (Map<String, Object> child : children(node)){
+            collectIndexes(child, indexes);
+        }
+    }
+
+    /**
+     * @return One line per node of the plan, indented by depth (ex: "  Index Scan using properties_pkey on properties").
+     */
+    private static List<String> describe(Map<String, Object> plan){
+        List<String> lines = new ArrayList<>();
+        describe(plan, 0, lines);
+        return lines;
+    }
+
+    private static void describe(Map<String, Object> node, int depth, List<String> lines){
+        StringBuilder line = new StringBuilder("  ".repeat(depth)).append(node.get("Node Type"));
+        if (node.get("Index Name") != null) line.append(" using ").append(node.get("Index Name"));
+        if (node.get("Relation Name") != null) line.append(" on ").append(node.get("Relation Name"));
+        lines.add(line.toString());
+        for (Map<String, Object> child : children(node)){
+            describe(child, depth + 1, lines);
+        }
+    }
+
+    /**
+     * Prints the lines of two plans, marking nodes only in the baseline with - and nodes only in the new plan with +.
+     */
+    private static void printDiff(List<String> baseline, List<String> current){
+        //Longest common subsequence of the lines, computed from the end so the diff can be printed from the start.
+        int[][] common = new int[baseline.size() + 1][current.size() + 1];
+        for (int i = baseline.size() - 1; i >= 0; i--){
+            for (int j = current.size() - 1; j >= 0; j--){
+                common[i][j] = baseline.get(i).equals(current.get(j))
+                        ? common[i + 1][j + 1] + 1
+                        : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+        if (baseline.isEmpty()) System.out.println("    (no baseline plan)");
+        int i = 0, j = 0;
+        while (i < baseline.size() || j < current.size()){
+            if (i < baseline.size() && j < current.size() && baseline.get(i).equals(current.get(j))) {
+                System.out.println("      " + current.get(j));
+                i++;
+                j++;
+            } else if (i < baseline.size() && (j == current.size() || common[i + 1][j] >= common[i][j + 1])) {
+                System.out.println("    - " + baseline.get(i++));
+            } else {
+                System.out.println("    + " + current.get(j++));
+            }
+        }
+    }
+
+    /**
+     * Parses the subset of JSON which EXPLAIN produces into maps, lists, strings, doubles, booleans, and nulls.
+     */
+    private static class JsonParser {
+        private final String text;
+        private int position;
+
+        private JsonParser(String text){
+            this.text = text;
+        }
+
+        private Object parse(){
+            Object value = value();
+            skipWhitespace();
+            if (position != text.length()) throw error("unexpected text");
+            return value;
+        }
+
+        private Object value(){
+            skipWhitespace();
+            if (position == text.length()) throw error("unexpected end");
+            char c = text.charAt(position);
+            if (c == '{') return object();
+            if (c == '[') return array();
+            if (c == '"') return string();
+            if (text.startsWith("true", position)) {
+                position += 4;
+                return true;
+            }
+            if (text.startsWith("false", position)) {
+                position += 5;
+                return false;
+            }
+            if (text.startsWith("null", position)) {
+                position += 4;
+                return null;
+            }
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) != -1){
+                position++;
+            }
+            if (start == position) throw error("unexpected character");
+            return Double.parseDouble(text.substring(start, position));
+        }
+
+        private Map<String, Object> object(){
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+            while (true){
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                object.put(key, value());
+                skipWhitespace();
+                if (text.charAt(position) == '}') {
+                    position++;
+                    return object;
+                }
+                expect(',');
+            }
+        }
+
+        private List<Object> array(){
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (text.charAt(position) == ']') {
+                position++;
+                return array;
+            }
+            while (true){
+                array.add(value());
+                skipWhitespace();
+                if (text.charAt(position) == ']') {
+                    position++;
+                    return array;
+                }
+                expect(',');
+            }
+        }
+
+        private String string(){
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            while (true){
+                if (position == text.length()) throw error("unterminated string");
+                char c = text.charAt(position++);
+                if (c == '"') return string.toString();
+                if (c != '\\') {
+                    string.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n' -> string.append('\n');
+                    case 't' -> string.append('\t');
+                    case 'r' -> string.append('\r');
+                    case 'b' -> string.append('\b');
+                    case 'f' -> string.append('\f');
+                    case 'u' -> {
+                        string.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    }
+                    default -> string.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char c){
+            if (position == text.length() || text.charAt(position) != c) throw error("expected '" + c + "'");
+            position++;
+        }
+
+        private void skipWhitespace(){
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))){
+                position++;
+            }
+        }
+
+        private IllegalArgumentException error(String message){
+            return new IllegalArgumentException("Invalid JSON at %d: %s".formatted(position, message));
+        }
+    }
+
+    /**
+     * Checks the query plans of a PostgreSQL database, first loading generated data up to the requested scale, and exits with
+     * status 1 if any plan regressed. Creates the MowData tables if they are missing.
+     * @param args port, database, username, password, and optionally the scale (default 1), the baseline folder (default
+     *             query-plans), and --update to save every plan as the new baseline.
+     */
+    public static void main(String[] args){
+        if (args.length < 4) {
+            System.out.println("[!] Usage: QueryPlanChecker port database username password [scale] [baseline folder] [--update]");
+            System.exit(2);
+        }
+        double scale = args.length > 4 ? Double.parseDouble(args[4]) : 1;
+        Path baselineFolder = Path.of(args.length > 5 && !args[5].equals("--update") ? args[5] : "query-plans");
+        boolean update = List.of(args).contains("--update");
+
+        Server server = new Server();
+        if (!server.establishConnection(Integer.parseInt(args[0]), args[1], args[2], args[3])) System.exit(2);
+        //Answers the missing tables prompt with [1] Add tables, so a new database is set up without sample data.
+        MowDataDB database = new MowDataDB(server.openConnection(), new Scanner("1\n"));
+
+        //Generated data is added until the services table holds the requested scale.
+        long services = countServices(database);
+        long wanted = (long) (scale * SERVICES_PER_SCALE);
+        if (services < wanted) {
+            System.out.printf("[!] Generating data, %d services are present and %d are wanted.\n", services, wanted);
+            double missingScale = (double) (wanted - services) / SERVICES_PER_SCALE;
+            if (!new DataGenerator(server, 42).generate(missingScale)) System.exit(2);
+        }
+
+        boolean passed = new QueryPlanChecker(database).run(baselineFolder, update);
+        server.closeServer();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static long countServices(MowDataDB database){
+        ResultSet rs = database.performQuery("SELECT COUNT(*) FROM services;", "count services", QueryClass.REPORT);
+        if (rs == null) return 0;
+        try {
+            rs.next();
+            long count = rs.getLong(1);
+            rs.close();
+            return count;
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+}
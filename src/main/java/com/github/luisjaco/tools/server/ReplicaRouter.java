@@ -0,0 +1,186 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The tools.ReplicaRouter class decides which connection a query should use. Writes always use the primary connection, while
+ * reads are spread across read-only replicas in round-robin order. Replicas which fail a health check, or which have not yet
+ * replayed the last write made by this session, are skipped and the read falls back to the primary. Routing state is shared
+ * by every thread reading through the router, such as page prefetching and shard queries, so it is kept in volatile and
+ * atomic fields.
+ */
+public class ReplicaRouter {
+    //Time between health checks of a replica.
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 5000;
+    //Seconds to wait for a replica to respond to a health check.
+    private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 1;
+
+    private final Connection primary;
+    private final List<Replica> replicas;
+    private final AtomicInteger nextReplica;
+    //WAL position of the last write made through the primary, null if there were no writes yet.
+    private volatile String lastWriteLsn;
+    //Set when the position of a write couldn't be read, so no replica can be proven to have replayed it.
+    private volatile boolean mustUsePrimary;
+
+    /**
+     * A replica connection along with its last known health.
+     */
+    private static class Replica {
+        private final Connection connection;
+        private final String name;
+        private volatile boolean healthy;
+        private volatile long nextHealthCheck;
+        //Highest WAL position this replica is known to have replayed.
+        private volatile String replayedLsn;
+
+        private Replica(Connection connection, String name){
+            this.connection = connection;
+            this.name = name;
+            this.healthy = true;
+        }
+    }
+
+    /**
+     * Initializes a new tools.ReplicaRouter. Until replicas are added, all reads use the primary connection.
+     * @param primary Connection to the primary server. Used for all writes.
+     */
+    public ReplicaRouter(Connection primary){
+        this.primary = primary;
+        this.replicas = new CopyOnWriteArrayList<>();
+        this.nextReplica = new AtomicInteger();
+    }
+
+    /**
+     * Adds a read-only replica to the rotation.
+     * @param connection Connection to the replica.
+     * @param name Name used when reporting on the replica (ex: localhost:5433).
+     */
+    public void addReplica(Connection connection, String name){
+        replicas.add(new Replica(connection, name));
+    }
+
+    /**
+     * @return Connection to the primary server.
+     */
+    public Connection getPrimary(){
+        return primary;
+    }
+
+    /**
+     * @return Whether any replicas were added.
+     */
+    public boolean hasReplicas(){
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * Selects the connection to be used for a read. Replicas are tried in round-robin order, and a replica is only used if it
+     * is healthy and has replayed the last write made through this router. If no replica qualifies, or the position of the
+     * last write is unknown, the primary is used.
+     * @return Connection to read from.
+     */
+    public Connection readConnection(){
+        if (mustUsePrimary) return primary;
+        //Read once, so every replica in the rotation is checked against the same write.
+        String lsn = lastWriteLsn;
+        //A snapshot, since replicas may be closed by another thread.
+        Replica[] rotation = replicas.toArray(new Replica[0]);
+        for (int i = 0; i < rotation.length; i++){
+            Replica replica = rotation[Math.floorMod(nextReplica.getAndIncrement(), rotation.length)];
+            if (isHealthy(replica) && hasCaughtUp(replica, lsn)) return replica.connection;
+        }
+        return primary;
+    }
+
+    /**
+     * Records the current WAL position of the primary. Must be called after each write so following reads can see the write.
+     */
+    public void recordWrite(){
+        //With no replicas every read uses the primary, so there is nothing to track.
+        if (replicas.isEmpty()) return;
+        try (Statement st = primary.createStatement();
+             ResultSet rs = st.executeQuery("SELECT pg_current_wal_lsn();")) {
+            rs.next();
+            //The position is stored before reads are let back onto the replicas.
+            lastWriteLsn = rs.getString(1);
+            mustUsePrimary = false;
+        } catch (SQLException e) {
+            //Without a known position, reads can't be proven safe on a replica. Reads use the primary until the position of
+            //a later write is read, since that write comes after this one.
+            if (!mustUsePrimary) {
+                System.out.println("[!] Unable to retrieve the primary's WAL position, reads will use the primary:\n" + e);
+            }
+            mustUsePrimary = true;
+        }
+    }
+
+    /**
+     * Closes all replica connections. The primary connection is left for the tools.Server to close.
+     */
+    public void closeReplicas(){
+        for (Replica replica : replicas){
+            try {
+                replica.connection.close();
+            } catch (SQLException e) {
+                System.out.printf("[!] An error occurred while attempting to close the replica connection to %s:\n%s\n", replica.name, e);
+            }
+        }
+        replicas.clear();
+    }
+
+    /**
+     * Checks the health of a replica. A check is only performed once per interval, otherwise the last result is used.
+     * @param replica Replica to check.
+     * @return Whether the replica is healthy.
+     */
+    private boolean isHealthy(Replica replica){
+        long now = System.currentTimeMillis();
+        if (now < replica.nextHealthCheck) return replica.healthy;
+
+        boolean healthy;
+        try {
+            healthy = replica.connection.isValid(HEALTH_CHECK_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            healthy = false;
+        }
+        //Only report changes in health.
+        if (healthy != replica.healthy) {
+            System.out.printf("[!] Replica %s is %s.\n", replica.name, healthy ? "healthy again" : "unavailable, reads will skip it");
+        }
+        replica.healthy = healthy;
+        replica.nextHealthCheck = now + HEALTH_CHECK_INTERVAL_MILLIS;
+        return healthy;
+    }
+
+    /**
+     * Checks whether a replica has replayed the last write made through this router, comparing WAL positions.
+     * @param replica Replica to check.
+     * @param lsn WAL position of the last write, null if there were no writes yet.
+     * @return Whether reading from the replica will see the last write.
+     */
+    private boolean hasCaughtUp(Replica replica, String lsn){
+        if (lsn == null || lsn.equals(replica.replayedLsn)) return true;
+
+        String sql = "SELECT pg_last_wal_replay_lsn() >= '%s'::pg_lsn;".formatted(lsn);
+        try (Statement st = replica.connection.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            if (rs.getBoolean(1)) {
+                //Remember the position so the replica isn't checked again until the next write.
+                replica.replayedLsn = lsn;
+                return true;
+            }
+        } catch (SQLException e) {
+            replica.healthy = false;
+            replica.nextHealthCheck = System.currentTimeMillis() + HEALTH_CHECK_INTERVAL_MILLIS;
+        }
+        return false;
+    }
+}
@@ -2,16 +2,36 @@ package com.github.luisjaco.tools.server;
 
 import com.github.luisjaco.tools.Menu;
 
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 /**
  * The tools.Server class handles establishing and closing a connection to a PostgreSQL server. For each connection you must make a new
  * tools.Server instance.
  */
 public class Server {
     private Connection connection;
+    private String url;
+    private String username;
+    private String password;
+    private final ArrayList<ChangeListener> changeListeners;
+    private final ArrayList<AuditLog> auditLogs;
+    private ReplicaRouter router;
+    private final ArrayList<Connection> replicas;
+    private final ArrayList<String> replicaNames;
+    //Connections and urls of the shards after the first, whose connection is the established connection.
+    private final ArrayList<Connection> shards;
+    private final ArrayList<String> shardUrls;
+    private ShardedStore shardedStore;
+    //Connection being opened in the background, along with the message to print once it is open.
+    private CompletableFuture<Connection> pendingConnection;
+    private String pendingMessage;
     private final Scanner input;
 
     /**
@@ -19,6 +39,12 @@ public class Server {
      */
     public Server(){
         this.input = new Scanner(System.in);
+        this.replicas = new ArrayList<>();
+        this.replicaNames = new ArrayList<>();
+        this.changeListeners = new ArrayList<>();
+        this.auditLogs = new ArrayList<>();
+        this.shards = new ArrayList<>();
+        this.shardUrls = new ArrayList<>();
     }
 
     /**
@@ -43,6 +69,7 @@ public class Server {
 
                 //Establish a connection with inputs.
                 connection = DriverManager.getConnection(url, user, password);
+                rememberCredentials(url, user, password);
                 System.out.printf("\nSuccessfully established connection to '%s' on port %d as user '%s'!\n", databaseName, portNumber, user);
                 break;
             } catch (SQLException e) {
@@ -75,6 +102,7 @@ public class Server {
         try {
             //Establish connection using url and password.
             connection = DriverManager.getConnection(url, username, password);
+            rememberCredentials(url, username, password);
             System.out.printf("[!] Successfully established connection to '%s' on port %d as user '%s'!\n", database, port, username);
         } catch (SQLException e) {
             System.out.println("[!] Error found when attempting to establish connection:\n" + e);
@@ -83,6 +111,207 @@ public class Server {
         return true;
     }
 
+    /**
+     * Establishes connection to an embedded database stored in a local file. No server is required, and the file is created if
+     * it doesn't exist. If the required tables are not present the user will be prompted to add tables.
+     * @param path Path of the database file, without an extension (ex: mowdata).
+     * @return Whether connection was established.
+     */
+    public boolean establishEmbeddedConnection(String path){
+        //PostgreSQL compatibility mode lets the embedded database understand the same queries as the server.
+        String url = "jdbc:h2:file:%s;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH"
+                .formatted(Path.of(path).toAbsolutePath());
+        try {
+            connection = DriverManager.getConnection(url, "sa", "");
+            rememberCredentials(url, "sa", "");
+            System.out.printf("[!] Successfully opened embedded database '%s'!\n", path);
+        } catch (SQLException e) {
+            System.out.println("[!] Error found when attempting to open embedded database:\n" + e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Starts opening a connection to server in the background, so the menu can be shown while the driver loads and the
+     * connection is made. The connection is waited for the first time it is needed. Errors are printed at that point.
+     * @param port tools.Server port number.
+     * @param database Database title.
+     * @param username Database username.
+     * @param password Password for user.
+     */
+    public void establishConnectionLater(int port, String database, String username, String password){
+        String url = "jdbc:postgresql://localhost:%d/%s".formatted(port, database);
+        connectLater(url, username, password,
+                "[!] Successfully established connection to '%s' on port %d as user '%s'!".formatted(database, port, username));
+    }
+
+    /**
+     * Starts opening an embedded database in the background, so the menu can be shown while the driver loads and the file is
+     * opened. The connection is waited for the first time it is needed. Errors are printed at that point.
+     * @param path Path of the database file, without an extension (ex: mowdata).
+     */
+    public void establishEmbeddedConnectionLater(String path){
+        String url = "jdbc:h2:file:%s;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH"
+                .formatted(Path.of(path).toAbsolutePath());
+        connectLater(url, "sa", "", "[!] Successfully opened embedded database '%s'!".formatted(path));
+    }
+
+    private void connectLater(String url, String username, String password, String message){
+        rememberCredentials(url, username, password);
+        this.pendingMessage = message;
+        //Nothing is printed from the background, so the output doesn't land in the middle of a menu.
+        this.pendingConnection = CompletableFuture.supplyAsync(() -> {
+            try {
+                return DriverManager.getConnection(url, username, password);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, task -> {
+            Thread thread = new Thread(task, "mowdata-connect");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Waits for a connection started by establishConnectionLater() or establishEmbeddedConnectionLater(), if any.
+     * @return Whether the connection was established.
+     */
+    private boolean awaitConnection(){
+        if (pendingConnection == null) return true;
+        CompletableFuture<Connection> pending = pendingConnection;
+        pendingConnection = null;
+        try {
+            connection = pending.join();
+            System.out.println(pendingMessage);
+            return true;
+        } catch (CompletionException e) {
+            System.out.println("[!] Error found when attempting to establish connection:\n" + e.getCause());
+            rememberCredentials(null, null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Loads the database drivers in the background, so they are ready by the time the user has typed in where to connect.
+     */
+    public static void preloadDrivers(){
+        Thread thread = new Thread(DriverManager::getDrivers, "mowdata-driver-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void rememberCredentials(String url, String username, String password){
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Opens an additional connection to the primary server, using the same values as the established connection. Used by
+     * components which need a connection of their own. The caller is responsible for closing the connection.
+     * @return New connection, or null if the connection could not be opened.
+     */
+    public Connection openConnection(){
+        return openConnection(url);
+    }
+
+    private Connection openConnection(String url){
+        if (url == null) {
+            System.out.println("[!] Connection is non-existent.");
+            return null;
+        }
+        try {
+            return DriverManager.getConnection(url, username, password);
+        } catch (SQLException e) {
+            System.out.println("[!] Error found when attempting to open an additional connection:\n" + e);
+            return null;
+        }
+    }
+
+    /**
+     * Establishes connections to the databases of a sharded store, one database per shard, all on the same locally hosted
+     * server. The first database becomes the established connection. Databases must be given in the same order every time,
+     * since the order decides which shard holds each state.
+     * @param port tools.Server port number.
+     * @param databases Database title of each shard.
+     * @param username Database username.
+     * @param password Password for user.
+     * @return Whether every shard connection was established.
+     */
+    public boolean establishShardConnections(int port, String[] databases, String username, String password){
+        String[] urls = new String[databases.length];
+        for (int i = 0; i < databases.length; i++){
+            urls[i] = "jdbc:postgresql://localhost:%d/%s".formatted(port, databases[i]);
+        }
+        return establishShardConnections(urls, username, password);
+    }
+
+    /**
+     * Establishes connections to the embedded databases of a sharded store, one file per shard. No server is required, and the
+     * files are created if they don't exist. Paths must be given in the same order every time, since the order decides which
+     * shard holds each state.
+     * @param paths Path of each shard's database file, without an extension (ex: mowdata-east).
+     * @return Whether every shard connection was established.
+     */
+    public boolean establishEmbeddedShardConnections(String[] paths){
+        String[] urls = new String[paths.length];
+        for (int i = 0; i < paths.length; i++){
+            urls[i] = "jdbc:h2:file:%s;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH"
+                    .formatted(Path.of(paths[i]).toAbsolutePath());
+        }
+        return establishShardConnections(urls, "sa", "");
+    }
+
+    private boolean establishShardConnections(String[] urls, String username, String password){
+        for (int i = 0; i < urls.length; i++){
+            try {
+                Connection shard = DriverManager.getConnection(urls[i], username, password);
+                if (i == 0) {
+                    connection = shard;
+                    rememberCredentials(urls[i], username, password);
+                } else {
+                    shards.add(shard);
+                    shardUrls.add(urls[i]);
+                }
+            } catch (SQLException e) {
+                System.out.printf("[!] Error found when attempting to establish connection to shard %d:\n%s\n", i, e);
+                return false;
+            }
+        }
+        System.out.printf("[!] Successfully established connections to %d shards!\n", urls.length);
+        return true;
+    }
+
+    /**
+     * Establishes connections to read-only replicas of the primary server. Reads will be spread across the replicas, while writes
+     * remain on the primary. Must be called before establishDatabase. Replicas which can't be reached are skipped.
+     * @param ports Replica port numbers.
+     * @param database Database title.
+     * @param username Database username.
+     * @param password Password for user.
+     * @return Whether every replica connection was established.
+     */
+    public boolean establishReplicaConnections(int[] ports, String database, String username, String password){
+        boolean result = true;
+        for (int port : ports){
+            String url = "jdbc:postgresql://localhost:%d/%s".formatted(port, database);
+            try {
+                Connection replica = DriverManager.getConnection(url, username, password);
+                //Guard against writes reaching a replica by mistake.
+                replica.setReadOnly(true);
+                replicas.add(replica);
+                replicaNames.add("localhost:" + port);
+                System.out.printf("[!] Successfully established replica connection to '%s' on port %d!\n", database, port);
+            } catch (SQLException e) {
+                System.out.printf("[!] Error found when attempting to establish replica connection on port %d, skipping replica:\n%s\n", port, e);
+                result = false;
+            }
+        }
+        return result;
+    }
+
     /**
      * Handles the creation of a tools.MowDataDB instance.
      * @return tools.MowDataDB instance.
@@ -90,7 +319,81 @@ public class Server {
     public MowDataDB establishDatabase(){
         //Verify connection before creating tools.MowDataDB instance.
         if (!verifyConnection()) return null;
-        return new MowDataDB(connection, input);
+        router = new ReplicaRouter(connection);
+        for (int i = 0; i < replicas.size(); i++){
+            router.addReplica(replicas.get(i), replicaNames.get(i));
+        }
+        MowDataDB database = new MowDataDB(router, input);
+        attach(database, connection, url);
+        return database;
+    }
+
+    /**
+     * Handles the creation of a tools.ShardedStore, with a tools.MowDataDB instance for each shard. Shards which don't have the
+     * required tables yet will each prompt the user to add them. Sample data should only be added to a store with one shard,
+     * since its ids don't follow the sharded id scheme.
+     * @return tools.ShardedStore instance, or null if the shards could not be set up.
+     */
+    public ShardedStore establishShardedDatabase(){
+        if (!verifyConnection()) return null;
+        router = new ReplicaRouter(connection);
+        List<MowDataDB> databases = new ArrayList<>();
+        databases.add(new MowDataDB(router, input));
+        attach(databases.get(0), connection, url);
+        for (int i = 0; i < shards.size(); i++){
+            System.out.printf("[!] Opening shard %d.\n", i + 1);
+            MowDataDB database = new MowDataDB(shards.get(i), input);
+            attach(database, shards.get(i), shardUrls.get(i));
+            databases.add(database);
+        }
+        shardedStore = new ShardedStore(databases);
+        if (!shardedStore.configure()) return null;
+        return shardedStore;
+    }
+
+    /**
+     * Starts the audit log and change listener of a database.
+     * @param database Database to attach them to.
+     * @param connection Primary connection of the database.
+     * @param url Url of the database, used to open their dedicated connections.
+     */
+    private void attach(MowDataDB database, Connection connection, String url){
+        //Audit events are written on a dedicated connection, so writing them never holds up the primary connection.
+        AuditLog auditLog = null;
+        Connection auditConnection = openConnection(url);
+        if (auditConnection != null) {
+            auditLog = new AuditLog(auditConnection, () -> openConnection(url));
+            if (auditLog.start()) {
+                database.setAuditLog(auditLog);
+                auditLogs.add(auditLog);
+            } else {
+                auditLog.close();
+                auditLog = null;
+            }
+        }
+        if (auditLog == null) {
+            System.out.println("[!] Changes will not be recorded in the audit log.");
+        }
+
+        //Embedded databases are only used by this instance, so there are no outside changes to listen for.
+        if (!Dialect.of(connection).supportsNotify()) return;
+
+        //Listen for table changes on a dedicated connection, so data held by the database is kept current.
+        ChangeListener changeListener = null;
+        Connection listenerConnection = openConnection(url);
+        if (listenerConnection != null) {
+            changeListener = new ChangeListener(listenerConnection, () -> openConnection(url));
+            changeListener.register(database);
+            if (changeListener.start()) {
+                changeListeners.add(changeListener);
+            } else {
+                changeListener.close();
+                changeListener = null;
+            }
+        }
+        if (changeListener == null) {
+            System.out.println("[!] Changes made by other MowData instances will not be seen until restarting.");
+        }
     }
 
     /**
@@ -98,6 +401,7 @@ public class Server {
      * @return Whether standard tables are present.
      */
     public boolean verifyConnection(){
+        if (!awaitConnection()) return false;
         try {
             if (connection == null){
                 //Check if no connection was ever initialized.
@@ -121,6 +425,37 @@ public class Server {
      * Closes all tools.Server objects currently in use (Connection, Scanner).
      */
     public void closeServer(){
+        //Write the remaining audit events before any connection is closed.
+        for (AuditLog auditLog : auditLogs){
+            auditLog.close();
+        }
+        //Stop listening for table changes.
+        for (ChangeListener changeListener : changeListeners){
+            changeListener.close();
+        }
+        //Close shard connections, if any.
+        if (shardedStore != null) {
+            shardedStore.close();
+        }
+        for (Connection shard : shards){
+            try {
+                shard.close();
+            } catch (SQLException e) {
+                System.out.println("[!] An error occurred while attempting to close a shard connection:\n" + e);
+            }
+        }
+        //Close replica connections, if any.
+        if (router != null) {
+            router.closeReplicas();
+        } else {
+            for (Connection replica : replicas){
+                try {
+                    replica.close();
+                } catch (SQLException e) {
+                    System.out.println("[!] An error occurred while attempting to close a replica connection:\n" + e);
+                }
+            }
+        }
         //Close connection is exists.
         try {
             if (verifyConnection()){
@@ -0,0 +1,20 @@
+package com.github.luisjaco.tools.server;
+
+import java.time.LocalDate;
+
+/**
+ * A row of the services table along with the property's address, as returned by tools.MowDataStore.streamServices.
+ * @param id Service ID.
+ * @param propertyID ID of the property serviced.
+ * @param address Address of property.
+ * @param city City name.
+ * @param zip City zip code.
+ * @param state Abbreviation of the city's state (ex: NY).
+ * @param date Service date.
+ * @param cost Cost of service.
+ * @param servicesDone A list with boolean values for each service performed: [mow, leaf blow, seed, fertilizer, mulch,
+ *                     tree removal, tree trim, power wash, snow plow].
+ * @param notes Notes for the service, or null if there are none.
+ */
+public record ServiceVisit(int id, int propertyID, String address, String city, String zip, String state, LocalDate date,
+                           double cost, boolean[] servicesDone, String notes) {}
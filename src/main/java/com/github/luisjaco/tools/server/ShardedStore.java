@@ -0,0 +1,369 @@
+package com.github.luisjaco.tools.server;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The tools.ShardedStore class spreads MowData across several databases, called shards, split by state. Each state is held by
+ * one shard, which holds the cities of the state along with their properties and services. Clients and states are copied to
+ * every shard, so properties can reference their owner on any shard. Ids are given out in steps of the shard count, so an id
+ * is unique across the shards and (id - 1) % shards is the shard which holds it, letting writes and lookups by id go straight
+ * to one shard. Views are sent to every shard at once, and their rows are merged in the view's order.
+ */
+public class ShardedStore implements MowDataStore {
+    private final List<MowDataDB> shards;
+    private final ExecutorService executor;
+
+    /**
+     * An iterator of one shard's sorted rows, along with its next row.
+     */
+    private static class Head<T> {
+        private final Iterator<T> rows;
+        private T next;
+
+        private Head(Iterator<T> rows){
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Merges the sorted rows of every shard into one sorted sequence, taking the lowest next row of any shard each time.
+     */
+    private static class Merge<T> extends Spliterators.AbstractSpliterator<T> {
+        private final PriorityQueue<Head<T>> heads;
+
+        private Merge(List<Iterator<T>> rows, Comparator<T> order){
+            super(Long.MAX_VALUE, Spliterator.ORDERED);
+            this.heads = new PriorityQueue<>(Math.max(1, rows.size()), (a, b) -> order.compare(a.next, b.next));
+            for (Iterator<T> shardRows : rows){
+                Head<T> head = new Head<>(shardRows);
+                if (advance(head)) heads.add(head);
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action){
+            Head<T> head = heads.poll();
+            if (head == null) return false;
+            action.accept(head.next);
+            if (advance(head)) heads.add(head);
+            return true;
+        }
+
+        private boolean advance(Head<T> head){
+            if (!head.rows.hasNext()) return false;
+            head.next = head.rows.next();
+            return true;
+        }
+    }
+
+    /**
+     * Initializes a new tools.ShardedStore. Use the configure() method to set up the ids of each shard before use.
+     * @param shards Database of each shard, in order. The order must stay the same between runs, since it decides which
+     * shard holds each state and id.
+     */
+    public ShardedStore(List<MowDataDB> shards){
+        this.shards = List.copyOf(shards);
+        //Each shard's view is started on its own thread, so the shards are queried at the same time.
+        this.executor = Executors.newFixedThreadPool(shards.size(), task -> {
+            Thread thread = new Thread(task, "mowdata-shard-query");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets up the ids of every shard, so new ids are unique across the shards.
+     * @return Whether every shard was set up.
+     */
+    public boolean configure(){
+        for (int i = 0; i < shards.size(); i++){
+            if (!shards.get(i).configureShard(i, shards.size())) {
+                System.out.printf("[!] Shard %d could not be set up.\n", i);
+                return false;
+            }
+        }
+        System.out.printf("[!] Successfully set up %d shards.\n", shards.size());
+        return true;
+    }
+
+    /**
+     * Stops the threads used to query the shards. Connections are closed by the tools.Server.
+     */
+    public void close(){
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param stateID State id.
+     * @return Shard which holds the state.
+     */
+    private MowDataDB shardOfState(int stateID){
+        return shards.get(Math.floorMod(stateID - 1, shards.size()));
+    }
+
+    /**
+     * @param id ID of a city, property, or service.
+     * @return Shard which holds the row.
+     */
+    private MowDataDB shardOfID(int id){
+        return shards.get(Math.floorMod(id - 1, shards.size()));
+    }
+
+    @Override
+    public Stream<ServiceVisit> streamServices(String sortingMode, int n, boolean includeArchive){
+        Comparator<ServiceVisit> order = switch (sortingMode) {
+            case "property" -> Comparator.comparingInt(ServiceVisit::propertyID);
+            case "date" -> Comparator.comparing(ServiceVisit::date).reversed();
+            default -> null;
+        };
+        return gather(shard -> shard.streamServices(sortingMode, n, includeArchive), order, n);
+    }
+
+    @Override
+    public Stream<ServiceVisit> streamLastServices(int cityID, int serviceType, int n){
+        if (cityID != -1) return shardOfID(cityID).streamLastServices(cityID, serviceType, n);
+        return gather(shard -> shard.streamLastServices(cityID, serviceType, n),
+                Comparator.comparingInt(ServiceVisit::propertyID), n);
+    }
+
+    @Override
+    public Stream<Property> streamProperties(String sortingMode, int n){
+        Comparator<Property> order = switch (sortingMode) {
+            case "city" -> Comparator.comparingInt(Property::cityID);
+            case "client" -> Comparator.comparingInt(Property::clientID);
+            default -> null;
+        };
+        return gather(shard -> shard.streamProperties(sortingMode, n), order, n);
+    }
+
+    @Override
+    public Stream<City> streamCities(String sortingMode, int n){
+        Comparator<City> order = switch (sortingMode) {
+            case "state" -> Comparator.comparingInt(City::stateID);
+            case "name" -> Comparator.comparing(City::name);
+            default -> null;
+        };
+        return gather(shard -> shard.streamCities(sortingMode, n), order, n);
+    }
+
+    @Override
+    public Stream<Client> streamClients(String sortingMode, int n){
+        Comparator<Client> order = switch (sortingMode) {
+            case "name" -> Comparator.comparing(Client::firstName).thenComparing(Client::lastName);
+            default -> null;
+        };
+        //A client is always held by the shard it was added to, but a copy to another shard may have failed, so every shard
+        //is read and each client is kept once.
+        Set<Integer> seen = new HashSet<>();
+        Stream<Client> clients = gather(shard -> shard.streamClients(sortingMode, n), order, -1);
+        if (clients == null) return null;
+        clients = clients.filter(client -> seen.add(client.id()));
+        return (n == -1) ? clients : clients.limit(n);
+    }
+
+    /**
+     * Runs a view on every shard at once and merges the rows. Each shard returns at most n rows, so the first n merged rows
+     * are the first n rows of the whole view.
+     * @param view View to run on a shard.
+     * @param order Order of the view's rows, or null if unsorted. Each shard's rows must already be in this order.
+     * @param n Number of rows to retrieve, -1 for all rows.
+     * @return Stream of the merged rows, or null if the view failed on any shard. Must be closed to release every shard.
+     */
+    private <T> Stream<T> gather(Function<MowDataDB, Stream<T>> view, Comparator<T> order, int n){
+        List<Future<Stream<T>>> futures = new ArrayList<>();
+        for (MowDataDB shard : shards){
+            futures.add(executor.submit(() -> view.apply(shard)));
+        }
+        List<Stream<T>> streams = new ArrayList<>();
+        boolean failed = false;
+        for (Future<Stream<T>> future : futures){
+            try {
+                Stream<T> stream = future.get();
+                if (stream == null) failed = true;
+                else streams.add(stream);
+            } catch (ExecutionException e) {
+                System.out.println("[!] Error occurred while attempting to query a shard:\n" + e.getCause());
+                failed = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+            }
+        }
+        if (failed) {
+            streams.forEach(Stream::close);
+            return null;
+        }
+
+        Stream<T> merged;
+        if (order == null) {
+            merged = streams.stream().flatMap(Function.identity());
+        } else {
+            List<Iterator<T>> rows = new ArrayList<>();
+            for (Stream<T> stream : streams){
+                rows.add(stream.iterator());
+            }
+            merged = StreamSupport.stream(new Merge<>(rows, order), false);
+        }
+        merged = merged.onClose(() -> streams.forEach(Stream::close));
+        return (n == -1) ? merged : merged.limit(n);
+    }
+
+    /**
+     * Will print the overdue properties of each shard in turn. When no city is given, n applies to each shard.
+     */
+    @Override
+    public void viewOverdueProperties(int serviceType, int days, int cityID, int n){
+        if (cityID != -1) {
+            shardOfID(cityID).viewOverdueProperties(serviceType, days, cityID, n);
+            return;
+        }
+        for (MowDataDB shard : shards){
+            shard.viewOverdueProperties(serviceType, days, cityID, n);
+        }
+    }
+
+    /**
+     * Will print the properties nearest to a property. Only properties held by the same shard are searched, which are the
+     * properties in the states of that shard.
+     */
+    @Override
+    public void viewNearestProperties(int propertyID, int k, double radiusKm, int serviceType, int overdueDays){
+        shardOfID(propertyID).viewNearestProperties(propertyID, k, radiusKm, serviceType, overdueDays);
+    }
+
+    @Override
+    public void addService(int propertyID, LocalDate date, boolean[] servicesDone, double cost, String notes, boolean confirm){
+        shardOfID(propertyID).addService(propertyID, date, servicesDone, cost, notes, confirm);
+    }
+
+    /**
+     * Will suggest a price from the services of the shard holding the property. Quotes falling back to every city only use
+     * the cities of that shard.
+     */
+    @Override
+    public PriceBook.Quote quotePrice(int propertyID, boolean[] servicesDone){
+        return shardOfID(propertyID).quotePrice(propertyID, servicesDone);
+    }
+
+    @Override
+    public void addProperty(int clientID, String address, int cityID, double latitude, double longitude, boolean confirm){
+        //A property is held by the shard of its city.
+        shardOfID(cityID).addProperty(clientID, address, cityID, latitude, longitude, confirm);
+    }
+
+    @Override
+    public void addCity(String name, String zip, int stateID, boolean confirm){
+        shardOfState(stateID).addCity(name, zip, stateID, confirm);
+    }
+
+    @Override
+    public void addClient(String firstName, String lastName, String phoneNumber, String email, boolean confirm){
+        int clientID = shards.get(0).insertClient(firstName, lastName, phoneNumber, email, confirm);
+        if (clientID != -1) copyClient(clientID, firstName, lastName, phoneNumber, email, 0);
+    }
+
+    /**
+     * Will onboard a new client on the shard holding their properties. Properties in states held by different shards can't be
+     * onboarded together, since a single transaction can't span shards.
+     */
+    @Override
+    public int onboardClient(String firstName, String lastName, String phoneNumber, String email,
+                             List<OnboardingProperty> properties, boolean confirm){
+        int shard = 0;
+        for (int i = 0; i < properties.size(); i++){
+            int propertyShard = Math.floorMod(properties.get(i).cityID() - 1, shards.size());
+            if (i > 0 && propertyShard != shard) {
+                System.out.println("[!] These properties are in states held by different shards, so they can't be onboarded together.");
+                System.out.println("[!] Onboard the client with the properties of one state, then add the remaining properties.");
+                return -1;
+            }
+            shard = propertyShard;
+        }
+        int clientID = shards.get(shard).onboardClient(firstName, lastName, phoneNumber, email, properties, confirm);
+        if (clientID != -1) copyClient(clientID, firstName, lastName, phoneNumber, email, shard);
+        return clientID;
+    }
+
+    /**
+     * Copies a new client to every shard other than the one it was added to, keeping its id.
+     * @param from Index of the shard the client was added to.
+     */
+    private void copyClient(int clientID, String firstName, String lastName, String phoneNumber, String email, int from){
+        String sql = """
+                INSERT INTO clients (id, first_name, last_name, phone, email)
+                VALUES
+                	(%d,
+                	'%s',
+                	'%s',
+                	'%s',
+                	'%s');""".formatted(clientID, firstName.toLowerCase(), lastName.toLowerCase(), phoneNumber, email.toLowerCase());
+        for (int i = 0; i < shards.size(); i++){
+            if (i == from) continue;
+            MowDataDB shard = shards.get(i);
+            if (shard.performUpdateCount(sql, "copy client to shard %d".formatted(i)) < 1) {
+                System.out.printf("[!] [CLIENT ID#%d] could not be copied to shard %d. Properties can't be added for the client in its states.\n",
+                        clientID, i);
+                continue;
+            }
+            shard.tablesChanged(Set.of("clients"));
+        }
+    }
+
+    @Override
+    public boolean verifyClient(int id){
+        //The shard a client was added to always holds it, even when a copy to another shard failed.
+        return shardOfID(id).verifyClient(id);
+    }
+
+    @Override
+    public boolean verifyCity(int id){
+        return shardOfID(id).verifyCity(id);
+    }
+
+    @Override
+    public boolean verifyProperty(int id){
+        return shardOfID(id).verifyProperty(id);
+    }
+
+    @Override
+    public boolean verifyState(String abbreviation){
+        return shards.get(0).verifyState(abbreviation);
+    }
+
+    @Override
+    public int getStateID(String abbreviation){
+        return shards.get(0).getStateID(abbreviation);
+    }
+
+    @Override
+    public int getCityID(String name, String zip){
+        for (MowDataDB shard : shards){
+            int cityID = shard.getCityID(name, zip);
+            if (cityID != -1) return cityID;
+        }
+        return -1;
+    }
+
+    @Override
+    public List<ZipCodes.ZipCode> lookupZipCodes(String prefix, int limit){
+        //Every shard loads the same zip code reference.
+        return shards.get(0).lookupZipCodes(prefix, limit);
+    }
+}
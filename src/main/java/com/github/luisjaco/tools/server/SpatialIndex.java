@@ -0,0 +1,182 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * The tools.SpatialIndex class is an in-memory grid over the latitude and longitude of properties. Properties are bucketed
+ * into cells of CELL_DEGREES, so k-nearest and radius queries only look at the cells around the origin instead of every
+ * property. Properties are added one at a time, so the index is kept up to date as properties are added.
+ * Longitudes are not wrapped around the antimeridian, since a service area never spans it.
+ */
+public class SpatialIndex {
+    //0.01 degrees of latitude is about 1.1 km, so a cell holds a few streets.
+    private static final double CELL_DEGREES = 0.01;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    /**
+     * A property found by a query, and its distance from the origin.
+     */
+    public record Neighbor(int propertyID, double distanceKm) {}
+
+    private final HashMap<Long, IntList> cells = new HashMap<>();
+    //Coordinates by property id, NaN when the property is not indexed.
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private int size;
+    private int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+    private int minColumn = Integer.MAX_VALUE, maxColumn = Integer.MIN_VALUE;
+
+    /**
+     * Adds a property to the index. A property which is already indexed is not moved.
+     * @param propertyID Property ID.
+     * @param latitude Latitude in degrees, between -90 and 90.
+     * @param longitude Longitude in degrees, between -180 and 180.
+     */
+    public synchronized void add(int propertyID, double latitude, double longitude){
+        if (propertyID >= latitudes.length) {
+            int capacity = Math.max(propertyID + 1, latitudes.length * 2);
+            int old = latitudes.length;
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            Arrays.fill(latitudes, old, capacity, Double.NaN);
+            Arrays.fill(longitudes, old, capacity, Double.NaN);
+        }
+        if (!Double.isNaN(latitudes[propertyID])) return;
+
+        latitudes[propertyID] = latitude;
+        longitudes[propertyID] = longitude;
+        int row = row(latitude), column = column(longitude);
+        cells.computeIfAbsent(key(row, column), k -> new IntList()).add(propertyID);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+        minColumn = Math.min(minColumn, column);
+        maxColumn = Math.max(maxColumn, column);
+        size++;
+    }
+
+    /**
+     * Removes a property from the index, such as a property which was merged into another.
+     * @param propertyID Property ID.
+     */
+    public synchronized void remove(int propertyID){
+        double[] location = location(propertyID);
+        if (location == null) return;
+        IntList cell = cells.get(key(row(location[0]), column(location[1])));
+        if (cell != null) cell.remove(propertyID);
+        latitudes[propertyID] = Double.NaN;
+        longitudes[propertyID] = Double.NaN;
+        size--;
+    }
+
+    /**
+     * @param propertyID Property ID.
+     * @return {latitude, longitude} of the property, or null if the property is not indexed.
+     */
+    public synchronized double[] location(int propertyID){
+        if (propertyID < 0 || propertyID >= latitudes.length || Double.isNaN(latitudes[propertyID])) return null;
+        return new double[] {latitudes[propertyID], longitudes[propertyID]};
+    }
+
+    /**
+     * @return Number of properties in the index.
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Finds the properties closest to a point. Rings of cells are searched outwards from the origin, and the search stops
+     * once no cell in the next ring can be closer than the k-th property found.
+     * @param latitude Latitude of the origin.
+     * @param longitude Longitude of the origin.
+     * @param k Maximum number of properties to return, -1 for no limit.
+     * @param radiusKm Only properties within this distance are returned, or 0 for no limit.
+     * @param filter Only properties which pass the filter are returned.
+     * @return Properties found, closest first.
+     */
+    public synchronized List<Neighbor> nearest(double latitude, double longitude, int k, double radiusKm,
+                                               IntPredicate filter){
+        int limit = (k == -1) ? Integer.MAX_VALUE : k;
+        double radius = (radiusKm <= 0) ? Double.POSITIVE_INFINITY : radiusKm;
+        PriorityQueue<Neighbor> found =
+                new PriorityQueue<>(Comparator.comparingDouble(Neighbor::distanceKm).reversed());
+        if (size == 0 || limit == 0) return new ArrayList<>();
+
+        int originRow = row(latitude), originColumn = column(longitude);
+        int lastRing = Math.max(Math.max(originRow - minRow, maxRow - originRow),
+                Math.max(originColumn - minColumn, maxColumn - originColumn));
+        for (int ring = 0; ring <= lastRing; ring++){
+            //A point in ring r is at least r - 1 whole cells away, since the origin can be anywhere in its cell.
+            double ringKm = ringDistance(ring, latitude);
+            if (ringKm > radius) break;
+            if (found.size() == limit && found.peek().distanceKm() <= ringKm) break;
+
+            for (int row = originRow - ring; row <= originRow + ring; row++){
+                boolean edge = (row == originRow - ring || row == originRow + ring);
+                int step = (edge || ring == 0) ? 1 : 2 * ring;
+                for (int column = originColumn - ring; column <= originColumn + ring; column += step){
+                    IntList cell = cells.get(key(row, column));
+                    if (cell == null) continue;
+                    for (int i = 0; i < cell.size; i++){
+                        int propertyID = cell.get(i);
+                        if (!filter.test(propertyID)) continue;
+                        double distance = distanceKm(latitude, longitude, latitudes[propertyID], longitudes[propertyID]);
+                        if (distance > radius) continue;
+                        if (found.size() < limit) {
+                            found.add(new Neighbor(propertyID, distance));
+                        } else if (distance < found.peek().distanceKm()) {
+                            found.poll();
+                            found.add(new Neighbor(propertyID, distance));
+                        }
+                    }
+                }
+            }
+        }
+
+        ArrayList<Neighbor> result = new ArrayList<>(found);
+        result.sort(Comparator.comparingDouble(Neighbor::distanceKm));
+        return result;
+    }
+
+    /**
+     * Great-circle distance between two points, using the haversine formula.
+     * @return Distance in kilometers.
+     */
+    public static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2){
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.pow(Math.sin(dLatitude / 2), 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.pow(Math.sin(dLongitude / 2), 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * Lower bound on the distance from the origin to any point in a ring of cells. Cells are narrowest in longitude, so the
+     * width at the latitude furthest from the equator the ring reaches is used.
+     */
+    private static double ringDistance(int ring, double latitude){
+        if (ring <= 1) return 0;
+        double furthest = Math.min(89.9, Math.abs(latitude) + ring * CELL_DEGREES);
+        return (ring - 1) * CELL_DEGREES * KM_PER_DEGREE * Math.cos(Math.toRadians(furthest));
+    }
+
+    private static int row(double latitude){
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static int column(double longitude){
+        return (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    private static long key(int row, int column){
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tools.StartupBenchmark class measures how long MowData takes to start. The runnable jar is launched a number of times,
+ * with class-data sharing off, with the JDK's default archive, and with the AppCDS archive built by the training run. Each
+ * launch opens an embedded database and views every client, answering each prompt as soon as it appears. The median time
+ * to the first menu, the main menu, the first view, and the exit are reported for each launch mode.
+ */
+public class StartupBenchmark {
+    //Launches which aren't measured, so the files read by the JVM are cached before measuring.
+    private static final int WARMUP_RUNS = 2;
+    private static final long RUN_TIMEOUT_SECONDS = 60;
+    private static final String[] TIMES = {"first menu", "main menu", "first view", "exit"};
+
+    private final String java;
+    private final Path jar;
+    private final Path database;
+
+    /**
+     * A prompt to wait for, and the line to type once it appears.
+     * @param time Index in TIMES to record when the prompt appears, or -1.
+     */
+    private record Step(String prompt, String reply, int time) {}
+
+    /**
+     * Initializes a new tools.StartupBenchmark.
+     * @param jar Runnable jar of MowData.
+     * @param database Embedded database to open in each launch, without an extension. Must already hold the MowData tables.
+     */
+    public StartupBenchmark(Path jar, Path database){
+        this.java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        this.jar = jar;
+        this.database = database;
+    }
+
+    /**
+     * Launches MowData a number of times with the given JVM options and prints the median of each time.
+     * @param name Name of the launch mode, printed with its times.
+     * @param options JVM options of the launch mode.
+     * @param runs Number of measured launches.
+     * @return Whether every launch finished.
+     */
+    public boolean measure(String name, List<String> options, int runs){
+        long[][] times = new long[TIMES.length][runs];
+        for (int run = -WARMUP_RUNS; run < runs; run++){
+            long[] launch = launch(options);
+            if (launch == null) {
+                System.out.printf("[!] %s: MowData did not finish within %d seconds.\n", name, RUN_TIMEOUT_SECONDS);
+                return false;
+            }
+            if (run < 0) continue;
+            for (int i = 0; i < TIMES.length; i++){
+                times[i][run] = launch[i];
+            }
+        }
+        StringBuilder line = new StringBuilder("[!] %-16s".formatted(name + ":"));
+        for (int i = 0; i < TIMES.length; i++){
+            Arrays.sort(times[i]);
+            line.append(i == 0 ? " " : " | ").append("%s %d ms".formatted(TIMES[i], times[i][runs / 2] / 1_000_000));
+        }
+        System.out.println(line);
+        return true;
+    }
+
+    /**
+     * Launches MowData once, answering its prompts.
+     * @return Nanoseconds from launch until each of TIMES, or null if MowData didn't finish in time.
+     */
+    private long[] launch(List<String> options){
+        List<Step> steps = List.of(
+                new Step("input:", "2", 0),
+                new Step("'mowdata':", database.toString(), -1),
+                new Step("input:", "2", 1),
+                new Step("input:", "1", -1),
+                new Step("input:", "2", -1),
+                new Step("(-1 for all):", "-1", -1),
+                new Step("input:", "0", 2));
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(options);
+        command.add("-jar");
+        command.add(jar.toString());
+
+        long[] times = new long[TIMES.length];
+        Process process = null;
+        long start = System.nanoTime();
+        try {
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            OutputStream in = process.getOutputStream();
+            InputStream out = new BufferedInputStream(process.getInputStream());
+            //Only the end of the output is kept, which is enough to spot the next prompt.
+            StringBuilder tail = new StringBuilder();
+            int step = 0;
+            int b;
+            while (step < steps.size() && (b = out.read()) != -1){
+                tail.append((char) b);
+                if (tail.length() > 200) tail.delete(0, 100);
+                Step next = steps.get(step);
+                if (!tail.toString().endsWith(next.prompt())) continue;
+                if (next.time() != -1) times[next.time()] = System.nanoTime() - start;
+                in.write((next.reply() + "\n").getBytes(StandardCharsets.UTF_8));
+                in.flush();
+                tail.setLength(0);
+                step++;
+            }
+            out.transferTo(OutputStream.nullOutputStream());
+            if (!process.waitFor(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS) || step < steps.size()) return null;
+            times[3] = System.nanoTime() - start;
+            return times;
+        } catch (IOException e) {
+            System.out.println("[!] Error occurred while attempting to launch MowData:\n" + e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            if (process != null) process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Measures the startup of MowData without class-data sharing, with the JDK's default archive, and with the AppCDS archive
+     * when it exists. The benchmark database is created by a training run first.
+     * @param args path of the runnable jar, and optionally the AppCDS archive (default mowdata.jsa next to the jar), the
+     *             number of measured launches (default 10), and the folder to keep the benchmark database in (default
+     *             startup-benchmark next to the jar).
+     */
+    public static void main(String[] args){
+        if (args.length < 1) {
+            System.out.println("[!] Usage: StartupBenchmark jar [archive] [runs] [folder]");
+            System.exit(2);
+        }
+        Path jar = Path.of(args[0]).toAbsolutePath();
+        Path archive = (args.length > 1) ? Path.of(args[1]).toAbsolutePath() : jar.resolveSibling("mowdata.jsa");
+        int runs = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+        Path folder = (args.length > 3) ? Path.of(args[3]).toAbsolutePath() : jar.resolveSibling("startup-benchmark");
+
+        //The training run leaves an embedded database with the tables and sample data.
+        StartupBenchmark benchmark = new StartupBenchmark(jar, folder.resolve("training"));
+        try {
+            Process training = new ProcessBuilder(benchmark.java, "-jar", jar.toString(), "--train", folder.toString())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).redirectErrorStream(true).start();
+            if (training.waitFor() != 0) {
+                System.out.println("[!] The benchmark database could not be created.");
+                System.exit(1);
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("[!] Error occurred while attempting to create the benchmark database:\n" + e);
+            System.exit(1);
+        }
+
+        System.out.printf("[!] Measuring startup of %s, median of %d launches on Java %s:\n", jar.getFileName(), runs,
+                System.getProperty("java.version"));
+        boolean finished = benchmark.measure("No CDS", List.of("-Xshare:off"), runs)
+                && benchmark.measure("Default CDS", List.of(), runs);
+        if (Files.exists(archive)) {
+            finished &= benchmark.measure("AppCDS", List.of("-XX:SharedArchiveFile=" + archive), runs);
+        } else {
+            System.out.printf("[!] No AppCDS archive found at '%s'. Build it with mvn package.\n", archive);
+        }
+        System.exit(finished ? 0 : 1);
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.luisjaco.tools.server;
+
+import java.util.Set;
+
+/**
+ * A tools.TableChangeListener is notified whenever MowData tables are changed, including changes made by other MowData instances
+ * using the same database. Used to invalidate anything which holds on to table data.
+ */
+public interface TableChangeListener {
+    /**
+     * Called with the names of the tables which were changed. Changes which arrive close together are combined into one call.
+     * Called from the tools.ChangeListener thread, so implementations must be thread-safe.
+     * @param tables Names of changed tables (ex: "clients", "cities", "properties", "services").
+     */
+    void tablesChanged(Set<String> tables);
+}
@@ -0,0 +1,233 @@
+package com.github.luisjaco.tools.server;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tools.TableHealth class keeps track of the health of the MowData tables. It reads dead rows, modifications since the last
+ * ANALYZE, sequential versus index scans, and table and index sizes from pg_stat_user_tables and pg_class. Bulk jobs report the
+ * rows they write with recordBulkWrite(), and once enough rows of a table changed its planner statistics are refreshed right
+ * away, instead of leaving views to pick bad plans until autovacuum catches up. Tables which had rows deleted are also vacuumed.
+ */
+public class TableHealth {
+    //Tables which are tracked.
+    public static final String[] TABLES = {"clients", "cities", "states", "properties", "services", "services_archive",
+            "zip_codes", "audit_log"};
+    //Tables which every MowData database has, maintained when table statistics aren't available.
+    public static final String[] MAIN_TABLES = {"clients", "cities", "states", "properties", "services"};
+    //Rows which must change before statistics are refreshed, however small the table.
+    private static final long ANALYZE_MIN_ROWS = 1000;
+    //Fraction of a table which must change before statistics are refreshed. Matches the autovacuum default.
+    private static final double ANALYZE_FRACTION = 0.1;
+    //Fraction of dead rows at which a table is reported as needing a vacuum.
+    private static final double DEAD_FRACTION = 0.2;
+    //Fraction of sequential scans at which a table is reported as likely missing an index.
+    private static final double SEQUENTIAL_FRACTION = 0.5;
+    //Tables smaller than this are cheap to scan, so their sequential scans aren't reported.
+    private static final long SEQUENTIAL_MIN_ROWS = 10_000;
+
+    /**
+     * The health of a table, as last counted by the database.
+     * @param modifiedSinceAnalyze Rows inserted, updated, or deleted since statistics were last refreshed.
+     * @param lastAnalyze When statistics were last refreshed, by hand or by autovacuum, or null if never.
+     * @param lastVacuum When the table was last vacuumed, by hand or by autovacuum, or null if never.
+     */
+    public record Stats(String table, long liveRows, long deadRows, long modifiedSinceAnalyze, long sequentialScans,
+                        long indexScans, long tableBytes, long indexBytes, Timestamp lastAnalyze, Timestamp lastVacuum) {
+        /**
+         * @return Whether dead rows make up a large part of the table.
+         */
+        public boolean needsVacuum(){
+            long rows = liveRows + deadRows;
+            return deadRows >= ANALYZE_MIN_ROWS && deadRows > rows * DEAD_FRACTION;
+        }
+
+        /**
+         * @return Whether enough rows changed that the planner statistics are stale.
+         */
+        public boolean needsAnalyze(){
+            return modifiedSinceAnalyze >= Math.max(ANALYZE_MIN_ROWS, liveRows * ANALYZE_FRACTION);
+        }
+
+        /**
+         * @return Whether a large table is mostly read by sequential scans.
+         */
+        public boolean mostlySequential(){
+            long scans = sequentialScans + indexScans;
+            return liveRows >= SEQUENTIAL_MIN_ROWS && scans > 0 && sequentialScans > scans * SEQUENTIAL_FRACTION;
+        }
+    }
+
+    private final Connection connection;
+    private final Dialect dialect;
+    //Rows written by bulk jobs since each table's statistics were last refreshed.
+    private final Map<String, Long> pendingRows;
+    //Tables which had rows deleted since they were last vacuumed.
+    private final Set<String> pendingDeletes;
+
+    /**
+     * Initializes a new tools.TableHealth.
+     * @param connection Connection to the primary database. Statistics are read from the primary, since a replica doesn't
+     * track dead rows or the writes made to the primary.
+     */
+    public TableHealth(Connection connection){
+        this.connection = connection;
+        this.dialect = Dialect.of(connection);
+        this.pendingRows = new HashMap<>();
+        this.pendingDeletes = new HashSet<>();
+    }
+
+    /**
+     * Records rows written to a table by a bulk job. Once the rows written pass ANALYZE_MIN_ROWS and ANALYZE_FRACTION of the
+     * table, the table is analyzed, or vacuumed if rows were deleted. Must be called once the rows are committed.
+     * @param table Table written to.
+     * @param rows Rows inserted, updated, or deleted.
+     * @param deleted Whether rows were deleted.
+     */
+    public synchronized void recordBulkWrite(String table, long rows, boolean deleted){
+        if (rows <= 0) return;
+        long pending = pendingRows.merge(table, rows, Long::sum);
+        if (deleted) pendingDeletes.add(table);
+        if (pending < ANALYZE_MIN_ROWS) return;
+        //The estimate is from the last analyze, so it doesn't include the rows written since.
+        if (pending < estimateRows(table) * ANALYZE_FRACTION) return;
+
+        System.out.printf("[!] %d rows of %s changed. Refreshing planner statistics.\n", pending, table);
+        maintain(Set.of(table), pendingDeletes.contains(table));
+    }
+
+    /**
+     * Refreshes the planner statistics of tables, and vacuums them if asked to and the database supports it.
+     * @param tables Tables to maintain.
+     * @param vacuum Whether dead rows should be reclaimed as well.
+     * @return Whether every table was maintained.
+     */
+    public synchronized boolean maintain(Collection<String> tables, boolean vacuum){
+        boolean maintained = true;
+        for (String table : tables){
+            String vacuumSql = vacuum ? dialect.vacuumSql(table) : null;
+            String sql = (vacuumSql == null) ? dialect.analyzeSql(table) : vacuumSql;
+            long start = System.nanoTime();
+            try (Statement st = connection.createStatement()) {
+                st.setQueryTimeout(QueryClass.BULK.timeoutSeconds());
+                st.executeUpdate(sql);
+            } catch (SQLException e) {
+                System.out.printf("[!] Error occurred while attempting to maintain the %s table:\n%s\n", table, e);
+                maintained = false;
+                continue;
+            }
+            pendingRows.remove(table);
+            if (vacuum) pendingDeletes.remove(table);
+            System.out.printf("[!] %s %s in %d ms.\n", (vacuumSql == null) ? "Analyzed" : "Vacuumed", table,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+        return maintained;
+    }
+
+    /**
+     * Reads the health of each tracked table which exists.
+     * @return Health of the tables, or null if an error occurred or the database doesn't track table statistics.
+     */
+    public List<Stats> read(){
+        if (!dialect.supportsTableStatistics()) {
+            System.out.printf("[!] Table statistics are not tracked by %s.\n", dialect.name());
+            return null;
+        }
+        String sql = """
+                SELECT s.relname, s.n_live_tup, s.n_dead_tup, s.n_mod_since_analyze, s.seq_scan, COALESCE(s.idx_scan, 0),
+                	pg_table_size(c.oid), pg_indexes_size(c.oid),
+                	GREATEST(s.last_analyze, s.last_autoanalyze), GREATEST(s.last_vacuum, s.last_autovacuum)
+                FROM pg_stat_user_tables s
+                JOIN pg_class c ON c.oid = s.relid
+                WHERE s.schemaname = 'public' AND s.relname IN (%s)
+                ORDER BY pg_table_size(c.oid) DESC;""".formatted(tableList());
+        List<Stats> stats = new ArrayList<>();
+        try (Statement st = connection.createStatement()) {
+            st.setQueryTimeout(QueryClass.INTERACTIVE.timeoutSeconds());
+            ResultSet rs = st.executeQuery(sql);
+            while (rs.next()){
+                stats.add(new Stats(rs.getString(1), rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getLong(5),
+                        rs.getLong(6), rs.getLong(7), rs.getLong(8), rs.getTimestamp(9), rs.getTimestamp(10)));
+            }
+            rs.close();
+        } catch (SQLException e) {
+            System.out.println("[!] Error occurred while attempting to read table health:\n" + e);
+            return null;
+        }
+        return stats;
+    }
+
+    /**
+     * Prints the health of each tracked table, along with any problems found.
+     * @param stats Health of the tables, from read().
+     */
+    public static void printSummary(List<Stats> stats){
+        System.out.println("[!] Now displaying table health:");
+        for (Stats table : stats){
+            long rows = table.liveRows() + table.deadRows();
+            long scans = table.sequentialScans() + table.indexScans();
+            System.out.printf("""
+
+                    [TABLE %s]
+                    ROWS: %d | DEAD ROWS: %d (%.1f%%) | CHANGED SINCE ANALYZE: %d
+                    SCANS: %d SEQUENTIAL, %d INDEX (%.1f%% SEQUENTIAL)
+                    SIZE: %.1f MB TABLE, %.1f MB INDEXES
+                    LAST ANALYZE: %s | LAST VACUUM: %s
+                    """,
+                    table.table(),
+                    table.liveRows(),
+                    table.deadRows(),
+                    rows == 0 ? 0.0 : (table.deadRows() * 100.0) / rows,
+                    table.modifiedSinceAnalyze(),
+                    table.sequentialScans(),
+                    table.indexScans(),
+                    scans == 0 ? 0.0 : (table.sequentialScans() * 100.0) / scans,
+                    table.tableBytes() / (1024.0 * 1024.0),
+                    table.indexBytes() / (1024.0 * 1024.0),
+                    table.lastAnalyze() == null ? "NEVER" : table.lastAnalyze().toLocalDateTime().withNano(0),
+                    table.lastVacuum() == null ? "NEVER" : table.lastVacuum().toLocalDateTime().withNano(0));
+            if (table.needsVacuum()) System.out.println("[!] Many dead rows. The table needs a vacuum.");
+            if (table.needsAnalyze()) System.out.println("[!] Planner statistics are stale. The table needs an analyze.");
+            if (table.mostlySequential()) System.out.println("[!] Mostly read by sequential scans. An index may be missing.");
+        }
+    }
+
+    /**
+     * Estimates the rows of a table from the planner statistics, without counting them.
+     * @param table Table to estimate.
+     * @return Estimated rows, or 0 if unknown.
+     */
+    private long estimateRows(String table){
+        if (!dialect.supportsTableStatistics()) return 0;
+        String sql = """
+                SELECT reltuples::bigint
+                FROM pg_class
+                WHERE relname = '%s' AND relnamespace = 'public'::regnamespace;""".formatted(table);
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            //reltuples is -1 when a table was never analyzed.
+            return rs.next() ? Math.max(0, rs.getLong(1)) : 0;
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+
+    private static String tableList(){
+        StringBuilder list = new StringBuilder();
+        for (String table : TABLES){
+            if (!list.isEmpty()) list.append(", ");
+            list.append('\'').append(table).append('\'');
+        }
+        return list.toString();
+    }
+}
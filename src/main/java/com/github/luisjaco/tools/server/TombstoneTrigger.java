@@ -0,0 +1,54 @@
+package com.github.luisjaco.tools.server;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The tools.TombstoneTrigger class is the H2 trigger which records the id of every row deleted from a MowData table in the
+ * deleted_rows table, so tools.DeltaExporter can tell consumers which rows are gone. Services moved to the services_archive
+ * table still exist, so they aren't recorded. Installed by tools.H2Dialect, and run by H2 itself. PostgreSQL uses a trigger
+ * function instead.
+ */
+public class TombstoneTrigger implements Trigger {
+    private String table;
+    //Whether the services_archive table was found. The archive is created on first use, and is never dropped.
+    private boolean archiveFound;
+
+    @Override
+    public void init(Connection connection, String schemaName, String triggerName, String tableName, boolean before, int type){
+        this.table = tableName.toLowerCase();
+    }
+
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+        //The id is the first column of every MowData table.
+        int id = ((Number) oldRow[0]).intValue();
+        try (Statement st = connection.createStatement()) {
+            //Archived services are copied into the archive before they are deleted, in the same transaction.
+            if (table.equals("services") && isArchived(st, id)) return;
+            st.executeUpdate("INSERT INTO deleted_rows (table_name, row_id) VALUES ('%s', %d);".formatted(table, id));
+        }
+    }
+
+    /**
+     * @param st Statement on the connection of the delete.
+     * @param id Id of the deleted service.
+     * @return Whether the service is in the services_archive table.
+     */
+    private boolean isArchived(Statement st, int id) throws SQLException {
+        if (!archiveFound) {
+            try (ResultSet rs = st.executeQuery("SELECT " + new H2Dialect().tableExistsSql("services_archive") + ";")) {
+                rs.next();
+                archiveFound = rs.getBoolean(1);
+            }
+            if (!archiveFound) return false;
+        }
+        try (ResultSet rs = st.executeQuery("SELECT 1 FROM services_archive WHERE id = %d;".formatted(id))) {
+            return rs.next();
+        }
+    }
+}
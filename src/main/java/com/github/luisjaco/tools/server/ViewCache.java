@@ -0,0 +1,186 @@
+package com.github.luisjaco.tools.server;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The tools.ViewCache class holds snapshots of view query results so repeated views don't need to query the database. Entries
+ * are kept within a memory budget, evicting the least recently used entries first, and are invalidated whenever a table they
+ * were read from changes. All methods are synchronized, since invalidations can arrive from the tools.ChangeListener thread.
+ * Each table also counts its changes, so rows read while one of their tables changed are never cached.
+ */
+public class ViewCache implements TableChangeListener {
+    private final long budgetBytes;
+    //Entries in access order, so the first entry is always the least recently used.
+    private final LinkedHashMap<String, Entry> entries;
+    //Changes seen per table name. Tables not present haven't changed.
+    private final HashMap<String, Long> generations = new HashMap<>();
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * A snapshot of a view's rows, along with the tables the rows were read from.
+     */
+    private record Entry(List<Object[]> rows, Set<String> tables, long bytes) {}
+
+    /**
+     * Initializes a new tools.ViewCache.
+     * @param budgetBytes Estimated memory the cached rows may use, in bytes.
+     */
+    public ViewCache(long budgetBytes){
+        this.budgetBytes = budgetBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Retrieves the rows cached for a view.
+     * @param key Key of the view, built from the view name, sorting mode, row count, and filters.
+     * @return Cached rows, or null if the view is not cached.
+     */
+    public synchronized List<Object[]> get(String key){
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.rows();
+    }
+
+    /**
+     * Retrieves how many changes the given tables have seen. Must be read before a view is queried, and given to put, so
+     * rows read while one of the tables changed aren't cached.
+     * @param tables Names of the tables a view reads from.
+     * @return Total changes seen by the tables.
+     */
+    public synchronized long generation(Set<String> tables){
+        long generation = 0;
+        for (String table : tables){
+            generation += generations.getOrDefault(table, 0L);
+        }
+        return generation;
+    }
+
+    /**
+     * @return Estimated memory the cached rows may use, in bytes.
+     */
+    public long getBudgetBytes(){
+        return budgetBytes;
+    }
+
+    /**
+     * Caches the rows of a view. Least recently used entries are evicted until the rows fit within the budget. Rows which
+     * wouldn't fit in an empty cache are not cached, and neither are rows read while one of their tables changed.
+     * @param key Key of the view, built from the view name, sorting mode, row count, and filters.
+     * @param rows Rows of the view. Must not be modified after being cached.
+     * @param tables Names of the tables the rows were read from.
+     * @param generation Generation of the tables, read before the rows were queried.
+     */
+    public synchronized void put(String key, List<Object[]> rows, Set<String> tables, long generation){
+        //An invalidation arrived while the rows were read, so they may be stale.
+        if (generation(tables) != generation) return;
+        long bytes = estimateBytes(key, rows);
+        if (bytes > budgetBytes) return;
+
+        Entry replaced = entries.remove(key);
+        if (replaced != null) usedBytes -= replaced.bytes();
+        //Evict least recently used entries until there is room.
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (usedBytes + bytes > budgetBytes && iterator.hasNext()){
+            usedBytes -= iterator.next().bytes();
+            iterator.remove();
+            evictions++;
+        }
+        entries.put(key, new Entry(rows, tables, bytes));
+        usedBytes += bytes;
+    }
+
+    /**
+     * Removes every entry which was read from one of the changed tables.
+     * @param tables Names of changed tables.
+     */
+    @Override
+    public synchronized void tablesChanged(Set<String> tables){
+        for (String table : tables){
+            generations.merge(table, 1L, Long::sum);
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()){
+            Entry entry = iterator.next();
+            for (String table : tables){
+                if (entry.tables().contains(table)) {
+                    usedBytes -= entry.bytes();
+                    iterator.remove();
+                    invalidations++;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the cache hit ratio and memory use.
+     */
+    public synchronized void printStatistics(){
+        long lookups = hits + misses;
+        System.out.printf("""
+                [!] Now displaying view cache statistics.
+
+                ENTRIES: %d
+                MEMORY: %.1f KB OF %.1f KB (%.1f%%)
+                HITS: %d | MISSES: %d | HIT RATIO: %.1f%%
+                EVICTIONS: %d | INVALIDATIONS: %d
+                """,
+                entries.size(),
+                usedBytes / 1024.0,
+                budgetBytes / 1024.0,
+                (usedBytes * 100.0) / budgetBytes,
+                hits,
+                misses,
+                lookups == 0 ? 0.0 : (hits * 100.0) / lookups,
+                evictions,
+                invalidations);
+    }
+
+    /**
+     * Estimates the memory used by a cached view. Estimates follow the usual sizes of objects on a 64-bit JVM.
+     * @param key Key of the view.
+     * @param rows Rows of the view.
+     * @return Estimated size in bytes.
+     */
+    private static long estimateBytes(String key, List<Object[]> rows){
+        long bytes = 64 + estimateBytes(key);
+        for (Object[] row : rows){
+            bytes += estimateBytes(row);
+        }
+        return bytes;
+    }
+
+    /**
+     * Estimates the memory used by a cached row, so rows being read can be checked against the budget.
+     * @param row Row of a view.
+     * @return Estimated size in bytes.
+     */
+    static long estimateBytes(Object[] row){
+        //Array header and references.
+        long bytes = 16 + (8L * row.length);
+        for (Object value : row){
+            bytes += estimateBytes(value);
+        }
+        return bytes;
+    }
+    private static long estimateBytes(Object value){
+        if (value == null || value instanceof Boolean) return 0; //Booleans are shared instances.
+        if (value instanceof String string) return 40 + (2L * string.length());
+        if (value instanceof BigDecimal) return 40;
+        if (value instanceof java.util.Date) return 24;
+        return 16;
+    }
+}
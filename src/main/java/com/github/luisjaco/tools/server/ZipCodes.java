@@ -0,0 +1,179 @@
+package com.github.luisjaco.tools.server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The tools.ZipCodes class holds the zip code reference used to fill in cities, with prefix tries for autocompleting by zip
+ * code or by city name. The reference is a gzipped CSV with the header "zip,city,state" where city is lowercase and state is
+ * the state's abbreviation. On first use, every US zip code is downloaded from the GeoNames postal code export (CC BY 4.0)
+ * and kept in zip_codes.csv.gz in the working directory, which can also be replaced by another dataset in the same format.
+ * Without a download, the bundled seed covering Long Island, NY, where the sample data is, is used instead.
+ */
+public class ZipCodes {
+    public static final String RESOURCE = "/zip_codes.csv.gz";
+    //GeoNames export of US postal codes, overridable with -Dmowdata.zipcodes.url for mirrors.
+    public static final String SOURCE_URL = System.getProperty("mowdata.zipcodes.url",
+            "https://download.geonames.org/export/zip/US.zip");
+    //Where the downloaded reference is kept, relative to the working directory.
+    public static final Path DOWNLOADED = Path.of("zip_codes.csv.gz");
+    //The bundled seed holds about a hundred zip codes, and the full reference over 40,000.
+    public static final int FULL_MIN_ROWS = 10_000;
+    //The download is tried once per run, so an offline start doesn't wait on it again.
+    private static boolean downloadTried;
+
+    /**
+     * A zip code and the city and state it belongs to.
+     * @param state Abbreviation of the state (ex: NY).
+     */
+    public record ZipCode(String zip, String city, String state) {}
+
+    private final PrefixTrie<ZipCode> byZip = new PrefixTrie<>();
+    private final PrefixTrie<ZipCode> byCity = new PrefixTrie<>();
+    private int size;
+
+    public void add(ZipCode zipCode){
+        byZip.put(zipCode.zip(), zipCode);
+        byCity.put(zipCode.city(), zipCode);
+        size++;
+    }
+
+    /**
+     * Finds the zip codes matching a typed prefix.
+     * @param prefix Start of a zip code (ex: 118), or start of a city name (ex: hicks).
+     * @param limit Maximum number of zip codes to return.
+     * @return Zip codes found, sorted by zip code when searching by zip code and by city otherwise.
+     */
+    public List<ZipCode> lookup(String prefix, int limit){
+        prefix = prefix.trim().toLowerCase();
+        if (!prefix.isEmpty() && Character.isDigit(prefix.charAt(0))) return byZip.complete(prefix, limit);
+        return byCity.complete(prefix, limit);
+    }
+
+    /**
+     * @return Number of zip codes held.
+     */
+    public int size(){
+        return size;
+    }
+
+    /**
+     * Downloads the full reference into the DOWNLOADED file, unless it is already there. GeoNames lists each zip code with its
+     * place name and state, which are kept; rows without a 5 digit zip code or a state are skipped.
+     * @param out Where errors are reported.
+     * @return Whether the full reference is available.
+     */
+    public static synchronized boolean download(PrintStream out){
+        if (Files.exists(DOWNLOADED)) return true;
+        if (downloadTried) return false;
+        downloadTried = true;
+        out.printf("[!] Downloading zip codes from %s.\n", SOURCE_URL);
+        Path partial = Path.of(DOWNLOADED + ".part");
+        try {
+            HttpClient client = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+            HttpRequest request = HttpRequest.newBuilder(URI.create(SOURCE_URL)).timeout(Duration.ofMinutes(2)).build();
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("HTTP status " + response.statusCode());
+            }
+            int written = 0;
+            try (ZipInputStream zip = new ZipInputStream(response.body());
+                 BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                         new GZIPOutputStream(Files.newOutputStream(partial)), StandardCharsets.UTF_8))) {
+                //The export also holds a readme.
+                ZipEntry entry = zip.getNextEntry();
+                while (entry != null && !entry.getName().equals("US.txt")) entry = zip.getNextEntry();
+                if (entry == null) throw new IOException("US.txt not found in the download.");
+                BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+                writer.write("zip,city,state\n");
+                //Tab separated: country, zip, place name, state name, state abbreviation, then county and coordinates.
+                Set<String> seen = new HashSet<>();
+                String line;
+                while ((line = reader.readLine()) != null){
+                    String[] fields = line.split("\t");
+                    if (fields.length < 5 || !fields[1].matches("\\d{5}") || fields[4].length() != 2) continue;
+                    //Commas and quotes would break the CSV, and the zip_codes table holds cities up to 50 characters.
+                    String city = fields[2].toLowerCase().replaceAll("[,\"]", "");
+                    if (city.isBlank() || city.length() > 50 || !seen.add(fields[1])) continue;
+                    writer.write("%s,%s,%s\n".formatted(fields[1], city, fields[4]));
+                    written++;
+                }
+            }
+            //A download cut short is never mistaken for the full reference.
+            if (written < FULL_MIN_ROWS) throw new IOException("only %d zip codes were found".formatted(written));
+            Files.move(partial, DOWNLOADED, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            out.printf("[!] Downloaded %d zip codes.\n", written);
+            return true;
+        } catch (IOException | InterruptedException e) {
+            out.println("[!] Error occurred while attempting to download zip codes:\n" + e);
+            out.printf("[!] Using the bundled Long Island zip codes. Place a full reference at %s to use it instead.\n",
+                    DOWNLOADED.toAbsolutePath());
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException deleteError) {
+                //A leftover partial file is replaced by the next download.
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Opens the full reference, downloading it on first use, or the bundled seed if it can't be downloaded.
+     * @param out Where errors are reported.
+     * @return CSV text of the reference, decompressed, starting with its header.
+     * @throws IOException If the reference is missing or can't be read.
+     */
+    public static InputStream openReference(PrintStream out) throws IOException {
+        if (download(out)) return new GZIPInputStream(Files.newInputStream(DOWNLOADED));
+        InputStream compressed = ZipCodes.class.getResourceAsStream(RESOURCE);
+        if (compressed == null) throw new IOException(RESOURCE + " is missing.");
+        return new GZIPInputStream(compressed);
+    }
+
+    /**
+     * Reads every zip code of the reference.
+     * @param out Where errors are reported.
+     * @return Zip codes of the reference, or an empty list if it couldn't be read.
+     */
+    public static List<ZipCode> readReference(PrintStream out){
+        List<ZipCode> zipCodes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(openReference(out), StandardCharsets.UTF_8))) {
+            //Skipping the header.
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null){
+                String[] fields = line.split(",");
+                if (fields.length != 3) continue;
+                zipCodes.add(new ZipCode(fields[0], fields[1], fields[2]));
+            }
+        } catch (IOException e) {
+            out.println("[!] Error occurred while attempting to read the zip code reference:\n" + e);
+        }
+        return zipCodes;
+    }
+}